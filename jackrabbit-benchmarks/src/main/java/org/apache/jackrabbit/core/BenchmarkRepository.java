@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.SimpleCredentials;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+
+/**
+ * Repository in a temporary directory with the default configuration, for
+ * benchmarks of code paths that depend on a fully initialized repository.
+ * The repository is created in the setup phase of a benchmark, so its
+ * initialization is not included in the measurements.
+ */
+public class BenchmarkRepository {
+
+    private final File directory;
+
+    private final RepositoryImpl repository;
+
+    /**
+     * Creates and starts a new repository in a temporary directory.
+     *
+     * @throws IOException if the directory cannot be created.
+     * @throws RepositoryException if the repository cannot be started.
+     */
+    public BenchmarkRepository() throws IOException, RepositoryException {
+        directory = File.createTempFile("jackrabbit-benchmark", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Unable to create directory: " + directory);
+        }
+        repository = RepositoryImpl.create(RepositoryConfig.install(directory));
+    }
+
+    /**
+     * @return the repository.
+     */
+    public RepositoryImpl getRepository() {
+        return repository;
+    }
+
+    /**
+     * @return the internal components of the repository.
+     */
+    public RepositoryContext getContext() {
+        return repository.getRepositoryContext();
+    }
+
+    /**
+     * Logs in to the default workspace.
+     *
+     * @param userId the user id, which is also used as password.
+     * @return the session.
+     * @throws RepositoryException if the login fails.
+     */
+    public SessionImpl login(String userId) throws RepositoryException {
+        return (SessionImpl) repository.login(
+                new SimpleCredentials(userId, userId.toCharArray()));
+    }
+
+    /**
+     * Shuts down the repository and deletes its directory.
+     *
+     * @throws IOException if the directory cannot be deleted.
+     */
+    public void shutdown() throws IOException {
+        repository.shutdown();
+        FileUtils.deleteDirectory(directory);
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.apache.jackrabbit.core.state.ItemStateException;
+import org.apache.jackrabbit.core.state.ItemStateManager;
+import org.apache.jackrabbit.core.state.NoSuchItemStateException;
+import org.apache.jackrabbit.core.state.NodeReferences;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the resolution of node paths by the {@link CachingHierarchyManager}
+ * used by sessions, compared to the uncached {@link HierarchyManagerImpl}.
+ * The node states are kept in memory, so that only the cost of the path
+ * resolution itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HierarchyManagerBenchmark {
+
+    /**
+     * Depth of the node tree.
+     */
+    @Param({"5"})
+    public int depth;
+
+    /**
+     * Number of child nodes of each node in the tree.
+     */
+    @Param({"5"})
+    public int fanout;
+
+    private final Map<ItemId, ItemState> states =
+        new HashMap<ItemId, ItemState>();
+
+    private final List<NodeId> leaves = new ArrayList<NodeId>();
+
+    private CachingHierarchyManager cachingHierarchyManager;
+
+    private HierarchyManagerImpl hierarchyManager;
+
+    @Setup
+    public void setUp() throws RepositoryException {
+        NodeState root = createNode(RepositoryImpl.ROOT_NODE_ID, null);
+        createChildren(root, depth);
+
+        ItemStateManager provider = new ItemStateManager() {
+            public ItemState getItemState(ItemId id)
+                    throws NoSuchItemStateException {
+                ItemState state = states.get(id);
+                if (state == null) {
+                    throw new NoSuchItemStateException(id.toString());
+                }
+                return state;
+            }
+            public boolean hasItemState(ItemId id) {
+                return states.containsKey(id);
+            }
+            public NodeReferences getNodeReferences(NodeId id)
+                    throws ItemStateException {
+                throw new NoSuchItemStateException(id.toString());
+            }
+            public boolean hasNodeReferences(NodeId id) {
+                return false;
+            }
+        };
+        cachingHierarchyManager = new CachingHierarchyManager(
+                RepositoryImpl.ROOT_NODE_ID, provider);
+        hierarchyManager = new HierarchyManagerImpl(
+                RepositoryImpl.ROOT_NODE_ID, provider);
+
+        // warm up the cache
+        for (NodeId id : leaves) {
+            cachingHierarchyManager.getPath(id);
+        }
+    }
+
+    @Benchmark
+    public Path cachedGetPath() throws RepositoryException {
+        return cachingHierarchyManager.getPath(randomLeaf());
+    }
+
+    @Benchmark
+    public Path uncachedGetPath() throws RepositoryException {
+        return hierarchyManager.getPath(randomLeaf());
+    }
+
+    private NodeId randomLeaf() {
+        return leaves.get(ThreadLocalRandom.current().nextInt(leaves.size()));
+    }
+
+    private NodeState createNode(NodeId id, NodeId parentId) {
+        NodeState state = new NodeState(id, NameConstants.NT_UNSTRUCTURED,
+                parentId, ItemState.STATUS_EXISTING, false);
+        states.put(id, state);
+        return state;
+    }
+
+    private void createChildren(NodeState parent, int levels) {
+        if (levels == 0) {
+            leaves.add(parent.getNodeId());
+            return;
+        }
+        for (int i = 0; i < fanout; i++) {
+            Name name = NameFactoryImpl.getInstance().create(
+                    Name.NS_DEFAULT_URI, "node" + i);
+            NodeState child = createNode(NodeId.randomId(), parent.getNodeId());
+            parent.addChildNodeEntry(name, child.getNodeId());
+            createChildren(child, levels - 1);
+        }
+    }
+
+}
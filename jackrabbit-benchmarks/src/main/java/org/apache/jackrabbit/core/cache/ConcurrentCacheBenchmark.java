@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures lookups and updates of a {@link ConcurrentCache}, the cache
+ * implementation used for node bundles and item states. Run with multiple
+ * threads (<code>-t</code>) to measure contention between cache users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentCacheBenchmark {
+
+    /**
+     * Number of distinct keys that are accessed.
+     */
+    @Param({"10000"})
+    public int keys;
+
+    /**
+     * Maximum number of entries in the cache, relative to the number of
+     * keys, in percent. Values below 100 cause evictions and misses.
+     */
+    @Param({"50", "200"})
+    public int capacity;
+
+    private ConcurrentCache<NodeId, Object> cache;
+
+    private NodeId[] ids;
+
+    @Setup
+    public void setUp() {
+        ids = new NodeId[keys];
+        for (int i = 0; i < keys; i++) {
+            ids[i] = NodeId.randomId();
+        }
+        cache = new ConcurrentCache<NodeId, Object>("benchmark");
+        cache.setMaxMemorySize((long) keys * capacity / 100 * 100);
+        for (NodeId id : ids) {
+            cache.put(id, id, 100);
+        }
+    }
+
+    @Benchmark
+    public Object get() {
+        NodeId id = ids[ThreadLocalRandom.current().nextInt(keys)];
+        return cache.get(id);
+    }
+
+    @Benchmark
+    public Object put() {
+        NodeId id = ids[ThreadLocalRandom.current().nextInt(keys)];
+        return cache.put(id, id, 100);
+    }
+
+    @Benchmark
+    public Object getOrPut() {
+        NodeId id = ids[ThreadLocalRandom.current().nextInt(keys)];
+        Object value = cache.get(id);
+        if (value == null) {
+            cache.put(id, id, 100);
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.PropertyEntry;
+import org.apache.jackrabbit.core.value.InternalValue;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the serialization and deserialization of node bundles with the
+ * {@link BundleWriter} and {@link BundleReader} classes, as done by the
+ * bundle persistence managers for every bundle that is stored or loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BundleBindingBenchmark {
+
+    /**
+     * Number of child nodes of the bundle.
+     */
+    @Param({"0", "10", "1000"})
+    public int childNodes;
+
+    /**
+     * Number of string properties of the bundle, in addition to a few
+     * properties of other types.
+     */
+    @Param({"10"})
+    public int properties;
+
+    private BundleBinding binding;
+
+    private NodePropBundle bundle;
+
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws IOException {
+        binding = new BundleBinding(
+                new ErrorHandling(), null,
+                new HashMapIndex(), new HashMapIndex(), null);
+
+        NodeId id = NodeId.randomId();
+        bundle = new NodePropBundle(id);
+        bundle.setParentId(NodeId.randomId());
+        bundle.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        bundle.setReferenceable(false);
+        addProperty(id, NameConstants.JCR_PRIMARYTYPE, PropertyType.NAME,
+                InternalValue.create(NameConstants.NT_UNSTRUCTURED));
+        addProperty(id, NameConstants.JCR_CREATED, PropertyType.DATE,
+                InternalValue.create(Calendar.getInstance()));
+        addProperty(id, NameConstants.JCR_TITLE, PropertyType.STRING,
+                InternalValue.create("Benchmark"));
+        for (int i = 0; i < properties; i++) {
+            Name name = NameFactoryImpl.getInstance().create(
+                    Name.NS_DEFAULT_URI, "property" + i);
+            addProperty(id, name, PropertyType.STRING,
+                    InternalValue.create("value of property " + i));
+        }
+        for (int i = 0; i < childNodes; i++) {
+            Name name = NameFactoryImpl.getInstance().create(
+                    Name.NS_DEFAULT_URI, "child" + i);
+            bundle.addChildNodeEntry(name, NodeId.randomId());
+        }
+
+        serialized = write();
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        binding.writeBundle(out, bundle);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public NodePropBundle read() throws IOException {
+        return binding.readBundle(
+                new ByteArrayInputStream(serialized), bundle.getId());
+    }
+
+    private void addProperty(
+            NodeId id, Name name, int type, InternalValue value) {
+        PropertyEntry entry = new PropertyEntry(new PropertyId(id, name));
+        entry.setType(type);
+        entry.setMultiValued(false);
+        entry.setValues(new InternalValue[] {value});
+        bundle.addProperty(entry);
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.core.BenchmarkRepository;
+import org.apache.jackrabbit.core.RepositoryContext;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.query.PropertyTypeRegistry;
+import org.apache.jackrabbit.spi.commons.query.DefaultQueryNodeFactory;
+import org.apache.jackrabbit.spi.commons.query.QueryParser;
+import org.apache.jackrabbit.spi.commons.query.QueryRootNode;
+import org.apache.lucene.analysis.Analyzer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the translation of parsed XPath and SQL queries into Lucene
+ * queries by the {@link LuceneQueryBuilder}. The statements are parsed in
+ * the setup phase, so that only the translation is measured. The statements
+ * do not contain path or reference constraints, which would require access
+ * to the shared item state manager.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LuceneQueryBuilderBenchmark {
+
+    @Param({"property", "fulltext", "sql"})
+    public String statement;
+
+    private BenchmarkRepository repository;
+
+    private SessionImpl session;
+
+    private QueryRootNode root;
+
+    private NamespaceMappings nsMappings;
+
+    private Analyzer analyzer;
+
+    private PropertyTypeRegistry propReg;
+
+    @Setup
+    public void setUp() throws Exception {
+        repository = new BenchmarkRepository();
+        session = repository.login("admin");
+
+        String stmt;
+        String language;
+        if ("property".equals(statement)) {
+            stmt = "//element(*, nt:unstructured)"
+                + "[@title = 'foo' and (@count > 10 or @count < 0)]"
+                + " order by @title";
+            language = Query.XPATH;
+        } else if ("fulltext".equals(statement)) {
+            stmt = "//*[jcr:contains(., 'apache jackrabbit')"
+                + " and jcr:like(@jcr:title, 'bench%')] order by jcr:score()";
+            language = Query.XPATH;
+        } else {
+            stmt = "SELECT * FROM nt:unstructured"
+                + " WHERE title = 'foo' AND CONTAINS(*, 'bar')"
+                + " ORDER BY title";
+            language = Query.SQL;
+        }
+        root = QueryParser.parse(stmt, language, session,
+                new DefaultQueryNodeFactory(
+                        SearchIndex.VALID_SYSTEM_INDEX_NODE_TYPE_NAMES));
+
+        RepositoryContext context = repository.getContext();
+        nsMappings = new NSRegistryBasedNamespaceMappings(
+                context.getNamespaceRegistry());
+        analyzer = new JackrabbitAnalyzer();
+        propReg = new PropertyTypeRegistry(context.getNodeTypeRegistry());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        session.logout();
+        repository.shutdown();
+    }
+
+    @Benchmark
+    public org.apache.lucene.search.Query createQuery()
+            throws RepositoryException {
+        return LuceneQueryBuilder.createQuery(root, session, null,
+                nsMappings, analyzer, propReg, null, IndexFormatVersion.V3,
+                new PerQueryCache());
+    }
+
+}
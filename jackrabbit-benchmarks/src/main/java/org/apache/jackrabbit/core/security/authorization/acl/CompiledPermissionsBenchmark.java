@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authorization.acl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.security.Privilege;
+
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.commons.jackrabbit.authorization.AccessControlUtils;
+import org.apache.jackrabbit.core.BenchmarkRepository;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.security.AccessManager;
+import org.apache.jackrabbit.core.security.authorization.Permission;
+import org.apache.jackrabbit.spi.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures read permission checks of a non-admin session, which are
+ * evaluated by the {@link CompiledPermissionsImpl} of the default access
+ * control provider. Half of the checked paths are below a node where read
+ * access is denied, so both the grant and the deny path are covered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiledPermissionsBenchmark {
+
+    private static final String USER_ID = "benchmark";
+
+    /**
+     * Number of nodes below each of the granted and the denied subtree.
+     */
+    @Param({"100"})
+    public int nodes;
+
+    private BenchmarkRepository repository;
+
+    private SessionImpl admin;
+
+    private SessionImpl session;
+
+    private AccessManager accessManager;
+
+    private Path[] paths;
+
+    @Setup
+    public void setUp() throws Exception {
+        repository = new BenchmarkRepository();
+        admin = repository.login("admin");
+
+        User user = admin.getUserManager().createUser(USER_ID, USER_ID);
+        Node root = admin.getRootNode().addNode("benchmark");
+        Node granted = root.addNode("granted");
+        Node denied = root.addNode("denied");
+        for (int i = 0; i < nodes; i++) {
+            granted.addNode("node" + i);
+            denied.addNode("node" + i);
+        }
+        AccessControlUtils.addAccessControlEntry(
+                admin, root.getPath(), user.getPrincipal(),
+                new String[] {Privilege.JCR_READ}, true);
+        AccessControlUtils.addAccessControlEntry(
+                admin, denied.getPath(), user.getPrincipal(),
+                new String[] {Privilege.JCR_READ}, false);
+        admin.save();
+
+        session = repository.login(USER_ID);
+        accessManager = session.getAccessManager();
+        paths = new Path[nodes * 2];
+        for (int i = 0; i < nodes; i++) {
+            paths[i * 2] = session.getQPath(granted.getPath() + "/node" + i);
+            paths[i * 2 + 1] = session.getQPath(denied.getPath() + "/node" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        session.logout();
+        admin.logout();
+        repository.shutdown();
+    }
+
+    @Benchmark
+    public boolean isGranted() throws RepositoryException {
+        Path path = paths[ThreadLocalRandom.current().nextInt(paths.length)];
+        return accessManager.isGranted(path, Permission.READ);
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ISMLocking.ReadLock;
+import org.apache.jackrabbit.core.state.ISMLocking.WriteLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures acquiring and releasing item state locks with the available
+ * {@link ISMLocking} strategies. The read benchmark should be run with
+ * multiple threads (<code>-t</code>) to measure the scalability of the
+ * read path. The mixed benchmark runs three readers per writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ISMLockingBenchmark {
+
+    @Param({"DefaultISMLocking", "StripedISMLocking", "FineGrainedISMLocking"})
+    public String locking;
+
+    private ISMLocking ismLocking;
+
+    private final NodeId id = NodeId.randomId();
+
+    private final ChangeLog changeLog = new ChangeLog();
+
+    @Setup
+    public void setUp() throws Exception {
+        ismLocking = (ISMLocking) Class.forName(
+                ISMLocking.class.getPackage().getName() + "." + locking)
+                .newInstance();
+    }
+
+    @Benchmark
+    public ReadLock read() throws InterruptedException {
+        ReadLock lock = ismLocking.acquireReadLock(id);
+        lock.release();
+        return lock;
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public ReadLock mixedRead() throws InterruptedException {
+        return read();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public WriteLock mixedWrite() throws InterruptedException {
+        WriteLock lock = ismLocking.acquireWriteLock(changeLog);
+        lock.release();
+        return lock;
+    }
+
+}
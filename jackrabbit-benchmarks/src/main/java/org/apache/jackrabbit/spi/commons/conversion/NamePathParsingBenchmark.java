@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.spi.commons.conversion;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceMapping;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parsing of names and paths, both in their JCR form with
+ * namespace prefixes (as done for every name and path passed to the JCR
+ * API) and in their internal string form (as done when reading names and
+ * paths from storage or the index).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NamePathParsingBenchmark {
+
+    private static final String JCR_NAME = "jcr:content";
+
+    private static final String EXPANDED_NAME =
+        "{http://www.jcp.org/jcr/1.0}content";
+
+    private static final String JCR_PATH =
+        "/content/dam/projects/benchmark/jcr:content/renditions[2]/original";
+
+    private NamespaceMapping mapping;
+
+    private NamePathResolver resolver;
+
+    private String pathString;
+
+    @Setup
+    public void setUp() throws RepositoryException {
+        mapping = new NamespaceMapping();
+        mapping.setMapping(Name.NS_EMPTY_PREFIX, Name.NS_DEFAULT_URI);
+        mapping.setMapping(Name.NS_JCR_PREFIX, Name.NS_JCR_URI);
+        mapping.setMapping(Name.NS_NT_PREFIX, Name.NS_NT_URI);
+        resolver = new DefaultNamePathResolver(mapping);
+        pathString = resolver.getQPath(JCR_PATH).getString();
+    }
+
+    @Benchmark
+    public Name parseJcrName() throws RepositoryException {
+        return NameParser.parse(
+                JCR_NAME, mapping, NameFactoryImpl.getInstance());
+    }
+
+    @Benchmark
+    public Name createNameFromString() {
+        return NameFactoryImpl.getInstance().create(EXPANDED_NAME);
+    }
+
+    @Benchmark
+    public Path parseJcrPath() throws RepositoryException {
+        return PathParser.parse(
+                JCR_PATH, resolver, PathFactoryImpl.getInstance());
+    }
+
+    @Benchmark
+    public Path createPathFromString() {
+        return PathFactoryImpl.getInstance().create(pathString);
+    }
+
+}
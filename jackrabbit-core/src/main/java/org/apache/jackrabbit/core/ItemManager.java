@@ -18,6 +18,7 @@ package org.apache.jackrabbit.core;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import javax.jcr.AccessDeniedException;
@@ -87,6 +88,12 @@ public class ItemManager implements ItemStateListener {
 
     private static Logger log = LoggerFactory.getLogger(ItemManager.class);
 
+    /**
+     * Number of child nodes that are prefetched at a time while the child
+     * nodes of a node are iterated.
+     */
+    static final int CHILD_NODE_PREFETCH_SIZE = 100;
+
     private final org.apache.jackrabbit.spi.commons.nodetype.NodeDefinitionImpl rootNodeDef;
 
     /**
@@ -759,6 +766,30 @@ public class ItemManager implements ItemStateListener {
         return new LazyItemIterator(sessionContext, childIds, parentId);
     }
 
+    /**
+     * Asks the item state managers to load the given child nodes in one go.
+     * The iterator returned by {@link #getChildNodes(NodeId)} calls this
+     * method with the next {@link #CHILD_NODE_PREFETCH_SIZE} child nodes
+     * before it reads them. Failures are ignored, the nodes will then simply
+     * be loaded one by one.
+     *
+     * @param childIds ids of the child nodes
+     */
+    synchronized void prefetch(List<? extends ItemId> childIds) {
+        if (childIds.size() < 2) {
+            return;
+        }
+        List<NodeId> ids = new ArrayList<NodeId>(childIds.size());
+        for (ItemId id : childIds) {
+            ids.add((NodeId) id);
+        }
+        try {
+            sism.prefetch(ids);
+        } catch (ItemStateException e) {
+            log.debug("failed to prefetch child nodes", e);
+        }
+    }
+
     /**
      * @param parentId
      * @return
@@ -72,6 +72,12 @@ public class LazyItemIterator implements NodeIterator, PropertyIterator {
     /** the position of the next item */
     private int pos;
 
+    /**
+     * the position up to which the child nodes have been prefetched
+     * (when returning children nodes)
+     */
+    private int prefetched;
+
     /** prefetched item to be returned on <code>{@link #next()}</code> */
     private Item next;
 
@@ -114,6 +120,9 @@ public class LazyItemIterator implements NodeIterator, PropertyIterator {
         // reset
         next = null;
         while (next == null && pos < idList.size()) {
+            if (parentId != null && pos >= prefetched) {
+                prefetchChildNodes();
+            }
             ItemId id = idList.get(pos);
             try {
                 if (parentId != null) {
@@ -124,7 +133,7 @@ public class LazyItemIterator implements NodeIterator, PropertyIterator {
             } catch (ItemNotFoundException e) {
                 log.debug("ignoring nonexistent item " + id);
                 // remove invalid id
-                idList.remove(pos);
+                removeId();
 
                 // maybe fix the root cause
                 if (parentId != null && sessionContext.getSessionImpl().autoFixCorruptions()) {
@@ -147,17 +156,38 @@ public class LazyItemIterator implements NodeIterator, PropertyIterator {
             } catch (AccessDeniedException e) {
                 log.debug("ignoring nonexistent item " + id);
                 // remove invalid id
-                idList.remove(pos);
+                removeId();
                 // try next
             } catch (RepositoryException e) {
                 log.error("failed to fetch item " + id + ", skipping...", e);
                 // remove invalid id
-                idList.remove(pos);
+                removeId();
                 // try next
             }
         }
     }
 
+    /**
+     * Asks the item manager to load the next
+     * {@link ItemManager#CHILD_NODE_PREFETCH_SIZE} child nodes in one go,
+     * starting with the child node at the current position.
+     */
+    private void prefetchChildNodes() {
+        prefetched = Math.min(
+                idList.size(), pos + ItemManager.CHILD_NODE_PREFETCH_SIZE);
+        itemMgr.prefetch(idList.subList(pos, prefetched));
+    }
+
+    /**
+     * Removes the id at the current position.
+     */
+    private void removeId() {
+        idList.remove(pos);
+        if (pos < prefetched) {
+            prefetched--;
+        }
+    }
+
     //---------------------------------------------------------< NodeIterator >
     /**
      * {@inheritDoc}
@@ -224,7 +254,7 @@ public class LazyItemIterator implements NodeIterator, PropertyIterator {
             while (!itemMgr.itemExists(id)) {
                 log.debug("ignoring nonexistent item " + id);
                 // remove invalid id
-                idList.remove(pos);
+                removeId();
                 if (pos >= idList.size()) {
                     // skipped past last item
                     throw new NoSuchElementException();
@@ -41,7 +41,7 @@ public class ConcurrentCache<K, V> extends AbstractCache {
      * {@link Runtime#availableProcessors()} call is somewhat expensive at
      * least in some environments.
      */
-    private static int DEFAULT_NUMBER_OF_SEGMENTS =
+    private static final int DEFAULT_NUMBER_OF_SEGMENTS =
         Runtime.getRuntime().availableProcessors();
 
     private static class E<V> {
@@ -57,25 +57,63 @@ public class ConcurrentCache<K, V> extends AbstractCache {
 
     }
 
+    @SuppressWarnings("serial")
+    private static class Segment<K, V> extends LinkedHashMap<K, E<V>> {
+
+        private final ConcurrentCache<K, V> cache;
+
+        /**
+         * Work for the entries evicted while holding the lock of this
+         * segment, or <code>null</code>.
+         */
+        private List<Runnable> evictions;
+
+        public Segment(ConcurrentCache<K, V> cache) {
+            super(16, 0.75f, true);
+            this.cache = cache;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, E<V>> eldest) {
+            if (cache.isTooBig()) {
+                cache.recordSizeChange(-eldest.getValue().size);
+                Runnable eviction =
+                    cache.evicted(eldest.getKey(), eldest.getValue().value);
+                if (eviction != null) {
+                    if (evictions == null) {
+                        evictions = new ArrayList<Runnable>();
+                    }
+                    evictions.add(eviction);
+                }
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        /**
+         * Returns and forgets the work for the evicted entries. Must be
+         * called while holding the lock of this segment.
+         *
+         * @return work for the evicted entries, or <code>null</code>
+         */
+        public List<Runnable> takeEvictions() {
+            List<Runnable> taken = evictions;
+            evictions = null;
+            return taken;
+        }
+
+    }
+
     private final String name;
-    private final Map<K, E<V>>[] segments;
+    private final Segment<K, V>[] segments;
 
-    @SuppressWarnings({ "unchecked", "serial" })
+    @SuppressWarnings("unchecked")
     public ConcurrentCache(String name, int numberOfSegments) {
         this.name = name;
-        this.segments = new Map[numberOfSegments];
+        this.segments = new Segment[numberOfSegments];
         for (int i = 0; i < segments.length; i++) {
-            segments[i] = new LinkedHashMap<K, E<V>>(16, 0.75f, true) {
-                @Override
-                protected boolean removeEldestEntry(Map.Entry<K, E<V>> eldest) {
-                    if (isTooBig()) {
-                        recordSizeChange(-eldest.getValue().size);
-                        return true;
-                    } else {
-                        return false;
-                    }
-                }
-            };
+            segments[i] = new Segment<K, V>(this);
         }
     }
 
@@ -92,7 +130,7 @@ public class ConcurrentCache<K, V> extends AbstractCache {
      * @param key entry key
      * @return cache segment
      */
-    private Map<K, E<V>> getSegment(K key) {
+    private Segment<K, V> getSegment(K key) {
         // Unsigned shift right to prevent negative indexes and to
         // prevent too similar keys to all get stored in the same segment
         return segments[(key.hashCode() >>> 1) % segments.length];
@@ -106,7 +144,7 @@ public class ConcurrentCache<K, V> extends AbstractCache {
      *         <code>false</code> otherwise
      */
     public boolean containsKey(K key) {
-        Map<K, E<V>> segment = getSegment(key);
+        Segment<K, V> segment = getSegment(key);
         synchronized (segment) {
             return segment.containsKey(key);
         }
@@ -121,7 +159,7 @@ public class ConcurrentCache<K, V> extends AbstractCache {
     public V get(K key) {
         recordCacheAccess();
 
-        Map<K, E<V>> segment = getSegment(key);
+        Segment<K, V> segment = getSegment(key);
         synchronized (segment) {
             E<V> entry = segment.get(key);
             if (entry != null) {
@@ -162,12 +200,15 @@ public class ConcurrentCache<K, V> extends AbstractCache {
      */
     public V put(K key, V value, long size) {
         E<V> previous;
+        List<Runnable> evictions;
 
-        Map<K, E<V>> segment = getSegment(key);
+        Segment<K, V> segment = getSegment(key);
         synchronized (segment) {
             recordSizeChange(size);
             previous = segment.put(key, new E<V>(value, size));
+            evictions = segment.takeEvictions();
         }
+        runEvictions(evictions);
 
         if (previous != null) {
             recordSizeChange(-previous.size);
@@ -186,7 +227,7 @@ public class ConcurrentCache<K, V> extends AbstractCache {
      * @return removed entry, or <code>null</code> if not found
      */
     public V remove(K key) {
-        Map<K, E<V>> segment = getSegment(key);
+        Segment<K, V> segment = getSegment(key);
         synchronized (segment) {
             E<V> entry = segment.remove(key);
             if (entry != null) {
@@ -215,6 +256,36 @@ public class ConcurrentCache<K, V> extends AbstractCache {
         }
     }
 
+    /**
+     * Called when the given entry is evicted from the cache because the
+     * cache is too big. The call is made while holding the lock of the
+     * cache segment of the entry, so it should only capture the state
+     * needed for expensive work and return that work, which is run by the
+     * same thread once the lock has been released. The default
+     * implementation returns <code>null</code>.
+     *
+     * @param key entry key
+     * @param value entry value
+     * @return work to run after the segment lock is released,
+     *         or <code>null</code>
+     */
+    protected Runnable evicted(K key, V value) {
+        return null;
+    }
+
+    /**
+     * Runs the work returned by {@link #evicted(Object, Object)}.
+     *
+     * @param evictions work for the evicted entries, or <code>null</code>
+     */
+    private void runEvictions(List<Runnable> evictions) {
+        if (evictions != null) {
+            for (Runnable eviction : evictions) {
+                eviction.run();
+            }
+        }
+    }
+
     /**
      * Checks if the cache size is zero.
      */
@@ -239,6 +310,7 @@ public class ConcurrentCache<K, V> extends AbstractCache {
         // Semi-random start index to prevent bias against the first segments
         int start = (int) Math.abs(getAccessCount() % segments.length);
         for (int i = start; isTooBig(); i = (i + 1) % segments.length) {
+            List<Runnable> evictions;
             synchronized (segments[i]) {
                 Iterator<Map.Entry<K, E<V>>> iterator =
                     segments[i].entrySet().iterator();
@@ -249,7 +321,9 @@ public class ConcurrentCache<K, V> extends AbstractCache {
                     segments[i].remove(entry.getKey());
                     segments[i].put(entry.getKey(), entry.getValue());
                 }
+                evictions = segments[i].takeEvictions();
             }
+            runEvictions(evictions);
         }
     }
 
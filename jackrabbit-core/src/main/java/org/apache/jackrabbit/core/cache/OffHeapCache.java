@@ -0,0 +1,329 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of serialized values that keeps the data outside of the Java heap,
+ * in direct byte buffers. Only the small per-entry bookkeeping objects live
+ * on the heap, so the cache can grow to several gigabytes without adding to
+ * the garbage collection cost. The maximum size is limited by the
+ * <code>-XX:MaxDirectMemorySize</code> setting of the JVM.
+ * <p>
+ * The cache is split into segments to minimize lock contention. Every
+ * segment is a ring buffer that is filled sequentially; once it is full
+ * the oldest entries are overwritten, which makes the eviction algorithm
+ * first-in-first-out. None of the methods of this class are synchronized,
+ * but they are all thread-safe.
+ */
+public class OffHeapCache<K> extends AbstractCache {
+
+    /**
+     * The largest size of a single segment, limited by the int addressing
+     * of {@link ByteBuffer}.
+     */
+    private static final long MAX_SEGMENT_SIZE = 1024 * 1024 * 1024;
+
+    /**
+     * Default number of cache segments to use. See
+     * {@link ConcurrentCache} for the rationale.
+     */
+    private static final int DEFAULT_NUMBER_OF_SEGMENTS =
+        Runtime.getRuntime().availableProcessors();
+
+    private final String name;
+
+    private final Segment<K>[] segments;
+
+    /**
+     * Number of entries removed and segments cleared so far. Only
+     * incremented while holding the lock of the affected segment.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Creates a new off-heap cache.
+     *
+     * @param name the name of the cache
+     * @param size the amount of off-heap memory to allocate, in bytes
+     */
+    @SuppressWarnings("unchecked")
+    public OffHeapCache(String name, long size) {
+        this.name = name;
+        int count = (int) Math.max(
+                DEFAULT_NUMBER_OF_SEGMENTS,
+                (size + MAX_SEGMENT_SIZE - 1) / MAX_SEGMENT_SIZE);
+        int segmentSize = (int) (size / count);
+        this.segments = new Segment[count];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment<K>(segmentSize);
+        }
+        super.setMaxMemorySize((long) segmentSize * count);
+    }
+
+    private Segment<K> getSegment(K key) {
+        return segments[(key.hashCode() >>> 1) % segments.length];
+    }
+
+    /**
+     * Returns a copy of the identified cache entry.
+     *
+     * @param key entry key
+     * @return entry data, or <code>null</code> if not found
+     */
+    public byte[] get(K key) {
+        recordCacheAccess();
+        byte[] data = getSegment(key).get(key);
+        if (data == null) {
+            recordCacheMiss();
+        }
+        return data;
+    }
+
+    /**
+     * Adds the given entry to the cache, possibly overwriting the oldest
+     * entries of the cache segment. Entries larger than a segment are
+     * ignored.
+     *
+     * @param key entry key
+     * @param data entry data
+     */
+    public void put(K key, byte[] data) {
+        recordSizeChange(getSegment(key).put(key, data));
+    }
+
+    /**
+     * Returns the number of invalidations so far, to be passed to
+     * {@link #put(Object, byte[], long)}.
+     *
+     * @return invalidation count
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * Adds the given entry to the cache, unless an entry has been removed
+     * or the cache has been cleared since the given invalidation count was
+     * read. This allows data that was read before a concurrent invalidation
+     * to be cached outside of the lock that orders the two. Since all
+     * invalidations are counted, the entry may be skipped needlessly.
+     *
+     * @param key entry key
+     * @param data entry data
+     * @param invalidationCount result of {@link #getInvalidationCount()}
+     * @return <code>true</code> if the entry was added
+     */
+    public boolean put(K key, byte[] data, long invalidationCount) {
+        Segment<K> segment = getSegment(key);
+        synchronized (segment) {
+            if (invalidations.get() != invalidationCount) {
+                return false;
+            }
+            recordSizeChange(segment.put(key, data));
+        }
+        return true;
+    }
+
+    /**
+     * Removes the identified entry from the cache.
+     *
+     * @param key entry key
+     */
+    public void remove(K key) {
+        Segment<K> segment = getSegment(key);
+        synchronized (segment) {
+            invalidations.incrementAndGet();
+            recordSizeChange(segment.remove(key));
+        }
+    }
+
+    /**
+     * Clears all segments of the cache.
+     */
+    public void clear() {
+        for (Segment<K> segment : segments) {
+            synchronized (segment) {
+                invalidations.incrementAndGet();
+                recordSizeChange(segment.clear());
+            }
+        }
+    }
+
+    /**
+     * The size of an off-heap cache is fixed when it is created, so this
+     * method does nothing.
+     */
+    @Override
+    public void setMaxMemorySize(long size) {
+        // the buffers are allocated up front
+    }
+
+    public long getElementCount() {
+        long count = 0;
+        for (Segment<K> segment : segments) {
+            count += segment.size();
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + getClass().getSimpleName() + "@"
+                + Integer.toHexString(hashCode()) + "]";
+    }
+
+    /**
+     * Location of an entry in the ring buffer of a segment.
+     */
+    private static final class E<K> {
+
+        private final K key;
+
+        private final int offset;
+
+        private final int length;
+
+        /** the pass over the ring buffer in which the entry was written */
+        private final long lap;
+
+        E(K key, int offset, int length, long lap) {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+            this.lap = lap;
+        }
+
+    }
+
+    /**
+     * A cache segment. All entries are kept in the {@link #written} queue
+     * in the order they were written to the buffer, which is also the order
+     * of their offsets within one pass over the buffer. Writing new data
+     * evicts the entries of the previous pass it overlaps with.
+     */
+    private static final class Segment<K> {
+
+        private final ByteBuffer buffer;
+
+        private final Map<K, E<K>> entries = new HashMap<K, E<K>>();
+
+        private final ArrayDeque<E<K>> written = new ArrayDeque<E<K>>();
+
+        private int position = 0;
+
+        private long lap = 0;
+
+        Segment(int size) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+
+        synchronized byte[] get(K key) {
+            E<K> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            byte[] data = new byte[entry.length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(entry.offset);
+            view.get(data);
+            return data;
+        }
+
+        /**
+         * @return the change in the number of live bytes
+         */
+        synchronized long put(K key, byte[] data) {
+            long delta = 0;
+            if (data.length > buffer.capacity()) {
+                return remove(key);
+            }
+            if (position + data.length > buffer.capacity()) {
+                // wrap around, evicting what is left from the previous pass
+                while (!written.isEmpty() && written.peek().lap < lap) {
+                    delta -= evict(written.poll());
+                }
+                position = 0;
+                lap++;
+            }
+            int end = position + data.length;
+            while (!written.isEmpty() && written.peek().lap < lap
+                    && written.peek().offset < end) {
+                delta -= evict(written.poll());
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.position(position);
+            view.put(data);
+            E<K> entry = new E<K>(key, position, data.length, lap);
+            written.add(entry);
+            E<K> previous = entries.put(key, entry);
+            if (previous != null) {
+                delta -= previous.length;
+            }
+            position = end;
+            return delta + data.length;
+        }
+
+        /**
+         * @return the change in the number of live bytes
+         */
+        synchronized long remove(K key) {
+            E<K> entry = entries.remove(key);
+            return entry != null ? -entry.length : 0;
+        }
+
+        /**
+         * @return the change in the number of live bytes
+         */
+        synchronized long clear() {
+            long delta = 0;
+            for (E<K> entry : entries.values()) {
+                delta -= entry.length;
+            }
+            entries.clear();
+            written.clear();
+            position = 0;
+            lap = 0;
+            return delta;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        /**
+         * Drops the given overwritten entry, unless its key has already
+         * been written again or removed.
+         *
+         * @return the number of live bytes dropped
+         */
+        private int evict(E<K> entry) {
+            if (entries.get(entry.key) == entry) {
+                entries.remove(entry.key);
+                return entry.length;
+            }
+            return 0;
+        }
+
+    }
+
+}
@@ -20,6 +20,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.RepositoryException;
@@ -134,6 +136,19 @@ public class ClusterNode implements Runnable,
      */
     private final Latch stopLatch = new Latch();
 
+    /**
+     * Permits released to wake up the synchronization thread before the
+     * synchronization delay has elapsed.
+     */
+    private final Semaphore syncRequests = new Semaphore(0);
+
+    /**
+     * Notifier used to learn about revisions appended by other cluster
+     * nodes without waiting for the next periodic synchronization, or
+     * <code>null</code> if the journal is only polled.
+     */
+    private ClusterNotifier notifier;
+
     /**
      * Sync counter, used to avoid repeated sync() calls from piling up.
      * Only updated within the critical section guarded by {@link #syncLock}.
@@ -231,6 +246,7 @@ public class ClusterNode implements Runnable,
             instanceRevision = journal.getInstanceRevision();
             journal.register(this);
             producer = journal.getProducer(PRODUCER_ID);
+            notifier = cc.getNotifier();
         } catch (RepositoryException e) {
             throw new ClusterException(
                     "Cluster initialization failed: " + this, e);
@@ -276,6 +292,13 @@ public class ClusterNode implements Runnable,
         if (status == NONE) {
             syncOnStartup();
 
+            if (notifier != null) {
+                notifier.start(clusterNodeId, new Runnable() {
+                    public void run() {
+                        syncRequests.release();
+                    }
+                });
+            }
             if (!disableAutoSync) {
                 Thread t = new Thread(this, "ClusterNode-" + clusterNodeId);
                 t.setDaemon(true);
@@ -287,12 +310,16 @@ public class ClusterNode implements Runnable,
     }
 
     /**
-     * Run loop that will sync this node after some delay.
+     * Run loop that will sync this node after some delay, or as soon as
+     * the notifier reports a revision appended by another node.
      */
     public void run() {
         for (;;) {
             try {
-                if (stopLatch.attempt(syncDelay)) {
+                syncRequests.tryAcquire(syncDelay, TimeUnit.MILLISECONDS);
+                // notifications received in the meantime are covered by this sync
+                syncRequests.drainPermits();
+                if (stopLatch.attempt(0)) {
                     break;
                 }
             } catch (InterruptedException e) {
@@ -373,6 +400,11 @@ public class ClusterNode implements Runnable,
             status = STOPPED;
 
             stopLatch.release();
+            syncRequests.release();
+
+            if (notifier != null) {
+                notifier.stop();
+            }
 
             // Give synchronization thread some time to finish properly before
             // closing down the journal (see JCR-1553)
@@ -440,6 +472,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            revisionAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -476,6 +509,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            revisionAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -506,6 +540,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            revisionAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -536,6 +571,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            revisionAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -575,6 +611,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            revisionAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -702,6 +739,7 @@ public class ClusterNode implements Runnable,
                 setRevision(recordRevision);
 
                 long journalUpdateSize = record.update();
+                revisionAppended(recordRevision);
 
                 log.debug("Stored record '{}' to Journal ({})", recordRevision, journalUpdateSize);
 
@@ -865,6 +903,17 @@ public class ClusterNode implements Runnable,
         }
     }
 
+    /**
+     * Tells the other cluster nodes about a revision appended by this node.
+     *
+     * @param revision the appended revision
+     */
+    private void revisionAppended(long revision) {
+        if (notifier != null) {
+            notifier.revisionAppended(revision);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1073,6 +1122,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            revisionAppended(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -1106,6 +1156,7 @@ public class ClusterNode implements Runnable,
                 record.write();
                 record.update();
                 setRevision(record.getRevision());
+                revisionAppended(record.getRevision());
                 succeeded = true;
             }
         } catch (JournalException e) {
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+/**
+ * Channel used to tell the other nodes of a cluster that a new revision has
+ * been appended to the journal, so that they synchronize immediately instead
+ * of waiting for their next periodic synchronization.
+ * <p>
+ * Notifications are hints only: they may be lost or arrive before the
+ * revision is visible in the journal. Cluster nodes therefore keep polling
+ * the journal every <code>syncDelay</code> milliseconds.
+ */
+public interface ClusterNotifier {
+
+    /**
+     * Starts this notifier.
+     *
+     * @param clusterNodeId id of the local cluster node; notifications sent
+     *                      by this node are not passed to the listener
+     * @param listener      called when another cluster node has appended
+     *                      a revision
+     * @throws ClusterException if the notifier can not be started
+     */
+    void start(String clusterNodeId, Runnable listener) throws ClusterException;
+
+    /**
+     * Tells the other cluster nodes that a revision has been appended to
+     * the journal by the local cluster node.
+     *
+     * @param revision the appended revision
+     */
+    void revisionAppended(long revision);
+
+    /**
+     * Stops this notifier and releases its resources.
+     */
+    void stop();
+
+}
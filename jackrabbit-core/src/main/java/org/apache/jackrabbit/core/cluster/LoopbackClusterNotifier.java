@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cluster notifier that connects the cluster nodes running in the same
+ * Java virtual machine, typically in tests. Notifiers with the same
+ * <code>group</code> notify each other directly.
+ * <p>
+ * It is configured through the following properties:
+ * <ul>
+ * <li><code>group</code>: the name of the group of cluster nodes
+ * (default: <code>default</code>)</li>
+ * </ul>
+ */
+public class LoopbackClusterNotifier implements ClusterNotifier {
+
+    /**
+     * The started notifiers, by group.
+     */
+    private static final Map<String, List<LoopbackClusterNotifier>> GROUPS =
+            new HashMap<String, List<LoopbackClusterNotifier>>();
+
+    /**
+     * Group name.
+     */
+    private String group = "default";
+
+    /**
+     * Id of the local cluster node.
+     */
+    private String clusterNodeId;
+
+    /**
+     * Listener of the local cluster node.
+     */
+    private Runnable listener;
+
+    /**
+     * Bean getter.
+     *
+     * @return group name
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * Bean setter.
+     *
+     * @param group group name
+     */
+    public void setGroup(String group) {
+        this.group = group;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start(String clusterNodeId, Runnable listener) {
+        this.clusterNodeId = clusterNodeId;
+        this.listener = listener;
+        synchronized (GROUPS) {
+            List<LoopbackClusterNotifier> members = GROUPS.get(group);
+            if (members == null) {
+                members = new ArrayList<LoopbackClusterNotifier>();
+                GROUPS.put(group, members);
+            }
+            members.add(this);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void revisionAppended(long revision) {
+        List<LoopbackClusterNotifier> members;
+        synchronized (GROUPS) {
+            members = GROUPS.get(group);
+            if (members == null) {
+                return;
+            }
+            members = new ArrayList<LoopbackClusterNotifier>(members);
+        }
+        for (LoopbackClusterNotifier member : members) {
+            if (!clusterNodeId.equals(member.clusterNodeId)) {
+                member.listener.run();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stop() {
+        synchronized (GROUPS) {
+            List<LoopbackClusterNotifier> members = GROUPS.get(group);
+            if (members != null) {
+                members.remove(this);
+                if (members.isEmpty()) {
+                    GROUPS.remove(group);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cluster notifier that sends a UDP multicast datagram for every revision
+ * appended by the local cluster node. Datagrams may be lost; the cluster
+ * nodes then pick up the revision on their next periodic synchronization.
+ * <p>
+ * It is configured through the following properties:
+ * <ul>
+ * <li><code>address</code>: the multicast group address
+ * (default: <code>239.255.74.82</code>)</li>
+ * <li><code>port</code>: the UDP port (default: <code>45588</code>)</li>
+ * <li><code>timeToLive</code>: the time to live of the datagrams
+ * (default: <code>1</code>, i.e. the local network only)</li>
+ * </ul>
+ * All nodes of a cluster must use the same address and port, and no other
+ * cluster should use them.
+ */
+public class MulticastClusterNotifier implements ClusterNotifier, Runnable {
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(MulticastClusterNotifier.class);
+
+    /**
+     * Marks the datagrams sent by this class.
+     */
+    private static final int MAGIC = 0x4a524e31;
+
+    /**
+     * Maximum size of a datagram.
+     */
+    private static final int MAX_DATAGRAM_SIZE = 1024;
+
+    /**
+     * Multicast group address.
+     */
+    private String address = "239.255.74.82";
+
+    /**
+     * UDP port.
+     */
+    private int port = 45588;
+
+    /**
+     * Time to live of the datagrams.
+     */
+    private int timeToLive = 1;
+
+    /**
+     * Id of the local cluster node.
+     */
+    private String clusterNodeId;
+
+    /**
+     * Listener of the local cluster node.
+     */
+    private Runnable listener;
+
+    /**
+     * Resolved multicast group address.
+     */
+    private InetAddress group;
+
+    /**
+     * Socket used to send and receive datagrams.
+     */
+    private MulticastSocket socket;
+
+    /**
+     * Thread receiving datagrams.
+     */
+    private Thread receiver;
+
+    /**
+     * Set when this notifier is stopped.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Bean getter.
+     *
+     * @return multicast group address
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Bean setter.
+     *
+     * @param address multicast group address
+     */
+    public void setAddress(String address) {
+        this.address = address;
+    }
+
+    /**
+     * Bean getter.
+     *
+     * @return UDP port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Bean setter.
+     *
+     * @param port UDP port
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Bean getter.
+     *
+     * @return time to live of the datagrams
+     */
+    public int getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Bean setter.
+     *
+     * @param timeToLive time to live of the datagrams
+     */
+    public void setTimeToLive(int timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start(String clusterNodeId, Runnable listener)
+            throws ClusterException {
+        this.clusterNodeId = clusterNodeId;
+        this.listener = listener;
+        try {
+            group = InetAddress.getByName(address);
+            socket = new MulticastSocket(port);
+            socket.setTimeToLive(timeToLive);
+            socket.joinGroup(group);
+        } catch (IOException e) {
+            if (socket != null) {
+                socket.close();
+            }
+            throw new ClusterException(
+                    "Unable to join multicast group " + address + ":" + port, e);
+        }
+        receiver = new Thread(this, "ClusterNotifier-" + clusterNodeId);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void revisionAppended(long revision) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeInt(MAGIC);
+            out.writeUTF(clusterNodeId);
+            out.writeLong(revision);
+            out.close();
+            byte[] data = buffer.toByteArray();
+            socket.send(new DatagramPacket(data, data.length, group, port));
+        } catch (IOException e) {
+            // the other nodes will see the revision on their next sync
+            log.warn("Unable to send notification for revision " + revision
+                    + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Receives the notifications of the other cluster nodes until this
+     * notifier is stopped.
+     */
+    public void run() {
+        byte[] data = new byte[MAX_DATAGRAM_SIZE];
+        while (!stopped) {
+            DatagramPacket packet = new DatagramPacket(data, data.length);
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                if (stopped || socket.isClosed()) {
+                    break;
+                }
+                log.warn("Unable to receive notification: " + e.getMessage());
+                continue;
+            }
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                        packet.getData(), packet.getOffset(), packet.getLength()));
+                if (in.readInt() != MAGIC) {
+                    continue;
+                }
+                String sender = in.readUTF();
+                long revision = in.readLong();
+                if (!clusterNodeId.equals(sender)) {
+                    log.debug("Revision {} appended by {}", revision, sender);
+                    listener.run();
+                }
+            } catch (IOException e) {
+                log.debug("Ignoring malformed notification", e);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stop() {
+        stopped = true;
+        if (socket != null) {
+            try {
+                socket.leaveGroup(group);
+            } catch (IOException e) {
+                log.debug("Unable to leave multicast group", e);
+            }
+            // unblocks the receiver
+            socket.close();
+        }
+        if (receiver != null) {
+            try {
+                receiver.join(1000);
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while joining notification thread.");
+            }
+        }
+    }
+
+}
@@ -18,6 +18,7 @@ package org.apache.jackrabbit.core.config;
 
 import javax.jcr.RepositoryException;
 
+import org.apache.jackrabbit.core.cluster.ClusterNotifier;
 import org.apache.jackrabbit.core.journal.Journal;
 import org.apache.jackrabbit.core.journal.JournalFactory;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
@@ -47,6 +48,11 @@ public class ClusterConfig implements JournalFactory {
      */
     private final JournalFactory jf;
 
+    /**
+     * Notifier configuration, or <code>null</code> if not configured.
+     */
+    private final BeanConfig notifierConfig;
+
     /**
      * Creates a new cluster configuration.
      *
@@ -68,10 +74,25 @@ public class ClusterConfig implements JournalFactory {
      */
     public ClusterConfig(String id, long syncDelay,
                          long stopDelay, JournalFactory jf) {
+        this(id, syncDelay, stopDelay, jf, null);
+    }
+
+    /**
+     * Creates a new cluster configuration.
+     *
+     * @param id custom cluster node id
+     * @param syncDelay syncDelay, in milliseconds
+     * @param stopDelay stopDelay in milliseconds
+     * @param jf journal factory
+     * @param notifierConfig notifier configuration, or <code>null</code>
+     */
+    public ClusterConfig(String id, long syncDelay, long stopDelay,
+                         JournalFactory jf, BeanConfig notifierConfig) {
         this.id = id;
         this.syncDelay = syncDelay;
         this.stopDelay = stopDelay < 0 ? syncDelay * 10 : stopDelay;
         this.jf = jf;
+        this.notifierConfig = notifierConfig;
     }
 
     /**
@@ -112,4 +133,18 @@ public class ClusterConfig implements JournalFactory {
         return jf.getJournal(resolver);
     }
 
+    /**
+     * Returns a new notifier instance, or <code>null</code> if the cluster
+     * nodes only poll the journal.
+     *
+     * @return notifier, or <code>null</code>
+     * @throws ConfigurationException if the notifier can not be created
+     */
+    public ClusterNotifier getNotifier() throws ConfigurationException {
+        if (notifierConfig == null) {
+            return null;
+        }
+        return notifierConfig.newInstance(ClusterNotifier.class);
+    }
+
 }
@@ -136,6 +136,9 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
     /** Name of the journal configuration element. */
     public static final String JOURNAL_ELEMENT = "Journal";
 
+    /** Name of the cluster notifier configuration element. */
+    public static final String NOTIFIER_ELEMENT = "Notifier";
+
     /** Name of the data store configuration element. */
     public static final String DATA_STORE_ELEMENT = "DataStore";
 
@@ -844,11 +847,14 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
      * <pre>
      *   &lt;Cluster&gt;
      *     &lt;Journal ...&gt;
-     *   &lt;/Journal&gt;
+     *     &lt;/Journal&gt;
+     *     &lt;Notifier ...&gt;
+     *     &lt;/Notifier&gt;
+     *   &lt;/Cluster&gt;
      * </pre>
      * <p>
      * <code>Cluster</code> is a {@link #parseBeanConfig(Element,String) bean configuration}
-     * element.
+     * element. The <code>Notifier</code> element is optional.
      * <p>
      * Clustering is an optional feature. If the cluster element is not found, then this
      * method returns <code>null</code>.
@@ -895,7 +901,11 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
                         element, STOP_DELAY_ATTRIBUTE, "-1")));
 
                 JournalFactory jf = getJournalFactory(element, home, id);
-                return new ClusterConfig(id, syncDelay, stopDelay, jf);
+                BeanConfig notifierConfig = null;
+                if (getElement(element, NOTIFIER_ELEMENT, false) != null) {
+                    notifierConfig = parseBeanConfig(element, NOTIFIER_ELEMENT);
+                }
+                return new ClusterConfig(id, syncDelay, stopDelay, jf, notifierConfig);
             }
         }
         return null;
@@ -29,12 +29,16 @@ import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 
 import javax.jcr.RepositoryException;
 import javax.sql.DataSource;
@@ -68,6 +72,10 @@ import javax.sql.DataSource;
  * thread initiates its first run (default = <code>3</code> which means 3:00 at night)</li>
  * <li><code>schemaCheckEnabled</code>:  whether the schema check during initialization is enabled
  * (default = <code>true</code>)</li>
+ * <li><code>fetchBatchSize</code>: the number of records read with one query. If
+ * positive, records are read in batches of this size, and the batches after the
+ * first one are read ahead by a background thread while the previous records are
+ * applied. The default <code>0</code> reads all records with a single query.</li>
  * </ul>
  * <p>
  * JNDI can be used to get the connection. In this case, use the javax.naming.InitialContext as the driver,
@@ -173,6 +181,12 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      */
     private boolean schemaCheckEnabled = true;
 
+    /**
+     * The number of records read with one query, or <code>0</code> to read
+     * all records with a single query.
+     */
+    private int fetchBatchSize;
+
     /**
      * The instance that manages the local revision.
      */
@@ -414,6 +428,14 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      * {@inheritDoc}
      */
     public RecordIterator getRecords(long startRevision) throws JournalException {
+        if (fetchBatchSize > 0) {
+            return new PrefetchingRecordIterator(startRevision, fetchBatchSize) {
+                protected List<ReadRecord> fetchRecords(long startRevision, int maxRecords)
+                        throws JournalException {
+                    return DatabaseJournal.this.fetchRecords(startRevision, maxRecords);
+                }
+            };
+        }
         try {
             return new DatabaseRecordIterator(conHelper.exec(selectRevisionsStmtSQL, new Object[]{new Long(
                     startRevision)}, false, 0), getResolver(), getNamePathResolver());
@@ -426,6 +448,9 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      * {@inheritDoc}
      */
     public RecordIterator getRecords() throws JournalException {
+        if (fetchBatchSize > 0) {
+            return getRecords(Long.MIN_VALUE);
+        }
         try {
             return new DatabaseRecordIterator(conHelper.exec(selectRevisionsStmtSQL, new Object[]{new Long(
                     Long.MIN_VALUE)}, false, 0), getResolver(), getNamePathResolver());
@@ -434,6 +459,47 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         }
     }
 
+    /**
+     * Reads the records after the given revision, up to the given number of
+     * records. The data of the records is read into memory.
+     *
+     * @param startRevision start point (exclusive)
+     * @param maxRecords the maximum number of records
+     * @return the records, ordered by revision
+     * @throws JournalException if an error occurs
+     */
+    private List<ReadRecord> fetchRecords(long startRevision, int maxRecords)
+            throws JournalException {
+        ResultSet rs = null;
+        try {
+            rs = conHelper.exec(selectRevisionsStmtSQL,
+                    new Object[]{startRevision}, false, maxRecords);
+            List<ReadRecord> records = new ArrayList<ReadRecord>();
+            while (rs.next()) {
+                long revision = rs.getLong(1);
+                String journalId = rs.getString(2);
+                String producerId = rs.getString(3);
+                InputStream in = rs.getBinaryStream(4);
+                byte[] data;
+                try {
+                    data = IOUtils.toByteArray(in);
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+                records.add(new ReadRecord(journalId, producerId, revision,
+                        new DataInputStream(new ByteArrayInputStream(data)), 0,
+                        getResolver(), getNamePathResolver()));
+            }
+            return records;
+        } catch (SQLException e) {
+            throw new JournalException("Unable to read records.", e);
+        } catch (IOException e) {
+            throw new JournalException("Unable to read records.", e);
+        } finally {
+            DbUtility.close(rs);
+        }
+    }
+
     /**
      * Synchronize contents from journal. May be overridden by subclasses.
      * Do the initial sync in batchMode, since some databases (PSQL) when
@@ -679,6 +745,10 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         return janitorNextRun.get(Calendar.HOUR_OF_DAY);
     }
 
+    public int getFetchBatchSize() {
+        return fetchBatchSize;
+    }
+
     /**
      * Bean setters
      */
@@ -730,6 +800,10 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         this.janitorSleep = sleep;
     }
 
+    public void setFetchBatchSize(int fetchBatchSize) {
+        this.fetchBatchSize = fetchBatchSize;
+    }
+
     public void setJanitorFirstRunHourOfDay(int hourOfDay) {
         janitorNextRun = Calendar.getInstance();
         if (janitorNextRun.get(Calendar.HOUR_OF_DAY) >= hourOfDay) {
@@ -0,0 +1,282 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Record iterator that reads the records of a journal in batches of
+ * consecutive revisions. The first batch is read by the thread that uses
+ * the iterator. If it is full, the following batches are read ahead by a
+ * background thread, while the records of the previous batches are
+ * deserialized and applied. Subclasses read the batches with
+ * {@link #fetchRecords(long, int)}.
+ */
+abstract class PrefetchingRecordIterator implements RecordIterator {
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(PrefetchingRecordIterator.class);
+
+    /**
+     * The number of batches that are read ahead.
+     */
+    private static final int PREFETCH_BATCHES = 2;
+
+    /**
+     * The revision after which the first batch starts.
+     */
+    private final long startRevision;
+
+    /**
+     * The maximum number of records in a batch.
+     */
+    private final int batchSize;
+
+    /**
+     * The batches read by the background thread.
+     */
+    private final BlockingQueue<Batch> batches =
+            new ArrayBlockingQueue<Batch>(PREFETCH_BATCHES);
+
+    /**
+     * The records of the current batch, or <code>null</code> if the first
+     * batch has not been read yet.
+     */
+    private Iterator<ReadRecord> records;
+
+    /**
+     * Whether the current batch is the last one.
+     */
+    private boolean last;
+
+    /**
+     * Last record returned.
+     */
+    private ReadRecord lastRecord;
+
+    /**
+     * The background thread, or <code>null</code> if not started.
+     */
+    private Thread prefetcher;
+
+    /**
+     * Set when the iterator is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a new iterator.
+     *
+     * @param startRevision start point (exclusive)
+     * @param batchSize     the maximum number of records in a batch
+     */
+    protected PrefetchingRecordIterator(long startRevision, int batchSize) {
+        this.startRevision = startRevision;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Reads the records of a batch, ordered by revision.
+     *
+     * @param startRevision start point (exclusive)
+     * @param maxRecords    the maximum number of records
+     * @return the records, which contain their data in memory
+     * @throws JournalException if an error occurs
+     */
+    protected abstract List<ReadRecord> fetchRecords(
+            long startRevision, int maxRecords) throws JournalException;
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        try {
+            if (records == null) {
+                List<ReadRecord> batch = fetchRecords(startRevision, batchSize);
+                setBatch(batch);
+                if (!last) {
+                    startPrefetcher(batch.get(batch.size() - 1).getRevision());
+                }
+            }
+            while (!records.hasNext() && !last) {
+                setBatch(takeBatch().records);
+            }
+            return records.hasNext();
+        } catch (JournalException e) {
+            String msg = "Error while moving to next record.";
+            log.error(msg, e);
+        } catch (InterruptedException e) {
+            String msg = "Interrupted while moving to next record.";
+            log.error(msg, e);
+            Thread.currentThread().interrupt();
+        }
+        // stop the iteration
+        records = Collections.<ReadRecord>emptyList().iterator();
+        last = true;
+        return false;
+    }
+
+    /**
+     * Return the next record. If there are no more records, throws
+     * a <code>NoSuchElementException</code>.
+     *
+     * @return next record
+     * @throws java.util.NoSuchElementException if there are no more records
+     */
+    public Record nextRecord() throws NoSuchElementException {
+        if (!hasNext()) {
+            String msg = "No current record.";
+            throw new NoSuchElementException(msg);
+        }
+        close(lastRecord);
+        lastRecord = records.next();
+        return lastRecord;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        closed = true;
+        if (prefetcher != null) {
+            prefetcher.interrupt();
+        }
+        close(lastRecord);
+        lastRecord = null;
+        batches.clear();
+    }
+
+    //-------------------------------------------------------< internal >
+
+    private void setBatch(List<ReadRecord> batch) {
+        records = batch.iterator();
+        last = batch.size() < batchSize;
+    }
+
+    /**
+     * Waits for the next batch read by the background thread.
+     *
+     * @return the next batch
+     * @throws JournalException if the batch could not be read, or if the
+     *         background thread terminated without providing it
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    private Batch takeBatch() throws JournalException, InterruptedException {
+        Batch batch = batches.poll(100, TimeUnit.MILLISECONDS);
+        while (batch == null) {
+            if (!prefetcher.isAlive()) {
+                // the batch may have been added just before termination
+                batch = batches.poll();
+                if (batch == null) {
+                    throw new JournalException(
+                            "Journal prefetcher terminated unexpectedly.");
+                }
+            } else {
+                batch = batches.poll(100, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batch.error != null) {
+            throw batch.error;
+        }
+        return batch;
+    }
+
+    /**
+     * Starts the background thread that reads the batches after the given
+     * revision.
+     */
+    private void startPrefetcher(final long revision) {
+        prefetcher = new Thread(new Runnable() {
+            public void run() {
+                long start = revision;
+                boolean done = false;
+                while (!done && !closed) {
+                    Batch batch;
+                    try {
+                        List<ReadRecord> records = fetchRecords(start, batchSize);
+                        batch = new Batch(records, null);
+                        done = records.size() < batchSize;
+                        if (!done) {
+                            start = records.get(records.size() - 1).getRevision();
+                        }
+                    } catch (JournalException e) {
+                        batch = new Batch(null, e);
+                        done = true;
+                    } catch (Throwable t) {
+                        // hand over any failure, the iterator waits for it
+                        batch = new Batch(null, new JournalException(
+                                "Unable to read journal records.", t));
+                        done = true;
+                    }
+                    try {
+                        while (!closed && !batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                            // wait until the records are consumed
+                        }
+                    } catch (InterruptedException e) {
+                        // closed
+                        return;
+                    }
+                }
+            }
+        }, "JournalPrefetcher");
+        prefetcher.setDaemon(true);
+        prefetcher.start();
+    }
+
+    /**
+     * Close a record.
+     *
+     * @param record record
+     */
+    private static void close(ReadRecord record) {
+        if (record != null) {
+            try {
+                record.close();
+            } catch (IOException e) {
+                String msg = "Error while closing record.";
+                log.warn(msg, e);
+            }
+        }
+    }
+
+    /**
+     * A batch of records, or the error that occurred while reading it.
+     */
+    private static final class Batch {
+
+        private final List<ReadRecord> records;
+
+        private final JournalException error;
+
+        private Batch(List<ReadRecord> records, JournalException error) {
+            this.records = records;
+            this.error = error;
+        }
+    }
+}
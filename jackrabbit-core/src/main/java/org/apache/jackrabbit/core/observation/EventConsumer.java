@@ -16,9 +16,11 @@
  */
 package org.apache.jackrabbit.core.observation;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
@@ -31,11 +33,7 @@ import javax.jcr.observation.EventListener;
 
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.id.ItemId;
-import org.apache.jackrabbit.core.security.authorization.Permission;
 import org.apache.jackrabbit.core.state.ItemState;
-import org.apache.jackrabbit.spi.Path;
-import org.apache.jackrabbit.spi.PathFactory;
-import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,8 +52,6 @@ class EventConsumer {
      */
     private static final Logger log = LoggerFactory.getLogger(EventConsumer.class);
 
-    private final PathFactory pathFactory = PathFactoryImpl.getInstance();
-
     /**
      * The <code>Session</code> associated with this <code>EventConsumer</code>.
      */
@@ -132,6 +128,15 @@ class EventConsumer {
         return listener;
     }
 
+    /**
+     * Returns the <code>EventFilter</code> of this <code>EventConsumer</code>.
+     *
+     * @return the <code>EventFilter</code> of this <code>EventConsumer</code>.
+     */
+    EventFilter getEventFilter() {
+        return filter;
+    }
+
     /**
      * Checks for what {@link EventState}s this <code>EventConsumer</code> has
      * enough access rights to see the event.
@@ -139,37 +144,31 @@ class EventConsumer {
      * @param events the collection of {@link EventState}s.
      */
     void prepareEvents(EventStateCollection events) {
-        Iterator<EventState> it = events.iterator();
-        Set<ItemId> denied = null;
-        while (it.hasNext()) {
+        List<EventState> removed = new ArrayList<EventState>();
+        for (Iterator<EventState> it = events.iterator(); it.hasNext();) {
             EventState state = it.next();
             if (state.getType() == Event.NODE_REMOVED
                     || state.getType() == Event.PROPERTY_REMOVED) {
-
-                if (session.equals(state.getSession())) {
-                    // if we created the event, we can be sure that
-                    // we have enough access rights to see the event
-                    continue;
-                }
-
-                // check read permission
-                ItemId targetId = state.getTargetId();
-                boolean granted = false;
-                try {
-                    granted = canRead(state);
-                } catch (RepositoryException e) {
-                    log.warn("Unable to check access rights for item: " + targetId);
-                }
-                if (!granted) {
-                    if (denied == null) {
-                        denied = new HashSet<ItemId>();
-                    }
-                    denied.add(targetId);
+                removed.add(state);
+            }
+        }
+        Set<ItemId> denied = getDeniedTargets(events, "removed", removed);
+        Set<ItemId> deniedOthers = null;
+        for (EventState state : removed) {
+            if (session.equals(state.getSession())) {
+                // if we created the event, we can be sure that
+                // we have enough access rights to see the event
+                continue;
+            }
+            if (denied == null || denied.contains(state.getTargetId())) {
+                if (deniedOthers == null) {
+                    deniedOthers = new HashSet<ItemId>();
                 }
+                deniedOthers.add(state.getTargetId());
             }
         }
-        if (denied != null) {
-            accessDenied.put(events, denied);
+        if (deniedOthers != null) {
+            accessDenied.put(events, deniedOthers);
         }
     }
 
@@ -181,33 +180,28 @@ class EventConsumer {
      * @param deletedItems Iterator of deleted <code>ItemState</code>s.
      */
     void prepareDeleted(EventStateCollection events, Iterable<ItemState> deletedItems) {
-        Set<ItemId> denied = null;
         Set<ItemId> deletedIds = new HashSet<ItemId>();
         for (ItemState state : deletedItems) {
             deletedIds.add(state.getId());
         }
 
+        List<EventState> deleted = new ArrayList<EventState>();
         for (Iterator<EventState> it = events.iterator(); it.hasNext();) {
             EventState evState = it.next();
-            ItemId targetId = evState.getTargetId();
-            if (deletedIds.contains(targetId)) {
-                // check read permission
-                boolean granted = false;
-                try {
-                    granted = canRead(evState);
-                } catch (RepositoryException e) {
-                    log.warn("Unable to check access rights for item: " + targetId);
-                }
-                if (!granted) {
-                    if (denied == null) {
-                        denied = new HashSet<ItemId>();
-                    }
-                    denied.add(targetId);
-                }
+            if (deletedIds.contains(evState.getTargetId())) {
+                deleted.add(evState);
             }
         }
-        if (denied != null) {
-            accessDenied.put(events, denied);
+        Set<ItemId> denied = getDeniedTargets(events, "deleted", deleted);
+        if (denied == null) {
+            denied = new HashSet<ItemId>();
+            for (EventState state : deleted) {
+                denied.add(state.getTargetId());
+            }
+        }
+        if (!denied.isEmpty()) {
+            // the set is shared with other consumers
+            accessDenied.put(events, new HashSet<ItemId>(denied));
         }
     }
 
@@ -225,16 +219,17 @@ class EventConsumer {
         }
 
         // check permissions
-        for (Iterator<EventState> it = events.iterator(); it.hasNext() && session.isLive();) {
-            EventState state = it.next();
-            if (state.getType() == Event.NODE_ADDED
-                    || state.getType() == Event.PROPERTY_ADDED
-                    || state.getType() == Event.PROPERTY_CHANGED) {
-                ItemId targetId = state.getTargetId();
-                if (!canRead(state)) {
-                    denied.add(targetId);
+        if (session.isLive()) {
+            List<EventState> added = new ArrayList<EventState>();
+            for (Iterator<EventState> it = events.iterator(); it.hasNext();) {
+                EventState state = it.next();
+                if (state.getType() == Event.NODE_ADDED
+                        || state.getType() == Event.PROPERTY_ADDED
+                        || state.getType() == Event.PROPERTY_CHANGED) {
+                    added.add(state);
                 }
             }
+            denied.addAll(events.getDeniedTargets(session, "added", added));
         }
         // only deliver if session is still live
         if (!session.isLive()) {
@@ -295,15 +290,25 @@ class EventConsumer {
     }
 
     /**
-     * Returns <code>true</code> if the item corresponding to the specified
-     * <code>eventState</code> can be read the the current session.
+     * Returns the ids of the targets of the given events that cannot be read
+     * by the session of this consumer, or <code>null</code> if the access
+     * rights cannot be checked.
      *
-     * @param eventState
-     * @return
-     * @throws RepositoryException
+     * @param events   the collection of {@link EventState}s.
+     * @param check    identifies the selection of events.
+     * @param selected the selected events.
+     * @return the ids of the targets that cannot be read, or
+     *         <code>null</code>.
      */
-    private boolean canRead(EventState eventState) throws RepositoryException {
-        Path targetPath = pathFactory.create(eventState.getParentPath(), eventState.getChildRelPath().getName(), eventState.getChildRelPath().getNormalizedIndex(), true);
-        return session.getAccessManager().isGranted(targetPath, Permission.READ);
+    private Set<ItemId> getDeniedTargets(EventStateCollection events,
+                                         String check,
+                                         List<EventState> selected) {
+        try {
+            return events.getDeniedTargets(session, check, selected);
+        } catch (RepositoryException e) {
+            log.warn("Unable to check access rights for " + selected.size()
+                    + " items", e);
+            return null;
+        }
     }
 }
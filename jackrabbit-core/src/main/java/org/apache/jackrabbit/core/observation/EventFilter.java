@@ -131,6 +131,44 @@ public class EventFilter {
         this.nodeTypes = nodeTypes;
     }
 
+    /**
+     * Returns the event types allowed by this filter.
+     *
+     * @return the bit mask of the allowed event types.
+     */
+    long getEventTypes() {
+        return eventTypes;
+    }
+
+    /**
+     * Returns the paths of the items allowed by this filter.
+     *
+     * @return the paths of the allowed items.
+     */
+    List<Path> getPaths() {
+        return paths;
+    }
+
+    /**
+     * Returns <code>true</code> if this filter also allows the items below
+     * its {@link #getPaths() paths}.
+     *
+     * @return whether descendants of the paths are allowed.
+     */
+    boolean isDeep() {
+        return isDeep;
+    }
+
+    /**
+     * Returns the ids of the parent nodes allowed by this filter.
+     *
+     * @return the ids of the allowed parent nodes, or <code>null</code> if
+     *         the filter does not restrict node ids.
+     */
+    NodeId[] getIds() {
+        return ids;
+    }
+
     /**
      * Returns <code>true</code> if this <code>EventFilter</code> does not allow
      * the specified <code>EventState</code>; <code>false</code> otherwise.
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.observation.Event;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.Path;
+
+/**
+ * <code>EventRouter</code> selects the event consumers that may be
+ * interested in a collection of events, before their {@link EventFilter}s
+ * and access rights are checked. The router indexes the consumers by the
+ * node ids of their filters, or by the paths of their filters in a trie of
+ * path element names. The consumers of an event are looked up along the
+ * path of its parent node, so the cost of routing depends on the depth of
+ * the paths and the number of matching consumers, not on the number of
+ * registered consumers.
+ * <p>
+ * The selected consumers are a superset of the consumers whose filters
+ * allow an event: node types, same name sibling indexes and the local and
+ * external flags of the filters are not considered.
+ */
+class EventRouter {
+
+    /**
+     * The root of the path trie.
+     */
+    private final PathNode root = new PathNode();
+
+    /**
+     * Consumers with a node id restriction, by node id.
+     */
+    private final Map<NodeId, List<Route>> byId = new HashMap<NodeId, List<Route>>();
+
+    /**
+     * Consumers that accept {@link Event#PERSIST} events, which are not
+     * restricted by ids, node types or paths.
+     */
+    private final List<Route> persist = new ArrayList<Route>();
+
+    /**
+     * Consumers with filter paths that cannot be indexed. They are
+     * candidates for every event of the right type.
+     */
+    private final List<Route> unindexed = new ArrayList<Route>();
+
+    /**
+     * The number of consumers that accept at least one event type.
+     */
+    private int size;
+
+    /**
+     * Creates a router for the given consumers.
+     *
+     * @param consumers the event consumers.
+     */
+    EventRouter(Collection<EventConsumer> consumers) {
+        for (EventConsumer consumer : consumers) {
+            EventFilter filter = consumer.getEventFilter();
+            long types = filter.getEventTypes();
+            if (types == 0) {
+                // blocks all events
+                continue;
+            }
+            size++;
+            Route route = new Route(consumer, types);
+            if ((types & Event.PERSIST) != 0) {
+                persist.add(route);
+            }
+            NodeId[] ids = filter.getIds();
+            if (ids != null) {
+                for (NodeId id : ids) {
+                    List<Route> routes = byId.get(id);
+                    if (routes == null) {
+                        routes = new ArrayList<Route>();
+                        byId.put(id, routes);
+                    }
+                    routes.add(route);
+                }
+            } else {
+                for (Path path : filter.getPaths()) {
+                    PathNode node = getNode(path);
+                    if (node == null) {
+                        unindexed.add(route);
+                        break;
+                    } else if (filter.isDeep()) {
+                        node.deep.add(route);
+                    } else {
+                        node.exact.add(route);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the consumers that may accept at least one of the given
+     * events.
+     *
+     * @param events the events.
+     * @return the candidate consumers.
+     */
+    Set<EventConsumer> route(EventStateCollection events) {
+        Set<EventConsumer> consumers = new HashSet<EventConsumer>();
+        for (Iterator<EventState> it = events.iterator(); it.hasNext();) {
+            EventState state = it.next();
+            if (consumers.size() == size) {
+                // all consumers selected
+                break;
+            }
+            int type = state.getType();
+            add(consumers, unindexed, type);
+            if (type == Event.PERSIST) {
+                add(consumers, persist, type);
+                continue;
+            }
+            NodeId parentId = state.getParentId();
+            if (parentId != null) {
+                List<Route> routes = byId.get(parentId);
+                if (routes != null) {
+                    add(consumers, routes, type);
+                }
+            }
+            Path path = state.getParentPath();
+            if (path != null) {
+                PathNode node = root;
+                for (Path.Element element : path.getElements()) {
+                    if (element.denotesRoot()) {
+                        continue;
+                    }
+                    // consumers of the ancestors that include descendants
+                    add(consumers, node.deep, type);
+                    if (element.denotesName()) {
+                        node = node.children.get(element.getName());
+                    } else {
+                        node = null;
+                    }
+                    if (node == null) {
+                        break;
+                    }
+                }
+                if (node != null) {
+                    add(consumers, node.deep, type);
+                    add(consumers, node.exact, type);
+                }
+            }
+        }
+        return consumers;
+    }
+
+    /**
+     * Returns the node of the given path in the trie, or <code>null</code>
+     * if the path contains elements other than the root and names.
+     */
+    private PathNode getNode(Path path) {
+        PathNode node = root;
+        for (Path.Element element : path.getElements()) {
+            if (element.denotesRoot()) {
+                continue;
+            } else if (!element.denotesName()) {
+                return null;
+            }
+            PathNode child = node.children.get(element.getName());
+            if (child == null) {
+                child = new PathNode();
+                node.children.put(element.getName(), child);
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    private static void add(Set<EventConsumer> consumers,
+                            List<Route> routes, int type) {
+        for (Route route : routes) {
+            if ((route.types & type) != 0) {
+                consumers.add(route.consumer);
+            }
+        }
+    }
+
+    /**
+     * A consumer with the event types of its filter.
+     */
+    private static final class Route {
+
+        private final EventConsumer consumer;
+
+        private final long types;
+
+        private Route(EventConsumer consumer, long types) {
+            this.consumer = consumer;
+            this.types = types;
+        }
+    }
+
+    /**
+     * A node of the path trie.
+     */
+    private static final class PathNode {
+
+        /**
+         * The child nodes, by the names of the path elements.
+         */
+        private final Map<Name, PathNode> children = new HashMap<Name, PathNode>();
+
+        /**
+         * Consumers of the events of this path.
+         */
+        private final List<Route> exact = new ArrayList<Route>();
+
+        /**
+         * Consumers of the events of this path and its descendants.
+         */
+        private final List<Route> deep = new ArrayList<Route>();
+    }
+}
@@ -21,6 +21,9 @@ import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.nodetype.NodeTypeImpl;
+import org.apache.jackrabbit.core.security.AccessManager;
+import org.apache.jackrabbit.core.security.DefaultAccessManager;
+import org.apache.jackrabbit.core.security.authorization.Permission;
 import org.apache.jackrabbit.core.state.ChangeLog;
 import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.core.state.ItemStateException;
@@ -39,10 +42,15 @@ import javax.jcr.NamespaceException;
 import javax.jcr.RepositoryException;
 import javax.jcr.observation.ObservationManager;
 
+import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Collections;
 
@@ -99,6 +107,14 @@ public final class EventStateCollection {
      */
     private String userData;
 
+    /**
+     * The ids of the event targets that cannot be read, by the kind of check
+     * and the principals of the sessions that evaluated them, or the access
+     * manager instance if it is not a {@link DefaultAccessManager}.
+     */
+    private final Map<List<Object>, Set<ItemId>> deniedTargets =
+            new HashMap<List<Object>, Set<ItemId>>();
+
     /**
      * Creates a new empty <code>EventStateCollection</code>.
      * <p>
@@ -528,6 +544,66 @@ public final class EventStateCollection {
         return events.size();
     }
 
+    /**
+     * Returns the ids of the targets of the given events that cannot be read
+     * by the given session. The read permissions are evaluated with a single
+     * call to {@link AccessManager#isGranted(Path[], int)}. If the session
+     * uses a {@link DefaultAccessManager}, whose permissions only depend on
+     * the principals, the result is shared with the sessions of the same
+     * principals that perform the same <code>check</code>, i.e. that pass
+     * the same events. Other access managers may evaluate permissions
+     * differently, so their results are only reused by the same access
+     * manager.
+     *
+     * @param session the session.
+     * @param check   identifies the selection of events.
+     * @param events  the selected events of this collection.
+     * @return the ids of the targets that cannot be read.
+     * @throws RepositoryException if the permissions cannot be evaluated.
+     */
+    Set<ItemId> getDeniedTargets(SessionImpl session, String check,
+                                 List<EventState> events)
+            throws RepositoryException {
+        if (events.isEmpty()) {
+            return Collections.emptySet();
+        }
+        AccessManager accessManager = session.getAccessManager();
+        List<Object> key;
+        if (accessManager.getClass() == DefaultAccessManager.class) {
+            key = Arrays.<Object>asList(check, DefaultAccessManager.class,
+                    new HashSet<Principal>(session.getSubject().getPrincipals()));
+        } else {
+            key = Arrays.<Object>asList(check, accessManager);
+        }
+        synchronized (deniedTargets) {
+            Set<ItemId> denied = deniedTargets.get(key);
+            if (denied != null) {
+                return denied;
+            }
+        }
+
+        Path[] paths = new Path[events.size()];
+        for (int i = 0; i < paths.length; i++) {
+            EventState state = events.get(i);
+            paths[i] = PathFactoryImpl.getInstance().create(
+                    state.getParentPath(),
+                    state.getChildRelPath().getName(),
+                    state.getChildRelPath().getNormalizedIndex(), true);
+        }
+        boolean[] granted = accessManager.isGranted(paths, Permission.READ);
+        Set<ItemId> denied = new HashSet<ItemId>();
+        for (int i = 0; i < granted.length; i++) {
+            if (!granted[i]) {
+                denied.add(events.get(i).getTargetId());
+            }
+        }
+        denied = Collections.unmodifiableSet(denied);
+        synchronized (deniedTargets) {
+            deniedTargets.put(key, denied);
+        }
+        return denied;
+    }
+
     /**
      * Return the session who is the origin of this events.
      * @return event source
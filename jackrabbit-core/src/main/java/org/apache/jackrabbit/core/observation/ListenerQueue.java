@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>ListenerQueue</code> holds the pending asynchronous events of a
+ * single event listener, when the {@link ObservationDispatcher} delivers
+ * events on a thread pool. The queue is run on the pool whenever it
+ * contains events, but never by more than one thread at a time. The
+ * listener therefore receives its events in the order they were
+ * dispatched, while other listeners are notified concurrently.
+ * <p>
+ * The number of queued events is bounded. Events that do not fit into the
+ * queue anymore are dropped and counted, so that a slow listener neither
+ * delays other listeners nor the sessions that save changes.
+ */
+public final class ListenerQueue implements Runnable {
+
+    /**
+     * Logger instance for this class
+     */
+    private static final Logger log = LoggerFactory.getLogger(ListenerQueue.class);
+
+    /**
+     * The maximum number of event collections delivered in one run, before
+     * the queue gives up its thread to the queues of other listeners.
+     */
+    private static final int MAX_BATCH = 16;
+
+    /**
+     * The executor that runs this queue.
+     */
+    private final Executor executor;
+
+    /**
+     * The maximum number of queued events.
+     */
+    private final int maxQueuedEvents;
+
+    /**
+     * The class name of the listener, for logging and statistics.
+     */
+    private final String listenerName;
+
+    /**
+     * The pending events, oldest first.
+     */
+    private final LinkedList<Entry> entries = new LinkedList<Entry>();
+
+    /**
+     * Whether this queue is submitted to the executor or currently running.
+     */
+    private boolean scheduled;
+
+    /**
+     * Whether the listener has been unregistered.
+     */
+    private boolean closed;
+
+    private int queuedEvents;
+
+    private long deliveredEvents;
+
+    private long droppedEvents;
+
+    private long lastError;
+
+    /**
+     * Creates a new queue for the given listener.
+     *
+     * @param consumer        the consumer of the listener.
+     * @param executor        the executor that delivers the events.
+     * @param maxQueuedEvents the maximum number of queued events.
+     */
+    ListenerQueue(EventConsumer consumer, Executor executor, int maxQueuedEvents) {
+        this.executor = executor;
+        this.maxQueuedEvents = maxQueuedEvents;
+        this.listenerName = consumer.getEventListener().getClass().getName();
+    }
+
+    /**
+     * Adds events to this queue, and schedules the queue if it is not
+     * scheduled yet. The events are dropped if the queue is full. A single
+     * collection is always accepted by an empty queue, even if it contains
+     * more than the maximum number of events.
+     *
+     * @param consumer the consumer that delivers the events.
+     * @param events   the events.
+     * @return <code>true</code> if the events were queued,
+     *         <code>false</code> if they were dropped.
+     */
+    synchronized boolean offer(EventConsumer consumer, EventStateCollection events) {
+        if (closed) {
+            return false;
+        }
+        if (!entries.isEmpty()
+                && queuedEvents + events.size() > maxQueuedEvents) {
+            droppedEvents += events.size();
+            long now = System.currentTimeMillis();
+            // log a warning at most every 5 seconds (to avoid filling the log file)
+            if (now > lastError + 5000) {
+                log.warn("More than " + maxQueuedEvents + " events queued for "
+                        + listenerName + ", " + droppedEvents
+                        + " events dropped so far");
+                lastError = now;
+            }
+            return false;
+        }
+        entries.add(new Entry(consumer, events));
+        queuedEvents += events.size();
+        if (!scheduled && !schedule()) {
+            // the dispatcher has been disposed
+            entries.clear();
+            queuedEvents = 0;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Discards the pending events. Events that are added afterwards are
+     * ignored.
+     */
+    synchronized void close() {
+        closed = true;
+        entries.clear();
+        queuedEvents = 0;
+    }
+
+    /**
+     * Delivers a batch of pending events, and schedules this queue again
+     * if more events are pending. If the executor does not accept the
+     * queue anymore because the dispatcher is being disposed, the pending
+     * events are delivered by the current thread.
+     */
+    public void run() {
+        boolean more = true;
+        while (more) {
+            LinkedList<Entry> batch = new LinkedList<Entry>();
+            synchronized (this) {
+                while (!entries.isEmpty() && batch.size() < MAX_BATCH) {
+                    batch.add(entries.removeFirst());
+                }
+            }
+            for (Entry entry : batch) {
+                try {
+                    entry.consumer.consumeEvents(entry.events);
+                } catch (Throwable t) {
+                    log.warn("EventConsumer " + listenerName + " threw exception", t);
+                    // move on to the next events
+                }
+            }
+            synchronized (this) {
+                for (Entry entry : batch) {
+                    if (!closed) {
+                        queuedEvents -= entry.events.size();
+                    }
+                    deliveredEvents += entry.events.size();
+                }
+                if (entries.isEmpty()) {
+                    scheduled = false;
+                    more = false;
+                } else if (schedule()) {
+                    more = false;
+                } else {
+                    // drain the queue before the dispatcher terminates
+                    scheduled = true;
+                }
+            }
+        }
+    }
+
+    //------------------------------------------------------< statistics >
+
+    /**
+     * Returns the class name of the listener.
+     *
+     * @return the class name of the listener.
+     */
+    public String getListenerName() {
+        return listenerName;
+    }
+
+    /**
+     * Returns the number of events that wait for delivery.
+     *
+     * @return the number of queued events.
+     */
+    public synchronized int getQueuedEvents() {
+        return queuedEvents;
+    }
+
+    /**
+     * Returns the number of events passed to the listener.
+     *
+     * @return the number of delivered events.
+     */
+    public synchronized long getDeliveredEvents() {
+        return deliveredEvents;
+    }
+
+    /**
+     * Returns the number of events that were dropped because the queue
+     * was full.
+     *
+     * @return the number of dropped events.
+     */
+    public synchronized long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    /**
+     * Returns the time the oldest pending events are waiting for delivery.
+     *
+     * @return the lag of the listener in milliseconds, or <code>0</code>
+     *         if no events are pending.
+     */
+    public synchronized long getLag() {
+        if (entries.isEmpty()) {
+            return 0;
+        }
+        return System.currentTimeMillis() - entries.getFirst().time;
+    }
+
+    public String toString() {
+        return listenerName + " (queued: " + getQueuedEvents()
+                + ", delivered: " + getDeliveredEvents()
+                + ", dropped: " + getDroppedEvents()
+                + ", lag: " + getLag() + "ms)";
+    }
+
+    //-------------------------------------------------------< internal >
+
+    /**
+     * Submits this queue to the executor. The caller must hold the lock of
+     * this queue.
+     *
+     * @return <code>false</code> if the executor rejected this queue.
+     */
+    private boolean schedule() {
+        try {
+            executor.execute(this);
+            scheduled = true;
+            return true;
+        } catch (RejectedExecutionException e) {
+            log.debug("event delivery to " + listenerName + " rejected", e);
+            scheduled = false;
+            return false;
+        }
+    }
+
+    /**
+     * Events waiting for delivery.
+     */
+    private static final class Entry {
+
+        private final EventConsumer consumer;
+
+        private final EventStateCollection events;
+
+        /**
+         * The time the events were queued.
+         */
+        private final long time = System.currentTimeMillis();
+
+        private Entry(EventConsumer consumer, EventStateCollection events) {
+            this.consumer = consumer;
+            this.events = events;
+        }
+    }
+}
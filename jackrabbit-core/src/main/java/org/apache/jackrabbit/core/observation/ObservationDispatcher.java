@@ -16,11 +16,20 @@
  */
 package org.apache.jackrabbit.core.observation;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.jackrabbit.core.state.ChangeLog;
@@ -29,6 +38,18 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Dispatcher for dispatching events to listeners within a single workspace.
+ * <p>
+ * By default asynchronous events are delivered to all listeners by a single
+ * notification thread. If the system property
+ * <code>jackrabbit.observationThreads</code> is set to a positive number,
+ * events are delivered by a pool of that many threads instead. Each
+ * listener then has its own {@link ListenerQueue}, which delivers the
+ * events of the listener in order, but independent of other listeners.
+ * The queue of a listener holds at most
+ * <code>jackrabbit.maxQueuedEventsPerListener</code> events; further events
+ * for the listener are dropped, instead of delaying the sessions that save
+ * changes. Note that listeners registered by the same session may be
+ * notified concurrently in this mode.
  */
 public final class ObservationDispatcher extends EventDispatcher
         implements Runnable {
@@ -54,6 +75,22 @@ public final class ObservationDispatcher extends EventDispatcher
      */
     private static final int MAX_QUEUED_EVENTS = Integer.parseInt(System.getProperty("jackrabbit.maxQueuedEvents", "200000"));
 
+    /**
+     * The number of threads that deliver asynchronous events. The default
+     * value <code>0</code> delivers events to all listeners from a single
+     * notification thread. To change the default, set the system property
+     * jackrabbit.observationThreads to the required value.
+     */
+    private static final int OBSERVATION_THREADS = Integer.getInteger("jackrabbit.observationThreads", 0);
+
+    /**
+     * The maximum number of queued asynchronous events per listener, if
+     * events are delivered by a thread pool. Defaults to the value of
+     * jackrabbit.maxQueuedEvents, and can be changed with the system property
+     * jackrabbit.maxQueuedEventsPerListener.
+     */
+    private static final int MAX_QUEUED_EVENTS_PER_LISTENER = Integer.getInteger("jackrabbit.maxQueuedEventsPerListener", MAX_QUEUED_EVENTS);
+
     /**
      * Currently active <code>EventConsumer</code>s for notification.
      */
@@ -74,6 +111,16 @@ public final class ObservationDispatcher extends EventDispatcher
      */
     private Set<EventConsumer> synchronousReadOnlyConsumers;
 
+    /**
+     * Routing index of the {@link #activeConsumers}.
+     */
+    private EventRouter router;
+
+    /**
+     * Routing index of the {@link #synchronousConsumers}.
+     */
+    private EventRouter synchronousRouter;
+
     /**
      * synchronization monitor for listener changes
      */
@@ -87,10 +134,35 @@ public final class ObservationDispatcher extends EventDispatcher
     private AtomicInteger eventQueueSize = new AtomicInteger();
 
     /**
-     * The background notification thread
+     * The background notification thread, or <code>null</code> if events are
+     * delivered by the {@link #notificationPool}.
      */
     private Thread notificationThread;
 
+    /**
+     * The threads that deliver events, or <code>null</code> if events are
+     * delivered by the single {@link #notificationThread}.
+     */
+    private ExecutorService notificationPool;
+
+    /**
+     * The threads of the {@link #notificationPool}.
+     */
+    private final Set<Thread> notificationPoolThreads =
+            Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+    /**
+     * The maximum number of queued events per listener.
+     */
+    private final int maxQueuedEventsPerListener;
+
+    /**
+     * The event queues of the asynchronous listeners, if events are delivered
+     * by the {@link #notificationPool}.
+     */
+    private final Map<EventConsumer, ListenerQueue> listenerQueues =
+            new HashMap<EventConsumer, ListenerQueue>();
+
     private long lastError;
 
     /**
@@ -98,9 +170,43 @@ public final class ObservationDispatcher extends EventDispatcher
      * and starts the notification thread daemon.
      */
     public ObservationDispatcher() {
-        notificationThread = new Thread(this, "ObservationManager");
-        notificationThread.setDaemon(true);
-        notificationThread.start();
+        this(OBSERVATION_THREADS, MAX_QUEUED_EVENTS_PER_LISTENER);
+    }
+
+    /**
+     * Creates a new <code>ObservationDispatcher</code> instance.
+     *
+     * @param threads the number of threads that deliver asynchronous
+     *                events, or <code>0</code> to deliver them from a
+     *                single notification thread.
+     * @param maxQueuedEventsPerListener the maximum number of queued events
+     *                per listener, if <code>threads</code> is positive.
+     */
+    ObservationDispatcher(int threads, int maxQueuedEventsPerListener) {
+        this.maxQueuedEventsPerListener = maxQueuedEventsPerListener;
+        if (threads > 0) {
+            final AtomicInteger count = new AtomicInteger();
+            notificationPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ObservationManager-" + count.incrementAndGet()) {
+                        public void run() {
+                            notificationPoolThreads.add(this);
+                            try {
+                                super.run();
+                            } finally {
+                                notificationPoolThreads.remove(this);
+                            }
+                        }
+                    };
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        } else {
+            notificationThread = new Thread(this, "ObservationManager");
+            notificationThread.setDaemon(true);
+            notificationThread.start();
+        }
     }
 
     /**
@@ -108,16 +214,43 @@ public final class ObservationDispatcher extends EventDispatcher
      * effectively stop the background notification thread.
      */
     public void dispose() {
-        // dispatch dummy event to mark end of notification
-        eventQueue.add(DISPOSE_MARKER);
-        try {
-            notificationThread.join();
-        } catch (InterruptedException e) {
-            log.debug("while joining notificationThread", e);
+        if (notificationPool != null) {
+            notificationPool.shutdown();
+            try {
+                if (!notificationPool.awaitTermination(10, TimeUnit.SECONDS)) {
+                    log.warn("Event delivery did not finish in time, "
+                            + "pending events are discarded");
+                    notificationPool.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                log.debug("while awaiting termination of notificationPool", e);
+            }
+        } else {
+            // dispatch dummy event to mark end of notification
+            eventQueue.add(DISPOSE_MARKER);
+            try {
+                notificationThread.join();
+            } catch (InterruptedException e) {
+                log.debug("while joining notificationThread", e);
+            }
         }
         log.info("Notification of EventListeners stopped.");
     }
 
+    /**
+     * Returns the event queues of the asynchronous listeners, which provide
+     * the number of queued, delivered and dropped events and the lag of each
+     * listener. The list is empty unless events are delivered by a thread
+     * pool.
+     *
+     * @return the event queues of the asynchronous listeners.
+     */
+    public List<ListenerQueue> getListenerQueues() {
+        synchronized (consumerChange) {
+            return new ArrayList<ListenerQueue>(listenerQueues.values());
+        }
+    }
+
     /**
      * Returns an unmodifiable <code>Set</code> of <code>EventConsumer</code>s.
      *
@@ -141,6 +274,42 @@ public final class ObservationDispatcher extends EventDispatcher
         }
     }
 
+    /**
+     * Returns the asynchronous <code>EventConsumer</code>s that may be
+     * interested in the given events.
+     *
+     * @param events the events.
+     * @return the candidate <code>EventConsumer</code>s.
+     */
+    Set<EventConsumer> getAsynchronousConsumers(EventStateCollection events) {
+        EventRouter r;
+        synchronized (consumerChange) {
+            if (router == null) {
+                router = new EventRouter(getAsynchronousConsumers());
+            }
+            r = router;
+        }
+        return r.route(events);
+    }
+
+    /**
+     * Returns the synchronous <code>EventConsumer</code>s that may be
+     * interested in the given events.
+     *
+     * @param events the events.
+     * @return the candidate <code>EventConsumer</code>s.
+     */
+    Set<EventConsumer> getSynchronousConsumers(EventStateCollection events) {
+        EventRouter r;
+        synchronized (consumerChange) {
+            if (synchronousRouter == null) {
+                synchronousRouter = new EventRouter(getSynchronousConsumers());
+            }
+            r = synchronousRouter;
+        }
+        return r.route(events);
+    }
+
     /**
      * Implements the run method of the background notification
      * thread.
@@ -179,8 +348,8 @@ public final class ObservationDispatcher extends EventDispatcher
      */
     void prepareEvents(EventStateCollection events) {
         Set<EventConsumer> consumers = new HashSet<EventConsumer>();
-        consumers.addAll(getSynchronousConsumers());
-        consumers.addAll(getAsynchronousConsumers());
+        consumers.addAll(getSynchronousConsumers(events));
+        consumers.addAll(getAsynchronousConsumers(events));
         for (EventConsumer c : consumers) {
             c.prepareEvents(events);
         }
@@ -191,8 +360,8 @@ public final class ObservationDispatcher extends EventDispatcher
      */
     void prepareDeleted(EventStateCollection events, ChangeLog changes) {
         Set<EventConsumer> consumers = new HashSet<EventConsumer>();
-        consumers.addAll(getSynchronousConsumers());
-        consumers.addAll(getAsynchronousConsumers());
+        consumers.addAll(getSynchronousConsumers(events));
+        consumers.addAll(getAsynchronousConsumers(events));
         for (EventConsumer c : consumers) {
             c.prepareDeleted(events, changes.deletedStates());
         }
@@ -202,12 +371,14 @@ public final class ObservationDispatcher extends EventDispatcher
      * {@inheritDoc}
      * <p>
      * Dispatches the {@link EventStateCollection events} to all
-     * registered {@link javax.jcr.observation.EventListener}s.
+     * registered {@link javax.jcr.observation.EventListener}s. Listeners
+     * that are not interested in any of the events according to the
+     * {@link EventRouter} are skipped.
      */
     void dispatchEvents(EventStateCollection events) {
         // JCR-3426: log warning when changes are done
         // with the notification thread
-        if (Thread.currentThread() == notificationThread) {
+        if (isNotificationThread()) {
             log.warn("Save call with event notification thread detected. This " +
                     "may lead to a growing event queue. Enable debug log to " +
                     "see the stack trace with the class calling save().");
@@ -216,7 +387,7 @@ public final class ObservationDispatcher extends EventDispatcher
             }
         }
         // notify synchronous listeners
-        Set<EventConsumer> synchronous = getSynchronousConsumers();
+        Set<EventConsumer> synchronous = getSynchronousConsumers(events);
         if (log.isDebugEnabled()) {
             log.debug("notifying " + synchronous.size() + " synchronous listeners.");
         }
@@ -228,8 +399,20 @@ public final class ObservationDispatcher extends EventDispatcher
                 // move on to next consumer
             }
         }
-        eventQueue.add(new DispatchAction(events, getAsynchronousConsumers()));
-        eventQueueSize.addAndGet(events.size());
+        if (notificationPool != null) {
+            for (EventConsumer c : getAsynchronousConsumers(events)) {
+                ListenerQueue queue;
+                synchronized (consumerChange) {
+                    queue = listenerQueues.get(c);
+                }
+                if (queue != null) {
+                    queue.offer(c, events);
+                }
+            }
+        } else {
+            eventQueue.add(new DispatchAction(events, getAsynchronousConsumers(events)));
+            eventQueueSize.addAndGet(events.size());
+        }
     }
 
     /**
@@ -240,7 +423,9 @@ public final class ObservationDispatcher extends EventDispatcher
      * an observation listener writes to the repository.
      * <p>
      * This method should only be called outside the scope of internal
-     * repository access locks.
+     * repository access locks. If events are delivered by a thread pool,
+     * the queues of the listeners are bounded and this method never delays
+     * the current thread.
      */
     public void delayIfEventQueueOverloaded() {
         if (eventQueueSize.get() > MAX_QUEUED_EVENTS) {
@@ -252,7 +437,7 @@ public final class ObservationDispatcher extends EventDispatcher
                 log.warn("More than " + MAX_QUEUED_EVENTS + " events in the queue", new Exception("Stack Trace"));
                 lastError = now;
             }
-            if (Thread.currentThread() == notificationThread) {
+            if (isNotificationThread()) {
                 if (logWarning) {
                     log.warn("Recursive notification?");
                 }
@@ -282,6 +467,7 @@ public final class ObservationDispatcher extends EventDispatcher
                 synchronousConsumers.add(consumer);
                 // reset read only consumer set
                 synchronousReadOnlyConsumers = null;
+                synchronousRouter = null;
             } else {
                 // remove existing if any
                 activeConsumers.remove(consumer);
@@ -289,6 +475,13 @@ public final class ObservationDispatcher extends EventDispatcher
                 activeConsumers.add(consumer);
                 // reset read only consumer set
                 readOnlyConsumers = null;
+                router = null;
+                // keep the queue of a replaced consumer, so that its
+                // pending events are delivered in order
+                if (notificationPool != null && !listenerQueues.containsKey(consumer)) {
+                    listenerQueues.put(consumer, new ListenerQueue(
+                            consumer, notificationPool, maxQueuedEventsPerListener));
+                }
             }
         }
     }
@@ -303,11 +496,27 @@ public final class ObservationDispatcher extends EventDispatcher
                 synchronousConsumers.remove(consumer);
                 // reset read only listener set
                 synchronousReadOnlyConsumers = null;
+                synchronousRouter = null;
             } else {
                 activeConsumers.remove(consumer);
                 // reset read only listener set
                 readOnlyConsumers = null;
+                router = null;
+                ListenerQueue queue = listenerQueues.remove(consumer);
+                if (queue != null) {
+                    queue.close();
+                }
             }
         }
     }
+
+    /**
+     * Returns <code>true</code> if the current thread delivers asynchronous
+     * events.
+     */
+    private boolean isNotificationThread() {
+        Thread current = Thread.currentThread();
+        return current == notificationThread
+                || notificationPoolThreads.contains(current);
+    }
 }
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence;
+
+import java.util.Collection;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ItemStateException;
+
+/**
+ * Interface that is used by the shared item state manager to warm up the
+ * caches of a persistence manager with a set of nodes that are likely to be
+ * accessed soon, typically all the child nodes of a node whose child list
+ * is being iterated. This allows the persistence manager to load all the
+ * nodes with a few round trips instead of one round trip per node.
+ */
+public interface PrefetchingPersistenceManager extends PersistenceManager {
+
+    /**
+     * Loads the identified nodes into the cache of the persistence manager,
+     * so that later calls to {@link #load(NodeId)} can be answered without
+     * accessing the underlying storage. Nodes that are already cached or
+     * that do not exist are ignored.
+     *
+     * @param ids the ids of the nodes to prefetch
+     * @throws ItemStateException if an error while loading occurs.
+     */
+    void prefetch(Collection<NodeId> ids) throws ItemStateException;
+
+}
@@ -20,12 +20,20 @@ import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_MIXINTYPE
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_PRIMARYTYPE;
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_UUID;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
@@ -34,6 +42,7 @@ import org.apache.jackrabbit.api.stats.RepositoryStatistics;
 import org.apache.jackrabbit.core.cache.Cache;
 import org.apache.jackrabbit.core.cache.CacheAccessListener;
 import org.apache.jackrabbit.core.cache.ConcurrentCache;
+import org.apache.jackrabbit.core.cache.OffHeapCache;
 import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.fs.FileSystemResource;
@@ -44,10 +53,12 @@ import org.apache.jackrabbit.core.persistence.CachingPersistenceManager;
 import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
 import org.apache.jackrabbit.core.persistence.PMContext;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
+import org.apache.jackrabbit.core.persistence.PrefetchingPersistenceManager;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyCheckListener;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyChecker;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyReport;
 import org.apache.jackrabbit.core.persistence.util.BLOBStore;
+import org.apache.jackrabbit.core.persistence.util.BundleBinding;
 import org.apache.jackrabbit.core.persistence.util.FileBasedIndex;
 import org.apache.jackrabbit.core.persistence.util.NodeInfo;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
@@ -85,17 +96,28 @@ import org.slf4j.LoggerFactory;
  * <p>
  * In order to increase performance, there are two caches being maintained. One is the
  * bundle cache that caches already loaded bundles. The other is the
- * {@code LRUNodeIdCache} that caches non-existent bundles<!-- FIXME -->. This is useful
+ * missing bundle cache that caches the ids of non-existent bundles. This is useful
  * because a lot of {@link #exists(NodeId)} calls are issued that would result
- * in a useless persistence lookup if the desired bundle does not exist.
+ * in a useless persistence lookup if the desired bundle does not exist. The
+ * missing bundle cache is kept up to date by {@link #store(ChangeLog)} and
+ * {@link #onExternalUpdate(ChangeLog)}. If it is disabled, non-existent
+ * bundles are marked in the bundle cache instead.
+ * <p>
+ * Optionally, bundles evicted from the bundle cache are kept in serialized form
+ * in an {@link OffHeapCache}, which is consulted before loading a bundle from the
+ * underlying system. See {@link #setOffHeapBundleCacheSize(String)}.
  * <p>
  * Configuration:<br>
  * <ul>
  * <li>&lt;param name="{@link #setBundleCacheSize(String) bundleCacheSize}" value="8"/&gt;
+ * <li>&lt;param name="{@link #setMissingBundleCacheSize(String) missingBundleCacheSize}" value="1"/&gt;
+ * <li>&lt;param name="{@link #setConcurrentStore(String) concurrentStore}" value="false"/&gt;
+ * <li>&lt;param name="{@link #setOffHeapBundleCacheSize(String) offHeapBundleCacheSize}" value="0"/&gt;
  * </ul>
  */
 public abstract class AbstractBundlePersistenceManager implements
-    PersistenceManager, CachingPersistenceManager, IterablePersistenceManager, CacheAccessListener, ConsistencyChecker {
+    PersistenceManager, CachingPersistenceManager, IterablePersistenceManager,
+    PrefetchingPersistenceManager, CacheAccessListener, ConsistencyChecker {
 
     /** the audit logger */
     private static Logger auditLogger = LoggerFactory.getLogger("org.apache.jackrabbit.core.audit");
@@ -115,7 +137,10 @@ public abstract class AbstractBundlePersistenceManager implements
     /** the name of the namespace-index resource */
     protected static final String RES_NS_INDEX = "/namespaces.properties";
 
-    /** Sentinel instance used to mark a non-existent bundle in the cache */
+    /**
+     * Sentinel instance used to mark a non-existent bundle in the cache, if
+     * the missing bundle cache is disabled
+     */
     private static final NodePropBundle MISSING =
         new NodePropBundle(NodeId.randomId());
 
@@ -127,6 +152,12 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     private static final long MISSING_SIZE_ESTIMATE = 128;
 
+    /**
+     * Number of lock stripes used to guard bundles while a change log is
+     * stored in concurrent store mode. Must be a power of two.
+     */
+    private static final int STORE_LOCK_STRIPES = 64;
+
     /** the index for namespaces */
     private StringIndex nsIndex;
 
@@ -136,6 +167,18 @@ public abstract class AbstractBundlePersistenceManager implements
     /** the cache of loaded bundles */
     private ConcurrentCache<NodeId, NodePropBundle> bundles;
 
+    /**
+     * the cache of ids of non-existent bundles, or <code>null</code> if
+     * disabled
+     */
+    private ConcurrentCache<NodeId, NodeId> missingBundles;
+
+    /**
+     * the cache of serialized bundles evicted from the bundle cache, or
+     * <code>null</code> if disabled
+     */
+    private OffHeapCache<NodeId> offHeapBundles;
+
     /** The default minimum stats logging interval (in ms). */
     private static final int DEFAULT_LOG_STATS_INTERVAL = 60 * 1000;
 
@@ -154,6 +197,22 @@ public abstract class AbstractBundlePersistenceManager implements
     /** default size of the bundle cache */
     private long bundleCacheSize = 8 * 1024 * 1024;
 
+    /** default size of the missing bundle cache */
+    private long missingBundleCacheSize = 1024 * 1024;
+
+    /** size of the off-heap bundle cache, disabled by default */
+    private long offHeapBundleCacheSize = 0;
+
+    /**
+     * Flag indicating whether change logs that touch disjoint bundles may
+     * be stored concurrently.
+     * @see #setConcurrentStore(String)
+     */
+    private boolean concurrentStore = false;
+
+    /** the striped locks used in concurrent store mode */
+    private final ReentrantLock[] storeLocks = new ReentrantLock[STORE_LOCK_STRIPES];
+
     /** Counter of read operations. */
     private AtomicLong readCounter;
 
@@ -196,6 +255,103 @@ public abstract class AbstractBundlePersistenceManager implements
         this.bundleCacheSize = Long.parseLong(bundleCacheSize) * 1024 * 1024;
     }
 
+    /**
+     * Returns the size of the missing bundle cache in megabytes.
+     * @return the size of the missing bundle cache in megabytes.
+     */
+    public String getMissingBundleCacheSize() {
+        return String.valueOf(missingBundleCacheSize / (1024 * 1024));
+    }
+
+    /**
+     * Sets the size of the missing bundle cache in megabytes. The cache
+     * remembers the ids of bundles that do not exist, so that repeated
+     * lookups of these ids do not reach the underlying system. One megabyte
+     * holds about 8000 ids. The default is 1. If set to 0, non-existent
+     * bundles are marked in the bundle cache instead, where they compete
+     * with the loaded bundles.
+     *
+     * @param missingBundleCacheSize the missing bundle cache size in megabytes.
+     */
+    public void setMissingBundleCacheSize(String missingBundleCacheSize) {
+        this.missingBundleCacheSize =
+            Long.parseLong(missingBundleCacheSize) * 1024 * 1024;
+    }
+
+    /**
+     * Returns the size of the off-heap bundle cache in megabytes.
+     * @return the size of the off-heap bundle cache in megabytes.
+     */
+    public String getOffHeapBundleCacheSize() {
+        return String.valueOf(offHeapBundleCacheSize / (1024 * 1024));
+    }
+
+    /**
+     * Sets the size of the off-heap bundle cache in megabytes. Bundles
+     * evicted from the bundle cache are serialized into this cache, which
+     * lives outside of the Java heap and can therefore be much larger than
+     * the bundle cache without increasing garbage collection pauses. The
+     * JVM needs to be started with a large enough
+     * <code>-XX:MaxDirectMemorySize</code>. The default is 0, which
+     * disables the off-heap cache.
+     *
+     * @param offHeapBundleCacheSize the off-heap bundle cache size in megabytes.
+     */
+    public void setOffHeapBundleCacheSize(String offHeapBundleCacheSize) {
+        this.offHeapBundleCacheSize =
+            Long.parseLong(offHeapBundleCacheSize) * 1024 * 1024;
+    }
+
+    /**
+     * Returns <code>true</code> if change logs touching disjoint bundles
+     * are stored concurrently.
+     * @return the concurrent store flag.
+     */
+    public String getConcurrentStore() {
+        return Boolean.toString(concurrentStore);
+    }
+
+    /**
+     * Sets the concurrent store flag. By default every
+     * {@link #store(ChangeLog)} call is serialized on this persistence
+     * manager. If set to <code>true</code>, only change logs that touch
+     * the same bundles (or the references to the same node) are
+     * serialized, while all others are written to the underlying system
+     * at the same time. This only pays off with an <code>ISMLocking</code>
+     * strategy that admits concurrent writers, like
+     * {@link org.apache.jackrabbit.core.state.ConcurrentWriteISMLocking}.
+     * The flag is ignored by
+     * persistence managers that do not support concurrent writes, see
+     * {@link #supportsConcurrentStore()}. The default is
+     * <code>false</code>.
+     *
+     * @param concurrentStore "true" to enable concurrent stores.
+     */
+    public void setConcurrentStore(String concurrentStore) {
+        this.concurrentStore = Boolean.valueOf(concurrentStore).booleanValue();
+    }
+
+    /**
+     * Returns <code>true</code> if concurrent store mode is enabled.
+     * @return <code>true</code> if concurrent store mode is enabled.
+     */
+    protected boolean isConcurrentStore() {
+        return concurrentStore;
+    }
+
+    /**
+     * Returns <code>true</code> if the bundle and reference write methods
+     * of this persistence manager may be called by several threads at the
+     * same time for disjoint bundles. Only then is the concurrent store
+     * mode enabled. The default implementation returns <code>false</code>.
+     *
+     * @return <code>true</code> if concurrent stores are supported.
+     * @see #setConcurrentStore(String)
+     */
+    protected boolean supportsConcurrentStore() {
+        return false;
+    }
+
     /**
      * Creates the folder path for the given node id that is suitable for
      * storing states in a filesystem.
@@ -351,14 +507,14 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     public synchronized void onExternalUpdate(ChangeLog changes) {
         for (ItemState state : changes.modifiedStates()) {
-            bundles.remove(getBundleId(state));
+            evictBundle(getBundleId(state));
         }
         for (ItemState state : changes.deletedStates()) {
-            bundles.remove(getBundleId(state));
+            evictBundle(getBundleId(state));
         }
         for (ItemState state : changes.addedStates()) {
             // There may have been a cache miss entry
-            bundles.remove(getBundleId(state));
+            evictBundle(getBundleId(state));
         }
     }
 
@@ -395,6 +551,30 @@ public abstract class AbstractBundlePersistenceManager implements
     protected abstract NodePropBundle loadBundle(NodeId id)
             throws ItemStateException;
 
+    /**
+     * Loads a number of bundles from the underlying system. The default
+     * implementation calls {@link #loadBundle(NodeId)} for each id;
+     * subclasses should override this method if the underlying system
+     * is able to load several bundles in one go.
+     *
+     * @param ids the node ids of the bundles
+     * @return the loaded bundles, keyed by node id. Bundles that do not
+     *         exist are not contained in the map.
+     * @throws ItemStateException if an error while loading occurs.
+     */
+    protected Map<NodeId, NodePropBundle> loadBundles(Collection<NodeId> ids)
+            throws ItemStateException {
+        Map<NodeId, NodePropBundle> result =
+            new HashMap<NodeId, NodePropBundle>(ids.size());
+        for (NodeId id : ids) {
+            NodePropBundle bundle = loadBundle(id);
+            if (bundle != null) {
+                result.put(id, bundle);
+            }
+        }
+        return result;
+    }
+
     /**
      * Stores a bundle to the underlying system.
      *
@@ -439,6 +619,17 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     protected abstract BLOBStore getBlobStore();
 
+    /**
+     * Returns the binding used to serialize bundles for the off-heap bundle
+     * cache. The default implementation returns <code>null</code>, which
+     * disables the off-heap bundle cache.
+     *
+     * @return the bundle binding, or <code>null</code>
+     */
+    protected BundleBinding getBundleBinding() {
+        return null;
+    }
+
     //-------------------------------------------------< PersistenceManager >---
 
     /**
@@ -448,10 +639,43 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     public void init(PMContext context) throws Exception {
         this.context = context;
+        if (concurrentStore && !supportsConcurrentStore()) {
+            log.warn("{} does not support concurrent stores,"
+                    + " ignoring concurrentStore=true", getClass().getName());
+            concurrentStore = false;
+        }
+        for (int i = 0; i < storeLocks.length; i++) {
+            storeLocks[i] = new ReentrantLock();
+        }
         // init bundle cache
-        bundles = new ConcurrentCache<NodeId, NodePropBundle>(context.getHomeDir().getName() + "BundleCache");
+        if (offHeapBundleCacheSize > 0) {
+            offHeapBundles = new OffHeapCache<NodeId>(
+                    context.getHomeDir().getName() + "OffHeapBundleCache",
+                    offHeapBundleCacheSize);
+            bundles = new ConcurrentCache<NodeId, NodePropBundle>(context.getHomeDir().getName() + "BundleCache") {
+                @Override
+                protected Runnable evicted(NodeId id, final NodePropBundle bundle) {
+                    if (bundle == MISSING) {
+                        return null;
+                    }
+                    final long invalidationCount =
+                        offHeapBundles.getInvalidationCount();
+                    return new Runnable() {
+                        public void run() {
+                            demoteBundle(bundle, invalidationCount);
+                        }
+                    };
+                }
+            };
+        } else {
+            bundles = new ConcurrentCache<NodeId, NodePropBundle>(context.getHomeDir().getName() + "BundleCache");
+        }
         bundles.setMaxMemorySize(bundleCacheSize);
         bundles.setAccessListener(this);
+        if (missingBundleCacheSize > 0) {
+            missingBundles = new ConcurrentCache<NodeId, NodeId>(context.getHomeDir().getName() + "MissingBundleCache");
+            missingBundles.setMaxMemorySize(missingBundleCacheSize);
+        }
 
         // statistics
         RepositoryStatisticsImpl stats = context.getRepositoryStatistics();
@@ -479,6 +703,12 @@ public abstract class AbstractBundlePersistenceManager implements
     public void close() throws Exception {
         // clear caches
         bundles.clear();
+        if (missingBundles != null) {
+            missingBundles.clear();
+        }
+        if (offHeapBundles != null) {
+            offHeapBundles.clear();
+        }
     }
 
     /**
@@ -583,10 +813,38 @@ public abstract class AbstractBundlePersistenceManager implements
      * or node references objects. Properly implemented, this method
      * should ensure that changes are either written completely to
      * the underlying persistence layer, or not at all.
+     * <p>
+     * The actual work is done by {@link #storeChanges(ChangeLog)} either
+     * while synchronized on this persistence manager or, in concurrent
+     * store mode, while holding the locks of all bundles in the change log.
      *
      * {@inheritDoc}
      */
-    public synchronized void store(ChangeLog changeLog)
+    public void store(ChangeLog changeLog) throws ItemStateException {
+        if (concurrentStore) {
+            ReentrantLock[] locks = lockBundles(changeLog);
+            try {
+                storeChanges(changeLog);
+            } finally {
+                unlockBundles(locks);
+            }
+        } else {
+            synchronized (this) {
+                storeChanges(changeLog);
+            }
+        }
+    }
+
+    /**
+     * Stores the given changelog and clears the bundle cache if this fails.
+     * Called by {@link #store(ChangeLog)} once no other change log touching
+     * the same bundles can be stored concurrently. Subclasses may override
+     * this method to wrap the store in a transaction.
+     *
+     * @param changeLog the changelog to store
+     * @throws ItemStateException on failure
+     */
+    protected void storeChanges(ChangeLog changeLog)
             throws ItemStateException {
         boolean success = false;
         try {
@@ -595,6 +853,12 @@ public abstract class AbstractBundlePersistenceManager implements
         } finally {
             if (!success) {
                 bundles.clear();
+                if (missingBundles != null) {
+                    missingBundles.clear();
+                }
+                if (offHeapBundles != null) {
+                    offHeapBundles.clear();
+                }
             }
         }
     }
@@ -727,6 +991,77 @@ public abstract class AbstractBundlePersistenceManager implements
         }
     }
 
+    /**
+     * Acquires the striped locks of all bundles and node references
+     * affected by the given change log. The locks are acquired in ascending
+     * stripe order, so that two change logs can never deadlock.
+     *
+     * @param changeLog the change log
+     * @return the acquired locks
+     */
+    private ReentrantLock[] lockBundles(ChangeLog changeLog) {
+        Set<Integer> stripes = new TreeSet<Integer>();
+        for (ItemState state : changeLog.addedStates()) {
+            stripes.add(getStoreLockStripe(getBundleId(state)));
+        }
+        for (ItemState state : changeLog.modifiedStates()) {
+            stripes.add(getStoreLockStripe(getBundleId(state)));
+        }
+        for (ItemState state : changeLog.deletedStates()) {
+            stripes.add(getStoreLockStripe(getBundleId(state)));
+        }
+        for (NodeReferences refs : changeLog.modifiedRefs()) {
+            stripes.add(getStoreLockStripe(refs.getTargetId()));
+        }
+        return lockStripes(stripes);
+    }
+
+    /**
+     * Acquires the striped locks of the given bundles, in the same order as
+     * {@link #lockBundles(ChangeLog)}.
+     *
+     * @param ids the bundle ids
+     * @return the acquired locks
+     */
+    private ReentrantLock[] lockBundles(Collection<NodeId> ids) {
+        Set<Integer> stripes = new TreeSet<Integer>();
+        for (NodeId id : ids) {
+            stripes.add(getStoreLockStripe(id));
+        }
+        return lockStripes(stripes);
+    }
+
+    /**
+     * Acquires the given lock stripes in iteration order.
+     *
+     * @param stripes the stripes, in ascending order
+     * @return the acquired locks
+     */
+    private ReentrantLock[] lockStripes(Set<Integer> stripes) {
+        ReentrantLock[] locks = new ReentrantLock[stripes.size()];
+        int i = 0;
+        for (Integer stripe : stripes) {
+            locks[i] = storeLocks[stripe];
+            locks[i++].lock();
+        }
+        return locks;
+    }
+
+    /**
+     * Releases the locks acquired by {@link #lockStripes(Set)}.
+     *
+     * @param locks the locks to release
+     */
+    private void unlockBundles(ReentrantLock[] locks) {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    private static int getStoreLockStripe(NodeId id) {
+        return id.hashCode() & (STORE_LOCK_STRIPES - 1);
+    }
+
     /**
      * Gets the bundle for the given node id. Read/write synchronization
      * happens higher up at the SISM level, so we don't need to worry about
@@ -746,6 +1081,9 @@ public abstract class AbstractBundlePersistenceManager implements
         if (bundle != null) {
             return bundle;
         }
+        if (missingBundles != null && missingBundles.get(id) != null) {
+            return null;
+        }
         // cache miss
         return getBundleCacheMiss(id);
     }
@@ -762,6 +1100,13 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     private NodePropBundle getBundleCacheMiss(NodeId id)
             throws ItemStateException {
+        if (offHeapBundles != null) {
+            NodePropBundle bundle = getOffHeapBundle(id);
+            if (bundle != null) {
+                bundles.put(id, bundle, bundle.getSize());
+                return bundle;
+            }
+        }
         long time = System.nanoTime();
         NodePropBundle bundle = loadBundle(id);
         time = System.nanoTime() - time;
@@ -773,11 +1118,143 @@ public abstract class AbstractBundlePersistenceManager implements
             bundle.markOld();
             bundles.put(id, bundle, bundle.getSize());
         } else {
-            bundles.put(id, MISSING, MISSING_SIZE_ESTIMATE);
+            markMissing(id);
         }
         return bundle;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Loads all the bundles that are neither in one of the bundle caches nor
+     * known to be missing with a single call to {@link #loadBundles(Collection)}.
+     */
+    public void prefetch(Collection<NodeId> ids) throws ItemStateException {
+        List<NodeId> uncached = new ArrayList<NodeId>(ids.size());
+        for (NodeId id : ids) {
+            if (bundles.containsKey(id)
+                    || (missingBundles != null && missingBundles.containsKey(id))) {
+                continue;
+            }
+            NodePropBundle bundle = null;
+            if (offHeapBundles != null) {
+                bundle = getOffHeapBundle(id);
+            }
+            if (bundle != null) {
+                bundles.put(id, bundle, bundle.getSize());
+            } else {
+                uncached.add(id);
+            }
+        }
+        if (uncached.isEmpty()) {
+            return;
+        }
+
+        // the caller only holds a read lock for one of the bundles, so
+        // exclude concurrent stores to avoid caching outdated bundles
+        if (concurrentStore) {
+            ReentrantLock[] locks = lockBundles(uncached);
+            try {
+                prefetchUncached(uncached);
+            } finally {
+                unlockBundles(locks);
+            }
+        } else {
+            synchronized (this) {
+                prefetchUncached(uncached);
+            }
+        }
+    }
+
+    /**
+     * Loads the given bundles with a single call to
+     * {@link #loadBundles(Collection)} and puts them to the cache.
+     *
+     * @param uncached ids of the bundles that are not cached
+     * @throws ItemStateException if an error occurs
+     */
+    private void prefetchUncached(List<NodeId> uncached)
+            throws ItemStateException {
+        long time = System.nanoTime();
+        Map<NodeId, NodePropBundle> loaded = loadBundles(uncached);
+        time = System.nanoTime() - time;
+        cacheMissDuration.addAndGet(time);
+        log.debug("Prefetched {} bundles in {}ms", uncached.size(), time / 1000000);
+        cacheMissCounter.addAndGet(uncached.size());
+        for (NodeId id : uncached) {
+            NodePropBundle bundle = loaded.get(id);
+            if (bundle != null) {
+                bundle.markOld();
+                bundles.put(id, bundle, bundle.getSize());
+            } else {
+                markMissing(id);
+            }
+        }
+    }
+
+    /**
+     * Remembers that the bundle with the given id does not exist.
+     *
+     * @param id the id of the non-existent bundle
+     */
+    private void markMissing(NodeId id) {
+        if (missingBundles != null) {
+            bundles.remove(id);
+            missingBundles.put(id, id, MISSING_SIZE_ESTIMATE);
+        } else {
+            bundles.put(id, MISSING, MISSING_SIZE_ESTIMATE);
+        }
+    }
+
+    /**
+     * Reads the bundle with the given id from the off-heap bundle cache.
+     *
+     * @param id the id of the bundle
+     * @return the bundle, or <code>null</code> if it is not in the off-heap cache
+     */
+    private NodePropBundle getOffHeapBundle(NodeId id) {
+        BundleBinding binding = getBundleBinding();
+        byte[] data = offHeapBundles.get(id);
+        if (binding == null || data == null) {
+            return null;
+        }
+        try {
+            NodePropBundle bundle =
+                binding.readBundle(new ByteArrayInputStream(data), id);
+            bundle.markOld();
+            return bundle;
+        } catch (IOException e) {
+            log.warn("Unable to read bundle " + id + " from off-heap cache", e);
+            offHeapBundles.remove(id);
+            return null;
+        }
+    }
+
+    /**
+     * Serializes a bundle evicted from the bundle cache into the off-heap
+     * bundle cache. Called after the bundle cache segment of the bundle has
+     * been unlocked, so the bundle is only written if the off-heap cache
+     * has not been invalidated since the eviction, for example by
+     * {@link #putBundle(NodePropBundle)}.
+     *
+     * @param bundle the evicted bundle
+     * @param invalidationCount the invalidation count of the off-heap
+     *                          cache when the bundle was evicted
+     */
+    private void demoteBundle(NodePropBundle bundle, long invalidationCount) {
+        BundleBinding binding = getBundleBinding();
+        if (binding == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+            binding.writeBundle(out, bundle);
+            offHeapBundles.put(bundle.getId(), out.toByteArray(), invalidationCount);
+        } catch (IOException e) {
+            log.debug("Unable to move bundle " + bundle.getId() + " to off-heap cache", e);
+        }
+    }
+
     /**
      * Deletes the bundle
      *
@@ -787,7 +1264,10 @@ public abstract class AbstractBundlePersistenceManager implements
     private void deleteBundle(NodePropBundle bundle) throws ItemStateException {
         destroyBundle(bundle);
         bundle.removeAllProperties(getBlobStore());
-        bundles.put(bundle.getId(), MISSING, MISSING_SIZE_ESTIMATE);
+        markMissing(bundle.getId());
+        if (offHeapBundles != null) {
+            offHeapBundles.remove(bundle.getId());
+        }
     }
 
     /**
@@ -810,11 +1290,17 @@ public abstract class AbstractBundlePersistenceManager implements
 
         bundle.markOld();
 
-        // only put to cache if already exists. this is to ensure proper
-        // overwrite and not creating big contention during bulk loads
-        if (bundles.containsKey(bundle.getId())) {
+        // only put to cache if already exists or was known to be missing.
+        // this is to ensure proper overwrite and not creating big contention
+        // during bulk loads
+        boolean wasMissing = missingBundles != null
+            && missingBundles.remove(bundle.getId()) != null;
+        if (wasMissing || bundles.containsKey(bundle.getId())) {
             bundles.put(bundle.getId(), bundle, bundle.getSize());
         }
+        if (offHeapBundles != null) {
+            offHeapBundles.remove(bundle.getId());
+        }
     }
 
     /**
@@ -859,6 +1345,12 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     protected void evictBundle(NodeId id) {
         bundles.remove(id);
+        if (missingBundles != null) {
+            missingBundles.remove(id);
+        }
+        if (offHeapBundles != null) {
+            offHeapBundles.remove(id);
+        }
     }
 
     public void cacheAccessed(long accessCount) {
@@ -874,6 +1366,12 @@ public abstract class AbstractBundlePersistenceManager implements
                 return;
             }
             log.info(bundles.getCacheInfoAsString());
+            if (missingBundles != null) {
+                log.info(missingBundles.getCacheInfoAsString());
+            }
+            if (offHeapBundles != null) {
+                log.info(offHeapBundles.getCacheInfoAsString());
+            }
             nextLogStats = now + minLogStatsInterval;
         }
     }
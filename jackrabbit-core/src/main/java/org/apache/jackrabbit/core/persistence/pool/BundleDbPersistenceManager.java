@@ -26,9 +26,13 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.jcr.RepositoryException;
 import javax.sql.DataSource;
@@ -81,6 +85,7 @@ import org.slf4j.LoggerFactory;
  * <li>&lt;param name="{@link #setErrorHandling(String) errorHandling}" value=""/&gt;
  * <li>&lt;param name="{@link #setBlockOnConnectionLoss(String) blockOnConnectionLoss}" value="false"/&gt;
  * <li>&lt;param name="{@link #setSchemaCheckEnabled(boolean) schemaCheckEnabled}" value="true"/&gt;
+ * <li>&lt;param name="{@link #setBatchWrites(String) batchWrites}" value="false"/&gt;
  * </ul>
  */
 public class BundleDbPersistenceManager
@@ -131,12 +136,18 @@ public class BundleDbPersistenceManager
     /** initial size of buffer used to serialize objects */
     protected static final int INITIAL_BUFFER_SIZE = 1024;
 
+    /** maximum number of bundles loaded with a single select statement */
+    protected static final int BUNDLE_SELECT_BATCH_SIZE = 100;
+
     /** indicates if uses (filesystem) blob store */
     protected boolean externalBLOBs;
 
     /** indicates whether to block if the database connection is lost */
     protected boolean blockOnConnectionLoss;
 
+    /** indicates whether the writes of a change log are sent as JDBC batches */
+    protected boolean batchWrites;
+
     // SQL statements for bundle management
     protected String bundleInsertSQL;
     protected String bundleUpdateSQL;
@@ -190,6 +201,14 @@ public class BundleDbPersistenceManager
      */
     private ConnectionFactory connectionFactory;
 
+    /**
+     * The writes collected while the current thread stores a change log in
+     * batch write mode, or <code>null</code> if the writes are executed
+     * immediately.
+     */
+    private final ThreadLocal<PendingWrites> pendingWrites =
+        new ThreadLocal<PendingWrites>();
+
     /**
      * {@inheritDoc}
      */
@@ -435,6 +454,30 @@ public class BundleDbPersistenceManager
         return Boolean.toString(blockOnConnectionLoss);
     }
 
+    /**
+     * Returns <code>true</code> if the bundle and reference writes of a
+     * change log are sent to the database as JDBC batches.
+     * @return the batch writes flag.
+     */
+    public String getBatchWrites() {
+        return Boolean.toString(batchWrites);
+    }
+
+    /**
+     * Defines whether the bundle and node reference writes of a change log
+     * are collected and sent to the database as JDBC batch statements when
+     * the change log is stored, instead of one statement per bundle. Node
+     * references are then written as a delete followed by an insert, which
+     * saves the existence check. Databases whose {@link ConnectionHelper}
+     * does not support batch updates fall back to single statements.
+     * The default is <code>false</code>.
+     *
+     * @param batchWrites the batch writes flag.
+     */
+    public void setBatchWrites(String batchWrites) {
+        this.batchWrites = Boolean.valueOf(batchWrites).booleanValue();
+    }
+
     /**
      * Returns <code>true</code> if the blobs are stored in the DB.
      * @return <code>true</code> if the blobs are stored in the DB.
@@ -468,18 +511,36 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      *
-     * Basically wraps a JDBC transaction around super.store().
+     * @return <code>true</code>, the bundle and reference write methods
+     *         only use the batch connection bound to the current thread.
+     */
+    @Override
+    protected boolean supportsConcurrentStore() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Basically wraps a JDBC transaction around super.storeChanges(). The
+     * batch connection of the {@link ConnectionHelper} is bound to the
+     * current thread, so in concurrent store mode every change log is
+     * written in its own transaction.
      * 
      * FIXME: the retry logic is almost a duplicate of {@code ConnectionHelper.RetryManager}.
      */
-    public synchronized void store(final ChangeLog changeLog) throws ItemStateException {
+    protected void storeChanges(final ChangeLog changeLog) throws ItemStateException {
         int failures = 0;
         ItemStateException lastException = null;
         boolean sleepInterrupted = false;
         while (!sleepInterrupted && (blockOnConnectionLoss || failures <= 1)) {
             try {
                 conHelper.startBatch();
-                super.store(changeLog);
+                if (batchWrites) {
+                    storeBatched(changeLog);
+                } else {
+                    super.storeChanges(changeLog);
+                }
                 conHelper.endBatch(true);
                 return;
             } catch (SQLException e) {
@@ -516,6 +577,44 @@ public class BundleDbPersistenceManager
         throw lastException;
     }
 
+    /**
+     * Stores the given change log while collecting all bundle and reference
+     * writes, and then executes them as JDBC batches. Deletes are executed
+     * first, so that a bundle deleted and re-added in the same change log
+     * ends up in the database. If the batches fail, all
+     * affected bundles are evicted from the bundle cache.
+     *
+     * @param changeLog the change log to store
+     * @throws ItemStateException on failure
+     */
+    private void storeBatched(ChangeLog changeLog) throws ItemStateException {
+        PendingWrites writes = new PendingWrites();
+        pendingWrites.set(writes);
+        try {
+            super.storeChanges(changeLog);
+        } finally {
+            pendingWrites.remove();
+        }
+        String[] order = new String[] {
+                bundleDeleteSQL, bundleInsertSQL, bundleUpdateSQL,
+                nodeReferenceDeleteSQL, nodeReferenceInsertSQL };
+        try {
+            for (String sql : order) {
+                List<Object[]> params = writes.statements.get(sql);
+                if (params != null) {
+                    conHelper.updateBatch(sql, params);
+                }
+            }
+        } catch (SQLException e) {
+            for (NodeId id : writes.bundleIds) {
+                evictBundle(id);
+            }
+            String msg = "failed to write batch of " + writes.bundleIds.size() + " bundles";
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        }
+    }
+
     private boolean isIntegrityConstraintViolation(Throwable t) {
         if (t instanceof SQLException) {
             String state = ((SQLException) t).getSQLState();
@@ -612,6 +711,14 @@ public class BundleDbPersistenceManager
         return blobStore;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected BundleBinding getBundleBinding() {
+        return binding;
+    }
+
     /**
      * Creates a suitable blobstore
      * @return a blobstore
@@ -903,6 +1010,88 @@ public class BundleDbPersistenceManager
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Loads the bundles with <code>select ... where NODE_ID in (...)</code>
+     * statements of at most {@link #BUNDLE_SELECT_BATCH_SIZE} ids each.
+     */
+    @Override
+    protected Map<NodeId, NodePropBundle> loadBundles(Collection<NodeId> ids)
+            throws ItemStateException {
+        Map<NodeId, NodePropBundle> result =
+            new HashMap<NodeId, NodePropBundle>(ids.size());
+        List<NodeId> batch = new ArrayList<NodeId>(BUNDLE_SELECT_BATCH_SIZE);
+        for (NodeId id : ids) {
+            batch.add(id);
+            if (batch.size() == BUNDLE_SELECT_BATCH_SIZE) {
+                loadBundles(batch, result);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            loadBundles(batch, result);
+        }
+        return result;
+    }
+
+    /**
+     * Loads the given bundles with a single select statement.
+     *
+     * @param ids the node ids of the bundles
+     * @param result map to which the loaded bundles are added
+     * @throws ItemStateException if an error while loading occurs.
+     */
+    private void loadBundles(List<NodeId> ids, Map<NodeId, NodePropBundle> result)
+            throws ItemStateException {
+        boolean binaryKeys = getStorageModel() == SM_BINARY_KEYS;
+        StringBuilder sql = new StringBuilder();
+        List<Object> params = new ArrayList<Object>();
+        if (binaryKeys) {
+            sql.append("select NODE_ID, BUNDLE_DATA from ");
+            sql.append(schemaObjectPrefix).append("BUNDLE where NODE_ID in (");
+            for (int i = 0; i < ids.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+                params.add(ids.get(i).getRawBytes());
+            }
+            sql.append(")");
+        } else {
+            // not all databases support WHERE (NODE_ID_HI, NODE_ID_LO) IN (...)
+            sql.append("select NODE_ID_HI, NODE_ID_LO, BUNDLE_DATA from ");
+            sql.append(schemaObjectPrefix).append("BUNDLE where ");
+            for (int i = 0; i < ids.size(); i++) {
+                if (i > 0) {
+                    sql.append(" or ");
+                }
+                sql.append("(NODE_ID_HI = ? and NODE_ID_LO = ?)");
+                params.add(ids.get(i).getMostSignificantBits());
+                params.add(ids.get(i).getLeastSignificantBits());
+            }
+        }
+
+        ResultSet rs = null;
+        try {
+            rs = conHelper.exec(sql.toString(), params.toArray(), false, 0);
+            while (rs.next()) {
+                NodeId id;
+                if (binaryKeys) {
+                    id = new NodeId(rs.getBytes(1));
+                } else {
+                    id = new NodeId(rs.getLong(1), rs.getLong(2));
+                }
+                result.put(id, readBundle(id, rs, binaryKeys ? 2 : 3));
+            }
+        } catch (SQLException e) {
+            String msg = "failed to read " + ids.size()
+                + " bundles (stacktrace on DEBUG log level): " + e;
+            log.error(msg);
+            log.debug("failed to read bundles: " + ids, e);
+            throw new ItemStateException(msg, e);
+        } finally {
+            DbUtility.close(rs);
+        }
+    }
+
     /**
      * Reads and parses a bundle from the BLOB in the given column of the
      * current row of the given result set. This is a helper method to
@@ -939,7 +1128,7 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      */
-    protected synchronized void storeBundle(NodePropBundle bundle) throws ItemStateException {
+    protected void storeBundle(NodePropBundle bundle) throws ItemStateException {
         try {
             ByteArrayOutputStream out =
                 new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
@@ -947,7 +1136,12 @@ public class BundleDbPersistenceManager
 
             String sql = bundle.isNew() ? bundleInsertSQL : bundleUpdateSQL;
             Object[] params = createParams(bundle.getId(), out.toByteArray(), true);
-            conHelper.update(sql, params);
+            PendingWrites writes = pendingWrites.get();
+            if (writes != null) {
+                writes.add(sql, params, bundle.getId());
+            } else {
+                conHelper.update(sql, params);
+            }
         } catch (Exception e) {
             String msg;
 
@@ -968,9 +1162,14 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      */
-    protected synchronized void destroyBundle(NodePropBundle bundle) throws ItemStateException {
+    protected void destroyBundle(NodePropBundle bundle) throws ItemStateException {
         try {
-            conHelper.update(bundleDeleteSQL, getKey(bundle.getId()));
+            PendingWrites writes = pendingWrites.get();
+            if (writes != null) {
+                writes.add(bundleDeleteSQL, getKey(bundle.getId()), bundle.getId());
+            } else {
+                conHelper.update(bundleDeleteSQL, getKey(bundle.getId()));
+            }
         } catch (Exception e) {
             if (e instanceof NoSuchItemStateException) {
                 throw (NoSuchItemStateException) e;
@@ -984,7 +1183,7 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      */
-    public synchronized NodeReferences loadReferencesTo(NodeId targetId)
+    public NodeReferences loadReferencesTo(NodeId targetId)
             throws NoSuchItemStateException, ItemStateException {
         if (!initialized) {
             throw new IllegalStateException("not initialized");
@@ -1019,17 +1218,34 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      *
-     * This method uses shared <code>PreparedStatements</code>, which must
-     * be used strictly sequentially. Because this method synchronizes on the
-     * persistence manager instance, there is no need to synchronize on the
-     * shared statement. If the method would not be synchronized, the shared
-     * statement must be synchronized.
+     * This method does not synchronize on the persistence manager instance.
+     * The {@link ConnectionHelper} prepares a new statement for every call
+     * and binds the batch connection to the current thread, which allows
+     * change logs to be stored concurrently.
      */
-    public synchronized void store(NodeReferences refs) throws ItemStateException {
+    public void store(NodeReferences refs) throws ItemStateException {
         if (!initialized) {
             throw new IllegalStateException("not initialized");
         }
 
+        PendingWrites writes = pendingWrites.get();
+        if (writes != null) {
+            ByteArrayOutputStream out =
+                    new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+            try {
+                Serializer.serialize(refs, out);
+            } catch (Exception e) {
+                String msg = "failed to write " + refs;
+                log.error(msg, e);
+                throw new ItemStateException(msg, e);
+            }
+            // replace any existing references without checking for them
+            writes.add(nodeReferenceDeleteSQL, getKey(refs.getTargetId()), null);
+            writes.add(nodeReferenceInsertSQL,
+                    createParams(refs.getTargetId(), out.toByteArray(), true), null);
+            return;
+        }
+
         // check if insert or update
         boolean update = existsReferencesTo(refs.getTargetId());
         String sql = (update) ? nodeReferenceUpdateSQL : nodeReferenceInsertSQL;
@@ -1055,13 +1271,18 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      */
-    public synchronized void destroy(NodeReferences refs) throws ItemStateException {
+    public void destroy(NodeReferences refs) throws ItemStateException {
         if (!initialized) {
             throw new IllegalStateException("not initialized");
         }
 
         try {
-            conHelper.exec(nodeReferenceDeleteSQL, getKey(refs.getTargetId()));
+            PendingWrites writes = pendingWrites.get();
+            if (writes != null) {
+                writes.add(nodeReferenceDeleteSQL, getKey(refs.getTargetId()), null);
+            } else {
+                conHelper.exec(nodeReferenceDeleteSQL, getKey(refs.getTargetId()));
+            }
         } catch (Exception e) {
             if (e instanceof NoSuchItemStateException) {
                 throw (NoSuchItemStateException) e;
@@ -1075,7 +1296,7 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      */
-    public synchronized boolean existsReferencesTo(NodeId targetId) throws ItemStateException {
+    public boolean existsReferencesTo(NodeId targetId) throws ItemStateException {
         if (!initialized) {
             throw new IllegalStateException("not initialized");
         }
@@ -1160,6 +1381,39 @@ public class BundleDbPersistenceManager
 
     }
 
+    /**
+     * The statement parameters collected while a change log is stored in
+     * batch write mode, grouped by SQL statement.
+     */
+    private static final class PendingWrites {
+
+        /** the parameters of all statement executions, by SQL statement */
+        private final Map<String, List<Object[]>> statements =
+            new HashMap<String, List<Object[]>>();
+
+        /** the ids of all written or deleted bundles */
+        private final Set<NodeId> bundleIds = new HashSet<NodeId>();
+
+        /**
+         * Adds a statement execution to this batch.
+         *
+         * @param sql the SQL statement
+         * @param params the parameters of the statement
+         * @param bundleId the id of the affected bundle or <code>null</code>
+         */
+        void add(String sql, Object[] params, NodeId bundleId) {
+            List<Object[]> list = statements.get(sql);
+            if (list == null) {
+                list = new ArrayList<Object[]>();
+                statements.put(sql, list);
+            }
+            list.add(params);
+            if (bundleId != null) {
+                bundleIds.add(bundleId);
+            }
+        }
+    }
+
     /**
      * Helper interface for closeable stores
      */
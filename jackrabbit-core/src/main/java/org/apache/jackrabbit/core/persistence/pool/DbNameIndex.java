@@ -28,8 +28,8 @@ import org.apache.jackrabbit.core.util.db.DbUtility;
  * Implements a {@link StringIndex} that stores and retrieves the names from a
  * table in a database.
  * <p>
- * Note that this class is not threadsafe by itself. it needs to be synchronized
- * by the using application.
+ * The lookup methods synchronize on the index instance, as they may be
+ * called by concurrently stored change logs.
  * <p>
  * Due to a bug with oracle that treats empty strings a null values
  * (see JCR-815), all empty strings are replaced by a ' '. since names never
@@ -84,7 +84,7 @@ public class DbNameIndex implements StringIndex {
     /**
      * {@inheritDoc}
      */
-    public int stringToIndex(String string) {
+    public synchronized int stringToIndex(String string) {
         // check cache
         Integer index = string2Index.get(string);
         if (index == null) {
@@ -105,7 +105,7 @@ public class DbNameIndex implements StringIndex {
     /**
      * {@inheritDoc}
      */
-    public String indexToString(int idx) throws IllegalArgumentException {
+    public synchronized String indexToString(int idx) throws IllegalArgumentException {
         // check cache
         Integer index = Integer.valueOf(idx);
         String s = index2String.get(index);
@@ -353,12 +353,22 @@ abstract class AbstractIndex {
             mergePolicy.setNoCFSRatio(1.0);
             config.setMergePolicy(mergePolicy);
 
-            indexWriter = new IndexWriter(getDirectory(), config);
+            indexWriter = new IndexWriter(getIndexWriterDirectory(), config);
             indexWriter.setInfoStream(STREAM_LOGGER);
         }
         return indexWriter;
     }
 
+    /**
+     * Returns the directory the index writer of this index writes to. This
+     * implementation returns {@link #getDirectory()}.
+     *
+     * @return the directory for the index writer.
+     */
+    protected Directory getIndexWriterDirectory() {
+        return getDirectory();
+    }
+
     /**
      * Commits all pending changes to the underlying <code>Directory</code>.
      * @throws IOException if an error occurs while commiting changes.
@@ -51,7 +51,7 @@ public abstract class AbstractQueryImpl implements ExecutableQuery {
      */
     private boolean documentOrder = true;
 
-    protected final PerQueryCache cache = new PerQueryCache();
+    protected final PerQueryCache cache;
 
     /**
      * Creates a new query instance from a query string.
@@ -66,6 +66,7 @@ public abstract class AbstractQueryImpl implements ExecutableQuery {
         this.sessionContext = sessionContext;
         this.index = index;
         this.propReg = propReg;
+        this.cache = new PerQueryCache(index.getFilterCache());
     }
 
     /**
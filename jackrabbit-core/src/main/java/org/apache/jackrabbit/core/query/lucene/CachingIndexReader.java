@@ -16,27 +16,37 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.lucene.directory.FSDirectoryManager;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.FieldSelector;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.FilterIndexReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.util.ReaderUtil;
@@ -55,14 +65,6 @@ class CachingIndexReader extends FilterIndexReader {
      */
     private static final Logger log = LoggerFactory.getLogger(CachingIndexReader.class);
 
-    /**
-     * The number of nodes that are processed in a batch when the hierarchy
-     * cache is initialized. The value is 400'000, which will limit the
-     * temporary memory usage to initialize the hierarchy cache of a segment
-     * to 64MB (-> 170B * 400k)
-     */
-    private static final int MAX_CACHE_INIT_BATCH_SIZE = 400 * 1000;
-
     /**
      * The current value of the global creation tick counter.
      */
@@ -75,11 +77,12 @@ class CachingIndexReader extends FilterIndexReader {
     private final BitSet shareableNodes;
 
     /**
-     * Cache of nodes parent relation. If an entry in the array is >= 0,
-     * then that means the node with the document number = array-index has the
-     * node with the value at that position as parent.
+     * Cache of nodes parent relation. If an entry in the buffer is >= 0,
+     * then that means the node with the document number = buffer-index has the
+     * node with the value at that position as parent. The buffer is either
+     * backed by an array or a private memory mapping of the persisted cache.
      */
-    private final int[] inSegmentParents;
+    private final IntBuffer inSegmentParents;
 
     /**
      * Cache of nodes parent relation that point to a foreign index segment.
@@ -120,7 +123,8 @@ class CachingIndexReader extends FilterIndexReader {
      * @param cache     a document number cache, or <code>null</code> if not
      *                  available to this reader.
      * @param initCache if the parent caches should be initialized
-     *                  when this index reader is constructed.
+     *                  when this index reader is constructed. Persisted
+     *                  caches are always loaded when available.
      * @throws IOException if an error occurs while reading from the index.
      */
     @SuppressWarnings("unchecked")
@@ -130,11 +134,17 @@ class CachingIndexReader extends FilterIndexReader {
             throws IOException {
         super(delegatee);
         this.cache = cache;
-        this.inSegmentParents = new int[delegatee.maxDoc()];
-        Arrays.fill(this.inSegmentParents, -1);
         this.shareableNodes = initShareableNodes(delegatee);
         this.cacheInitializer = new CacheInitializer(delegatee);
-        if (initCache) {
+        IntBuffer parents = cacheInitializer.loadCacheFromFile();
+        boolean loaded = parents != null;
+        if (!loaded) {
+            int[] array = new int[delegatee.maxDoc()];
+            Arrays.fill(array, -1);
+            parents = IntBuffer.wrap(array);
+        }
+        this.inSegmentParents = parents;
+        if (!loaded && initCache) {
             cacheInitializer.run();
         }
         // limit cache to 1% of maxDoc(), but at least 10.
@@ -157,6 +167,25 @@ class CachingIndexReader extends FilterIndexReader {
         return shareableNodes;
     }
 
+    /**
+     * Returns the document number of the parent of <code>n</code> if the
+     * parent is in this index segment and already cached. This is an
+     * allocation free shortcut for {@link #getParent(int, BitSet)}.
+     *
+     * @param n the document number.
+     * @param deleted the documents that should be regarded as deleted.
+     * @return the document number of <code>n</code>'s parent or
+     *         <code>-1</code> if the parent must be resolved with
+     *         {@link #getParent(int, BitSet)}.
+     */
+    int getParentDocNumber(int n, BitSet deleted) {
+        int parentDocNum = inSegmentParents.get(n);
+        if (parentDocNum != -1 && !deleted.get(parentDocNum)) {
+            return parentDocNum;
+        }
+        return -1;
+    }
+
     /**
      * Returns the <code>DocId</code> of the parent of <code>n</code> or
      * {@link DocId#NULL} if <code>n</code> does not have a parent
@@ -170,7 +199,7 @@ class CachingIndexReader extends FilterIndexReader {
     DocId getParent(int n, BitSet deleted) throws IOException {
         DocId parent;
         boolean existing = false;
-        int parentDocNum = inSegmentParents[n];
+        int parentDocNum = inSegmentParents.get(n);
         if (parentDocNum != -1) {
             parent = DocId.create(parentDocNum);
         } else {
@@ -226,7 +255,7 @@ class CachingIndexReader extends FilterIndexReader {
             // finally put to cache
             if (plainDocId != -1) {
                 // PlainDocId
-                inSegmentParents[n] = plainDocId;
+                inSegmentParents.put(n, plainDocId);
             } else {
                 // UUIDDocId
                 foreignParentDocIds.put(n, parent);
@@ -235,7 +264,7 @@ class CachingIndexReader extends FilterIndexReader {
                     // inSegmentParents, which was invalid and is replaced
                     // with a UUIDDocId (points to a foreign segment).
                     // mark as unknown
-                    inSegmentParents[n] = -1;
+                    inSegmentParents.put(n, -1);
                 }
             }
         }
@@ -367,6 +396,27 @@ class CachingIndexReader extends FilterIndexReader {
         }
     }
 
+    /**
+     * Returns a key for the segments of the given index reader. The key
+     * changes whenever document numbers may have been reassigned, that is
+     * when segments are added or merged, but not when documents are deleted.
+     *
+     * @param reader the index reader.
+     * @return the segments key.
+     */
+    private static String getSegmentsKey(IndexReader reader) {
+        List<IndexReader> readers = new ArrayList<IndexReader>();
+        ReaderUtil.gatherSubReaders(readers, reader);
+        StringBuilder key = new StringBuilder();
+        for (IndexReader r : readers) {
+            if (r instanceof SegmentReader) {
+                key.append(((SegmentReader) r).getSegmentName());
+            }
+            key.append(':').append(r.maxDoc()).append(' ');
+        }
+        return key.toString();
+    }
+
     /**
      * Initializes the {@link CachingIndexReader#inSegmentParents} and
      * {@link CachingIndexReader#foreignParentDocIds} caches.
@@ -374,10 +424,28 @@ class CachingIndexReader extends FilterIndexReader {
     private class CacheInitializer implements Runnable {
 
         /**
-         * The {@link #inSegmentParents} is persisted using this filename.
+         * The parent caches are persisted using this filename.
          */
         private static final String FILE_CACHE_NAME_ARRAY = "cache.inSegmentParents";
 
+        /**
+         * File system directories write the persisted caches to this file
+         * first and then rename it to {@link #FILE_CACHE_NAME_ARRAY}.
+         */
+        private static final String FILE_CACHE_NAME_TEMP =
+            FILE_CACHE_NAME_ARRAY + ".tmp";
+
+        /**
+         * Marks the start and the end of the persisted cache. Files without
+         * these markers were written in an older format or are incomplete.
+         */
+        private static final int FILE_CACHE_MAGIC = 0x4a525043;
+
+        /**
+         * The version of the persisted cache format.
+         */
+        private static final int FILE_CACHE_VERSION = 1;
+
         /**
          * From where to read.
          */
@@ -403,7 +471,7 @@ class CachingIndexReader extends FilterIndexReader {
         }
 
         /**
-         * Initializes the cache.
+         * Initializes the cache from the index and persists it.
          */
         public void run() {
             synchronized (this) {
@@ -414,13 +482,7 @@ class CachingIndexReader extends FilterIndexReader {
                     // immediately return when stop is requested
                     return;
                 }
-                boolean initCacheFromFile = loadCacheFromFile();
-                if (!initCacheFromFile) {
-                    // file-based cache is not available, load from the
-                    // repository
-                    log.debug("persisted cache is not available, will load directly from the repository.");
-                    initializeParents(reader);
-                }
+                initializeParents(reader);
             } catch (Exception e) {
                 // only log warn message during regular operation
                 if (!stopRequested) {
@@ -450,7 +512,11 @@ class CachingIndexReader extends FilterIndexReader {
 
         /**
          * Initializes the {@link CachingIndexReader#inSegmentParents} and
-         * {@link CachingIndexReader#foreignParentDocIds} caches.
+         * {@link CachingIndexReader#foreignParentDocIds} caches. The PARENT
+         * terms are enumerated once and merged with the enumeration of the
+         * UUID terms. Both are sorted by node id, therefore the document
+         * number of a parent in this segment is found without holding the
+         * node ids of the segment in memory.
          *
          * @param reader the underlying index reader.
          * @throws IOException if an error occurs while reading from the index.
@@ -459,120 +525,90 @@ class CachingIndexReader extends FilterIndexReader {
             double foreignParents = 0;
             long time = System.currentTimeMillis();
 
-            // initialize in multiple passes with
-            // a fixed number of nodes at a time
-            final Term[] startUUID = new Term[]{TermFactory.createUUIDTerm("")};
-
-            for (;;) {
-                final Map<Object, NodeInfo> docs = new HashMap<Object, NodeInfo>();
-                final Map<NodeId, Integer> parents = new HashMap<NodeId, Integer>();
+            List<Integer> roots = new ArrayList<Integer>();
+            Map<Integer, NodeId> foreign = new HashMap<Integer, NodeId>();
 
-                if (startUUID[0].text().length() != 0) {
-                    // force reading the next uuid after startUUID
-                    startUUID[0] = TermFactory.createUUIDTerm(startUUID[0].text() + "_");
-                }
-                // read UUIDs
-                collectTermDocs(reader, startUUID[0], new TermDocsCollector() {
-                    public boolean collect(Term term, TermDocs tDocs) throws IOException {
-                        // remember start term for next batch
-                        startUUID[0] = term;
-                        if (docs.size() >= MAX_CACHE_INIT_BATCH_SIZE) {
-                            return false;
-                        }
-                        NodeId id = new NodeId(term.text());
-                        while (tDocs.next()) {
-                            int doc = tDocs.doc();
-                            // skip shareable nodes
-                            if (!shareableNodes.get(doc)) {
-                                NodeInfo info = new NodeInfo(doc, id);
-                                docs.put(doc, info);
-                            }
-                        }
-                        return true;
-                    }
-                });
-
-                if (docs.isEmpty()) {
-                    // no more nodes to initialize, persist cache to file
-                    saveCacheToFile();
-                    break;
+            TermDocs tDocs = reader.termDocs();
+            try {
+                // the root node has an empty parent
+                tDocs.seek(new Term(FieldNames.PARENT, ""));
+                while (tDocs.next()) {
+                    roots.add(tDocs.doc());
+                    foreignParentDocIds.put(tDocs.doc(), DocId.NULL);
                 }
 
-                // read PARENTs (full scan)
-                collectTermDocs(reader, new Term(FieldNames.PARENT, "0"), new TermDocsCollector() {
-                    public boolean collect(Term term, TermDocs tDocs) throws IOException {
-                        NodeId id = new NodeId(term.text());
-                        while (tDocs.next()) {
-                            Integer docId = tDocs.doc();
-                            NodeInfo info = docs.get(docId);
-                            if (info == null) {
-                                // shareable node, see above
-                                // or cache init is batched
-                            } else {
-                                info.parent = id;
-                                docs.remove(docId);
-                                docs.put(info.id, info);
-                                parents.put(id, null);
+                TermEnum uuids = reader.terms(TermFactory.createUUIDTerm(""));
+                try {
+                    TermEnum parents = reader.terms(
+                            new Term(FieldNames.PARENT, "0"));
+                    try {
+                        Term uuid = fieldTerm(uuids, FieldNames.UUID);
+                        Term parent = fieldTerm(parents, FieldNames.PARENT);
+                        int count = 0;
+                        while (parent != null) {
+                            String parentId = parent.text();
+
+                            // move to the UUID term of the parent
+                            while (uuid != null
+                                    && uuid.text().compareTo(parentId) < 0) {
+                                uuid = uuids.next()
+                                        ? fieldTerm(uuids, FieldNames.UUID) : null;
                             }
-                        }
-                        return true;
-                    }
-                });
-
-                // scan UUIDs again to get document numbers for parents
-                collectTermDocs(reader, TermFactory.createUUIDTerm(""), new TermDocsCollector() {
-                    public boolean collect(Term term, TermDocs tDocs) throws IOException {
-                        NodeId id = new NodeId(term.text());
-                        while (tDocs.next()) {
-                            int doc = tDocs.doc();
-                            if (parents.containsKey(id)) {
-                                parents.put(id, doc);
+                            int parentDocId = -1;
+                            if (uuid != null && uuid.text().equals(parentId)) {
+                                tDocs.seek(uuids);
+                                while (tDocs.next()) {
+                                    parentDocId = tDocs.doc();
+                                }
                             }
-                        }
-                        return true;
-                    }
-                });
 
-                if (stopRequested) {
-                    return;
-                }
+                            NodeId id = null;
+                            tDocs.seek(parents);
+                            while (tDocs.next()) {
+                                int doc = tDocs.doc();
+                                if (shareableNodes.get(doc)) {
+                                    // resolved on demand in getParent()
+                                } else if (parentDocId != -1) {
+                                    inSegmentParents.put(doc, parentDocId);
+                                } else {
+                                    if (id == null) {
+                                        id = new NodeId(parentId);
+                                    }
+                                    foreignParents++;
+                                    foreign.put(doc, id);
+                                    foreignParentDocIds.put(doc, DocId.create(id));
+                                }
+                            }
 
-                for (NodeInfo info : docs.values()) {
-                    int parentDocId = -1;
-                    NodeInfo parent = docs.get(info.parent);
-                    if (parent != null) {
-                        parentDocId = parent.docId;
-                    } else {
-                        Integer docId = parents.get(info.parent);
-                        if (docId != null) {
-                            parentDocId = docId;
+                            // once in a while check if we should quit
+                            if (++count % 10000 == 0 && stopRequested) {
+                                return;
+                            }
+                            parent = parents.next()
+                                    ? fieldTerm(parents, FieldNames.PARENT) : null;
                         }
+                    } finally {
+                        parents.close();
                     }
-                    if (parentDocId != -1) {
-                        inSegmentParents[info.docId] = parentDocId;
-                    } else if (info.parent != null) {
-                        foreignParents++;
-                        foreignParentDocIds.put(info.docId, DocId.create(info.parent));
-                    } else if (shareableNodes.get(info.docId)) {
-                        Document doc = reader.document(info.docId, FieldSelectors.UUID_AND_PARENT);
-                        foreignParentDocIds.put(info.docId, DocId.create(doc.getValues(FieldNames.PARENT)));
-                    } else {
-                        // no parent -> root node
-                        foreignParentDocIds.put(info.docId, DocId.NULL);
-                    }
+                } finally {
+                    uuids.close();
                 }
+            } finally {
+                tDocs.close();
             }
 
+            saveCacheToFile(roots, foreign);
+
             if (log.isDebugEnabled()) {
                 NumberFormat nf = NumberFormat.getPercentInstance();
                 nf.setMaximumFractionDigits(1);
                 time = System.currentTimeMillis() - time;
-                if (inSegmentParents.length > 0) {
-                    foreignParents /= inSegmentParents.length;
+                if (inSegmentParents.capacity() > 0) {
+                    foreignParents /= inSegmentParents.capacity();
                 }
                 log.debug("initialized {} DocIds in {} ms, {} foreign parents",
                         new Object[]{
-                            inSegmentParents.length,
+                            inSegmentParents.capacity(),
                             time,
                             nf.format(foreignParents)
                         });
@@ -580,61 +616,87 @@ class CachingIndexReader extends FilterIndexReader {
         }
 
         /**
-         * Collects term docs for a given start term. All terms with the same
-         * field as <code>start</code> are enumerated.
+         * Returns the current term of <code>terms</code> if it has the given
+         * <code>field</code>.
          *
-         * @param reader the index reader.
-         * @param start the term where to start the term enumeration.
-         * @param collector collects the term docs for each term.
-         * @throws IOException if an error occurs while reading from the index.
+         * @param terms the term enumeration.
+         * @param field the field name (interned).
+         * @return the current term or <code>null</code> if the enumeration
+         *         is exhausted or positioned on a term of another field.
          */
-        private void collectTermDocs(IndexReader reader,
-                                     Term start,
-                                     TermDocsCollector collector)
-                throws IOException {
-            TermDocs tDocs = reader.termDocs();
-            try {
-                TermEnum terms = reader.terms(start);
-                try {
-                    int count = 0;
-                    do {
-                        Term t = terms.term();
-                        if (t != null && t.field() == start.field()) {
-                            tDocs.seek(terms);
-                            if (!collector.collect(t, tDocs)) {
-                                // collector indicated break
-                                break;
-                            }
-                        } else {
-                            break;
-                        }
-                        // once in a while check if we should quit
-                        if (++count % 10000 == 0) {
-                            if (stopRequested) {
-                                break;
-                            }
-                        }
-                    } while (terms.next());
-                } finally {
-                    terms.close();
-                }
-            } finally {
-                tDocs.close();
+        private Term fieldTerm(TermEnum terms, String field) {
+            Term t = terms.term();
+            if (t != null && t.field() == field) {
+                return t;
+            } else {
+                return null;
             }
         }
 
         /**
-         * Persists the cache info {@link #inSegmentParents} to a file:
-         * {@link #FILE_CACHE_NAME_ARRAY}, for faster init times on startup.
+         * Persists the caches to the file {@link #FILE_CACHE_NAME_ARRAY},
+         * for faster init times on startup. The file starts with a header
+         * that identifies the segments of the index, followed by the
+         * {@link #inSegmentParents} as fixed size integers, which allows to
+         * map them into memory when the file is loaded, and the root nodes
+         * and foreign parents.
+         * <p>
+         * Other readers of the same directory may have mapped the existing
+         * file into memory, see {@link #mapCacheFile(Directory, long, int)}.
+         * Truncating it would make their mapped pages inaccessible, so in a
+         * file system directory the caches are written to a temporary file
+         * that then replaces the existing file. Existing mappings keep
+         * referring to the replaced file.
          * 
          * see https://issues.apache.org/jira/browse/JCR-3107
+         *
+         * @param roots the document numbers of root nodes.
+         * @param foreign the ids of parents that are not in this segment.
          */
-        public void saveCacheToFile() throws IOException {
+        public void saveCacheToFile(List<Integer> roots,
+                                    Map<Integer, NodeId> foreign)
+                throws IOException {
+            Directory directory = reader.directory();
+            FSDirectory fsDirectory = FSDirectoryManager.getFSDirectory(directory);
+            String name = FILE_CACHE_NAME_ARRAY;
+            if (fsDirectory != null) {
+                name = FILE_CACHE_NAME_TEMP;
+            }
             IndexOutput io = null;
             try {
-                io = reader.directory().createOutput(FILE_CACHE_NAME_ARRAY);
-                for (int parent : inSegmentParents) {
-                    io.writeInt(parent);
+                io = directory.createOutput(name);
+                io.writeInt(FILE_CACHE_MAGIC);
+                io.writeInt(FILE_CACHE_VERSION);
+                io.writeInt(inSegmentParents.capacity());
+                io.writeString(getSegmentsKey(reader));
+                for (int i = 0; i < inSegmentParents.capacity(); i++) {
+                    io.writeInt(inSegmentParents.get(i));
+                }
+                io.writeInt(roots.size());
+                for (int doc : roots) {
+                    io.writeInt(doc);
+                }
+                io.writeInt(foreign.size());
+                for (Map.Entry<Integer, NodeId> entry : foreign.entrySet()) {
+                    io.writeInt(entry.getKey());
+                    io.writeLong(entry.getValue().getMostSignificantBits());
+                    io.writeLong(entry.getValue().getLeastSignificantBits());
+                }
+                io.writeInt(FILE_CACHE_MAGIC);
+                io.close();
+                io = null;
+                if (name != FILE_CACHE_NAME_ARRAY) {
+                    File dir = fsDirectory.getDirectory();
+                    File temp = new File(dir, name);
+                    File file = new File(dir, FILE_CACHE_NAME_ARRAY);
+                    // some platforms only rename to names that do not exist
+                    if (!temp.renameTo(file)
+                            && !(file.delete() && temp.renameTo(file))) {
+                        // the existing file is still mapped, keep it
+                        log.debug("Unable to replace {} in {}",
+                                FILE_CACHE_NAME_ARRAY, dir);
+                        directory.deleteFile(name);
+                    }
                 }
             } catch (Exception e) {
                 log.error(
@@ -643,32 +705,77 @@ class CachingIndexReader extends FilterIndexReader {
             } finally {
                 if (io != null) {
                     io.close();
+                    if (name != FILE_CACHE_NAME_ARRAY) {
+                        directory.deleteFile(name);
+                    }
                 }
             }
         }
 
         /**
-         * Loads the cache info {@link #inSegmentParents} from the file
-         * {@link #FILE_CACHE_NAME_ARRAY}.
+         * Loads the caches from the file {@link #FILE_CACHE_NAME_ARRAY}. If
+         * the index is stored in the file system, the parent document
+         * numbers are mapped into memory instead of being read.
          * 
          * see https://issues.apache.org/jira/browse/JCR-3107
          * 
-         * @return true if the cache has been initialized of false if the cache
-         *         file does not exist yet, or an error happened
+         * @return the parent document numbers, or <code>null</code> if the
+         *         cache file does not exist yet, was written for other
+         *         segments, or an error happened
          */
-        private boolean loadCacheFromFile() throws IOException {
+        private IntBuffer loadCacheFromFile() throws IOException {
+            Directory directory = reader.directory();
             IndexInput ii = null;
             try {
                 long time = System.currentTimeMillis();
-                ii = reader.directory().openInput(FILE_CACHE_NAME_ARRAY);
-                for (int i = 0; i < inSegmentParents.length; i++) {
-                    inSegmentParents[i] = ii.readInt();
+                int maxDoc = reader.maxDoc();
+                ii = directory.openInput(FILE_CACHE_NAME_ARRAY);
+                if (ii.readInt() != FILE_CACHE_MAGIC
+                        || ii.readInt() != FILE_CACHE_VERSION
+                        || ii.readInt() != maxDoc
+                        || !getSegmentsKey(reader).equals(ii.readString())) {
+                    log.debug("persisted cache is outdated, will load directly from the repository.");
+                    return null;
+                }
+                long offset = ii.getFilePointer();
+                ii.seek(offset + 4L * maxDoc);
+                Map<Integer, DocId> foreign = new HashMap<Integer, DocId>();
+                for (int i = ii.readInt(); i > 0; i--) {
+                    foreign.put(ii.readInt(), DocId.NULL);
+                }
+                for (int i = ii.readInt(); i > 0; i--) {
+                    int doc = ii.readInt();
+                    long msb = ii.readLong();
+                    long lsb = ii.readLong();
+                    foreign.put(doc, DocId.create(new NodeId(msb, lsb)));
+                }
+                if (ii.readInt() != FILE_CACHE_MAGIC
+                        || ii.getFilePointer() != ii.length()) {
+                    throw new IOException("Incomplete file");
+                }
+
+                IntBuffer parents = null;
+                try {
+                    parents = mapCacheFile(directory, offset, maxDoc);
+                } catch (IOException e) {
+                    // the file is valid, read it instead
+                    log.debug("Unable to map " + FILE_CACHE_NAME_ARRAY
+                            + ", reading it: " + e);
                 }
+                if (parents == null) {
+                    int[] array = new int[maxDoc];
+                    ii.seek(offset);
+                    for (int i = 0; i < maxDoc; i++) {
+                        array[i] = ii.readInt();
+                    }
+                    parents = IntBuffer.wrap(array);
+                }
+                foreignParentDocIds.putAll(foreign);
                 log.debug(
                         "persisted cache initialized {} DocIds in {} ms",
-                        new Object[] { inSegmentParents.length,
+                        new Object[] { maxDoc,
                                 System.currentTimeMillis() - time });
-                return true;
+                return parents;
             } catch (FileNotFoundException ignore) {
                 // expected in the case where the file-based cache has not been
                 // initialized yet
@@ -679,43 +786,46 @@ class CachingIndexReader extends FilterIndexReader {
                 // In the case where is a read error, the cache file is removed
                 // so it can be recreated after
                 // the cache loads the data from the repository directly
-                reader.directory().deleteFile(FILE_CACHE_NAME_ARRAY);
+                directory.deleteFile(FILE_CACHE_NAME_ARRAY);
             } finally {
                 if (ii != null) {
                     ii.close();
                 }
             }
-            return false;
+            return null;
         }
-    }
-
-    /**
-     * Simple interface to collect a term and its term docs.
-     */
-    private interface TermDocsCollector {
 
         /**
-         * Called for each term encountered.
+         * Maps the parent document numbers of the cache file into memory.
+         * The mapping is private, updates from
+         * {@link CachingIndexReader#getParent(int, BitSet)} are not written
+         * back to the file. Pages are only copied when they are updated.
          *
-         * @param term the term.
-         * @param tDocs the term docs of <code>term</code>.
-         * @return false if the collector does not wish to collect more TermDocs.
-         * @throws IOException if an error occurs while reading from the index.
+         * @param directory the directory of the index.
+         * @param offset the position of the document numbers in the file.
+         * @param maxDoc the number of documents in the index.
+         * @return the mapped document numbers or <code>null</code> if the
+         *         directory is not a file system directory.
+         * @throws IOException if the file cannot be mapped.
          */
-        boolean collect(Term term, TermDocs tDocs) throws IOException;
-    }
-
-    private final static class NodeInfo {
-
-        final int docId;
-
-        final NodeId id;
-
-        NodeId parent;
-
-        public NodeInfo(int docId, NodeId id) {
-            this.docId = docId;
-            this.id = id;
+        private IntBuffer mapCacheFile(Directory directory,
+                                       long offset,
+                                       int maxDoc)
+                throws IOException {
+            long length = 4L * maxDoc;
+            FSDirectory fsDirectory = FSDirectoryManager.getFSDirectory(directory);
+            if (fsDirectory == null || length > Integer.MAX_VALUE) {
+                return null;
+            }
+            File file = new File(fsDirectory.getDirectory(), FILE_CACHE_NAME_ARRAY);
+            // a private mapping requires a channel opened for writing
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                return raf.getChannel().map(
+                        FileChannel.MapMode.PRIVATE, offset, length).asIntBuffer();
+            } finally {
+                raf.close();
+            }
         }
     }
 }
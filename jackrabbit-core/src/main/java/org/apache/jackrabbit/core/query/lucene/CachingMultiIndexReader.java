@@ -77,10 +77,33 @@ public final class CachingMultiIndexReader
      * {@inheritDoc}
      */
     public int[] getParents(int n, int[] docNumbers) throws IOException {
+        int parent = getParentDocNumber(n);
+        if (parent != -1) {
+            return DocId.toArray(parent, docNumbers);
+        }
         DocId id = getParentDocId(n);
         return id.getDocumentNumbers(this, docNumbers);
     }
 
+    /**
+     * Returns the document number of the parent of <code>n</code> if the
+     * parent is in the same index segment and already cached. Unlike
+     * {@link #getParentDocId(int)} this method does not create objects.
+     *
+     * @param n the document number.
+     * @return the document number of <code>n</code>'s parent or
+     *         <code>-1</code> if the parent must be resolved with
+     *         {@link #getParentDocId(int)}.
+     */
+    public int getParentDocNumber(int n) {
+        int i = readerIndex(n);
+        int parent = subReaders[i].getParentDocNumber(n - starts[i]);
+        if (parent != -1) {
+            parent += starts[i];
+        }
+        return parent;
+    }
+
     /**
      * Returns the DocId of the parent of <code>n</code> or {@link DocId#NULL}
      * if <code>n</code> does not have a parent (<code>n</code> is the root
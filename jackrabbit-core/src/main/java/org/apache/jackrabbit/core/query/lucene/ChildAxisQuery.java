@@ -47,8 +47,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.HashSet;
-import java.util.ArrayList;
+import java.util.BitSet;
 
 /**
  * Implements a lucene <code>Query</code> which returns the child nodes of the
@@ -458,18 +457,20 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
                     calc[0] = new SimpleChildrenCalculator(reader, hResolver);
                     contextScorer.score(new AbstractHitCollector() {
 
-                        private List<Integer> docIds = new ArrayList<Integer>();
+                        private BitSet docIds = new BitSet();
 
                         @Override
                         protected void collect(int doc, float score) {
                             calc[0].collectContextHit(doc);
                             if (docIds != null) {
-                                docIds.add(doc);
-                                if (docIds.size() > CONTEXT_SIZE_THRESHOLD) {
+                                docIds.set(doc);
+                                if (docIds.cardinality() > CONTEXT_SIZE_THRESHOLD) {
                                     // switch
                                     calc[0] = new HierarchyResolvingChildrenCalculator(
                                             reader, hResolver);
-                                    for (int docId : docIds) {
+                                    for (int docId = docIds.nextSetBit(0);
+                                            docId >= 0;
+                                            docId = docIds.nextSetBit(docId + 1)) {
                                         calc[0].collectContextHit(docId);
                                     }
                                     // indicate that we switched
@@ -677,7 +678,7 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
         /**
          * The document numbers of the context hits.
          */
-        private final Set<Integer> docIds = new HashSet<Integer>();
+        private final BitSet docIds = new BitSet();
 
         /**
          * Creates a new hierarchy resolving children calculator.
@@ -694,7 +695,7 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
          * {@inheritDoc}
          */
         protected void collectContextHit(int doc) {
-            docIds.add(doc);
+            docIds.set(doc);
         }
 
         /**
@@ -709,12 +710,12 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
                 docs = hResolver.getParents(h, docs);
                 if (docs.length == 1) {
                     // optimize single value
-                    if (docIds.contains(docs[0])) {
+                    if (docIds.get(docs[0])) {
                         childrenHits.set(h);
                     }
                 } else {
                     for (int i = 0; i < docs.length; i++) {
-                        if (docIds.contains(docs[i])) {
+                        if (docIds.get(docs[i])) {
                             childrenHits.set(h);
                         }
                     }
@@ -423,6 +423,14 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
          */
         private final BitSet contextHits;
 
+        /**
+         * BitSet storing the id's of documents that are known not to be
+         * context hits or descendants of context hits, or <code>null</code>
+         * if the query requires more than one level between a context hit
+         * and a match.
+         */
+        private final BitSet nonDescendants;
+
         /**
          * Set <code>true</code> once the context hits have been calculated.
          */
@@ -462,6 +470,11 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
             this.hResolver = hResolver;
             // todo reuse BitSets?
             this.contextHits = new BitSet(reader.maxDoc());
+            if (minLevels <= 1) {
+                this.nonDescendants = new BitSet(reader.maxDoc());
+            } else {
+                this.nonDescendants = null;
+            }
         }
 
         @Override
@@ -577,15 +590,18 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
             ancestorDocs[ancestorCount++] = pDocs[0];
 
             // traverse
+            boolean valid = false;
             while (pDocs.length != 0) {
-                boolean valid = false;
+                // true if none of the ancestors is a descendant of a context hit
+                boolean invalid = nonDescendants != null;
                 for (int pDoc : pDocs) {
                     if (ancestorCount >= minLevels && contextHits.get(pDoc)) {
                         valid = true;
                         break;
                     }
+                    invalid = invalid && nonDescendants.get(pDoc);
                 }
-                if (valid) {
+                if (valid || invalid) {
                     break;
                 } else {
                     // load next level
@@ -604,13 +620,19 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
                 }
             }
 
-            if (pDocs.length > 0) {
+            if (valid) {
                 // since current parentDocs are descendants of one of the context
                 // docs we can promote all ancestorDocs to the context hits
                 for (int i = 0; i < ancestorCount; i++) {
                     contextHits.set(ancestorDocs[i]);
                 }
                 return true;
+            } else if (nonDescendants != null) {
+                // none of the ancestors is a context hit, remember them to
+                // stop the traversal early for the next document
+                for (int i = 0; i < ancestorCount; i++) {
+                    nonDescendants.set(ancestorDocs[i]);
+                }
             }
             return false;
         }
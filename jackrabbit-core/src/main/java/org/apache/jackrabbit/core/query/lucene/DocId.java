@@ -162,6 +162,23 @@ abstract class DocId {
         return new MultiUUIDDocId(uuids);
     }
 
+    /**
+     * Returns a single document number in an array. The passed array is
+     * reused if it has a length of one.
+     *
+     * @param docNumber the document number.
+     * @param docNumbers an array for reuse.
+     * @return an array that contains <code>docNumber</code>.
+     */
+    static int[] toArray(int docNumber, int[] docNumbers) {
+        if (docNumbers.length == 1) {
+            docNumbers[0] = docNumber;
+            return docNumbers;
+        } else {
+            return new int[]{docNumber};
+        }
+    }
+
     //--------------------------< internal >------------------------------------
 
     /**
@@ -187,12 +204,7 @@ abstract class DocId {
          * @inheritDoc
          */
         int[] getDocumentNumbers(MultiIndexReader reader, int[] docNumbers) {
-            if (docNumbers.length == 1) {
-                docNumbers[0] = docNumber;
-                return docNumbers;
-            } else {
-                return new int[]{docNumber};
-            }
+            return toArray(docNumber, docNumbers);
         }
 
         /**
@@ -16,12 +16,16 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
-import org.apache.commons.collections.map.LRUMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Implements a Document number cache with a fixed size and a LRU strategy.
+ * Implements a Document number cache with a fixed size and an approximated
+ * LRU strategy. The cache uses open addressing with node ids stored as pairs
+ * of <code>long</code> values, and reader creation ticks and document
+ * numbers in parallel primitive arrays. This keeps puts free of allocations
+ * and the memory footprint of an entry small. A lookup returns a snapshot
+ * of the entry.
  */
 final class DocNumberCache {
 
@@ -46,9 +50,16 @@ final class DocNumberCache {
     private static final int CACHE_SEGMENTS_MASK = CACHE_SEGMENTS - 1;
 
     /**
-     * LRU Maps where key=uuid value=reader;docNumber
+     * The number of slots that are searched for a uuid, starting at the slot
+     * the uuid hashes to. If all of them are in use by other uuids, the least
+     * recently used entry among them is replaced.
      */
-    private final LRUMap[] docNumbers = new LRUMap[CACHE_SEGMENTS];
+    private static final int PROBE_LENGTH = 8;
+
+    /**
+     * Cache segments where key=uuid value=reader;docNumber
+     */
+    private final Segment[] segments = new Segment[CACHE_SEGMENTS];
 
     /**
      * Timestamp of the last cache statistics log.
@@ -77,8 +88,8 @@ final class DocNumberCache {
             // minimum size is 0x40 * 0x10 = 1024
             size = 0x40;
         }
-        for (int i = 0; i < docNumbers.length; i++) {
-            docNumbers[i] = new LRUMap(size);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(size);
         }
     }
 
@@ -92,28 +103,15 @@ final class DocNumberCache {
      * @param n the document number.
      */
     void put(String uuid, CachingIndexReader reader, int n) {
-        LRUMap cacheSegment = docNumbers[getSegmentIndex(uuid.charAt(0))];
-        synchronized (cacheSegment) {
-            Entry e = (Entry) cacheSegment.get(uuid);
-            if (e != null) {
-                // existing entry
-                // ignore if reader is older than the one in entry
-                if (reader.getCreationTick() <= e.creationTick) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Ignoring put(). New entry is not from a newer reader. "
-                                + "existing: " + e.creationTick
-                                + ", new: " + reader.getCreationTick());
-                    }
-                    e = null;
-                }
-            } else {
-                // entry did not exist
-                e = new Entry(reader.getCreationTick(), n);
-            }
-
-            if (e != null) {
-                cacheSegment.put(uuid, e);
-            }
+        if (!isUUID(uuid)) {
+            return;
+        }
+        long msb = parseHex(uuid, 0, 18);
+        long lsb = parseHex(uuid, 19, 36);
+        int hash = hash(msb, lsb);
+        Segment segment = segments[hash & CACHE_SEGMENTS_MASK];
+        synchronized (segment) {
+            segment.put(msb, lsb, hash >>> 4, reader.getCreationTick(), n);
         }
     }
 
@@ -125,10 +123,15 @@ final class DocNumberCache {
      * @return cache entry or <code>null</code>.
      */
     Entry get(String uuid) {
-        LRUMap cacheSegment = docNumbers[getSegmentIndex(uuid.charAt(0))];
-        Entry entry;
-        synchronized (cacheSegment) {
-            entry = (Entry) cacheSegment.get(uuid);
+        Entry entry = null;
+        if (isUUID(uuid)) {
+            long msb = parseHex(uuid, 0, 18);
+            long lsb = parseHex(uuid, 19, 36);
+            int hash = hash(msb, lsb);
+            Segment segment = segments[hash & CACHE_SEGMENTS_MASK];
+            synchronized (segment) {
+                entry = segment.get(msb, lsb, hash >>> 4);
+            }
         }
         if (log.isInfoEnabled()) {
             accesses++;
@@ -143,11 +146,11 @@ final class DocNumberCache {
                 }
                 StringBuffer statistics = new StringBuffer();
                 int inUse = 0;
-                for (LRUMap docNumber : docNumbers) {
-                    inUse += docNumber.size();
+                for (Segment segment : segments) {
+                    inUse += segment.size;
                 }
                 statistics.append("size=").append(inUse);
-                statistics.append("/").append(docNumbers[0].maxSize() * CACHE_SEGMENTS);
+                statistics.append("/").append(segments[0].docs.length * CACHE_SEGMENTS);
                 statistics.append(", #accesses=").append(accesses);
                 statistics.append(", #hits=").append((accesses - misses));
                 statistics.append(", #misses=").append(misses);
@@ -162,15 +165,54 @@ final class DocNumberCache {
     }
 
     /**
-     * Returns the segment index for character c.
+     * Returns <code>true</code> if <code>s</code> is a uuid in the lower case
+     * string format used in the index.
+     */
+    private static boolean isUUID(String s) {
+        if (s.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = s.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the hex digits of <code>s</code> between <code>from</code>
+     * and <code>to</code>, skipping dashes.
      */
-    private static int getSegmentIndex(char c) {
-        if (c > '9') {
-            c += 9;
+    private static long parseHex(String s, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c != '-') {
+                value = (value << 4) | Character.digit(c, 16);
+            }
         }
-        return c & CACHE_SEGMENTS_MASK;
+        return value;
+    }
+
+    /**
+     * Returns the hash code for a uuid.
+     */
+    private static int hash(long msb, long lsb) {
+        long h = msb ^ lsb;
+        int hash = (int) (h ^ (h >>> 32));
+        return hash ^ (hash >>> 16);
     }
 
+    /**
+     * A snapshot of a cache entry, taken while the segment of the entry is
+     * locked.
+     */
     public static final class Entry {
 
         /**
@@ -188,4 +230,109 @@ final class DocNumberCache {
             this.doc = doc;
         }
     }
+
+    /**
+     * A cache segment with a hash table of fixed size. Entries are never
+     * removed, only replaced, therefore a lookup stops at the first unused
+     * slot.
+     */
+    private static final class Segment {
+
+        /**
+         * The most significant bits of the uuids.
+         */
+        private final long[] msbs;
+
+        /**
+         * The least significant bits of the uuids.
+         */
+        private final long[] lsbs;
+
+        /**
+         * The creation ticks of the index readers of the entries.
+         */
+        private final long[] ticks;
+
+        /**
+         * The document numbers of the entries.
+         */
+        private final int[] docs;
+
+        /**
+         * The value of {@link #clock} when an entry was last accessed, or
+         * <code>0</code> for unused slots.
+         */
+        private final long[] accessed;
+
+        /**
+         * Mask to calculate the slot of a hash code.
+         */
+        private final int mask;
+
+        /**
+         * Incremented on every access.
+         */
+        private long clock;
+
+        /**
+         * The number of slots in use.
+         */
+        private int size;
+
+        Segment(int capacity) {
+            int length = Integer.highestOneBit(capacity - 1) << 1;
+            msbs = new long[length];
+            lsbs = new long[length];
+            ticks = new long[length];
+            docs = new int[length];
+            accessed = new long[length];
+            mask = length - 1;
+        }
+
+        Entry get(long msb, long lsb, int hash) {
+            for (int i = 0; i < PROBE_LENGTH; i++) {
+                int slot = (hash + i) & mask;
+                if (accessed[slot] == 0) {
+                    return null;
+                } else if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                    accessed[slot] = ++clock;
+                    return new Entry(ticks[slot], docs[slot]);
+                }
+            }
+            return null;
+        }
+
+        void put(long msb, long lsb, int hash, long creationTick, int doc) {
+            int victim = -1;
+            for (int i = 0; i < PROBE_LENGTH; i++) {
+                int slot = (hash + i) & mask;
+                if (accessed[slot] == 0) {
+                    // entry did not exist
+                    victim = slot;
+                    size++;
+                    break;
+                } else if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                    // existing entry
+                    // ignore if reader is older than the one in entry
+                    if (creationTick <= ticks[slot]) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Ignoring put(). New entry is not from a newer reader. "
+                                    + "existing: " + ticks[slot]
+                                    + ", new: " + creationTick);
+                        }
+                        return;
+                    }
+                    victim = slot;
+                    break;
+                } else if (victim == -1 || accessed[slot] < accessed[victim]) {
+                    victim = slot;
+                }
+            }
+            msbs[victim] = msb;
+            lsbs[victim] = lsb;
+            ticks[victim] = creationTick;
+            docs[victim] = doc;
+            accessed[victim] = ++clock;
+        }
+    }
 }
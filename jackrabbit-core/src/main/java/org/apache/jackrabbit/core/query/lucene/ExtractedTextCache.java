@@ -0,0 +1,386 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of text extracted from binaries in the data store. Since
+ * data store records are immutable and identified by a hash of their
+ * content, the text extracted from a record never changes and binaries that
+ * are indexed again (re-indexing, copies of the same file, a new version of
+ * a node with unchanged content) do not need to be parsed again.
+ * <p>
+ * Each entry is stored as a compressed file below the cache directory. The
+ * name of the file is derived from the data identifier, the content type
+ * and the maximum extraction length, all of which determine the extracted
+ * text. The content type and maximum length are also stored in the file
+ * and checked on read.
+ * <p>
+ * The total size of the cache files is limited. When it grows beyond the
+ * limit, the files of the least recently used entries are deleted. Files
+ * found in the directory when the cache is created are ordered by their
+ * modification time.
+ */
+public class ExtractedTextCache {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log =
+        LoggerFactory.getLogger(ExtractedTextCache.class);
+
+    /**
+     * Magic number at the start of each cache file.
+     */
+    private static final int MAGIC = 0x4a525845;
+
+    /**
+     * Data identifiers that can be used as file names as is.
+     */
+    private static final Pattern SAFE_IDENTIFIER =
+        Pattern.compile("[0-9a-zA-Z]{4,}");
+
+    /**
+     * The cache directory.
+     */
+    private final File directory;
+
+    /**
+     * The maximum total size of the cache files in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * The sizes of the cache files in least recently used order.
+     */
+    private final LinkedHashMap<File, Long> files =
+        new LinkedHashMap<File, Long>(16, 0.75f, true);
+
+    /**
+     * The total size of the cache files in bytes.
+     */
+    private long size;
+
+    /**
+     * Number of texts found in the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Number of texts not found in the cache.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache that stores the extracted text in the given directory.
+     *
+     * @param directory the cache directory.
+     * @param maxSize the maximum total size of the cache files in bytes.
+     * @throws IOException if the directory cannot be created.
+     */
+    public ExtractedTextCache(File directory, long maxSize)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory: " + directory);
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+
+        List<File> existing = new ArrayList<File>();
+        collectFiles(directory, 0, existing);
+        final Map<File, Long> modified = new HashMap<File, Long>();
+        for (File file : existing) {
+            modified.put(file, file.lastModified());
+        }
+        Collections.sort(existing, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return modified.get(a).compareTo(modified.get(b));
+            }
+        });
+        List<File> evicted;
+        synchronized (files) {
+            for (File file : existing) {
+                add(file);
+            }
+            evicted = evict();
+        }
+        delete(evicted);
+    }
+
+    /**
+     * @return the cache directory.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the maximum total size of the cache files in bytes.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the total size of the cache files in bytes.
+     */
+    public long getSize() {
+        synchronized (files) {
+            return size;
+        }
+    }
+
+    /**
+     * @return number of texts found in the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of texts not found in the cache.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the cached text of the given binary.
+     *
+     * @param identifier the data identifier of the binary.
+     * @param contentType the content type of the binary, or <code>null</code>.
+     * @param maxLength the maximum number of extracted characters.
+     * @return the extracted text, or <code>null</code> if not cached.
+     */
+    public String get(
+            DataIdentifier identifier, String contentType, int maxLength) {
+        File file = getFile(identifier, contentType, maxLength);
+        if (file == null) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(new FileInputStream(file))));
+            try {
+                if (in.readInt() != MAGIC
+                        || !in.readUTF().equals(normalize(contentType))
+                        || in.readInt() != maxLength) {
+                    misses.incrementAndGet();
+                    return null;
+                }
+                StringBuilder text = new StringBuilder();
+                Reader reader = new InputStreamReader(in, "UTF-8");
+                char[] buffer = new char[4096];
+                int n = reader.read(buffer);
+                while (n != -1) {
+                    text.append(buffer, 0, n);
+                    n = reader.read(buffer);
+                }
+                synchronized (files) {
+                    // marks the entry as recently used
+                    files.get(file);
+                }
+                hits.incrementAndGet();
+                return text.toString();
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            log.warn("Unable to read cached text of binary " + identifier
+                    + ", will extract it again", e);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the text extracted from the given binary. Failures are logged
+     * and otherwise ignored.
+     *
+     * @param identifier the data identifier of the binary.
+     * @param contentType the content type of the binary, or <code>null</code>.
+     * @param maxLength the maximum number of extracted characters.
+     * @param text the extracted text.
+     */
+    public void put(DataIdentifier identifier, String contentType,
+            int maxLength, String text) {
+        File file = getFile(identifier, contentType, maxLength);
+        if (file == null || file.exists()) {
+            return;
+        }
+        File parent = file.getParentFile();
+        File tmp = null;
+        try {
+            if (!parent.isDirectory() && !parent.mkdirs()
+                    && !parent.isDirectory()) {
+                throw new IOException("Unable to create directory: " + parent);
+            }
+            tmp = File.createTempFile("text", ".tmp", parent);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new GZIPOutputStream(
+                            new FileOutputStream(tmp))));
+            try {
+                out.writeInt(MAGIC);
+                out.writeUTF(normalize(contentType));
+                out.writeInt(maxLength);
+                Writer writer = new OutputStreamWriter(out, "UTF-8");
+                writer.write(text);
+                writer.flush();
+            } finally {
+                out.close();
+            }
+            // a concurrent writer may have stored the same text already
+            if (!tmp.renameTo(file)) {
+                if (!file.exists()) {
+                    throw new IOException(
+                            "Unable to rename " + tmp + " to " + file);
+                }
+                return;
+            }
+            List<File> evicted;
+            synchronized (files) {
+                add(file);
+                evicted = evict();
+            }
+            delete(evicted);
+        } catch (IOException e) {
+            log.warn("Unable to cache text of binary " + identifier, e);
+        } finally {
+            if (tmp != null && tmp.exists() && !tmp.delete()) {
+                log.warn("Unable to delete temporary file: " + tmp);
+            }
+        }
+    }
+
+    /**
+     * Adds the given cache file as the most recently used entry. The caller
+     * must hold the lock on {@link #files}.
+     */
+    private void add(File file) {
+        Long previous = files.put(file, file.length());
+        if (previous != null) {
+            size -= previous;
+        }
+        size += files.get(file);
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits within
+     * its maximum size. The caller must hold the lock on {@link #files}.
+     *
+     * @return the files of the removed entries, to be deleted outside the
+     *         lock.
+     */
+    private List<File> evict() {
+        List<File> evicted = new ArrayList<File>();
+        Iterator<Map.Entry<File, Long>> iterator =
+            files.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<File, Long> entry = iterator.next();
+            size -= entry.getValue();
+            evicted.add(entry.getKey());
+            iterator.remove();
+        }
+        return evicted;
+    }
+
+    private void delete(List<File> evicted) {
+        for (File file : evicted) {
+            if (!file.delete() && file.exists()) {
+                log.warn("Unable to delete cached text: " + file);
+            }
+        }
+    }
+
+    /**
+     * Collects the cache files below the given directory and deletes the
+     * temporary files left behind by interrupted writes.
+     */
+    private static void collectFiles(File dir, int depth, List<File> result) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (depth < 2) {
+                if (child.isDirectory()) {
+                    collectFiles(child, depth + 1, result);
+                }
+            } else if (child.getName().endsWith(".tmp")) {
+                if (!child.delete()) {
+                    log.warn("Unable to delete temporary file: " + child);
+                }
+            } else if (child.isFile()) {
+                result.add(child);
+            }
+        }
+    }
+
+    /**
+     * Returns the cache file for the given key, or <code>null</code> if
+     * the data identifier cannot be used as a file name.
+     */
+    private File getFile(
+            DataIdentifier identifier, String contentType, int maxLength) {
+        String id = identifier.toString();
+        if (!SAFE_IDENTIFIER.matcher(id).matches()) {
+            return null;
+        }
+        String variant = Integer.toHexString(
+                (normalize(contentType) + '/' + maxLength).hashCode());
+        File dir = new File(new File(directory, id.substring(0, 2)),
+                id.substring(2, 4));
+        return new File(dir, id + '.' + variant);
+    }
+
+    private static String normalize(String contentType) {
+        return contentType != null ? contentType : "";
+    }
+
+}
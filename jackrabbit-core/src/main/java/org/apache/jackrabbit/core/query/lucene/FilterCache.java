@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>FilterCache</code> keeps the documents that match a {@link Filter}
+ * in an index segment as a <code>BitSet</code>, so that queries with the
+ * same constraint do not have to enumerate the terms of the constraint
+ * again. The cache is shared by all queries of a search index and holds
+ * filters for the {@link CachingIndexReader} of a segment, which does not
+ * change while the segment is in use. Documents that are deleted later on
+ * are therefore still set in a cached filter, users of a filter have to
+ * check {@link IndexReader#isDeleted(int)} on the reader of their query.
+ * <p>
+ * The size of the cache is bounded by the memory used by the cached
+ * filters. When the bound is reached, the least recently used filters are
+ * evicted. Filters of a segment are removed with {@link #evict(long)} once
+ * the segment is not used by the search index anymore.
+ */
+class FilterCache {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(FilterCache.class);
+
+    /**
+     * Estimated memory used by an entry in addition to the bits of the
+     * filter.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /**
+     * The cached filters in access order.
+     */
+    private final LinkedHashMap<Key, BitSet> filters =
+        new LinkedHashMap<Key, BitSet>(16, 0.75f, true);
+
+    /**
+     * The number of filters that are being calculated, per creation tick.
+     */
+    private final Map<Long, Integer> calculating = new HashMap<Long, Integer>();
+
+    /**
+     * The creation ticks in {@link #calculating} that were evicted while
+     * filters of their segment were calculated.
+     */
+    private final Set<Long> evicted = new HashSet<Long>();
+
+    /**
+     * The maximum memory in bytes used by the cached filters.
+     */
+    private final long maxSize;
+
+    /**
+     * The estimated memory in bytes used by the cached filters.
+     */
+    private long size;
+
+    /**
+     * Number of filters that were found in the cache.
+     */
+    private long hits;
+
+    /**
+     * Number of filters that were calculated.
+     */
+    private long misses;
+
+    /**
+     * Creates a new filter cache.
+     *
+     * @param maxSize the maximum memory in bytes used by the cached filters.
+     */
+    FilterCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the documents in the segment of <code>reader</code> that match
+     * the given <code>filter</code>. The returned <code>BitSet</code> must
+     * not be modified and does not take the deletions of <code>reader</code>
+     * into account.
+     *
+     * @param reader the reader of an index segment.
+     * @param filter the filter.
+     * @return the matching documents.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    BitSet getFilter(ReadOnlyIndexReader reader, Filter filter)
+            throws IOException {
+        Long tick = reader.getCreationTick();
+        Key key = new Key(tick, filter);
+        synchronized (this) {
+            BitSet bits = filters.get(key);
+            if (bits != null) {
+                hits++;
+                return bits;
+            }
+            misses++;
+            Integer count = calculating.get(tick);
+            calculating.put(tick, count == null ? 1 : count + 1);
+        }
+        // calculate outside of the lock, concurrent queries for the same
+        // filter may calculate it twice, but do not block each other
+        BitSet bits = null;
+        try {
+            bits = filter.calculate(reader.getBase());
+        } finally {
+            synchronized (this) {
+                boolean current = !evicted.contains(tick);
+                Integer count = calculating.remove(tick);
+                if (count > 1) {
+                    calculating.put(tick, count - 1);
+                } else {
+                    evicted.remove(tick);
+                }
+                // do not cache filters of a segment evicted meanwhile
+                if (bits != null && current) {
+                    cache(key, bits);
+                }
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Adds a filter to the cache and evicts the least recently used filters
+     * if the cache is full. The caller must hold the lock of this cache.
+     */
+    private void cache(Key key, BitSet bits) {
+        long bytes = (bits.size() >> 3) + ENTRY_OVERHEAD;
+        if (bytes <= maxSize) {
+            BitSet previous = filters.put(key, bits);
+            if (previous != null) {
+                size -= (previous.size() >> 3) + ENTRY_OVERHEAD;
+            }
+            size += bytes;
+            Iterator<BitSet> it = filters.values().iterator();
+            while (size > maxSize && it.hasNext()) {
+                BitSet eldest = it.next();
+                it.remove();
+                size -= (eldest.size() >> 3) + ENTRY_OVERHEAD;
+            }
+        }
+    }
+
+    /**
+     * Removes the filters of the segment with the given creation tick.
+     *
+     * @param creationTick the creation tick of a {@link CachingIndexReader}.
+     */
+    synchronized void evict(long creationTick) {
+        if (calculating.containsKey(creationTick)) {
+            evicted.add(creationTick);
+        }
+        Iterator<Map.Entry<Key, BitSet>> it = filters.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, BitSet> entry = it.next();
+            if (entry.getKey().creationTick == creationTick) {
+                it.remove();
+                size -= (entry.getValue().size() >> 3) + ENTRY_OVERHEAD;
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Filters: " + filters.size() + ", size: " + size
+                    + ", hits: " + hits + ", misses: " + misses);
+        }
+    }
+
+    /**
+     * @return the number of cached filters.
+     */
+    synchronized int getFilterCount() {
+        return filters.size();
+    }
+
+    /**
+     * @return the estimated memory in bytes used by the cached filters.
+     */
+    synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * A constraint on the documents of an index segment. Implementations
+     * must implement <code>equals()</code> and <code>hashCode()</code>,
+     * filters that are equal are only calculated once per segment.
+     */
+    abstract static class Filter {
+
+        /**
+         * Calculates the documents in the segment of <code>reader</code>
+         * that match this filter.
+         *
+         * @param reader the reader of an index segment.
+         * @return the matching documents.
+         * @throws IOException if an error occurs while reading from the index.
+         */
+        protected abstract BitSet calculate(IndexReader reader)
+                throws IOException;
+
+        public abstract boolean equals(Object obj);
+
+        public abstract int hashCode();
+    }
+
+    /**
+     * Key of a cached filter.
+     */
+    private static final class Key {
+
+        /**
+         * The creation tick of the segment reader.
+         */
+        private final long creationTick;
+
+        /**
+         * The filter.
+         */
+        private final Filter filter;
+
+        private Key(long creationTick, Filter filter) {
+            this.creationTick = creationTick;
+            this.filter = filter;
+        }
+
+        public int hashCode() {
+            return (int) (creationTick ^ (creationTick >>> 32)) * 31
+                    + filter.hashCode();
+        }
+
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key other = (Key) obj;
+                return creationTick == other.creationTick
+                        && filter.equals(other.filter);
+            }
+            return false;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -28,13 +29,17 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Merges indexes in a separate daemon thread.
+ * Merges indexes in separate daemon threads. At most
+ * {@link #setMaxConcurrentMerges(int) maxConcurrentMerges} merges run at the
+ * same time, pending merges of small indexes are started before merges of
+ * large indexes.
  */
 class IndexMerger implements IndexListener {
 
@@ -43,6 +48,21 @@ class IndexMerger implements IndexListener {
      */
     private static final Logger log = LoggerFactory.getLogger(IndexMerger.class);
 
+    /**
+     * Name of the statistics counter for the number of pending merges.
+     */
+    static final String MERGE_BACKLOG = "INDEX_MERGE_BACKLOG";
+
+    /**
+     * Name of the statistics counter for the number of finished merges.
+     */
+    static final String MERGE_COUNTER = "INDEX_MERGE_COUNTER";
+
+    /**
+     * Name of the statistics counter for the duration of finished merges.
+     */
+    static final String MERGE_DURATION = "INDEX_MERGE_DURATION";
+
     /**
      * minMergeDocs config parameter.
      */
@@ -58,6 +78,22 @@ class IndexMerger implements IndexListener {
      */
     private int mergeFactor = SearchIndex.DEFAULT_MERGE_FACTOR;
 
+    /**
+     * maxConcurrentMerges config parameter
+     */
+    private int maxConcurrentMerges = SearchIndex.DEFAULT_MAX_CONCURRENT_MERGES;
+
+    /**
+     * Limits the write rate of all merges, or <code>null</code> if not
+     * limited.
+     */
+    private MergeRateLimiter rateLimiter;
+
+    /**
+     * The repository statistics, or <code>null</code> if not available.
+     */
+    private RepositoryStatisticsImpl statistics;
+
     /**
      * List of <code>IndexBucket</code>s in ascending document limit.
      */
@@ -103,6 +139,24 @@ class IndexMerger implements IndexListener {
      */
     private final List<Worker> busyMergers = new ArrayList<Worker>();
 
+    /**
+     * Merger threads that wait for execution, the smallest merge first.
+     * Guarded by {@link #busyMergers}.
+     */
+    private final PriorityQueue<Worker> pendingMergers = new PriorityQueue<Worker>();
+
+    /**
+     * The number of merger threads that were passed to the executor.
+     * Guarded by {@link #busyMergers}.
+     */
+    private int runningMergers = 0;
+
+    /**
+     * The number of pending merges of this index merger that is included
+     * in the {@link #MERGE_BACKLOG} counter. Guarded by {@link #busyMergers}.
+     */
+    private int reportedBacklog = 0;
+
     /**
      * Creates an <code>IndexMerger</code>.
      *
@@ -253,6 +307,17 @@ class IndexMerger implements IndexListener {
         quit.set(true);
         log.debug("quit flag set");
 
+        // pending merges will never run
+        synchronized (busyMergers) {
+            for (Worker w : pendingMergers) {
+                busyMergers.remove(w);
+                w.terminate();
+            }
+            pendingMergers.clear();
+            updateBacklog();
+            busyMergers.notifyAll();
+        }
+
         try {
             // give the merger threads some time to quit,
             // it is possible that the mergers are busy working on a large index.
@@ -307,6 +372,44 @@ class IndexMerger implements IndexListener {
         this.maxMergeDocs = maxMergeDocs;
     }
 
+    /**
+     * The maximum number of merges that run concurrently.
+     *
+     * @param maxConcurrentMerges the max concurrent merges number.
+     */
+    public void setMaxConcurrentMerges(int maxConcurrentMerges) {
+        this.maxConcurrentMerges = Math.max(1, maxConcurrentMerges);
+    }
+
+    /**
+     * The maximum rate in megabytes per second at which all merges
+     * together write the merged indexes.
+     *
+     * @param mbPerSec the max write rate, <code>0</code> for no limit.
+     */
+    public void setMaxMergeMBPerSec(double mbPerSec) {
+        this.rateLimiter = mbPerSec > 0 ? new MergeRateLimiter(mbPerSec) : null;
+    }
+
+    /**
+     * The repository statistics, where the merge backlog and the finished
+     * merges are recorded.
+     *
+     * @param statistics the repository statistics, may be <code>null</code>.
+     */
+    public void setStatistics(RepositoryStatisticsImpl statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return the number of merges that wait for execution.
+     */
+    int getMergeBacklog() {
+        synchronized (busyMergers) {
+            return pendingMergers.size();
+        }
+    }
+
     //------------------------------< internal >--------------------------------
 
     private void addMergeTask(Merge task) {
@@ -319,11 +422,46 @@ class IndexMerger implements IndexListener {
             }
             synchronized (busyMergers) {
                 busyMergers.add(worker);
+                pendingMergers.add(worker);
             }
+            scheduleMergers();
+        }
+    }
+
+    /**
+     * Passes pending merger threads to the executor, until
+     * {@link #maxConcurrentMerges} are running.
+     */
+    private void scheduleMergers() {
+        List<Worker> workers = new ArrayList<Worker>();
+        synchronized (busyMergers) {
+            while (runningMergers < maxConcurrentMerges
+                    && !pendingMergers.isEmpty()) {
+                workers.add(pendingMergers.poll());
+                runningMergers++;
+            }
+            updateBacklog();
+        }
+        for (Worker worker : workers) {
             executor.execute(worker);
         }
     }
 
+    /**
+     * Records the number of pending merges in the repository statistics.
+     * The counter is shared by the index mergers of all workspaces, so
+     * only the change since the last update is added. The caller must hold
+     * the {@link #busyMergers} monitor.
+     */
+    private void updateBacklog() {
+        if (statistics != null) {
+            int backlog = pendingMergers.size();
+            statistics.getCounter(MERGE_BACKLOG, false).addAndGet(
+                    backlog - reportedBacklog);
+            reportedBacklog = backlog;
+        }
+    }
+
     /**
      * Implements a simple struct that holds the name of an index and how
      * many document it contains. <code>Index</code> is comparable using the
@@ -385,6 +523,11 @@ class IndexMerger implements IndexListener {
 
         private final Index[] indexes;
 
+        /**
+         * The number of documents in the indexes to merge.
+         */
+        private final long numDocs;
+
         /**
          * Merge task, to merge <code>indexes</code> into a new index with
          * <code>name</code>.
@@ -394,6 +537,11 @@ class IndexMerger implements IndexListener {
         Merge(Index[] indexes) {
             this.indexes = new Index[indexes.length];
             System.arraycopy(indexes, 0, this.indexes, 0, indexes.length);
+            long docs = 0;
+            for (Index index : indexes) {
+                docs += index.numDocs;
+            }
+            this.numDocs = docs;
         }
     }
 
@@ -455,7 +603,7 @@ class IndexMerger implements IndexListener {
         }
     }
 
-    private class Worker implements Runnable, IndexListener {
+    private class Worker implements Runnable, IndexListener, Comparable<Worker> {
 
         /**
          * List of id <code>Term</code> that identify documents that were deleted
@@ -523,8 +671,12 @@ class IndexMerger implements IndexListener {
                         try {
                             // do the merge
                             long time = System.currentTimeMillis();
-                            index.addIndexes(readers);
+                            index.addIndexes(readers, rateLimiter);
                             time = System.currentTimeMillis() - time;
+                            if (statistics != null) {
+                                statistics.getCounter(MERGE_COUNTER, true).incrementAndGet();
+                                statistics.getCounter(MERGE_DURATION, true).addAndGet(time);
+                            }
                             int docCount = 0;
                             for (IndexReader reader : readers) {
                                 docCount += reader.numDocs();
@@ -569,15 +721,38 @@ class IndexMerger implements IndexListener {
                     log.error("Error while merging indexes: ", e);
                 }
             } finally {
-                synchronized (terminated) {
-                    terminated.set(true);
-                    terminated.notifyAll();
-                }
+                terminate();
                 synchronized (busyMergers) {
                     busyMergers.remove(this);
+                    runningMergers--;
                     busyMergers.notifyAll();
                 }
                 log.debug("Worker finished");
+                scheduleMergers();
+            }
+        }
+
+        /**
+         * Smaller merges are executed first.
+         *
+         * @param other the other worker.
+         * @return a negative integer, zero, or a positive integer as the merge
+         *         of this worker is smaller, equal, or larger than the merge of
+         *         the other worker.
+         */
+        public int compareTo(Worker other) {
+            long n1 = task.numDocs;
+            long n2 = other.task.numDocs;
+            return n1 < n2 ? -1 : (n1 == n2 ? 0 : 1);
+        }
+
+        /**
+         * Marks this worker as terminated.
+         */
+        void terminate() {
+            synchronized (terminated) {
+                terminated.set(true);
+                terminated.notifyAll();
             }
         }
 
@@ -0,0 +1,498 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.lucene.directory.FSDirectoryManager;
+import org.apache.jackrabbit.core.query.lucene.directory.IndexInputStream;
+import org.apache.jackrabbit.core.query.lucene.directory.IndexOutputStream;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>IndexUpdateQueue</code> records the ids of nodes that need to be
+ * updated in the index, and applies them in batches. Every update is
+ * written to a log file in the index directory before it is acknowledged,
+ * so pending updates are not lost when the repository is stopped or
+ * crashes. The log is read again when the queue is created.
+ * <p>
+ * The log is synced to the storage device in groups, before a batch is
+ * applied and when the queue is closed, instead of once per update. Only
+ * a crash of the operating system may therefore lose the updates that
+ * were recorded since the last batch.
+ * <p>
+ * Only the last operation for a node is kept: an added node is re-read
+ * from the item state manager when the batch is applied, so the index
+ * always receives the most recent state of the node.
+ */
+class IndexUpdateQueue {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(IndexUpdateQueue.class);
+
+    /**
+     * Encoding of the log files.
+     */
+    private static final Charset ENCODING = StandardCharsets.UTF_8;
+
+    /**
+     * Operation identifier for an added node.
+     */
+    private static final String ADD = "ADD";
+
+    /**
+     * Operation identifier for a removed node.
+     */
+    private static final String REMOVE = "REMOVE";
+
+    /**
+     * Prefix of the log files.
+     */
+    static final String QUEUE_PREFIX = "index_update_queue_";
+
+    /**
+     * The .log extension.
+     */
+    private static final String DOT_LOG = ".log";
+
+    /**
+     * Applies the updates of a batch to the index.
+     */
+    interface Indexer {
+
+        /**
+         * Updates the index.
+         *
+         * @param remove the ids of the nodes to remove from the index.
+         * @param add    the ids of the nodes to (re-)add to the index. These
+         *               nodes are also contained in <code>remove</code>.
+         * @throws RepositoryException if a node cannot be read.
+         * @throws IOException if the index cannot be updated.
+         */
+        void update(Collection<NodeId> remove, Collection<NodeId> add)
+                throws RepositoryException, IOException;
+    }
+
+    /**
+     * The directory of the log files.
+     */
+    private final Directory dir;
+
+    /**
+     * Applies the batches.
+     */
+    private final Indexer indexer;
+
+    /**
+     * Serializes the batches.
+     */
+    private final Lock applyLock = new ReentrantLock();
+
+    /**
+     * The pending operations, by node id. <code>true</code> if the node
+     * was added, <code>false</code> if it was removed.
+     */
+    private Map<NodeId, Boolean> pending = new LinkedHashMap<NodeId, Boolean>();
+
+    /**
+     * The time when the oldest pending operation was recorded, or
+     * <code>0</code> if there is none.
+     */
+    private long pendingSince;
+
+    /**
+     * The time when the oldest operation of the batch that is currently
+     * applied was recorded, or <code>0</code> if no batch is applied.
+     */
+    private long applyingSince;
+
+    /**
+     * The names of the log files that contain the pending operations.
+     */
+    private final List<String> files = new ArrayList<String>();
+
+    /**
+     * The generation of the current log file.
+     */
+    private long generation;
+
+    /**
+     * Writer to the current log file, or <code>null</code> if not open.
+     */
+    private Writer out;
+
+    /**
+     * The name of the current log file, or <code>null</code> if not open.
+     */
+    private String outName;
+
+    /**
+     * Whether operations were written to {@link #out} since it was last
+     * synced.
+     */
+    private boolean unsynced;
+
+    /**
+     * Creates a new queue and reads the pending operations that are
+     * left in the given directory.
+     *
+     * @param dir     the directory of the log files.
+     * @param indexer applies the batches.
+     * @throws IOException if the log files cannot be read.
+     */
+    IndexUpdateQueue(Directory dir, Indexer indexer) throws IOException {
+        this.dir = dir;
+        this.indexer = indexer;
+        for (String name : dir.listAll()) {
+            if (name.startsWith(QUEUE_PREFIX) && name.endsWith(DOT_LOG)) {
+                files.add(name);
+            }
+        }
+        // later generations override the operations of earlier ones
+        Collections.sort(files, new Comparator<String>() {
+            public int compare(String n1, String n2) {
+                long g1 = getGeneration(n1);
+                long g2 = getGeneration(n2);
+                return g1 < g2 ? -1 : (g1 == g2 ? 0 : 1);
+            }
+        });
+        for (String name : files) {
+            read(name);
+            generation = Math.max(generation, getGeneration(name));
+        }
+        if (!pending.isEmpty()) {
+            pendingSince = System.currentTimeMillis();
+            log.info("Found {} pending index updates", pending.size());
+        }
+    }
+
+    /**
+     * Records updates of the index. The operations are written to the
+     * log before this method returns, and synced to the storage device
+     * with the next batch.
+     *
+     * @param remove the ids of the removed nodes.
+     * @param add    the ids of the added nodes.
+     * @throws IOException if the operations cannot be written to the log.
+     */
+    synchronized void append(Collection<NodeId> remove, Collection<NodeId> add)
+            throws IOException {
+        if (remove.isEmpty() && add.isEmpty()) {
+            return;
+        }
+        initOut();
+        for (NodeId id : remove) {
+            out.write(REMOVE + " " + id + "\n");
+            pending.put(id, Boolean.FALSE);
+        }
+        for (NodeId id : add) {
+            out.write(ADD + " " + id + "\n");
+            pending.put(id, Boolean.TRUE);
+        }
+        out.flush();
+        unsynced = true;
+        if (pendingSince == 0) {
+            pendingSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return the number of nodes with pending operations.
+     */
+    synchronized int getSize() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the age of the oldest operation that is not yet applied to
+     * the index.
+     *
+     * @return the age in milliseconds, or <code>0</code> if all operations
+     *         are applied.
+     */
+    synchronized long getAge() {
+        long since = pendingSince;
+        if (since == 0 || (applyingSince != 0 && applyingSince < since)) {
+            since = applyingSince;
+        }
+        return since == 0 ? 0 : System.currentTimeMillis() - since;
+    }
+
+    /**
+     * Applies all pending operations in a single batch. When this method
+     * returns, every operation recorded before the call is applied to the
+     * index. Concurrent calls are serialized.
+     *
+     * @throws RepositoryException if a node cannot be read.
+     * @throws IOException if the index or the log cannot be updated.
+     */
+    void apply() throws RepositoryException, IOException {
+        applyLock.lock();
+        try {
+            applyBatch();
+        } finally {
+            applyLock.unlock();
+        }
+    }
+
+    /**
+     * Applies all pending operations in a single batch, unless another
+     * batch is currently applied. In contrast to {@link #apply()} this
+     * method never waits for another thread.
+     *
+     * @return <code>false</code> if another batch is currently applied.
+     * @throws RepositoryException if a node cannot be read.
+     * @throws IOException if the index or the log cannot be updated.
+     */
+    boolean tryApply() throws RepositoryException, IOException {
+        if (!applyLock.tryLock()) {
+            return false;
+        }
+        try {
+            applyBatch();
+            return true;
+        } finally {
+            applyLock.unlock();
+        }
+    }
+
+    /**
+     * Applies the pending operations. The caller must hold the
+     * {@link #applyLock}.
+     *
+     * @throws RepositoryException if a node cannot be read.
+     * @throws IOException if the index or the log cannot be updated.
+     */
+    private void applyBatch() throws RepositoryException, IOException {
+        Map<NodeId, Boolean> batch;
+        synchronized (this) {
+            sync();
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            applyingSince = pendingSince;
+            pending = new LinkedHashMap<NodeId, Boolean>();
+            pendingSince = 0;
+        }
+
+        boolean success = false;
+        try {
+            Collection<NodeId> add = new ArrayList<NodeId>();
+            for (Map.Entry<NodeId, Boolean> entry : batch.entrySet()) {
+                if (entry.getValue()) {
+                    add.add(entry.getKey());
+                }
+            }
+            long time = System.currentTimeMillis();
+            indexer.update(batch.keySet(), add);
+            time = System.currentTimeMillis() - time;
+            log.debug("applied {} pending index updates in {}ms",
+                    batch.size(), time);
+            success = true;
+        } finally {
+            synchronized (this) {
+                if (!success) {
+                    // keep the operations of the failed batch unless
+                    // there are more recent ones
+                    batch.putAll(pending);
+                    pending = batch;
+                    if (pendingSince == 0 || applyingSince < pendingSince) {
+                        pendingSince = applyingSince;
+                    }
+                }
+                applyingSince = 0;
+            }
+        }
+        compact();
+    }
+
+    /**
+     * Closes this queue. Operations that are not yet applied stay in the
+     * log and are read again by the next queue on this directory.
+     *
+     * @throws IOException if the log cannot be closed.
+     */
+    synchronized void close() throws IOException {
+        sync();
+        closeOut();
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    /**
+     * Replaces the log files with a new one that only contains the pending
+     * operations. The new file is written and synced before the old ones
+     * are deleted.
+     *
+     * @throws IOException if the log files cannot be updated.
+     */
+    private synchronized void compact() throws IOException {
+        // the pending operations are synced with the new log file
+        closeOut();
+        List<String> obsolete = new ArrayList<String>(files);
+        files.clear();
+        if (!pending.isEmpty()) {
+            initOut();
+            for (Map.Entry<NodeId, Boolean> entry : pending.entrySet()) {
+                String cmd = entry.getValue() ? ADD : REMOVE;
+                out.write(cmd + " " + entry.getKey() + "\n");
+            }
+            out.flush();
+            unsynced = true;
+            sync();
+        }
+        for (String name : obsolete) {
+            try {
+                if (dir.fileExists(name)) {
+                    dir.deleteFile(name);
+                }
+            } catch (IOException e) {
+                log.warn("unable to delete " + name);
+            }
+        }
+    }
+
+    /**
+     * Syncs the current log file to the storage device if operations were
+     * written to it since it was last synced. The caller must hold the
+     * lock of this queue.
+     *
+     * @throws IOException if the log file cannot be synced.
+     */
+    private void sync() throws IOException {
+        if (out == null || !unsynced) {
+            return;
+        }
+        Collection<String> names = Collections.singleton(outName);
+        // the directories of the directory manager do not sync themselves
+        FSDirectory fsDir = FSDirectoryManager.getFSDirectory(dir);
+        if (fsDir != null) {
+            fsDir.sync(names);
+        } else {
+            dir.sync(names);
+        }
+        unsynced = false;
+    }
+
+    /**
+     * Closes the current log file without syncing it.
+     *
+     * @throws IOException if the log file cannot be closed.
+     */
+    private void closeOut() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            outName = null;
+            unsynced = false;
+        }
+    }
+
+    /**
+     * Initializes the {@link #out} writer with a new log file if it is not
+     * yet set.
+     *
+     * @throws IOException if the log file cannot be created.
+     */
+    private void initOut() throws IOException {
+        if (out == null) {
+            String name = QUEUE_PREFIX
+                    + Long.toString(++generation, Character.MAX_RADIX) + DOT_LOG;
+            out = new BufferedWriter(new OutputStreamWriter(
+                    new IndexOutputStream(dir.createOutput(name)), ENCODING));
+            outName = name;
+            files.add(name);
+        }
+    }
+
+    /**
+     * Reads the operations of a log file into {@link #pending}.
+     *
+     * @param name the name of the log file.
+     * @throws IOException if the log file cannot be read.
+     */
+    private void read(String name) throws IOException {
+        InputStream in = new IndexInputStream(dir.openInput(name));
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(in, ENCODING));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int idx = line.indexOf(' ');
+                try {
+                    if (idx == -1) {
+                        throw new IllegalArgumentException(line);
+                    }
+                    String cmd = line.substring(0, idx);
+                    NodeId id = NodeId.valueOf(line.substring(idx + 1));
+                    if (ADD.equals(cmd)) {
+                        pending.put(id, Boolean.TRUE);
+                    } else if (REMOVE.equals(cmd)) {
+                        pending.put(id, Boolean.FALSE);
+                    } else {
+                        throw new IllegalArgumentException(line);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // invalid or partially written line
+                    log.warn("invalid line in {}: {}", name, line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param name the name of a log file.
+     * @return the generation of the log file, or <code>0</code> if the name
+     *         is malformed.
+     */
+    private static long getGeneration(String name) {
+        try {
+            return Long.parseLong(name.substring(QUEUE_PREFIX.length(),
+                    name.length() - DOT_LOG.length()), Character.MAX_RADIX);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
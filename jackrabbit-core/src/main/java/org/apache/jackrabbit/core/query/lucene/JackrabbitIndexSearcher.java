@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.core.query.lucene;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.query.lucene.constraint.EvaluationContext;
@@ -27,6 +28,7 @@ import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 
 /**
  * <code>JackrabbitIndexSearcher</code> implements an index searcher with
@@ -51,6 +53,12 @@ public class JackrabbitIndexSearcher
      */
     private final ItemStateManager ism;
 
+    /**
+     * The executor that scores the index segments in parallel, or
+     * <code>null</code> if segments are scored sequentially.
+     */
+    private final ExecutorService executor;
+
     /**
      * Creates a new jackrabbit index searcher.
      *
@@ -61,10 +69,28 @@ public class JackrabbitIndexSearcher
     public JackrabbitIndexSearcher(SessionImpl s,
                                    IndexReader r,
                                    ItemStateManager ism) {
+        this(s, r, ism, null);
+    }
+
+    /**
+     * Creates a new jackrabbit index searcher, which scores the index
+     * segments of plain Lucene queries in parallel.
+     *
+     * @param s the session that executes the query.
+     * @param r the index reader.
+     * @param ism the shared item state manager.
+     * @param executor the executor that scores the index segments, or
+     *                 <code>null</code> to score them sequentially.
+     */
+    public JackrabbitIndexSearcher(SessionImpl s,
+                                   IndexReader r,
+                                   ItemStateManager ism,
+                                   ExecutorService executor) {
         super(r);
         this.session = s;
         this.reader = r;
         this.ism = ism;
+        this.executor = executor;
     }
 
     /**
@@ -102,6 +128,9 @@ public class JackrabbitIndexSearcher
         if (query instanceof JackrabbitQuery) {
             hits = ((JackrabbitQuery) query).execute(this, session, sort);
         }
+        if (hits == null) {
+            hits = evaluateParallel(query, sort, resultFetchHint);
+        }
         if (hits == null) {
             if (sort.getSort().length == 0) {
                 hits = new LuceneQueryHits(reader, this, query);
@@ -113,6 +142,45 @@ public class JackrabbitIndexSearcher
         return hits;
     }
 
+    /**
+     * Scores the index segments in parallel, if an executor is set and the
+     * query can be scored per segment. Only queries that are ordered by
+     * document number or by score are scored in parallel.
+     *
+     * @param query           the rewritten query.
+     * @param sort            the sort criteria.
+     * @param resultFetchHint a hint on how many results should be fetched.
+     * @return the query hits, or <code>null</code> if the query is not
+     *         scored in parallel.
+     * @throws IOException if an error occurs while executing the query.
+     */
+    private QueryHits evaluateParallel(Query query, Sort sort,
+                                       long resultFetchHint)
+            throws IOException {
+        if (executor == null || !ParallelLuceneQueryHits.isSupported(query)) {
+            return null;
+        }
+        SortField[] fields = sort.getSort();
+        if (fields.length > 1
+                || (fields.length == 1 && fields[0].getType() != SortField.SCORE)) {
+            return null;
+        }
+        IndexReader[] segments = ParallelLuceneQueryHits.getSegments(reader);
+        if (segments.length < 2) {
+            return null;
+        }
+        if (fields.length == 0) {
+            // same weight as LuceneQueryHits
+            return new ParallelLuceneQueryHits(query.createWeight(this),
+                    segments, executor, null, resultFetchHint);
+        } else {
+            // same weight as SortedLuceneQueryHits
+            return new ParallelLuceneQueryHits(createNormalizedWeight(query),
+                    segments, executor, fields[0].getReverse(),
+                    resultFetchHint);
+        }
+    }
+
     //---------------------------< IndexSearcher >------------------------------
 
     @Override
@@ -21,6 +21,7 @@ import java.io.Reader;
 import java.util.concurrent.Executor;
 
 import org.apache.jackrabbit.core.LowPriorityTask;
+import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.document.AbstractField;
@@ -74,15 +75,58 @@ public class LazyTextExtractorField extends AbstractField {
             Parser parser, InternalValue value, Metadata metadata,
             Executor executor, boolean highlighting, int maxFieldLength,
             boolean withNorms) {
+        this(parser, value, metadata, executor, null, highlighting,
+                maxFieldLength, withNorms);
+    }
+
+    /**
+     * Creates a new <code>LazyTextExtractorField</code>. If the binary value
+     * is stored in the data store and its text is found in the given cache,
+     * then the field is finished immediately without parsing the binary.
+     * Otherwise the text is extracted in the background and stored in the
+     * cache once the extraction succeeded.
+     *
+     * @param parser
+     * @param value
+     * @param metadata
+     * @param executor
+     * @param cache
+     *            cache of extracted text, or <code>null</code>
+     * @param highlighting
+     *            set to <code>true</code> to enable result highlighting support
+     * @param maxFieldLength
+     * @param withNorms
+     */
+    public LazyTextExtractorField(
+            Parser parser, InternalValue value, Metadata metadata,
+            Executor executor, final ExtractedTextCache cache,
+            boolean highlighting, final int maxFieldLength,
+            boolean withNorms) {
         super(FieldNames.FULLTEXT,
                 highlighting ? Store.YES : Store.NO,
                 withNorms ? Field.Index.ANALYZED : Field.Index.ANALYZED_NO_NORMS,
                 highlighting ? TermVector.WITH_OFFSETS : TermVector.NO);
+        final DataIdentifier identifier =
+            cache != null ? value.getDataIdentifier() : null;
+        final String contentType = metadata.get(Metadata.CONTENT_TYPE);
+        if (identifier != null) {
+            String text = cache.get(identifier, contentType, maxFieldLength);
+            if (text != null) {
+                value.discard();
+                setExtractedText(text);
+                return;
+            }
+        }
         executor.execute(new ParsingTask(parser, value, metadata,
                 maxFieldLength) {
             public void setExtractedText(String value) {
                 LazyTextExtractorField.this.setExtractedText(value);
             }
+            protected void extractionSucceeded(String value) {
+                if (identifier != null) {
+                    cache.put(identifier, contentType, maxFieldLength, value);
+                }
+            }
         });
     }
 
@@ -209,9 +253,21 @@ public class LazyTextExtractorField extends AbstractField {
             } finally {
                 value.discard();
             }
-            setExtractedText(writeOutContentHandler.toString());
+            String text = writeOutContentHandler.toString();
+            setExtractedText(text);
+            extractionSucceeded(text);
         }
 
         protected abstract void setExtractedText(String value);
+
+        /**
+         * Called with the extracted text after it was passed to
+         * {@link #setExtractedText(String)} if the extraction did not fail.
+         * The default implementation does nothing.
+         *
+         * @param value the extracted text
+         */
+        protected void extractionSucceeded(String value) {
+        }
     }
 }
@@ -394,6 +394,9 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
         if (terms.size() == 0) {
             // exception occured
             return new BooleanQuery();
+        } else if (cache.getFilterCache() != null) {
+            // shared per segment filter
+            return new TermSetQuery(terms, cache);
         } else if (terms.size() == 1) {
             return new JackrabbitTermQuery(terms.get(0));
         } else {
@@ -49,9 +49,11 @@ import static org.apache.lucene.search.BooleanClause.Occur.SHOULD;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
@@ -144,7 +146,7 @@ public class LuceneQueryFactory {
 
     protected final String primaryTypeField;
 
-    private final PerQueryCache cache = new PerQueryCache();
+    private final PerQueryCache cache;
 
     /**
      * Creates a new lucene query factory.
@@ -165,6 +167,7 @@ public class LuceneQueryFactory {
             new OperandEvaluator(session.getValueFactory(), bindVariables);
         this.mixinTypesField = nsMappings.translateName(JCR_MIXINTYPES);
         this.primaryTypeField = nsMappings.translateName(JCR_PRIMARYTYPE);
+        this.cache = new PerQueryCache(index.getFilterCache());
     }
 
     /**
@@ -194,7 +197,8 @@ public class LuceneQueryFactory {
         QueryHits hits = null;
         try {
             JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
-                    session, reader, index.getContext().getItemStateManager());
+                    session, reader, index.getContext().getItemStateManager(),
+                    index.getSearchExecutor());
             searcher.setSimilarity(index.getSimilarity());
 
             Predicate filter = Predicate.TRUE;
@@ -216,7 +220,9 @@ public class LuceneQueryFactory {
 
             // TODO depending on the filters, we could push the offset info
             // into the searcher
-            hits = searcher.evaluate(qp.mainQuery, sort, offset + limit);
+            int resultFetchHint = limit > Integer.MAX_VALUE - offset
+                    ? Integer.MAX_VALUE : offset + limit;
+            hits = searcher.evaluate(qp.mainQuery, sort, resultFetchHint);
             int currentNode = 0;
             int addedNodes = 0;
 
@@ -268,6 +274,132 @@ public class LuceneQueryFactory {
      * @throws RepositoryException if an error occurs while creating the query.
      */
     public Query create(Selector selector) throws RepositoryException {
+        List<Term> terms = createNodeTypeTerms(selector);
+
+        if (cache.getFilterCache() != null) {
+            // shared per segment filter
+            return new TermSetQuery(terms, cache);
+        } else if (terms.size() == 1) {
+            return new JackrabbitTermQuery(terms.get(0));
+        } else {
+            BooleanQuery b = new BooleanQuery();
+            for (Term term : terms) {
+                b.add(new JackrabbitTermQuery(term), SHOULD);
+            }
+            return b;
+        }
+    }
+
+    /**
+     * Estimates the number of nodes that match the given selector and the
+     * constraints on it. The estimate is based on the document frequencies
+     * of the node type terms of the selector and of the property values it
+     * is compared to for equality. Constraints on other selectors and
+     * constraints that can not be estimated from term statistics are
+     * ignored.
+     *
+     * @param selector the selector.
+     * @param constraint the constraints of the query, or <code>null</code>.
+     * @return the estimated number of matching nodes.
+     * @throws RepositoryException if an error occurs while reading from the
+     *                             index.
+     */
+    public long getEstimatedSize(Selector selector, Constraint constraint)
+            throws RepositoryException {
+        try {
+            IndexReader reader = index.getIndexReader(true);
+            try {
+                long size = 0;
+                for (Term term : createNodeTypeTerms(selector)) {
+                    size += reader.docFreq(term);
+                }
+                if (constraint != null) {
+                    Map<String, NodeType> selectorMap = Collections.singletonMap(
+                            selector.getSelectorName(),
+                            ntManager.getNodeType(selector.getNodeTypeName()));
+                    size = Math.min(size, getEstimatedSize(
+                            constraint, selector.getSelectorName(),
+                            selectorMap, reader));
+                }
+                return Math.min(size, reader.numDocs());
+            } finally {
+                Util.closeOrRelease(reader);
+            }
+        } catch (IOException e) {
+            throw new RepositoryException(
+                    "Failed to access the query index", e);
+        }
+    }
+
+    /**
+     * Estimates the number of nodes of a selector that match the given
+     * constraint.
+     *
+     * @return the estimated number of matching nodes, or
+     *         <code>Long.MAX_VALUE</code> if it can not be estimated.
+     */
+    private long getEstimatedSize(
+            Constraint constraint, String selectorName,
+            Map<String, NodeType> selectorMap, IndexReader reader)
+            throws RepositoryException, IOException {
+        if (constraint instanceof And) {
+            And and = (And) constraint;
+            return Math.min(
+                    getEstimatedSize(and.getConstraint1(), selectorName,
+                            selectorMap, reader),
+                    getEstimatedSize(and.getConstraint2(), selectorName,
+                            selectorMap, reader));
+        } else if (constraint instanceof Or) {
+            Or or = (Or) constraint;
+            long size1 = getEstimatedSize(
+                    or.getConstraint1(), selectorName, selectorMap, reader);
+            long size2 = getEstimatedSize(
+                    or.getConstraint2(), selectorName, selectorMap, reader);
+            if (size1 == Long.MAX_VALUE || size2 == Long.MAX_VALUE) {
+                return Long.MAX_VALUE;
+            }
+            return size1 + size2;
+        } else if (constraint instanceof SameNode) {
+            if (selectorName.equals(((SameNode) constraint).getSelectorName())) {
+                return 1;
+            }
+        } else if (constraint instanceof Comparison) {
+            Comparison c = (Comparison) constraint;
+            Transform transform = new Transform(c.getOperand1());
+            if (transform.operand instanceof PropertyValue
+                    && transform.transform == TRANSFORM_NONE
+                    && JCR_OPERATOR_EQUAL_TO.equals(c.getOperator())
+                    && selectorName.equals(((PropertyValue) transform.operand)
+                            .getSelectorName())) {
+                Query q = getComparisonQuery(
+                        transform.operand, transform.transform,
+                        c.getOperator(), c.getOperand2(), selectorMap);
+                Set<Term> terms = new HashSet<Term>();
+                try {
+                    q.extractTerms(terms);
+                } catch (UnsupportedOperationException e) {
+                    return Long.MAX_VALUE;
+                }
+                long size = 0;
+                for (Term term : terms) {
+                    size += reader.docFreq(term);
+                }
+                return size;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Creates the terms that match the node type of the given selector and
+     * its sub types.
+     *
+     * @param selector the selector.
+     * @return the node type terms.
+     * @throws RepositoryException if the node types can not be read.
+     */
+    private List<Term> createNodeTypeTerms(Selector selector)
+            throws RepositoryException {
         List<Term> terms = new ArrayList<Term>();
 
         String name = selector.getNodeTypeName();
@@ -278,16 +410,7 @@ public class LuceneQueryFactory {
                 terms.add(createNodeTypeTerm(nt));
             }
         }
-
-        if (terms.size() == 1) {
-            return new JackrabbitTermQuery(terms.get(0));
-        } else {
-            BooleanQuery b = new BooleanQuery();
-            for (Term term : terms) {
-                b.add(new JackrabbitTermQuery(term), SHOULD);
-            }
-            return b;
-        }
+        return terms;
     }
 
     protected Term createNodeTypeTerm(NodeType type) throws RepositoryException {
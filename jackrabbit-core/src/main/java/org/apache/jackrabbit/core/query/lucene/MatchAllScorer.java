@@ -86,7 +86,10 @@ class MatchAllScorer extends Scorer {
             return nextDoc;
         }
 
-        nextDoc = docFilter.nextSetBit(nextDoc + 1);
+        // a shared filter may contain documents deleted in this reader
+        do {
+            nextDoc = docFilter.nextSetBit(nextDoc + 1);
+        } while (nextDoc >= 0 && reader.isDeleted(nextDoc));
         if (nextDoc < 0) {
             nextDoc = NO_MORE_DOCS;
         }
@@ -123,13 +126,22 @@ class MatchAllScorer extends Scorer {
     /**
      * Calculates a BitSet filter that includes all the nodes
      * that have content in properties according to the field name
-     * passed in the constructor of this MatchAllScorer.
+     * passed in the constructor of this MatchAllScorer. The filter is
+     * taken from the shared filter cache if the reader is an index segment
+     * and the filter cache is enabled, otherwise it is cached per query.
      *
      * @throws IOException if an error occurs while reading from
      *                     the search index.
      */
     @SuppressWarnings({"unchecked"})
     private void calculateDocFilter(PerQueryCache cache) throws IOException {
+        FilterCache filterCache = cache.getFilterCache();
+        if (filterCache != null && reader instanceof ReadOnlyIndexReader) {
+            docFilter = filterCache.getFilter(
+                    (ReadOnlyIndexReader) reader, new PropertyFilter(field));
+            return;
+        }
+
         Map<String, BitSet> readerCache = (Map<String, BitSet>) cache.get(MatchAllScorer.class, reader);
         if (readerCache == null) {
             readerCache = new HashMap<String, BitSet>();
@@ -144,30 +156,59 @@ class MatchAllScorer extends Scorer {
         }
 
         // otherwise calculate new
-        docFilter = new BitSet(reader.maxDoc());
-        // we match all terms
-        String namedValue = FieldNames.createNamedValue(field, "");
-        TermEnum terms = reader.terms(new Term(FieldNames.PROPERTIES, namedValue));
-        try {
-            TermDocs docs = reader.termDocs();
+        docFilter = new PropertyFilter(field).calculate(reader);
+
+        // put BitSet into cache
+        readerCache.put(field, docFilter);
+    }
+
+    /**
+     * Matches the documents with a value in a given property.
+     */
+    private static final class PropertyFilter extends FilterCache.Filter {
+
+        /**
+         * The field to match
+         */
+        private final String field;
+
+        PropertyFilter(String field) {
+            this.field = field;
+        }
+
+        protected BitSet calculate(IndexReader reader) throws IOException {
+            BitSet docFilter = new BitSet(reader.maxDoc());
+            // we match all terms
+            String namedValue = FieldNames.createNamedValue(field, "");
+            TermEnum terms = reader.terms(new Term(FieldNames.PROPERTIES, namedValue));
             try {
-                while (terms.term() != null
-                        && terms.term().field() == FieldNames.PROPERTIES
-                        && terms.term().text().startsWith(namedValue)) {
-                    docs.seek(terms);
-                    while (docs.next()) {
-                        docFilter.set(docs.doc());
+                TermDocs docs = reader.termDocs();
+                try {
+                    while (terms.term() != null
+                            && terms.term().field() == FieldNames.PROPERTIES
+                            && terms.term().text().startsWith(namedValue)) {
+                        docs.seek(terms);
+                        while (docs.next()) {
+                            docFilter.set(docs.doc());
+                        }
+                        terms.next();
                     }
-                    terms.next();
+                } finally {
+                    docs.close();
                 }
             } finally {
-                docs.close();
+                terms.close();
             }
-        } finally {
-            terms.close();
+            return docFilter;
         }
 
-        // put BitSet into cache
-        readerCache.put(field, docFilter);
+        public boolean equals(Object obj) {
+            return obj instanceof PropertyFilter
+                    && field.equals(((PropertyFilter) obj).field);
+        }
+
+        public int hashCode() {
+            return field.hashCode();
+        }
     }
 }
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+/**
+ * Limits the rate at which index merges write to the storage. The limit
+ * applies to the sum of all concurrent merges that share the limiter.
+ */
+class MergeRateLimiter {
+
+    /**
+     * The maximum rate in bytes per nanosecond.
+     */
+    private final double bytesPerNano;
+
+    /**
+     * The time in nanoseconds until which the bytes written so far are
+     * accounted for.
+     */
+    private long nextNanos = System.nanoTime();
+
+    /**
+     * Creates a new rate limiter.
+     *
+     * @param mbPerSec the maximum rate in megabytes per second.
+     */
+    MergeRateLimiter(double mbPerSec) {
+        if (mbPerSec <= 0) {
+            throw new IllegalArgumentException("mbPerSec must be positive");
+        }
+        this.bytesPerNano = mbPerSec * 1024 * 1024 / 1000000000d;
+    }
+
+    /**
+     * Accounts for the given number of written bytes, and pauses the
+     * calling thread if the bytes were written faster than the limit.
+     *
+     * @param bytes the number of bytes written.
+     * @throws InterruptedException if the thread is interrupted while
+     *                              pausing.
+     */
+    void pause(long bytes) throws InterruptedException {
+        long target;
+        synchronized (this) {
+            long now = System.nanoTime();
+            // do not accumulate credit while merges are idle
+            nextNanos = Math.max(nextNanos, now) + (long) (bytes / bytesPerNano);
+            target = nextNanos;
+        }
+        long wait = target - System.nanoTime();
+        if (wait > 0) {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        }
+    }
+}
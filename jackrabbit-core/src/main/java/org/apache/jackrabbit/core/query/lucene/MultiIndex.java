@@ -158,6 +158,13 @@ public class MultiIndex {
      */
     private CachingMultiIndexReader multiReader;
 
+    /**
+     * The creation ticks of the segment readers of the last
+     * {@link #multiReader}. Filters of segments that are not used by a new
+     * <code>multiReader</code> anymore are evicted from the filter cache.
+     */
+    private long[] readerTicks = new long[0];
+
     /**
      * Shared document number cache across all persistent indexes.
      */
@@ -265,6 +272,9 @@ public class MultiIndex {
         merger.setMaxMergeDocs(handler.getMaxMergeDocs());
         merger.setMergeFactor(handler.getMergeFactor());
         merger.setMinMergeDocs(handler.getMinMergeDocs());
+        merger.setMaxConcurrentMerges(handler.getMaxConcurrentMerges());
+        merger.setMaxMergeMBPerSec(handler.getMaxMergeMBPerSec());
+        merger.setStatistics(handler.getContext().getRepositoryStatistics());
 
         // initialize indexing queue
         this.indexingQueue = new IndexingQueue(new IndexingQueueStore(indexDir));
@@ -383,7 +393,13 @@ public class MultiIndex {
                 // traverse and index workspace
                 executeAndLog(new Start(Action.INTERNAL_TRANSACTION));
                 NodeState rootState = (NodeState) stateMgr.getItemState(rootId);
-                count = createIndex(rootState, rootPath, stateMgr, count);
+                int numThreads = handler.getInitialIndexThreads();
+                if (numThreads > 1) {
+                    count = createIndexInParallel(
+                            rootState, rootPath, stateMgr, numThreads);
+                } else {
+                    count = createIndex(rootState, rootPath, stateMgr, count);
+                }
                 checkIndexingQueue(true);
                 executeAndLog(new Commit(getTransactionId()));
                 log.debug("Created initial index for {} nodes", count);
@@ -758,12 +774,36 @@ public class MultiIndex {
                 ReadOnlyIndexReader[] readers =
                     readerList.toArray(new ReadOnlyIndexReader[readerList.size()]);
                 multiReader = new CachingMultiIndexReader(readers, cache);
+                evictFilters(readers);
             }
             multiReader.acquire();
             return multiReader;
         }
     }
 
+    /**
+     * Evicts the cached filters of segments that were replaced by
+     * <code>readers</code>.
+     *
+     * @param readers the segment readers of the new {@link #multiReader}.
+     */
+    private void evictFilters(ReadOnlyIndexReader[] readers) {
+        long[] ticks = new long[readers.length];
+        for (int i = 0; i < readers.length; i++) {
+            ticks[i] = readers[i].getCreationTick();
+        }
+        Arrays.sort(ticks);
+        FilterCache filterCache = handler.getFilterCache();
+        if (filterCache != null) {
+            for (long tick : readerTicks) {
+                if (Arrays.binarySearch(ticks, tick) < 0) {
+                    filterCache.evict(tick);
+                }
+            }
+        }
+        readerTicks = ticks;
+    }
+
     /**
      * Returns the volatile index.
      *
@@ -1251,6 +1291,39 @@ public class MultiIndex {
         return count;
     }
 
+    /**
+     * Creates an index starting with the NodeState <code>node</code> using
+     * multiple threads, each of which writes its own persistent index
+     * segment. The segments are added to this index once all of them have
+     * been built. Merging them is left to the {@link IndexMerger}.
+     *
+     * @param node       the NodeState from where to start.
+     * @param path       the path of <code>node</code>.
+     * @param stateMgr   the shared item state manager.
+     * @param numThreads the number of threads.
+     * @return the number of nodes indexed.
+     * @throws IOException if an error occurs while writing to the index.
+     */
+    private long createIndexInParallel(NodeState node,
+                                       Path path,
+                                       ItemStateManager stateMgr,
+                                       int numThreads)
+            throws IOException {
+        long time = System.currentTimeMillis();
+        ParallelIndexBuilder builder = new ParallelIndexBuilder(
+                this, handler, stateMgr, excludedIDs, numThreads);
+        List<PersistentIndex> segments = builder.build(node, path);
+        for (PersistentIndex segment : segments) {
+            executeAndLog(new CreateIndex(getTransactionId(), segment.getName()));
+            executeAndLog(new AddIndex(getTransactionId(), segment.getName()));
+        }
+        time = System.currentTimeMillis() - time;
+        log.info("Indexed {} nodes into {} segments with {} threads in {}ms",
+                new Object[] {builder.getCount(), segments.size(),
+                        numThreads, time});
+        return builder.getCount();
+    }
+
     /**
      * Attempts to delete all files that are older than
      *{@link SearchIndex#getMaxHistoryAge()}.
@@ -132,6 +132,11 @@ public class NodeIndexer {
      */
     private int maxExtractLength = Integer.MAX_VALUE;
 
+    /**
+     * Cache of text extracted from binaries, or <code>null</code> if none.
+     */
+    private ExtractedTextCache extractedTextCache;
+
     /**
      * Creates a new node indexer.
      *
@@ -206,6 +211,16 @@ public class NodeIndexer {
         this.maxExtractLength = length;
     }
 
+    /**
+     * Sets the cache of text extracted from binaries.
+     *
+     * @param cache the extracted text cache, or <code>null</code> to
+     *              extract the text of all binaries
+     */
+    public void setExtractedTextCache(ExtractedTextCache cache) {
+        this.extractedTextCache = cache;
+    }
+
     /**
      * Creates a lucene Document.
      *
@@ -871,7 +886,8 @@ public class NodeIndexer {
     protected Fieldable createFulltextField(
             InternalValue value, Metadata metadata, boolean withNorms) {
         return new LazyTextExtractorField(parser, value, metadata, executor,
-                supportHighlighting, getMaxExtractLength(), withNorms);
+                extractedTextCache, supportHighlighting, getMaxExtractLength(),
+                withNorms);
     }
 
     /**
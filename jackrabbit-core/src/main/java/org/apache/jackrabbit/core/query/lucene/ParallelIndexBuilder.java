@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ChildNodeEntry;
+import org.apache.jackrabbit.core.state.ItemStateException;
+import org.apache.jackrabbit.core.state.ItemStateManager;
+import org.apache.jackrabbit.core.state.NoSuchItemStateException;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.PathFactory;
+import org.apache.jackrabbit.spi.commons.conversion.DefaultNamePathResolver;
+import org.apache.jackrabbit.spi.commons.conversion.PathResolver;
+import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the initial index of a workspace with multiple threads. The node
+ * tree is split into subtrees that are traversed by a number of worker
+ * threads. Each worker writes the documents of the nodes it traverses to
+ * its own persistent index segment. A worker that encounters child nodes
+ * while fewer subtrees than workers are waiting to be traversed hands these
+ * child nodes over to the other workers instead of traversing them itself,
+ * so that the work is spread across the workers regardless of the shape of
+ * the tree.
+ * <p>
+ * The segments are created with {@link MultiIndex#getOrCreateIndex(String)}
+ * and are therefore registered with the open segments of the
+ * {@link MultiIndex}. They are however neither added to its index names,
+ * which keeps them invisible to searches and the merger, nor logged in the
+ * redo log. This is left to the caller once all segments have been built
+ * and committed successfully.
+ */
+class ParallelIndexBuilder {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log =
+        LoggerFactory.getLogger(ParallelIndexBuilder.class);
+
+    private static final PathFactory PATH_FACTORY = PathFactoryImpl.getInstance();
+
+    /**
+     * Number of documents a worker collects before adding them to its
+     * segment.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * The index to build.
+     */
+    private final MultiIndex index;
+
+    /**
+     * The query handler of the index.
+     */
+    private final SearchIndex handler;
+
+    /**
+     * The item state manager to read the node states from.
+     */
+    private final ItemStateManager stateMgr;
+
+    /**
+     * Identifiers of nodes that should neither be indexed nor traversed.
+     */
+    private final Set<NodeId> excludedIDs;
+
+    /**
+     * Number of worker threads.
+     */
+    private final int numThreads;
+
+    /**
+     * Subtrees that are waiting to be traversed.
+     */
+    private final BlockingQueue<Subtree> subtrees =
+        new LinkedBlockingQueue<Subtree>();
+
+    /**
+     * Number of subtrees that are waiting or being traversed.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Number of nodes indexed so far.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The first error encountered by a worker, or <code>null</code>.
+     */
+    private volatile Throwable failure;
+
+    /**
+     * Creates a new builder.
+     *
+     * @param index the index to build.
+     * @param handler the query handler of the index.
+     * @param stateMgr the item state manager.
+     * @param excludedIDs identifiers of nodes that should neither be indexed
+     *                    nor traversed.
+     * @param numThreads the number of worker threads.
+     */
+    ParallelIndexBuilder(MultiIndex index, SearchIndex handler,
+            ItemStateManager stateMgr, Set<NodeId> excludedIDs,
+            int numThreads) {
+        this.index = index;
+        this.handler = handler;
+        this.stateMgr = stateMgr;
+        this.excludedIDs = excludedIDs;
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Indexes the subtree rooted at the given node and returns the committed
+     * index segments, one per worker that indexed at least one node. If the
+     * build fails, all segments created so far are closed and deleted.
+     *
+     * @param root the node from where to start.
+     * @param rootPath the path of the node from where to start.
+     * @return the index segments.
+     * @throws IOException if the index cannot be built.
+     */
+    List<PersistentIndex> build(NodeState root, Path rootPath)
+            throws IOException {
+        submit(root, rootPath);
+        Worker[] workers = new Worker[numThreads];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker("jackrabbit-initial-index-" + (i + 1));
+            workers[i].start();
+        }
+        List<PersistentIndex> segments = new ArrayList<PersistentIndex>();
+        for (Worker worker : workers) {
+            for (;;) {
+                try {
+                    worker.join();
+                    break;
+                } catch (InterruptedException e) {
+                    // retry
+                }
+            }
+            if (worker.segment != null) {
+                segments.add(worker.segment);
+            }
+        }
+        if (failure != null) {
+            for (PersistentIndex segment : segments) {
+                segment.close();
+                index.deleteIndex(segment);
+            }
+            IOException ex = new IOException("Error indexing workspace");
+            ex.initCause(failure);
+            throw ex;
+        }
+        return segments;
+    }
+
+    /**
+     * @return number of nodes indexed so far.
+     */
+    long getCount() {
+        return count.get();
+    }
+
+    private void submit(NodeState node, Path path) {
+        pending.incrementAndGet();
+        subtrees.add(new Subtree(node, path));
+    }
+
+    private static final class Subtree {
+
+        private final NodeState node;
+
+        private final Path path;
+
+        Subtree(NodeState node, Path path) {
+            this.node = node;
+            this.path = path;
+        }
+
+    }
+
+    /**
+     * Worker thread that traverses subtrees and writes their documents to
+     * its own index segment.
+     */
+    private final class Worker extends Thread {
+
+        private final List<Document> batch = new ArrayList<Document>();
+
+        private PersistentIndex segment;
+
+        Worker(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                while (failure == null) {
+                    Subtree subtree = subtrees.poll(100, TimeUnit.MILLISECONDS);
+                    if (subtree != null) {
+                        try {
+                            createIndex(subtree.node, subtree.path);
+                        } finally {
+                            pending.decrementAndGet();
+                        }
+                    } else if (pending.get() == 0) {
+                        break;
+                    }
+                }
+                if (failure == null) {
+                    flush();
+                    if (segment != null) {
+                        segment.commit();
+                    }
+                }
+            } catch (Throwable t) {
+                if (failure == null) {
+                    failure = t;
+                }
+                log.warn("Initial index build failed", t);
+            } finally {
+                for (Document doc : batch) {
+                    Util.disposeDocument(doc);
+                }
+                batch.clear();
+            }
+        }
+
+        /**
+         * Recursively indexes the subtree rooted at the given node, handing
+         * child nodes over to other workers while they are idle.
+         */
+        private void createIndex(NodeState node, Path path)
+                throws IOException, ItemStateException, RepositoryException {
+            NodeId id = node.getNodeId();
+            if (failure != null || excludedIDs.contains(id)) {
+                return;
+            }
+            try {
+                batch.add(index.createDocument(node));
+            } catch (RepositoryException e) {
+                // node does not exist anymore
+                log.debug(e.getMessage());
+            }
+            if (batch.size() >= BATCH_SIZE) {
+                flush();
+            }
+            long n = count.incrementAndGet();
+            if (n % 100 == 0) {
+                PathResolver resolver = new DefaultNamePathResolver(
+                        handler.getContext().getNamespaceRegistry());
+                log.info("indexing... {} ({})", resolver.getJCRPath(path), n);
+            }
+            for (ChildNodeEntry child : node.getChildNodeEntries()) {
+                Path childPath = PATH_FACTORY.create(path, child.getName(),
+                        child.getIndex(), false);
+                NodeState childState = null;
+                try {
+                    childState = (NodeState) stateMgr.getItemState(child.getId());
+                } catch (NoSuchItemStateException e) {
+                    handler.getOnWorkspaceInconsistencyHandler().handleMissingChildNode(
+                            e, handler, path, node, child);
+                } catch (ItemStateException e) {
+                    // JCR-3268 log bundle corruption and continue
+                    handler.getOnWorkspaceInconsistencyHandler().logError(e,
+                            handler, childPath, node, child);
+                }
+                if (childState != null) {
+                    if (subtrees.size() < numThreads) {
+                        submit(childState, childPath);
+                    } else {
+                        createIndex(childState, childPath);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Waits for the text extraction of the collected documents to finish
+         * and adds them to the segment of this worker. The documents are
+         * complete when they are added, so none of them end up in the
+         * indexing queue.
+         */
+        private void flush() throws IOException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            for (Document doc : batch) {
+                for (Fieldable field : doc.getFields()) {
+                    if (field instanceof LazyTextExtractorField) {
+                        field.stringValue();
+                    }
+                }
+            }
+            if (segment == null) {
+                segment = index.getOrCreateIndex(null);
+            }
+            segment.addDocuments(batch.toArray(new Document[batch.size()]));
+            batch.clear();
+        }
+
+    }
+
+}
@@ -0,0 +1,420 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.MultiPhraseQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.Weight;
+
+/**
+ * Query hits that score the index segments of a reader in parallel. Each
+ * segment collects at most as many hits as the result fetch hint asks for,
+ * the hits of all segments are merged and returned in document order, or
+ * ordered by score if requested. When more hits are read, the segments are
+ * scored again with twice the number of hits, like
+ * {@link SortedLuceneQueryHits} does. The document numbers and scores are
+ * the same as the ones of {@link LuceneQueryHits} and
+ * {@link SortedLuceneQueryHits} respectively. The UUIDs are only read for
+ * the hits that are returned.
+ * <p>
+ * Only plain Lucene queries can be scored per segment, the jackrabbit
+ * specific queries need the hierarchy of the complete index. See
+ * {@link #isSupported(Query)}.
+ */
+class ParallelLuceneQueryHits extends AbstractQueryHits {
+
+    /**
+     * The upper limit for the initial fetch size.
+     */
+    private static final int MAX_FETCH_SIZE = 32 * 1024;
+
+    /**
+     * The lower limit for the initial fetch size.
+     */
+    private static final int MIN_FETCH_SIZE = 32;
+
+    /**
+     * Orders hits by document number.
+     */
+    private static final Comparator<ScoreDoc> DOCUMENT_ORDER =
+            new Comparator<ScoreDoc>() {
+        public int compare(ScoreDoc d1, ScoreDoc d2) {
+            return d1.doc < d2.doc ? -1 : (d1.doc == d2.doc ? 0 : 1);
+        }
+    };
+
+    /**
+     * Orders hits by descending score, hits with the same score in
+     * document order.
+     */
+    private static final Comparator<ScoreDoc> DESCENDING_SCORE =
+            new Comparator<ScoreDoc>() {
+        public int compare(ScoreDoc d1, ScoreDoc d2) {
+            int c = Float.compare(d2.score, d1.score);
+            return c != 0 ? c : DOCUMENT_ORDER.compare(d1, d2);
+        }
+    };
+
+    /**
+     * Orders hits by ascending score, hits with the same score in
+     * document order.
+     */
+    private static final Comparator<ScoreDoc> ASCENDING_SCORE =
+            new Comparator<ScoreDoc>() {
+        public int compare(ScoreDoc d1, ScoreDoc d2) {
+            int c = Float.compare(d1.score, d2.score);
+            return c != 0 ? c : DOCUMENT_ORDER.compare(d1, d2);
+        }
+    };
+
+    /**
+     * The weight of the query.
+     */
+    private final Weight weight;
+
+    /**
+     * The segments of the reader.
+     */
+    private final IndexReader[] segments;
+
+    /**
+     * The number of the first document of each segment.
+     */
+    private final int[] starts;
+
+    /**
+     * The executor that scores the segments.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The order of the hits.
+     */
+    private final Comparator<ScoreDoc> order;
+
+    /**
+     * The number of hits to collect per segment, doubled on each refill.
+     */
+    private int numHits;
+
+    /**
+     * The first hits in the requested order, or <code>null</code> when
+     * closed.
+     */
+    private List<ScoreDoc> hits;
+
+    /**
+     * The total number of hits.
+     */
+    private int size;
+
+    /**
+     * The position of the next hit.
+     */
+    private int position;
+
+    /**
+     * Scores the segments of <code>reader</code> in parallel.
+     *
+     * @param weight          the weight of the query.
+     * @param segments        the segments of the reader.
+     * @param executor        the executor that scores the segments.
+     * @param order           <code>null</code> to return the hits in
+     *                        document order, <code>true</code> to order them
+     *                        by ascending score, <code>false</code> by
+     *                        descending score. Hits with the same score are
+     *                        returned in document order.
+     * @param resultFetchHint a hint on how many hits are read.
+     * @throws IOException if an error occurs while scoring the segments.
+     */
+    ParallelLuceneQueryHits(Weight weight,
+                            IndexReader[] segments,
+                            ExecutorService executor,
+                            Boolean order,
+                            long resultFetchHint)
+            throws IOException {
+        this.weight = weight;
+        this.segments = segments;
+        this.executor = executor;
+        if (order == null) {
+            this.order = DOCUMENT_ORDER;
+        } else {
+            this.order = order ? ASCENDING_SCORE : DESCENDING_SCORE;
+        }
+        this.starts = new int[segments.length];
+        int base = 0;
+        for (int i = 0; i < segments.length; i++) {
+            starts[i] = base;
+            base += segments[i].maxDoc();
+        }
+        this.numHits = (int) Math.min(
+                Math.max(resultFetchHint, MIN_FETCH_SIZE),
+                MAX_FETCH_SIZE);
+        getHits();
+    }
+
+    /**
+     * Returns <code>true</code> if the given query can be scored per index
+     * segment. These are the plain Lucene term, phrase and boolean queries,
+     * as created for full text searches.
+     *
+     * @param query a rewritten query.
+     * @return <code>true</code> if the query can be scored per segment.
+     */
+    static boolean isSupported(Query query) {
+        Class<?> type = query.getClass();
+        if (type == TermQuery.class
+                || type == JackrabbitTermQuery.class
+                || type == PhraseQuery.class
+                || type == MultiPhraseQuery.class) {
+            return true;
+        } else if (type == BooleanQuery.class) {
+            for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+                if (!isSupported(clause.getQuery())) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (type == DisjunctionMaxQuery.class) {
+            for (Query disjunct : (DisjunctionMaxQuery) query) {
+                if (!isSupported(disjunct)) {
+                    return false;
+                }
+            }
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the index segments of the given reader in document order.
+     *
+     * @param reader an index reader.
+     * @return the segments of the reader.
+     */
+    static IndexReader[] getSegments(IndexReader reader) {
+        List<IndexReader> segments = new ArrayList<IndexReader>();
+        collectSegments(reader, segments);
+        return segments.toArray(new IndexReader[segments.size()]);
+    }
+
+    private static void collectSegments(IndexReader reader,
+                                        List<IndexReader> segments) {
+        if (reader instanceof MultiIndexReader) {
+            for (IndexReader r : ((MultiIndexReader) reader).getIndexReaders()) {
+                collectSegments(r, segments);
+            }
+        } else {
+            segments.add(reader);
+        }
+    }
+
+    /**
+     * Scores the segments in parallel and merges the first
+     * {@link #numHits} hits of each segment.
+     *
+     * @throws IOException if an error occurs while scoring the segments.
+     */
+    private void getHits() throws IOException {
+        List<Future<Segment>> futures =
+                new ArrayList<Future<Segment>>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            final IndexReader segment = segments[i];
+            final int docBase = starts[i];
+            final int n = numHits;
+            futures.add(executor.submit(new Callable<Segment>() {
+                public Segment call() throws IOException {
+                    return score(segment, docBase, n);
+                }
+            }));
+        }
+
+        List<ScoreDoc> docs = new ArrayList<ScoreDoc>();
+        int total = 0;
+        try {
+            for (Future<Segment> future : futures) {
+                Segment result = future.get();
+                docs.addAll(result.hits);
+                total += result.totalHits;
+            }
+        } catch (InterruptedException e) {
+            for (Future<Segment> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while scoring index segments");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IOException("Unable to score index segments", cause);
+            }
+        }
+
+        Collections.sort(docs, order);
+        hits = docs.size() > numHits
+                ? new ArrayList<ScoreDoc>(docs.subList(0, numHits)) : docs;
+        size = total;
+    }
+
+    /**
+     * Scores a single segment.
+     *
+     * @param segment the segment.
+     * @param docBase the number of the first document of the segment.
+     * @param n       the maximum number of hits to collect.
+     * @return the first <code>n</code> hits of the segment in the requested
+     *         order, and the total number of hits of the segment.
+     * @throws IOException if an error occurs while scoring the segment.
+     */
+    private Segment score(IndexReader segment, int docBase, int n)
+            throws IOException {
+        Segment result = new Segment();
+        Scorer scorer = weight.scorer(segment, true, false);
+        if (scorer == null) {
+            return result;
+        }
+        if (order == DOCUMENT_ORDER) {
+            int doc;
+            while ((doc = scorer.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                if (result.totalHits++ < n) {
+                    result.hits.add(new ScoreDoc(docBase + doc, scorer.score()));
+                }
+            }
+        } else {
+            // the head of the queue is the last of the collected hits
+            PriorityQueue<ScoreDoc> queue = new PriorityQueue<ScoreDoc>(
+                    Math.min(n, segment.maxDoc()) + 1,
+                    Collections.reverseOrder(order));
+            int doc;
+            while ((doc = scorer.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                result.totalHits++;
+                ScoreDoc hit = new ScoreDoc(docBase + doc, scorer.score());
+                if (queue.size() < n) {
+                    queue.add(hit);
+                } else if (order.compare(hit, queue.peek()) < 0) {
+                    queue.poll();
+                    queue.add(hit);
+                }
+            }
+            result.hits.addAll(queue);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the UUID of the given document from its segment.
+     *
+     * @param doc the document number.
+     * @return the id of the node.
+     * @throws IOException if an error occurs while reading the document.
+     */
+    private NodeId getNodeId(int doc) throws IOException {
+        int i = Arrays.binarySearch(starts, doc);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        // skip empty segments with the same start
+        while (i + 1 < starts.length && starts[i + 1] == doc) {
+            i++;
+        }
+        return new NodeId(segments[i].document(
+                doc - starts[i], FieldSelectors.UUID).get(FieldNames.UUID));
+    }
+
+    /**
+     * The hits collected from a single segment.
+     */
+    private static final class Segment {
+
+        /**
+         * The first hits of the segment.
+         */
+        private final List<ScoreDoc> hits = new ArrayList<ScoreDoc>();
+
+        /**
+         * The total number of hits of the segment.
+         */
+        private int totalHits;
+    }
+
+    //-------------------------------< QueryHits >------------------------------
+
+    public ScoreNode nextScoreNode() throws IOException {
+        if (hits == null || position >= size) {
+            return null;
+        }
+        if (position >= hits.size()) {
+            // refill at least twice the hits or twice the position
+            numHits = (int) Math.min(Math.max(2L * numHits, 2L * position),
+                    Integer.MAX_VALUE);
+            getHits();
+            if (position >= hits.size()) {
+                return null;
+            }
+        }
+        ScoreDoc doc = hits.get(position++);
+        return new ScoreNode(getNodeId(doc.doc), doc.score, doc.doc);
+    }
+
+    @Override
+    public int getSize() {
+        return hits == null ? -1 : size;
+    }
+
+    @Override
+    public void skip(int n) throws IOException {
+        if (hits != null) {
+            position += Math.min(n, size - position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        hits = null;
+    }
+}
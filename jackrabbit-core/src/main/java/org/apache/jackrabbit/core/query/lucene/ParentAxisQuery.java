@@ -30,9 +30,8 @@ import org.apache.lucene.search.Similarity;
 import org.apache.lucene.search.Weight;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -232,14 +231,12 @@ class ParentAxisQuery extends Query {
         private BitSet hits;
 
         /**
-         * Map that contains the scores from matching documents from the context
-         * query. To save memory only scores that are not equal to the score
-         * value of the first match are put to this map.
-         * <p>
-         * key=[Integer] id of selected document from context query<br>
-         * value=[Float] score for that document
+         * The scores of the selected documents, by document number. To save
+         * memory this map is only created once a score is not equal to the
+         * score value of the first match. Documents without an entry have
+         * the score of the first match.
          */
-        private final Map<Integer, Float> scores = new HashMap<Integer, Float>();
+        private ScoreMap scores;
 
         /**
          * The next document id to return
@@ -290,11 +287,10 @@ class ParentAxisQuery extends Query {
 
         @Override
         public float score() throws IOException {
-            Float score = scores.get(nextDoc);
-            if (score == null) {
-                score = firstScore;
+            if (scores != null) {
+                return scores.get(nextDoc, firstScore);
             }
-            return score;
+            return firstScore;
         }
 
         @Override
@@ -316,6 +312,24 @@ class ParentAxisQuery extends Query {
             return nextDoc;
         }
 
+        /**
+         * Selects a parent document with the score of its child.
+         *
+         * @param doc the document number of the parent.
+         * @param score the score of the child.
+         */
+        private void collectParent(int doc, float score) {
+            hits.set(doc);
+            if (firstScore == null) {
+                firstScore = score;
+            } else if (scores != null || firstScore != score) {
+                if (scores == null) {
+                    scores = new ScoreMap();
+                }
+                scores.put(doc, score);
+            }
+        }
+
         private void calculateParent() throws IOException {
             if (hits == null) {
                 hits = new BitSet(reader.maxDoc());
@@ -331,20 +345,10 @@ class ParentAxisQuery extends Query {
                                 docs = hResolver.getParents(doc, docs);
                                 if (docs.length == 1) {
                                     // optimize single value
-                                    hits.set(docs[0]);
-                                    if (firstScore == null) {
-                                        firstScore = score;
-                                    } else if (firstScore != score) {
-                                        scores.put(doc, score);
-                                    }
+                                    collectParent(docs[0], score);
                                 } else {
                                     for (int docNum : docs) {
-                                        hits.set(docNum);
-                                        if (firstScore == null) {
-                                            firstScore = score;
-                                        } else if (firstScore != score) {
-                                            scores.put(doc, score);
-                                        }
+                                        collectParent(docNum, score);
                                     }
                                 }
                             } catch (IOException e) {
@@ -380,4 +384,95 @@ class ParentAxisQuery extends Query {
             }
         }
     }
+
+    /**
+     * Maps document numbers to scores. The map uses open addressing with
+     * the document numbers and scores in parallel primitive arrays, and
+     * grows with the number of documents it contains.
+     */
+    private static final class ScoreMap {
+
+        /**
+         * The document numbers, <code>-1</code> for unused slots.
+         */
+        private int[] docs;
+
+        /**
+         * The scores of the documents.
+         */
+        private float[] scores;
+
+        /**
+         * The number of documents in this map.
+         */
+        private int size;
+
+        ScoreMap() {
+            init(16);
+        }
+
+        /**
+         * Returns the score of a document.
+         *
+         * @param doc the document number.
+         * @param defaultScore the score to return if the document is not
+         *                     in this map.
+         * @return the score of the document.
+         */
+        float get(int doc, float defaultScore) {
+            int mask = docs.length - 1;
+            for (int slot = hash(doc) & mask; docs[slot] != -1;
+                    slot = (slot + 1) & mask) {
+                if (docs[slot] == doc) {
+                    return scores[slot];
+                }
+            }
+            return defaultScore;
+        }
+
+        /**
+         * Sets the score of a document.
+         *
+         * @param doc the document number.
+         * @param score the score.
+         */
+        void put(int doc, float score) {
+            int mask = docs.length - 1;
+            int slot = hash(doc) & mask;
+            while (docs[slot] != -1 && docs[slot] != doc) {
+                slot = (slot + 1) & mask;
+            }
+            if (docs[slot] == -1) {
+                docs[slot] = doc;
+                size++;
+            }
+            scores[slot] = score;
+            if (size > docs.length / 2) {
+                rehash();
+            }
+        }
+
+        private void init(int capacity) {
+            docs = new int[capacity];
+            Arrays.fill(docs, -1);
+            scores = new float[capacity];
+        }
+
+        private void rehash() {
+            int[] oldDocs = docs;
+            float[] oldScores = scores;
+            init(oldDocs.length * 2);
+            size = 0;
+            for (int i = 0; i < oldDocs.length; i++) {
+                if (oldDocs[i] != -1) {
+                    put(oldDocs[i], oldScores[i]);
+                }
+            }
+        }
+
+        private static int hash(int doc) {
+            int h = doc * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
 }
@@ -30,6 +30,37 @@ class PerQueryCache {
      */
     private final Map<Key, Object> map = new HashMap<Key, Object>();
 
+    /**
+     * The filter cache shared by the queries of a search index, or
+     * <code>null</code> if filters are only cached per query.
+     */
+    private final FilterCache filterCache;
+
+    /**
+     * Creates a new cache without a shared filter cache.
+     */
+    PerQueryCache() {
+        this(null);
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param filterCache the filter cache shared by the queries of a search
+     *                    index, or <code>null</code> if there is none.
+     */
+    PerQueryCache(FilterCache filterCache) {
+        this.filterCache = filterCache;
+    }
+
+    /**
+     * @return the filter cache shared by the queries of a search index, or
+     *         <code>null</code> if there is none.
+     */
+    FilterCache getFilterCache() {
+        return filterCache;
+    }
+
     /**
      * Returns the value from the cache with the given <code>type</code> and
      * <code>key</code>.
@@ -54,6 +54,12 @@ class PersistentIndex extends AbstractIndex {
      */
     private long generation;
 
+    /**
+     * Limits the write rate while indexes are merged into this index, or
+     * <code>null</code> if not limited.
+     */
+    private MergeRateLimiter mergeRateLimiter;
+
     /**
      * Creates a new <code>PersistentIndex</code>.
      *
@@ -115,6 +121,46 @@ class PersistentIndex extends AbstractIndex {
         getIndexWriter().optimize();
     }
 
+    /**
+     * Merges the provided indexes into this index and limits the rate at
+     * which the merged index is written. After this completes, the index
+     * is optimized and the index writer is closed.
+     * The provided IndexReaders are not closed.
+     *
+     * @param readers the readers of indexes to add.
+     * @param limiter the rate limiter, or <code>null</code> if the rate is
+     *                not limited.
+     * @throws IOException if an error occurs while adding indexes.
+     */
+    void addIndexes(IndexReader[] readers, MergeRateLimiter limiter)
+            throws IOException {
+        if (limiter == null) {
+            addIndexes(readers);
+            return;
+        }
+        // make sure the writer is created on the rate limited directory
+        releaseWriterAndReaders();
+        mergeRateLimiter = limiter;
+        try {
+            addIndexes(readers);
+            // commits and closes the rate limited writer
+            commit(true);
+        } finally {
+            mergeRateLimiter = null;
+        }
+    }
+
+    /**
+     * @return the rate limited directory while indexes are merged into this
+     *         index, otherwise the directory of this index.
+     */
+    protected Directory getIndexWriterDirectory() {
+        if (mergeRateLimiter != null) {
+            return new RateLimitedDirectory(getDirectory(), mergeRateLimiter);
+        }
+        return getDirectory();
+    }
+
     /**
      * Copies <code>index</code> into this persistent index. This method should
      * only be called when <code>this</code> index is empty otherwise the
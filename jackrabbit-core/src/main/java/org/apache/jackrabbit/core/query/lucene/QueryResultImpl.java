@@ -286,7 +286,9 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
         try {
             long time = System.currentTimeMillis();
             long r1 = IOCounters.getReads();
-            result = executeQuery(maxResultSize);
+            // the hits before the offset and the hits that were denied
+            // are skipped, so the query has to fetch them as well
+            result = executeQuery(offset + invalid + maxResultSize);
             long r2 = IOCounters.getReads();
             log.debug("query executed in {} ms ({})",
                     System.currentTimeMillis() - time, r2 - r1);
@@ -110,6 +110,19 @@ class ReadOnlyIndexReader extends RefCountingIndexReader {
         deletedDocsVersion = reader.getModificationCount();
     }
 
+    /**
+     * Returns the document number of the parent of <code>n</code> if the
+     * parent is in this index and already cached.
+     *
+     * @param n the document number.
+     * @return the document number of <code>n</code>'s parent or
+     *         <code>-1</code> if the parent must be resolved with
+     *         {@link #getParent(int)}.
+     */
+    public int getParentDocNumber(int n) {
+        return getBase().getParentDocNumber(n, deleted);
+    }
+
     /**
      * Returns the <code>DocId</code> of the parent of <code>n</code> or
      * {@link DocId#NULL} if <code>n</code> does not have a parent
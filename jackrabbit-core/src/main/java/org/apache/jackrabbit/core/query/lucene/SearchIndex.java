@@ -32,6 +32,17 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
@@ -41,6 +52,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.jackrabbit.core.HierarchyManager;
+import org.apache.jackrabbit.core.LowPriorityTask;
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.cluster.ChangeLogRecord;
 import org.apache.jackrabbit.core.cluster.ClusterNode;
@@ -167,6 +179,11 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     public static final int DEFAULT_MERGE_FACTOR = 10;
 
+    /**
+     * the default value for property {@link #maxConcurrentMerges}.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_MERGES = 2;
+
     /**
      * the default value for property {@link #maxFieldLength}.
      */
@@ -184,6 +201,11 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     public static final int DEFAULT_EXTRACTOR_BACK_LOG = Integer.MAX_VALUE;
 
+    /**
+     * The default value for property {@link #extractedTextCacheSize}.
+     */
+    public static final int DEFAULT_EXTRACTED_TEXT_CACHE_SIZE = 256;
+
     /**
      * The default timeout in milliseconds which is granted to the text
      * extraction process until fulltext indexing is deferred to a background
@@ -293,6 +315,17 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int mergeFactor = DEFAULT_MERGE_FACTOR;
 
+    /**
+     * maxConcurrentMerges config parameter
+     */
+    private int maxConcurrentMerges = DEFAULT_MAX_CONCURRENT_MERGES;
+
+    /**
+     * maxMergeMBPerSec config parameter. <code>0</code> does not limit the
+     * write rate of index merges.
+     */
+    private double maxMergeMBPerSec = 0;
+
     /**
      * maxFieldLength config parameter
      */
@@ -315,11 +348,99 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int extractorBackLog = DEFAULT_EXTRACTOR_BACK_LOG;
 
+    /**
+     * searchPoolSize config parameter. The number of threads that score
+     * the index segments of a query in parallel, <code>0</code> scores
+     * them sequentially in the query thread.
+     */
+    private int searchPoolSize = 0;
+
+    /**
+     * The executor that scores index segments in parallel, or
+     * <code>null</code> if disabled.
+     */
+    private ThreadPoolExecutor searchExecutor;
+
     /**
      * extractorTimeout config parameter
      */
     private long extractorTimeout = DEFAULT_EXTRACTOR_TIMEOUT;
 
+    /**
+     * The executor that runs the text extraction tasks, or <code>null</code>
+     * if the background task executor of the repository is used without
+     * limits.
+     */
+    private Executor extractorExecutor;
+
+    /**
+     * extractedTextCachePath config parameter. The location of the
+     * persistent cache of text extracted from binaries in the data store,
+     * or <code>null</code> if extracted text is not cached.
+     */
+    private String extractedTextCachePath;
+
+    /**
+     * extractedTextCacheSize config parameter. The maximum size of the
+     * extracted text cache in megabytes.
+     */
+    private int extractedTextCacheSize = DEFAULT_EXTRACTED_TEXT_CACHE_SIZE;
+
+    /**
+     * The cache of text extracted from binaries, or <code>null</code> if
+     * not enabled.
+     */
+    private ExtractedTextCache extractedTextCache;
+
+    /**
+     * filterCacheSize config parameter. The maximum memory in megabytes used
+     * by the filters shared across queries, <code>0</code> disables the
+     * filter cache.
+     */
+    private int filterCacheSize = 0;
+
+    /**
+     * The filters shared across queries, or <code>null</code> if not
+     * enabled.
+     */
+    private FilterCache filterCache;
+
+    /**
+     * asyncIndexUpdates config parameter. If <code>true</code> the index
+     * updates of a save are recorded in a durable queue and applied in
+     * batches by a background task.
+     */
+    private boolean asyncIndexUpdates = false;
+
+    /**
+     * maxIndexStaleness config parameter. The maximum time in milliseconds
+     * an asynchronous index update may be pending when a query is executed.
+     */
+    private long maxIndexStaleness = 1000;
+
+    /**
+     * maxPendingIndexUpdates config parameter. The number of pending nodes
+     * at which a save applies the asynchronous index updates itself.
+     */
+    private int maxPendingIndexUpdates = 10000;
+
+    /**
+     * The queue of index updates that are not yet applied.
+     */
+    private IndexUpdateQueue indexUpdateQueue;
+
+    /**
+     * The background task that applies the asynchronous index updates, or
+     * <code>null</code> if not scheduled.
+     */
+    private ScheduledFuture<?> indexUpdateTask;
+
+    /**
+     * initialIndexThreads config parameter. The number of threads used to
+     * build the initial index of a workspace.
+     */
+    private int initialIndexThreads = 1;
+
     /**
      * Number of documents that are buffered before they are added to the index.
      */
@@ -488,6 +609,20 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private boolean useSimpleFSDirectory = true;
 
+    /**
+     * The maximum size in megabytes of the chunks mapped by the
+     * {@link org.apache.jackrabbit.core.query.lucene.directory.MMapDirectoryManager},
+     * <code>0</code> uses the Lucene default.
+     */
+    private int mmapChunkSize = 0;
+
+    /**
+     * Whether the
+     * {@link org.apache.jackrabbit.core.query.lucene.directory.MMapDirectoryManager}
+     * loads the index files into the page cache when they are opened.
+     */
+    private boolean mmapPreload = false;
+
     /**
      * The termInfosIndexDivisor.
      */
@@ -569,6 +704,20 @@ public class SearchIndex extends AbstractQueryHandler {
 
         // initialize the Tika parser
         parser = createParser();
+        extractorExecutor = createExtractorExecutor();
+        searchExecutor = createSearchExecutor();
+        if (extractedTextCachePath != null) {
+            File cacheDir = new File(extractedTextCachePath);
+            if (!cacheDir.isAbsolute()) {
+                cacheDir = new File(path, extractedTextCachePath);
+            }
+            extractedTextCache = new ExtractedTextCache(
+                    cacheDir, extractedTextCacheSize * 1024L * 1024L);
+            log.info("Caching extracted text in " + cacheDir);
+        }
+        if (filterCacheSize > 0) {
+            filterCache = new FilterCache(filterCacheSize * 1024L * 1024L);
+        }
 
         index = new MultiIndex(this, excludedIDs);
         if (index.numDocs() == 0) {
@@ -583,6 +732,32 @@ public class SearchIndex extends AbstractQueryHandler {
                     context.getRootId(), rootPath);
             checkPendingJournalChanges(context);
         }
+        indexUpdateQueue = new IndexUpdateQueue(index.getDirectory(),
+                new IndexUpdateQueue.Indexer() {
+            public void update(Collection<NodeId> remove, Collection<NodeId> add)
+                    throws RepositoryException, IOException {
+                applyIndexUpdates(remove, add);
+            }
+        });
+        try {
+            // apply updates left over from a previous run
+            indexUpdateQueue.apply();
+        } catch (RepositoryException e) {
+            throw new IOException("Failed to apply pending index updates", e);
+        }
+        if (asyncIndexUpdates) {
+            long delay = Math.max(1, maxIndexStaleness / 2);
+            indexUpdateTask = context.getExecutor().scheduleWithFixedDelay(
+                    new Runnable() {
+                public void run() {
+                    try {
+                        indexUpdateQueue.apply();
+                    } catch (Exception e) {
+                        log.error("Failed to apply pending index updates", e);
+                    }
+                }
+            }, delay, delay, TimeUnit.MILLISECONDS);
+        }
         if (consistencyCheckEnabled
                 && (index.getRedoLogApplied() || forceConsistencyCheck)) {
             log.info("Running consistency check...");
@@ -639,7 +814,9 @@ public class SearchIndex extends AbstractQueryHandler {
     /**
      * This implementation forwards the call to
      * {@link MultiIndex#update(Collection, Collection)} and
-     * transforms the two iterators to the required types.
+     * transforms the two iterators to the required types. If asynchronous
+     * index updates are enabled, the ids of the nodes are only recorded in
+     * the {@link IndexUpdateQueue}, and the index is updated later.
      *
      * @param remove ids of nodes to remove.
      * @param add    NodeStates to add. Calls to <code>next()</code> on this
@@ -652,6 +829,41 @@ public class SearchIndex extends AbstractQueryHandler {
             throws RepositoryException, IOException {
         checkOpen();
 
+        if (asyncIndexUpdates) {
+            Collection<NodeId> removeIds = new ArrayList<NodeId>();
+            while (remove.hasNext()) {
+                removeIds.add(remove.next());
+            }
+            Collection<NodeId> addIds = new ArrayList<NodeId>();
+            while (add.hasNext()) {
+                NodeState state = add.next();
+                if (state != null) {
+                    addIds.add(state.getNodeId());
+                }
+            }
+            indexUpdateQueue.append(removeIds, addIds);
+            if (indexUpdateQueue.getSize() >= maxPendingIndexUpdates) {
+                // the background task does not keep up, apply the
+                // pending updates in the saving thread. Never wait for a
+                // batch of the background task, it may need to read item
+                // states that are locked by this save.
+                indexUpdateQueue.tryApply();
+            }
+            return;
+        }
+        doUpdateNodes(remove, add);
+    }
+
+    /**
+     * Updates the index with the given nodes.
+     *
+     * @param remove ids of nodes to remove.
+     * @param add    NodeStates to add, may return <code>null</code>.
+     * @throws RepositoryException if an error occurs while indexing a node.
+     * @throws IOException         if an error occurs while updating the index.
+     */
+    private void doUpdateNodes(Iterator<NodeId> remove, Iterator<NodeState> add)
+            throws RepositoryException, IOException {
         Map<NodeId, NodeState> aggregateRoots = new HashMap<NodeId, NodeState>();
         Set<NodeId> removedIds = new HashSet<NodeId>();
         Set<NodeId> addedIds = new HashSet<NodeId>();
@@ -714,6 +926,34 @@ public class SearchIndex extends AbstractQueryHandler {
         }
     }
 
+    /**
+     * Applies a batch of the {@link IndexUpdateQueue}. The added nodes are
+     * read from the item state manager, nodes that do not exist anymore
+     * are only removed from the index.
+     *
+     * @param remove ids of the nodes to remove.
+     * @param add    ids of the nodes to add.
+     * @throws RepositoryException if an error occurs while indexing a node.
+     * @throws IOException         if an error occurs while updating the index.
+     */
+    private void applyIndexUpdates(Collection<NodeId> remove,
+                                   Collection<NodeId> add)
+            throws RepositoryException, IOException {
+        ItemStateManager ism = getContext().getItemStateManager();
+        List<NodeState> states = new ArrayList<NodeState>(add.size());
+        for (NodeId id : add) {
+            try {
+                states.add((NodeState) ism.getItemState(id));
+            } catch (NoSuchItemStateException e) {
+                // removed in the meantime
+            } catch (ItemStateException e) {
+                throw new RepositoryException(
+                        "Failed to read node state: " + id, e);
+            }
+        }
+        doUpdateNodes(remove.iterator(), states.iterator());
+    }
+
     /**
      * Creates a new query by specifying the query statement itself and the
      * language in which the query is stated.  If the query statement is
@@ -814,6 +1054,7 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     public void flush() throws RepositoryException {
         try {
+            indexUpdateQueue.apply();
             index.waitUntilIndexingQueueIsEmpty();
             index.safeFlush();
             // flush may have pushed nodes into the indexing queue
@@ -839,7 +1080,21 @@ public class SearchIndex extends AbstractQueryHandler {
         if (spellChecker != null) {
             spellChecker.close();
         }
+        if (indexUpdateTask != null) {
+            indexUpdateTask.cancel(false);
+            indexUpdateTask = null;
+        }
+        try {
+            indexUpdateQueue.apply();
+        } catch (RepositoryException e) {
+            log.warn("Failed to apply pending index updates, they will be "
+                    + "applied on restart", e);
+        }
+        indexUpdateQueue.close();
         index.close();
+        if (searchExecutor != null) {
+            searchExecutor.shutdown();
+        }
         getContext().destroy();
         super.close();
         closed = true;
@@ -873,7 +1128,8 @@ public class SearchIndex extends AbstractQueryHandler {
 
         final IndexReader reader = getIndexReader(queryImpl.needsSystemTree());
         JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
-                session, reader, getContext().getItemStateManager());
+                session, reader, getContext().getItemStateManager(),
+                searchExecutor);
         searcher.setSimilarity(getSimilarity());
         return new FilterMultiColumnQueryHits(
                 searcher.execute(query, sort, resultFetchHint,
@@ -907,7 +1163,8 @@ public class SearchIndex extends AbstractQueryHandler {
 
         final IndexReader reader = getIndexReader();
         JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
-                session, reader, getContext().getItemStateManager());
+                session, reader, getContext().getItemStateManager(),
+                searchExecutor);
         searcher.setSimilarity(getSimilarity());
         return new FilterMultiColumnQueryHits(
                 query.execute(searcher, orderings, resultFetchHint)) {
@@ -999,6 +1256,101 @@ public class SearchIndex extends AbstractQueryHandler {
         return parser;
     }
 
+    /**
+     * Creates the executor that runs the text extraction tasks. The tasks
+     * run in the background task executor of the repository, which is
+     * shared by all workspaces, but at most {@link #extractorPoolSize}
+     * plus {@link #extractorBackLog} tasks of this index are running or
+     * waiting at any time. Further extraction tasks are executed by the
+     * indexing thread itself, which throttles the indexing of new nodes
+     * (and thereby the growth of the indexing queue) to the rate at which
+     * text can be extracted.
+     *
+     * @return the extractor executor, or <code>null</code> if the extractor
+     *         pool size is zero and the background task executor of the
+     *         repository should be used without limits.
+     */
+    private Executor createExtractorExecutor() {
+        if (extractorPoolSize <= 0) {
+            return null;
+        }
+        final Executor executor = getContext().getExecutor();
+        final Semaphore permits = new Semaphore((int) Math.min(
+                Integer.MAX_VALUE,
+                (long) extractorPoolSize + Math.max(0, extractorBackLog)));
+        return new Executor() {
+            public void execute(final Runnable command) {
+                if (!permits.tryAcquire()) {
+                    command.run();
+                    return;
+                }
+                // only text extraction tasks are passed to this executor
+                Runnable task = new LowPriorityTask() {
+                    public void run() {
+                        try {
+                            command.run();
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                };
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    command.run();
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates the executor that scores the index segments of a query in
+     * parallel. The executor has {@link #searchPoolSize} threads. Tasks
+     * that are rejected because the executor is shut down are executed by
+     * the query thread.
+     *
+     * @return the search executor, or <code>null</code> if the search pool
+     *         size is zero and segments are scored sequentially.
+     */
+    private ThreadPoolExecutor createSearchExecutor() {
+        if (searchPoolSize <= 0) {
+            return null;
+        }
+        final String name = "jackrabbit-search-"
+            + getContext().getWorkspace() + "-";
+        final ClassLoader loader = SearchIndex.class.getClassLoader();
+        ThreadFactory factory = new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger(1);
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(
+                        runnable, name + counter.getAndIncrement());
+                thread.setDaemon(true);
+                thread.setContextClassLoader(loader);
+                return thread;
+            }
+        };
+        RejectedExecutionHandler callerRuns = new RejectedExecutionHandler() {
+            public void rejectedExecution(
+                    Runnable runnable, ThreadPoolExecutor executor) {
+                runnable.run();
+            }
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                searchPoolSize, searchPoolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), factory, callerRuns);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return the executor that scores index segments in parallel, or
+     *         <code>null</code> if segments are scored sequentially.
+     */
+    ExecutorService getSearchExecutor() {
+        return searchExecutor;
+    }
+
     private Parser createParser() {
         URL url = null;
         if (tikaConfigPath != null) {
@@ -1167,8 +1519,11 @@ public class SearchIndex extends AbstractQueryHandler {
         QueryHandler parentHandler = getContext().getParentHandler();
         CachingMultiIndexReader parentReader = null;
         if (parentHandler instanceof SearchIndex && includeSystemIndex) {
-            parentReader = ((SearchIndex) parentHandler).index.getIndexReader();
+            SearchIndex parent = (SearchIndex) parentHandler;
+            parent.awaitIndexUpdates();
+            parentReader = parent.index.getIndexReader();
         }
+        awaitIndexUpdates();
 
         IndexReader reader;
         if (parentReader != null) {
@@ -1180,6 +1535,23 @@ public class SearchIndex extends AbstractQueryHandler {
         return new JackrabbitIndexReader(reader);
     }
 
+    /**
+     * Applies the pending asynchronous index updates if the oldest of them
+     * is older than the maximum index staleness.
+     *
+     * @throws IOException if the updates cannot be applied.
+     */
+    private void awaitIndexUpdates() throws IOException {
+        if (indexUpdateQueue != null
+                && indexUpdateQueue.getAge() > maxIndexStaleness) {
+            try {
+                indexUpdateQueue.apply();
+            } catch (RepositoryException e) {
+                throw new IOException("Failed to apply pending index updates", e);
+            }
+        }
+    }
+
     /**
      * Creates the SortFields for the order properties.
      *
@@ -1247,13 +1619,18 @@ public class SearchIndex extends AbstractQueryHandler {
                                       NamespaceMappings nsMappings,
                                       IndexFormatVersion indexFormatVersion)
             throws RepositoryException {
+        Executor executor = extractorExecutor;
+        if (executor == null) {
+            executor = getContext().getExecutor();
+        }
         NodeIndexer indexer = new NodeIndexer(
                 node, getContext().getItemStateManager(), nsMappings,
-                getContext().getExecutor(), parser);
+                executor, parser);
         indexer.setSupportHighlighting(supportHighlighting);
         indexer.setIndexingConfiguration(indexingConfig);
         indexer.setIndexFormatVersion(indexFormatVersion);
         indexer.setMaxExtractLength(getMaxExtractLength());
+        indexer.setExtractedTextCache(extractedTextCache);
         Document doc = indexer.createDoc();
         mergeAggregatedNodeIndexes(node, doc, indexFormatVersion);
         return doc;
@@ -1817,6 +2194,10 @@ public class SearchIndex extends AbstractQueryHandler {
          */
         public int[] getParents(int n, int[] docNumbers) throws IOException {
             int i = readerIndex(n);
+            int parent = subReaders[i].getParentDocNumber(n - starts[i]);
+            if (parent != -1) {
+                return DocId.toArray(parent + starts[i], docNumbers);
+            }
             DocId id = subReaders[i].getParentDocId(n - starts[i]);
             id = id.applyOffset(starts[i]);
             return id.getDocumentNumbers(this, docNumbers);
@@ -2022,6 +2403,42 @@ public class SearchIndex extends AbstractQueryHandler {
         return mergeFactor;
     }
 
+    /**
+     * Sets the maximum number of index merges that run concurrently. Merges
+     * of small indexes are started before merges of large indexes.
+     *
+     * @param maxConcurrentMerges the maximum number of concurrent merges.
+     */
+    public void setMaxConcurrentMerges(int maxConcurrentMerges) {
+        this.maxConcurrentMerges = Math.max(1, maxConcurrentMerges);
+    }
+
+    /**
+     * @return the maximum number of concurrent index merges.
+     */
+    public int getMaxConcurrentMerges() {
+        return maxConcurrentMerges;
+    }
+
+    /**
+     * Sets the maximum rate in megabytes per second at which all running
+     * index merges together write the merged indexes. The default
+     * <code>0</code> does not limit the rate.
+     *
+     * @param maxMergeMBPerSec the maximum write rate of index merges.
+     */
+    public void setMaxMergeMBPerSec(double maxMergeMBPerSec) {
+        this.maxMergeMBPerSec = Math.max(0, maxMergeMBPerSec);
+    }
+
+    /**
+     * @return the maximum write rate of index merges in megabytes per
+     *         second, <code>0</code> if not limited.
+     */
+    public double getMaxMergeMBPerSec() {
+        return maxMergeMBPerSec;
+    }
+
     /**
      * @see VolatileIndex#setBufferSize(int)
      */
@@ -2137,7 +2554,10 @@ public class SearchIndex extends AbstractQueryHandler {
     }
 
     /**
-     * The number of background threads for the extractor pool.
+     * The number of text extraction tasks of this index that may run at
+     * the same time in the background task executor of the repository.
+     * The default is twice the number of processors, <code>0</code> does
+     * not limit the number of tasks.
      *
      * @param numThreads the number of threads.
      */
@@ -2156,9 +2576,32 @@ public class SearchIndex extends AbstractQueryHandler {
         return extractorPoolSize;
     }
 
+    /**
+     * The number of threads that score the index segments of a query in
+     * parallel. Only plain Lucene queries, like the ones of full text
+     * searches, are scored in parallel. The default <code>0</code> scores
+     * the segments sequentially in the query thread.
+     *
+     * @param numThreads the number of threads.
+     */
+    public void setSearchPoolSize(int numThreads) {
+        searchPoolSize = Math.max(0, numThreads);
+    }
+
+    /**
+     * @return the number of threads that score index segments in parallel.
+     */
+    public int getSearchPoolSize() {
+        return searchPoolSize;
+    }
+
     /**
      * The number of extractor jobs that are queued until a new job is executed
-     * with the current thread instead of using the thread pool.
+     * with the current thread instead of using the thread pool. The default
+     * is {@link #DEFAULT_EXTRACTOR_BACK_LOG}, which does not limit the queue.
+     * A smaller back log throttles indexing to the rate at which text can be
+     * extracted, but then the indexing thread extracts the text of the jobs
+     * that do not fit into the queue.
      *
      * @param backLog size of the extractor job queue.
      */
@@ -2189,6 +2632,158 @@ public class SearchIndex extends AbstractQueryHandler {
     public long getExtractorTimeout() {
         return extractorTimeout;
     }
+
+    /**
+     * Sets the location of the persistent cache of text extracted from
+     * binaries in the data store. A relative path is resolved against the
+     * location of the search index. The cache is disabled by default.
+     *
+     * @param path the location of the extracted text cache.
+     */
+    public void setExtractedTextCachePath(String path) {
+        extractedTextCachePath = path;
+    }
+
+    /**
+     * @return the location of the extracted text cache, or <code>null</code>
+     *         if the cache is disabled.
+     */
+    public String getExtractedTextCachePath() {
+        return extractedTextCachePath;
+    }
+
+    /**
+     * Sets the maximum size of the extracted text cache in megabytes. The
+     * least recently used entries are removed from the cache when it grows
+     * beyond this size. The default is
+     * {@link #DEFAULT_EXTRACTED_TEXT_CACHE_SIZE} megabytes.
+     *
+     * @param size the maximum cache size in megabytes.
+     */
+    public void setExtractedTextCacheSize(int size) {
+        extractedTextCacheSize = Math.max(0, size);
+    }
+
+    /**
+     * @return the maximum size of the extracted text cache in megabytes.
+     */
+    public int getExtractedTextCacheSize() {
+        return extractedTextCacheSize;
+    }
+
+    /**
+     * @return the cache of text extracted from binaries, or
+     *         <code>null</code> if the cache is disabled.
+     */
+    protected ExtractedTextCache getExtractedTextCache() {
+        return extractedTextCache;
+    }
+
+    /**
+     * Sets the maximum memory in megabytes used by the node type and
+     * property existence filters that are shared across queries. Setting
+     * the size to <code>0</code> disables the filter cache, which is the
+     * default. With the filter cache, all nodes that match a node type
+     * constraint get the same score for it, which changes the
+     * <code>jcr:score</code> and the score order of query results.
+     *
+     * @param size the maximum size of the filter cache in megabytes.
+     */
+    public void setFilterCacheSize(int size) {
+        filterCacheSize = Math.max(0, size);
+    }
+
+    /**
+     * @return the maximum size of the filter cache in megabytes.
+     */
+    public int getFilterCacheSize() {
+        return filterCacheSize;
+    }
+
+    /**
+     * @return the filters shared across queries, or <code>null</code> if
+     *         the filter cache is disabled.
+     */
+    FilterCache getFilterCache() {
+        return filterCache;
+    }
+
+    /**
+     * Enables or disables asynchronous index updates. If enabled, a save
+     * only records the ids of the changed nodes in a durable queue, and a
+     * background task applies the queued updates in batches, with one
+     * redo log commit per batch. Queries see the updates after at most
+     * {@link #setMaxIndexStaleness(long) maxIndexStaleness} milliseconds.
+     * The default is <code>false</code>.
+     *
+     * @param b <code>true</code> to enable asynchronous index updates.
+     */
+    public void setAsyncIndexUpdates(boolean b) {
+        asyncIndexUpdates = b;
+    }
+
+    /**
+     * @return <code>true</code> if asynchronous index updates are enabled.
+     */
+    public boolean isAsyncIndexUpdates() {
+        return asyncIndexUpdates;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds an asynchronous index update
+     * may be pending when a query is executed. A query applies older
+     * updates before it reads the index. The default is 1000 milliseconds.
+     *
+     * @param millis the maximum index staleness in milliseconds.
+     */
+    public void setMaxIndexStaleness(long millis) {
+        maxIndexStaleness = Math.max(0, millis);
+    }
+
+    /**
+     * @return the maximum index staleness in milliseconds.
+     */
+    public long getMaxIndexStaleness() {
+        return maxIndexStaleness;
+    }
+
+    /**
+     * Sets the number of nodes with pending asynchronous index updates at
+     * which a save applies the updates itself instead of leaving them to
+     * the background task. The default is 10000.
+     *
+     * @param max the maximum number of pending index updates.
+     */
+    public void setMaxPendingIndexUpdates(int max) {
+        maxPendingIndexUpdates = Math.max(1, max);
+    }
+
+    /**
+     * @return the maximum number of pending index updates.
+     */
+    public int getMaxPendingIndexUpdates() {
+        return maxPendingIndexUpdates;
+    }
+
+    /**
+     * Sets the number of threads used to build the initial index of a
+     * workspace, or to rebuild it after the index was removed. With more
+     * than one thread, the workspace is split into subtrees that are
+     * indexed concurrently into separate index segments. The default is
+     * a single thread.
+     *
+     * @param numThreads the number of threads.
+     */
+    public void setInitialIndexThreads(int numThreads) {
+        initialIndexThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * @return the number of threads used to build the initial index.
+     */
+    public int getInitialIndexThreads() {
+        return initialIndexThreads;
+    }
     
     /**
      * If enabled, NodeIterator.getSize() may report a larger value than the
@@ -2485,6 +3080,46 @@ public class SearchIndex extends AbstractQueryHandler {
         return useSimpleFSDirectory;
     }
 
+    /**
+     * Sets the maximum size in megabytes of the chunks that are mapped into
+     * memory when the
+     * {@link org.apache.jackrabbit.core.query.lucene.directory.MMapDirectoryManager}
+     * is used. The size is rounded down to a power of two. The default
+     * <code>0</code> uses the Lucene default.
+     *
+     * @param size the maximum chunk size in megabytes.
+     */
+    public void setMmapChunkSize(int size) {
+        this.mmapChunkSize = Math.max(0, size);
+    }
+
+    /**
+     * @return the maximum chunk size in megabytes of memory mapped index
+     *         files, <code>0</code> for the Lucene default.
+     */
+    public int getMmapChunkSize() {
+        return mmapChunkSize;
+    }
+
+    /**
+     * If set <code>true</code> the
+     * {@link org.apache.jackrabbit.core.query.lucene.directory.MMapDirectoryManager}
+     * loads the existing index files into the page cache when an index
+     * directory is opened.
+     *
+     * @param preload whether to preload memory mapped index files.
+     */
+    public void setMmapPreload(boolean preload) {
+        this.mmapPreload = preload;
+    }
+
+    /**
+     * @return <code>true</code> if memory mapped index files are preloaded.
+     */
+    public boolean isMmapPreload() {
+        return mmapPreload;
+    }
+
     /**
      * @return the current value for termInfosIndexDivisor.
      */
@@ -48,6 +48,20 @@ class SharedIndexReader extends RefCountingIndexReader {
         return getBase().getCreationTick();
     }
 
+    /**
+     * Returns the document number of the parent of <code>n</code> if the
+     * parent is in this index and already cached.
+     *
+     * @param n the document number.
+     * @param deleted the documents that should be regarded as deleted.
+     * @return the document number of <code>n</code>'s parent or
+     *         <code>-1</code> if the parent must be resolved with
+     *         {@link #getParent(int, BitSet)}.
+     */
+    public int getParentDocNumber(int n, BitSet deleted) {
+        return getBase().getParentDocNumber(n, deleted);
+    }
+
     /**
      * Returns the <code>DocId</code> of the parent of <code>n</code> or
      * {@link DocId#NULL} if <code>n</code> does not have a parent
@@ -153,11 +153,13 @@ public final class SortedLuceneQueryHits extends AbstractQueryHits {
 
     private void getHits() throws IOException {
     	long time = System.nanoTime();
-        TopFieldCollector collector = TopFieldCollector.create(sort, numHits, false, true, false, false);
+        // the priority queue and the comparators allocate numHits slots
+        int queueSize = Math.max(1, Math.min(numHits, searcher.maxDoc()));
+        TopFieldCollector collector = TopFieldCollector.create(sort, queueSize, false, true, false, false);
         searcher.search(query, collector);
         size = collector.getTotalHits();
         offset += scoreDocs.length;
-        scoreDocs = collector.topDocs(offset, numHits).scoreDocs;
+        scoreDocs = collector.topDocs(offset, queueSize).scoreDocs;
         time = System.nanoTime() - time;
         final long timeMs = time / 1000000;
         log.debug("getHits() in {} ms. {}/{}/{}", new Object[] {timeMs, scoreDocs.length, numHits, size});
@@ -25,10 +25,12 @@ import org.apache.lucene.search.SortField;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 /**
  * <code>SortedMultiColumnQueryHits</code> implements sorting of query hits
@@ -36,10 +38,21 @@ import java.util.List;
  */
 public class SortedMultiColumnQueryHits extends FilterMultiColumnQueryHits {
 
+    /**
+     * The hits in their original order, or <code>null</code> if they are
+     * all in {@link #sorted}.
+     */
+    private List<ScoreNode[]> unsorted;
+
+    /**
+     * The comparator for the hits.
+     */
+    private final Comparator<ScoreNode[]> comparator;
+
     /**
      * Iterator over sorted ScoreNode[]s.
      */
-    private final Iterator<ScoreNode[]> it;
+    private Iterator<ScoreNode[]> it;
 
     /**
      * Creates sorted query hits.
@@ -53,26 +66,97 @@ public class SortedMultiColumnQueryHits extends FilterMultiColumnQueryHits {
                                       Ordering[] orderings,
                                       IndexReader reader)
             throws IOException {
+        this(hits, orderings, reader, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates sorted query hits. Only the first <code>resultFetchHint</code>
+     * hits are sorted up front, the remaining hits are sorted when they are
+     * read.
+     *
+     * @param hits            the hits to sort.
+     * @param orderings       the ordering specifications.
+     * @param reader          the current index reader.
+     * @param resultFetchHint a hint on how many hits will be read.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public SortedMultiColumnQueryHits(MultiColumnQueryHits hits,
+                                      Ordering[] orderings,
+                                      IndexReader reader,
+                                      long resultFetchHint)
+            throws IOException {
         super(hits);
-        List<ScoreNode[]> sortedHits = new ArrayList<ScoreNode[]>();
+        List<ScoreNode[]> allHits = new ArrayList<ScoreNode[]>();
         ScoreNode[] next;
         while ((next = hits.nextScoreNodes()) != null) {
-            sortedHits.add(next);
+            allHits.add(next);
         }
+        comparator = new ScoreNodeComparator(
+                reader, orderings, hits.getSelectorNames(), allHits.size());
         try {
-            Collections.sort(sortedHits, new ScoreNodeComparator(
-                    reader, orderings, hits.getSelectorNames(), sortedHits.size()));
+            if (resultFetchHint < allHits.size()) {
+                this.it = selectTopHits(allHits, (int) resultFetchHint).iterator();
+            } else {
+                Collections.sort(allHits, comparator);
+                this.it = allHits.iterator();
+            }
         } catch (RuntimeException e) {
             // might be thrown by ScoreNodeComparator#compare
             throw Util.createIOException(e);
         }
-        this.it = sortedHits.iterator();
+    }
+
+    /**
+     * Returns the first <code>n</code> hits in sort order and keeps the
+     * other hits in {@link #unsorted}. Hits that compare equal keep their
+     * original order, like with a stable sort of all hits.
+     *
+     * @param hits the hits.
+     * @param n    the number of hits to return.
+     * @return the first <code>n</code> hits, sorted.
+     */
+    private List<ScoreNode[]> selectTopHits(List<ScoreNode[]> hits, int n) {
+        // the head of the queue is the last of the hits selected so far
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(
+                Math.max(1, n), new RankComparator(hits));
+        for (int i = 0; i < hits.size() && n > 0; i++) {
+            if (queue.size() < n) {
+                queue.add(i);
+            } else if (queue.comparator().compare(i, queue.peek()) > 0) {
+                queue.poll();
+                queue.add(i);
+            }
+        }
+        ScoreNode[][] top = new ScoreNode[queue.size()][];
+        BitSet selected = new BitSet(hits.size());
+        for (int i = top.length - 1; i >= 0; i--) {
+            int index = queue.poll();
+            selected.set(index);
+            top[i] = hits.get(index);
+        }
+        unsorted = new ArrayList<ScoreNode[]>(hits.size() - top.length);
+        for (int i = 0; i < hits.size(); i++) {
+            if (!selected.get(i)) {
+                unsorted.add(hits.get(i));
+            }
+        }
+        return Arrays.asList(top);
     }
 
     /**
      * {@inheritDoc}
      */
     public ScoreNode[] nextScoreNodes() throws IOException {
+        if (!it.hasNext() && unsorted != null) {
+            // the hits after the fetch hint are read
+            try {
+                Collections.sort(unsorted, comparator);
+            } catch (RuntimeException e) {
+                throw Util.createIOException(e);
+            }
+            it = unsorted.iterator();
+            unsorted = null;
+        }
         if (it.hasNext()) {
             return it.next();
         } else {
@@ -205,6 +289,28 @@ public class SortedMultiColumnQueryHits extends FilterMultiColumnQueryHits {
 
     }
 
+    /**
+     * Compares hits by their index in a list of hits. Hits that come first
+     * in sort order, or in the list if they are equal, are greater, so that
+     * the head of a priority queue is the last selected hit.
+     */
+    private final class RankComparator implements Comparator<Integer> {
+
+        private final List<ScoreNode[]> hits;
+
+        private RankComparator(List<ScoreNode[]> hits) {
+            this.hits = hits;
+        }
+
+        public int compare(Integer i1, Integer i2) {
+            int c = comparator.compare(hits.get(i1), hits.get(i2));
+            if (c == 0) {
+                c = i1.compareTo(i2);
+            }
+            return -c;
+        }
+    }
+
     private static final class ScoreDocComparator extends FieldComparatorDecorator {
 
         public ScoreDocComparator(FieldComparatorBase base) {
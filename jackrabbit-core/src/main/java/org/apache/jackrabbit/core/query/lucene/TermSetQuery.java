@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Searcher;
+import org.apache.lucene.search.Similarity;
+import org.apache.lucene.search.Weight;
+
+/**
+ * <code>TermSetQuery</code> matches the documents that contain any of a set
+ * of terms, all with the same score. It is used for node type constraints,
+ * which match the documents with one of the names of a node type and its
+ * sub types in <code>jcr:primaryType</code> or <code>jcr:mixinTypes</code>.
+ * The matching documents of an index segment are taken from the
+ * {@link FilterCache} of the search index if it is enabled, so repeated
+ * constraints do not enumerate the terms again.
+ */
+@SuppressWarnings("serial")
+class TermSetQuery extends Query {
+
+    /**
+     * The terms to match.
+     */
+    private final Set<Term> terms;
+
+    /**
+     * The cache of the current query.
+     */
+    private final transient PerQueryCache cache;
+
+    /**
+     * Creates a new query.
+     *
+     * @param terms the terms to match.
+     * @param cache the cache of the current query.
+     */
+    TermSetQuery(Collection<Term> terms, PerQueryCache cache) {
+        this.terms = new TreeSet<Term>(terms);
+        this.cache = cache;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Weight createWeight(Searcher searcher) {
+        return new TermSetWeight(searcher);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void extractTerms(Set<Term> terms) {
+        terms.addAll(this.terms);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString(String field) {
+        StringBuilder sb = new StringBuilder("(");
+        String separator = "";
+        for (Term term : terms) {
+            sb.append(separator).append(term);
+            separator = " ";
+        }
+        return sb.append(")").toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof TermSetQuery) {
+            TermSetQuery other = (TermSetQuery) obj;
+            return terms.equals(other.terms)
+                    && getBoost() == other.getBoost();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return terms.hashCode() ^ Float.floatToIntBits(getBoost());
+    }
+
+    /**
+     * The weight of a <code>TermSetQuery</code>.
+     */
+    private final class TermSetWeight extends AbstractWeight {
+
+        /**
+         * The weight value
+         */
+        private float value;
+
+        /**
+         * The query weight
+         */
+        private float queryWeight;
+
+        private TermSetWeight(Searcher searcher) {
+            super(searcher);
+        }
+
+        /**
+         * Creates a {@link TermSetScorer} instance.
+         *
+         * @param reader index reader
+         * @return a {@link TermSetScorer} instance
+         */
+        protected Scorer createScorer(IndexReader reader,
+                boolean scoreDocsInOrder, boolean topScorer)
+                throws IOException {
+            TermFilter filter = new TermFilter(terms);
+            FilterCache filterCache = cache.getFilterCache();
+            BitSet docs;
+            if (filterCache != null && reader instanceof ReadOnlyIndexReader) {
+                docs = filterCache.getFilter(
+                        (ReadOnlyIndexReader) reader, filter);
+            } else {
+                docs = filter.calculate(reader);
+            }
+            return new TermSetScorer(reader, docs, value);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Query getQuery() {
+            return TermSetQuery.this;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public float getValue() {
+            return value;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public float sumOfSquaredWeights() throws IOException {
+            queryWeight = getBoost();
+            return queryWeight * queryWeight;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void normalize(float queryNorm) {
+            queryWeight *= queryNorm;
+            value = queryWeight;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Explanation explain(IndexReader reader, int doc)
+                throws IOException {
+            return new Explanation(value, "TermSetQuery, product of boost "
+                    + "and queryNorm");
+        }
+    }
+
+    /**
+     * Scores the documents of a filter with a constant score.
+     */
+    private static final class TermSetScorer extends Scorer {
+
+        private final IndexReader reader;
+
+        private final BitSet docs;
+
+        private final float score;
+
+        private int nextDoc = -1;
+
+        private TermSetScorer(IndexReader reader, BitSet docs, float score) {
+            super(Similarity.getDefault());
+            this.reader = reader;
+            this.docs = docs;
+            this.score = score;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            if (nextDoc == NO_MORE_DOCS) {
+                return nextDoc;
+            }
+            // a shared filter may contain documents deleted in this reader
+            do {
+                nextDoc = docs.nextSetBit(nextDoc + 1);
+            } while (nextDoc >= 0 && reader.isDeleted(nextDoc));
+            if (nextDoc < 0) {
+                nextDoc = NO_MORE_DOCS;
+            }
+            return nextDoc;
+        }
+
+        @Override
+        public int docID() {
+            return nextDoc;
+        }
+
+        @Override
+        public float score() throws IOException {
+            return score;
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            if (nextDoc == NO_MORE_DOCS || target == NO_MORE_DOCS) {
+                nextDoc = NO_MORE_DOCS;
+                return nextDoc;
+            }
+            nextDoc = Math.max(nextDoc, target - 1);
+            return nextDoc();
+        }
+    }
+
+    /**
+     * Matches the documents that contain any of a set of terms.
+     */
+    private static final class TermFilter extends FilterCache.Filter {
+
+        private final Set<Term> terms;
+
+        private TermFilter(Set<Term> terms) {
+            this.terms = terms;
+        }
+
+        protected BitSet calculate(IndexReader reader) throws IOException {
+            BitSet bits = new BitSet(reader.maxDoc());
+            TermDocs docs = reader.termDocs();
+            try {
+                for (Term term : terms) {
+                    docs.seek(term);
+                    while (docs.next()) {
+                        bits.set(docs.doc());
+                    }
+                }
+            } finally {
+                docs.close();
+            }
+            return bits;
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof TermFilter
+                    && terms.equals(((TermFilter) obj).terms);
+        }
+
+        public int hashCode() {
+            return terms.hashCode();
+        }
+    }
+}
@@ -70,7 +70,13 @@ public class FSDirectoryManager implements DirectoryManager {
         } else {
             dir = new File(baseDir, name);
         }
-        return new FSDir(dir, useSimpleFSDirectory);
+        if (!dir.mkdirs()) {
+            if (!dir.isDirectory()) {
+                throw new IOException("Unable to create directory: '" + dir + "'");
+            }
+        }
+        return new FSDir(createFSDirectory(dir, new NativeFSLockFactory(dir)),
+                isCountingReads());
     }
 
     /**
@@ -132,6 +138,56 @@ public class FSDirectoryManager implements DirectoryManager {
     public void dispose() {
     }
 
+    /**
+     * Creates the Lucene directory for the given file system directory.
+     * This implementation returns a <code>SimpleFSDirectory</code> if
+     * {@link SearchIndex#isUseSimpleFSDirectory()} is set, and otherwise
+     * lets Lucene pick an implementation based on the platform.
+     *
+     * @param dir         the file system directory, which already exists.
+     * @param lockFactory the lock factory to use.
+     * @return the Lucene directory.
+     * @throws IOException if the directory cannot be created.
+     */
+    protected FSDirectory createFSDirectory(File dir, LockFactory lockFactory)
+            throws IOException {
+        if (useSimpleFSDirectory) {
+            return new SimpleFSDirectory(dir, lockFactory);
+        } else {
+            return FSDirectory.open(dir, lockFactory);
+        }
+    }
+
+    /**
+     * Returns the file system directory that stores the files of the given
+     * directory. This is the directory itself if it is a
+     * <code>FSDirectory</code>, or the directory wrapped by a directory of
+     * this manager.
+     *
+     * @param directory a directory.
+     * @return the file system directory, or <code>null</code> if the files
+     *         are not stored in the file system.
+     */
+    public static FSDirectory getFSDirectory(Directory directory) {
+        if (directory instanceof FSDir) {
+            return ((FSDir) directory).getDirectory();
+        } else if (directory instanceof FSDirectory) {
+            return (FSDirectory) directory;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Whether reads from the directories of this manager are counted in
+     * {@link IOCounters}. This implementation returns <code>true</code>.
+     *
+     * @return <code>true</code> if reads are counted.
+     */
+    protected boolean isCountingReads() {
+        return true;
+    }
+
     //-----------------------< internal >---------------------------------------
 
     private static final class FSDir extends Directory {
@@ -144,18 +200,21 @@ public class FSDirectoryManager implements DirectoryManager {
 
         private final FSDirectory directory;
 
-        public FSDir(File dir, boolean simpleFS) throws IOException {
-            if (!dir.mkdirs()) {
-                if (!dir.isDirectory()) {
-                    throw new IOException("Unable to create directory: '" + dir + "'");
-                }
-            }
-            LockFactory lockFactory = new NativeFSLockFactory(dir);
-            if (simpleFS) {
-                directory = new SimpleFSDirectory(dir, lockFactory);
-            } else {
-                directory = FSDirectory.open(dir, lockFactory);
-            }
+        /**
+         * Whether reads are counted in {@link IOCounters}.
+         */
+        private final boolean countReads;
+
+        public FSDir(FSDirectory directory, boolean countReads) {
+            this.directory = directory;
+            this.countReads = countReads;
+        }
+
+        /**
+         * @return the wrapped file system directory.
+         */
+        public FSDirectory getDirectory() {
+            return directory;
         }
 
         @Override
@@ -204,7 +263,7 @@ public class FSDirectoryManager implements DirectoryManager {
         @Override
         public IndexInput openInput(String name) throws IOException {
             IndexInput in = directory.openInput(name);
-            return new IndexInputLogWrapper(name, in);
+            return countReads ? new IndexInputLogWrapper(name, in) : in;
         }
 
         @Override
@@ -216,7 +275,7 @@ public class FSDirectoryManager implements DirectoryManager {
         public IndexInput openInput(String name, int bufferSize)
                 throws IOException {
             IndexInput in = directory.openInput(name, bufferSize);
-            return new IndexInputLogWrapper(name, in);
+            return countReads ? new IndexInputLogWrapper(name, in) : in;
         }
 
         @Override
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.directory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.jackrabbit.core.query.lucene.SearchIndex;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.LockFactory;
+import org.apache.lucene.store.MMapDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>MMapDirectoryManager</code> implements a directory manager for
+ * {@link MMapDirectory} instances. Index files are read through memory
+ * mapped buffers, which are served from the page cache of the operating
+ * system without copying the data into buffers on the heap.
+ * <p>
+ * The size of the mapped chunks is set with
+ * {@link SearchIndex#setMmapChunkSize(int)}. If
+ * {@link SearchIndex#setMmapPreload(boolean)} is set, the existing files
+ * of a directory are loaded into the page cache when the directory is
+ * opened.
+ */
+public class MMapDirectoryManager extends FSDirectoryManager {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(MMapDirectoryManager.class);
+
+    /**
+     * The maximum size of a mapped chunk in bytes, or <code>0</code> to use
+     * the Lucene default.
+     */
+    private int chunkSize;
+
+    /**
+     * Whether files are loaded into the page cache when a directory is
+     * opened.
+     */
+    private boolean preload;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init(SearchIndex handler) throws IOException {
+        super.init(handler);
+        chunkSize = (int) Math.min(Integer.MAX_VALUE,
+                handler.getMmapChunkSize() * 1024L * 1024L);
+        preload = handler.isMmapPreload();
+        if (!MMapDirectory.UNMAP_SUPPORTED) {
+            log.warn("Unmapping of index files is not supported by this JVM, "
+                    + "mapped files are only released on garbage collection");
+        }
+    }
+
+    /**
+     * Reads from a memory mapped directory are not counted, they are served
+     * from the page cache and rarely access the storage.
+     *
+     * @return <code>false</code>
+     */
+    protected boolean isCountingReads() {
+        return false;
+    }
+
+    /**
+     * Creates a {@link MMapDirectory} with the configured chunk size.
+     *
+     * @param dir         the file system directory, which already exists.
+     * @param lockFactory the lock factory to use.
+     * @return the memory mapped directory.
+     * @throws IOException if the directory cannot be created.
+     */
+    protected FSDirectory createFSDirectory(File dir, LockFactory lockFactory)
+            throws IOException {
+        MMapDirectory directory = new MMapDirectory(dir, lockFactory);
+        if (chunkSize > 0) {
+            directory.setMaxChunkSize(chunkSize);
+        }
+        if (MMapDirectory.UNMAP_SUPPORTED) {
+            directory.setUseUnmap(true);
+        }
+        if (preload) {
+            preload(dir);
+        }
+        return directory;
+    }
+
+    //-----------------------< internal >---------------------------------------
+
+    /**
+     * Loads the files of the given directory into the page cache. The files
+     * are read sequentially through a small buffer instead of being mapped,
+     * so no mappings are left behind that would only be released on garbage
+     * collection.
+     *
+     * @param dir the directory.
+     */
+    private void preload(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        long bytes = 0;
+        byte[] buffer = new byte[64 * 1024];
+        for (File file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    int n = in.read(buffer);
+                    while (n != -1) {
+                        bytes += n;
+                        n = in.read(buffer);
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                log.warn("Unable to preload " + file + ": " + e);
+            }
+        }
+        time = System.currentTimeMillis() - time;
+        log.debug("preloaded {} bytes of {} in {}ms",
+                new Object[]{bytes, dir, time});
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.join;
+
+import java.util.NoSuchElementException;
+
+import javax.jcr.query.RowIterator;
+
+import org.apache.jackrabbit.commons.iterator.RowIteratorAdapter;
+
+/**
+ * Row iterator that applies the offset and limit of a query to the rows of
+ * another iterator. Rows are only pulled from the underlying iterator when
+ * they are requested, so rows after the limit are never produced.
+ */
+class BoundedRowIterator extends RowIteratorAdapter {
+
+    /**
+     * The number of rows to skip at the start of the underlying iterator.
+     */
+    private final long offset;
+
+    /**
+     * The maximum number of rows, or a negative number if unlimited.
+     */
+    private final long limit;
+
+    /**
+     * The number of rows returned so far.
+     */
+    private long position;
+
+    /**
+     * Whether the rows before the offset have been skipped.
+     */
+    private boolean skipped;
+
+    /**
+     * Creates a new bounded iterator.
+     *
+     * @param rows the underlying rows.
+     * @param offset the number of rows to skip.
+     * @param limit the maximum number of rows, or a negative number if
+     *              unlimited.
+     */
+    BoundedRowIterator(RowIterator rows, long offset, long limit) {
+        super(rows);
+        this.offset = Math.max(0, offset);
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the number of rows in this iterator, or <code>-1</code> if
+     * the size of the underlying iterator is unknown.
+     *
+     * @return size of this iterator.
+     */
+    @Override
+    public long getSize() {
+        long size = super.getSize();
+        if (size < 0) {
+            return -1;
+        }
+        size = Math.max(0, size - offset);
+        if (limit >= 0) {
+            size = Math.min(size, limit);
+        }
+        return size;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public void skip(long n) throws NoSuchElementException {
+        if (n < 0) {
+            throw new IllegalArgumentException("skip(" + n + ")");
+        }
+        for (long i = 0; i < n; i++) {
+            next();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (limit >= 0 && position >= limit) {
+            return false;
+        }
+        if (!skipped) {
+            for (long i = 0; i < offset && super.hasNext(); i++) {
+                super.next();
+            }
+            skipped = true;
+        }
+        return super.hasNext();
+    }
+
+    @Override
+    public Object next() throws NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        position++;
+        return super.next();
+    }
+
+}
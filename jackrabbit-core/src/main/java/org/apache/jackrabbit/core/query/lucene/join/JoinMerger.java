@@ -46,6 +46,7 @@ import javax.jcr.query.qom.SameNodeJoinCondition;
 import javax.jcr.query.qom.Selector;
 import javax.jcr.query.qom.Source;
 
+import org.apache.jackrabbit.commons.iterator.AbstractLazyIterator;
 import org.apache.jackrabbit.commons.iterator.RowIterable;
 import org.apache.jackrabbit.commons.iterator.RowIteratorAdapter;
 import org.apache.jackrabbit.commons.query.qom.OperandEvaluator;
@@ -194,21 +195,62 @@ abstract class JoinMerger {
     public QueryResult merge(RowIterator leftRows, RowIterator rightRows,
             Set<Row> excludingOuterJoinRowsSet, Comparator<Row> rowComparator)
             throws RepositoryException {
-        Map<String, List<Row>> map = buildRightRowValues(rightRows);
+        return merge(leftRows, rightRows, excludingOuterJoinRowsSet,
+                rowComparator, false);
+    }
+
+    /**
+     * Merges the left and right dataset of a join query, like
+     * {@link #merge(RowIterator, RowIterator, Set, Comparator)}.
+     * <p>
+     * The right dataset is hashed by its join values. If <code>lazy</code>
+     * is <code>true</code>, the left dataset is streamed: joined rows are
+     * only produced when they are pulled from the returned result, so a
+     * consumer that stops early does not pay for the remaining rows. The
+     * size of a lazy result is unknown (<code>-1</code>) and errors while
+     * reading the join values of a left row are thrown as a
+     * <code>RuntimeException</code> from the row iterator. Otherwise all
+     * rows are joined before this method returns, the result has an exact
+     * size and errors are thrown by this method.
+     *
+     * @param leftRows
+     *            the left dataset of the join
+     * @param rightRows
+     *            the right dataset of the join
+     * @param excludingOuterJoinRowsSet
+     *            if not <code>null</code> must be taken into consideration when
+     *            merging OUTER JOINs
+     * @param rowComparator
+     *            a comparator implementation that has to handle the 'is row
+     *            equal to' problem, in the case of outer joins with
+     *            excludingOuterJoinRowsSet
+     * @param lazy
+     *            whether the joined rows are produced while the result is
+     *            iterated
+     * @return a QueryResult that has the final JOIN resultset
+     * @throws RepositoryException
+     */
+    public QueryResult merge(final RowIterator leftRows, RowIterator rightRows,
+            final Set<Row> excludingOuterJoinRowsSet,
+            final Comparator<Row> rowComparator, boolean lazy)
+            throws RepositoryException {
+        final Map<String, List<Row>> map = buildRightRowValues(rightRows);
 
         if (JCR_JOIN_TYPE_INNER.equals(type) && !map.isEmpty()) {
-            List<Row> rows = new ArrayList<Row>();
-            for (Row leftRow : new RowIterable(leftRows)) {
-                for (String value : getLeftValues(leftRow)) {
-                    List<Row> matchingRows = map.get(value);
-                    if (matchingRows != null) {
-                        for (Row rightRow : matchingRows) {
-                            rows.add(mergeRow(leftRow, rightRow));
+            return asQueryResult(new MergingRowIterator(leftRows) {
+                @Override
+                protected void merge(Row leftRow, List<Row> rows)
+                        throws RepositoryException {
+                    for (String value : getLeftValues(leftRow)) {
+                        List<Row> matchingRows = map.get(value);
+                        if (matchingRows != null) {
+                            for (Row rightRow : matchingRows) {
+                                rows.add(mergeRow(leftRow, rightRow));
+                            }
                         }
                     }
                 }
-            }
-            return asQueryResult(new RowIteratorAdapter(rows));
+            }, lazy);
         }
 
         if (JCR_JOIN_TYPE_LEFT_OUTER.equals(type)) {
@@ -228,50 +270,52 @@ abstract class JoinMerger {
                         Collections.emptySet()));
             }
 
-            List<Row> rows = new ArrayList<Row>();
-            for (Row leftRow : new RowIterable(leftRows)) {
-                Set<String> leftValues = getLeftValues(leftRow);
-                if(leftValues.isEmpty()){
-                    leftValues.add(null);
-                }
-                for (String value : leftValues) {
-                    List<Row> matchingRows = map.get(value);
-                    if (matchingRows != null) {
-                        for (Row rightRow : matchingRows) {
-                            // I have possible WHERE clauses on the join that I
-                            // need to look at for each rightRow
-                            if (excludingOuterJoinRowsSet == null) {
-                                rows.add(mergeRow(leftRow, rightRow));
-                            } else {
-                                boolean isIncluded = false;
-                                // apparently
-                                // 'excludingOuterJoinRowsSet.contains' fails to
-                                // match rows
-
-                                // TODO can 'rightRow.getNode()' break because
-                                // of joins that are bigger than 2 way?
-                                // how does this perform for 3 way joins ?
-                                for (Row r : excludingOuterJoinRowsSet) {
-                                    if(rowComparator.compare(rightRow, r) == 0){
-                                        isIncluded = true;
-                                        break;
-                                    }
-                                }
-                                if (isIncluded) {
+            return asQueryResult(new MergingRowIterator(leftRows) {
+                @Override
+                protected void merge(Row leftRow, List<Row> rows)
+                        throws RepositoryException {
+                    Set<String> leftValues = getLeftValues(leftRow);
+                    if(leftValues.isEmpty()){
+                        leftValues.add(null);
+                    }
+                    for (String value : leftValues) {
+                        List<Row> matchingRows = map.get(value);
+                        if (matchingRows != null) {
+                            for (Row rightRow : matchingRows) {
+                                // I have possible WHERE clauses on the join that I
+                                // need to look at for each rightRow
+                                if (excludingOuterJoinRowsSet == null) {
                                     rows.add(mergeRow(leftRow, rightRow));
+                                } else {
+                                    boolean isIncluded = false;
+                                    // apparently
+                                    // 'excludingOuterJoinRowsSet.contains' fails to
+                                    // match rows
+
+                                    // TODO can 'rightRow.getNode()' break because
+                                    // of joins that are bigger than 2 way?
+                                    // how does this perform for 3 way joins ?
+                                    for (Row r : excludingOuterJoinRowsSet) {
+                                        if(rowComparator.compare(rightRow, r) == 0){
+                                            isIncluded = true;
+                                            break;
+                                        }
+                                    }
+                                    if (isIncluded) {
+                                        rows.add(mergeRow(leftRow, rightRow));
+                                    }
                                 }
                             }
-                        }
-                    } else {
-                        // No matches in an outer join -> add a null row, if
-                        // there are no 'WHERE' conditions
-                        if (excludingOuterJoinRowsSet == null) {
-                            rows.add(mergeRow(leftRow, null));
+                        } else {
+                            // No matches in an outer join -> add a null row, if
+                            // there are no 'WHERE' conditions
+                            if (excludingOuterJoinRowsSet == null) {
+                                rows.add(mergeRow(leftRow, null));
+                            }
                         }
                     }
                 }
-            }
-            return asQueryResult(new RowIteratorAdapter(rows));
+            }, lazy);
         }
         return asQueryResult(new RowIteratorAdapter(Collections.emptySet()));
     }
@@ -280,6 +324,15 @@ abstract class JoinMerger {
         return new SimpleQueryResult(columnNames, selectorNames, rowIterator);
     }
 
+    private QueryResult asQueryResult(MergingRowIterator rows, boolean lazy)
+            throws RepositoryException {
+        if (lazy) {
+            return asQueryResult(new RowIteratorAdapter(rows));
+        } else {
+            return asQueryResult(new RowIteratorAdapter(rows.mergeAll()));
+        }
+    }
+
     private Map<String, List<Row>> buildRightRowValues(RowIterator rightRows)
             throws RepositoryException {
         Map<String, List<Row>> map = new HashMap<String, List<Row>>();
@@ -309,6 +362,80 @@ abstract class JoinMerger {
                 left, leftSelectors, right, rightSelectors);
     }
 
+    /**
+     * Lazily merges the rows of the left dataset with the matching rows of
+     * the right dataset. The left rows are pulled one at a time, and the
+     * joined rows of a left row are produced before the next left row is
+     * read. Errors are thrown as a <code>RuntimeException</code>, unless
+     * all rows are merged at once with {@link #mergeAll()}.
+     */
+    private abstract class MergingRowIterator
+            extends AbstractLazyIterator<Row> {
+
+        /**
+         * The left dataset.
+         */
+        private final RowIterator leftRows;
+
+        /**
+         * The joined rows of the current left row.
+         */
+        private final List<Row> rows = new ArrayList<Row>();
+
+        /**
+         * The position in {@link #rows}.
+         */
+        private int index;
+
+        private MergingRowIterator(RowIterator leftRows) {
+            this.leftRows = leftRows;
+        }
+
+        @Override
+        protected Row getNext() {
+            while (index == rows.size()) {
+                if (!leftRows.hasNext()) {
+                    return null;
+                }
+                rows.clear();
+                index = 0;
+                Row leftRow = leftRows.nextRow();
+                try {
+                    merge(leftRow, rows);
+                } catch (RepositoryException e) {
+                    throw new RuntimeException(
+                            "Unable to merge the join row " + leftRow, e);
+                }
+            }
+            return rows.get(index++);
+        }
+
+        /**
+         * Merges all remaining left rows.
+         *
+         * @return the joined rows
+         * @throws RepositoryException if the join values can not be read
+         */
+        List<Row> mergeAll() throws RepositoryException {
+            List<Row> all = new ArrayList<Row>();
+            while (leftRows.hasNext()) {
+                merge(leftRows.nextRow(), all);
+            }
+            return all;
+        }
+
+        /**
+         * Adds the joined rows of the given left row.
+         *
+         * @param leftRow a row of the left dataset
+         * @param rows the joined rows
+         * @throws RepositoryException if the join values can not be read
+         */
+        protected abstract void merge(Row leftRow, List<Row> rows)
+                throws RepositoryException;
+
+    }
+
     public abstract Set<String> getLeftValues(Row row)
             throws RepositoryException;
 
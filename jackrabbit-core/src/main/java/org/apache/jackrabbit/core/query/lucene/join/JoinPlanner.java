@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.join;
+
+import static javax.jcr.query.qom.QueryObjectModelConstants.JCR_JOIN_TYPE_INNER;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.UnsupportedRepositoryOperationException;
+import javax.jcr.query.qom.ChildNodeJoinCondition;
+import javax.jcr.query.qom.Constraint;
+import javax.jcr.query.qom.DescendantNodeJoinCondition;
+import javax.jcr.query.qom.EquiJoinCondition;
+import javax.jcr.query.qom.Join;
+import javax.jcr.query.qom.JoinCondition;
+import javax.jcr.query.qom.QueryObjectModelFactory;
+import javax.jcr.query.qom.SameNodeJoinCondition;
+import javax.jcr.query.qom.Selector;
+import javax.jcr.query.qom.Source;
+
+import org.apache.jackrabbit.core.query.lucene.LuceneQueryFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cost based planner for the joins of a query. The {@link QueryEngine}
+ * reads the left side of a join completely and then queries the right side
+ * with the join values of the left rows, so the planner puts the side with
+ * fewer estimated rows on the left of inner joins. Three-way inner joins
+ * are re-associated, so that the two selectors with the smaller estimated
+ * intermediate result are joined first.
+ * <p>
+ * The number of rows of a selector is estimated by
+ * {@link LuceneQueryFactory#getEstimatedSize(Selector, Constraint)} from the
+ * term statistics of the index. The estimated size of an inner join is the
+ * smaller of the sizes of its sides. Outer joins are never reordered, but
+ * their sides are planned.
+ */
+class JoinPlanner {
+
+    /**
+     * The logger instance for this class
+     */
+    private static final Logger log =
+        LoggerFactory.getLogger(JoinPlanner.class);
+
+    private final LuceneQueryFactory lqf;
+
+    private final QueryObjectModelFactory factory;
+
+    /**
+     * The constraint of the query, or <code>null</code>.
+     */
+    private final Constraint constraint;
+
+    /**
+     * Estimated sizes of the selectors, by selector name.
+     */
+    private final Map<String, Long> sizes = new HashMap<String, Long>();
+
+    JoinPlanner(LuceneQueryFactory lqf, QueryObjectModelFactory factory,
+            Constraint constraint) {
+        this.lqf = lqf;
+        this.factory = factory;
+        this.constraint = constraint;
+    }
+
+    /**
+     * Returns the source with the cheapest estimated join order.
+     *
+     * @param source the source of the query
+     * @return the planned source, or <code>source</code> itself if its join
+     *         order is already the cheapest one
+     * @throws RepositoryException if the sizes can not be estimated
+     */
+    public Source plan(Source source) throws RepositoryException {
+        Plan plan = getPlan(source);
+        if (plan.source != source && log.isDebugEnabled()) {
+            log.debug("SQL2 JOIN planned as " + plan.source + ", cost "
+                    + plan.cost);
+        }
+        return plan.source;
+    }
+
+    private Plan getPlan(Source source) throws RepositoryException {
+        if (source instanceof Selector) {
+            return new Plan(source, getSize((Selector) source), 0);
+        } else if (source instanceof Join) {
+            Join join = (Join) source;
+            Plan left = getPlan(join.getLeft());
+            Plan right = getPlan(join.getRight());
+            if (!JCR_JOIN_TYPE_INNER.equalsIgnoreCase(join.getJoinType())) {
+                return new Plan(join(join, left, right), left.size,
+                        left.cost + right.cost + left.size + right.size);
+            }
+
+            List<Plan> candidates = new ArrayList<Plan>();
+            Plan plan = join(join.getJoinCondition(), left, right);
+            Join planned = (Join) plan.source;
+            if (planned.getLeft() == join.getLeft()
+                    && planned.getRight() == join.getRight()) {
+                // keep the join as it is
+                plan = new Plan(join, plan.size, plan.cost);
+            }
+            candidates.add(plan);
+            if (isInnerJoin(left.source)) {
+                Join inner = (Join) left.source;
+                Plan a = getPlan(inner.getLeft());
+                Plan b = getPlan(inner.getRight());
+                // ((a, b), right) -> (a, (b, right)) or ((a, right), b)
+                addRotation(candidates, join.getJoinCondition(),
+                        inner.getJoinCondition(), a, b, right);
+                addRotation(candidates, join.getJoinCondition(),
+                        inner.getJoinCondition(), b, a, right);
+            }
+            if (isInnerJoin(right.source)) {
+                Join inner = (Join) right.source;
+                Plan b = getPlan(inner.getLeft());
+                Plan c = getPlan(inner.getRight());
+                // (left, (b, c)) -> ((left, b), c) or ((left, c), b)
+                addRotation(candidates, join.getJoinCondition(),
+                        inner.getJoinCondition(), c, b, left);
+                addRotation(candidates, join.getJoinCondition(),
+                        inner.getJoinCondition(), b, c, left);
+            }
+
+            Plan best = candidates.get(0);
+            for (Plan candidate : candidates) {
+                if (candidate.cost < best.cost) {
+                    best = candidate;
+                }
+            }
+            return best;
+        } else {
+            throw new UnsupportedRepositoryOperationException(
+                    "Unknown source type: " + source);
+        }
+    }
+
+    /**
+     * Adds the plan that joins <code>b</code> and <code>c</code> first, and
+     * the result with <code>a</code>. The plan is only added if the join
+     * conditions allow it: <code>outer</code> is the condition of the join
+     * of <code>c</code> and the join of <code>a</code> and <code>b</code>,
+     * and <code>inner</code> the condition of the join of <code>a</code>
+     * and <code>b</code>.
+     */
+    private void addRotation(List<Plan> candidates, JoinCondition outer,
+            JoinCondition inner, Plan a, Plan b, Plan c)
+            throws RepositoryException {
+        Set<String> bc = new HashSet<String>();
+        bc.addAll(getSelectorNames(b.source));
+        bc.addAll(getSelectorNames(c.source));
+        Set<String> abc = new HashSet<String>(bc);
+        abc.addAll(getSelectorNames(a.source));
+        if (bc.containsAll(getSelectorNames(outer))
+                && abc.containsAll(getSelectorNames(inner))) {
+            Plan first = join(outer, b, c);
+            candidates.add(join(inner, a, first));
+        }
+    }
+
+    /**
+     * Creates the plan of an inner join, with the smaller side on the left.
+     */
+    private Plan join(JoinCondition condition, Plan left, Plan right)
+            throws RepositoryException {
+        if (right.size < left.size) {
+            Plan tmp = left;
+            left = right;
+            right = tmp;
+        }
+        Source source = factory.join(
+                left.source, right.source, JCR_JOIN_TYPE_INNER, condition);
+        // the right side is only queried for the join values of the left
+        return new Plan(source, left.size,
+                left.cost + right.cost + left.size + Math.min(left.size, right.size));
+    }
+
+    /**
+     * Returns the given join with its planned sides. The join itself is
+     * returned if the sides did not change.
+     */
+    private Source join(Join join, Plan left, Plan right)
+            throws RepositoryException {
+        if (left.source == join.getLeft() && right.source == join.getRight()) {
+            return join;
+        }
+        return factory.join(left.source, right.source, join.getJoinType(),
+                join.getJoinCondition());
+    }
+
+    private long getSize(Selector selector) throws RepositoryException {
+        Long size = sizes.get(selector.getSelectorName());
+        if (size == null) {
+            size = lqf.getEstimatedSize(selector, constraint);
+            sizes.put(selector.getSelectorName(), size);
+        }
+        return size;
+    }
+
+    private static boolean isInnerJoin(Source source) {
+        return source instanceof Join && JCR_JOIN_TYPE_INNER.equalsIgnoreCase(
+                ((Join) source).getJoinType());
+    }
+
+    private static Set<String> getSelectorNames(Source source) {
+        if (source instanceof Selector) {
+            return Collections.singleton(((Selector) source).getSelectorName());
+        } else if (source instanceof Join) {
+            Join join = (Join) source;
+            Set<String> names = new LinkedHashSet<String>();
+            names.addAll(getSelectorNames(join.getLeft()));
+            names.addAll(getSelectorNames(join.getRight()));
+            return names;
+        } else {
+            return Collections.emptySet();
+        }
+    }
+
+    private static Set<String> getSelectorNames(JoinCondition condition)
+            throws RepositoryException {
+        if (condition instanceof EquiJoinCondition) {
+            EquiJoinCondition c = (EquiJoinCondition) condition;
+            return new HashSet<String>(Arrays.asList(
+                    c.getSelector1Name(), c.getSelector2Name()));
+        } else if (condition instanceof SameNodeJoinCondition) {
+            SameNodeJoinCondition c = (SameNodeJoinCondition) condition;
+            return new HashSet<String>(Arrays.asList(
+                    c.getSelector1Name(), c.getSelector2Name()));
+        } else if (condition instanceof ChildNodeJoinCondition) {
+            ChildNodeJoinCondition c = (ChildNodeJoinCondition) condition;
+            return new HashSet<String>(Arrays.asList(
+                    c.getChildSelectorName(), c.getParentSelectorName()));
+        } else if (condition instanceof DescendantNodeJoinCondition) {
+            DescendantNodeJoinCondition c =
+                (DescendantNodeJoinCondition) condition;
+            return new HashSet<String>(Arrays.asList(
+                    c.getDescendantSelectorName(),
+                    c.getAncestorSelectorName()));
+        } else {
+            throw new UnsupportedRepositoryOperationException(
+                    "Unsupported join condition type: " + condition);
+        }
+    }
+
+    /**
+     * A source with its estimated size and cost.
+     */
+    private static final class Plan {
+
+        private final Source source;
+
+        /**
+         * The estimated number of rows.
+         */
+        private final long size;
+
+        /**
+         * The estimated number of rows read to evaluate the source.
+         */
+        private final long cost;
+
+        private Plan(Source source, long size, long cost) {
+            this.source = source;
+            this.size = size;
+            this.cost = cost;
+        }
+    }
+}
@@ -28,6 +28,7 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -58,6 +59,7 @@ import javax.jcr.query.qom.Source;
 import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.JcrConstants;
 import org.apache.jackrabbit.commons.JcrUtils;
+import org.apache.jackrabbit.commons.iterator.AbstractLazyIterator;
 import org.apache.jackrabbit.commons.iterator.RowIteratorAdapter;
 import org.apache.jackrabbit.commons.query.qom.OperandEvaluator;
 import org.apache.jackrabbit.core.query.lucene.LuceneQueryFactory;
@@ -82,7 +84,22 @@ public class QueryEngine {
     private static final boolean NATIVE_SORT = Boolean.valueOf(System
             .getProperty(NATIVE_SORT_SYSTEM_PROPERTY, "false"));
 
+    /**
+     * System property that disables the cost based join ordering of the
+     * {@link JoinPlanner} when set to <code>false</code>.
+     */
+    public static final String JOIN_PLANNER_SYSTEM_PROPERTY = "useJoinPlanner";
+
+    private static final boolean JOIN_PLANNER = Boolean.valueOf(System
+            .getProperty(JOIN_PLANNER_SYSTEM_PROPERTY, "true"));
+
     private static final int printIndentStep = 4;
+
+    /**
+     * The number of left rows that are joined at once when the join result
+     * is produced lazily.
+     */
+    private static final int JOIN_BATCH_SIZE = 500;
     
     private final Session session;
 
@@ -112,8 +129,31 @@ public class QueryEngine {
             Constraint constraint, Ordering[] orderings, long offset, long limit)
             throws RepositoryException {
         long time = System.currentTimeMillis();
-        QueryResult qr = execute(columns, source, constraint, orderings,
-                offset, limit, 2);
+        Source planned = source;
+        if (JOIN_PLANNER && source instanceof Join) {
+            planned = new JoinPlanner(lqf, qomFactory, constraint)
+                    .plan(source);
+        }
+        QueryResult qr;
+        if (planned == source) {
+            qr = execute(columns, source, constraint, orderings, offset,
+                    limit, 2);
+        } else {
+            // keep the columns and selectors in the order of the query
+            Map<String, NodeType> selectors = getSelectorNames(source);
+            if (columns == null || columns.length == 0) {
+                List<Column> all = new ArrayList<Column>();
+                for (String selector : selectors.keySet()) {
+                    all.add(qomFactory.column(selector, null, null));
+                }
+                columns = all.toArray(new Column[all.size()]);
+            }
+            qr = execute(columns, planned, constraint, orderings, offset,
+                    limit, 2);
+            qr = new SimpleQueryResult(qr.getColumnNames(),
+                    selectors.keySet().toArray(new String[selectors.size()]),
+                    qr.getRows());
+        }
         log.debug("SQL2 QUERY execute took {} ms. native sort is {}.",
                 System.currentTimeMillis() - time, NATIVE_SORT);
         return qr;
@@ -159,7 +199,10 @@ public class QueryEngine {
 
         boolean isOuterJoin = JCR_JOIN_TYPE_LEFT_OUTER.equalsIgnoreCase(join
                 .getJoinType());
-        QueryResult result = execute(merger, csInfo, isOuterJoin,
+        // without orderings only the rows up to the limit are read
+        boolean lazy = (orderings == null || orderings.length == 0)
+                && (offset > 0 || limit >= 0);
+        QueryResult result = execute(merger, csInfo, isOuterJoin, lazy,
                 printIndentation);
 
         long sort = System.currentTimeMillis();
@@ -173,6 +216,17 @@ public class QueryEngine {
     protected QueryResult execute(JoinMerger merger,
             ConstraintSplitInfo csInfo, boolean isOuterJoin,
             int printIndentation) throws RepositoryException {
+        return execute(merger, csInfo, isOuterJoin, false, printIndentation);
+    }
+
+    /**
+     * Executes a join. If <code>lazy</code> is <code>true</code>, the joined
+     * rows are produced in batches of left rows while the result is
+     * iterated, see {@link JoinBatchIterator}.
+     */
+    protected QueryResult execute(JoinMerger merger,
+            ConstraintSplitInfo csInfo, boolean isOuterJoin, boolean lazy,
+            int printIndentation) throws RepositoryException {
 
         Comparator<Row> leftCo = new RowPathComparator(
                 merger.getLeftSelectors());
@@ -215,6 +269,13 @@ public class QueryEngine {
                     merger.getSelectorNames(), new RowIteratorAdapter(allRows));
         }
 
+        if (lazy) {
+            return new SimpleQueryResult(merger.getColumnNames(),
+                    merger.getSelectorNames(), new RowIteratorAdapter(
+                            new JoinBatchIterator(merger, csInfo, isOuterJoin,
+                                    leftCo, printIndentation)));
+        }
+
         Set<Row> leftRows = buildLeftRowsJoin(csInfo, leftCo, printIndentation
                 + printIndentStep);
         if (log.isDebugEnabled()) {
@@ -333,6 +394,34 @@ public class QueryEngine {
             return rightRows;
         }
 
+        Source right = csi.getSource().getRight();
+        if (JOIN_PLANNER && rightConstraints.size() >= 500
+                && right instanceof Selector) {
+            // with many join values, reading the whole right side once is
+            // cheaper than querying it in batches. the join merger only
+            // matches the rows with the join values of the left side
+            Constraint where = null;
+            if (!ignoreWhereConstraints) {
+                where = csi.getRightConstraint();
+            }
+            long size = lqf.getEstimatedSize((Selector) right, where);
+            if (size < rightConstraints.size()) {
+                if (log.isDebugEnabled()) {
+                    log.debug(genString(printIndentation)
+                            + "SQL2 JOIN RIGHT SIDE reading an estimated "
+                            + size + " rows instead of "
+                            + rightConstraints.size() + " join values.");
+                }
+                Set<Row> rightRows = new TreeSet<Row>(comparator);
+                QueryResult rightResult = execute(null, right, where, null,
+                        0, -1, printIndentation);
+                for (Row row : JcrUtils.getRows(rightResult)) {
+                    rightRows.add(row);
+                }
+                return rightRows;
+            }
+        }
+
         if (rightConstraints.size() < 500) {
             Set<Row> rightRows = new TreeSet<Row>(comparator);
             List<Constraint> localRightContraints = rightConstraints;
@@ -377,6 +466,104 @@ public class QueryEngine {
         return rightRows;
     }
 
+    /**
+     * Lazily joins the rows of the left side in batches of
+     * {@link #JOIN_BATCH_SIZE} rows. The left rows are pulled from the left
+     * query as they are needed, and the right side is only queried with
+     * the join values of the current batch. A consumer that stops early
+     * therefore reads neither the remaining left rows nor their matching
+     * right rows. Within a batch, the joined rows of a left row are only
+     * produced when they are pulled. The rows are joined in the order of the left query,
+     * sorted by path within each batch. Errors are thrown as a
+     * <code>RuntimeException</code>.
+     */
+    private class JoinBatchIterator extends AbstractLazyIterator<Row> {
+
+        private final JoinMerger merger;
+
+        private final ConstraintSplitInfo csInfo;
+
+        private final boolean isOuterJoin;
+
+        private final Comparator<Row> leftCo;
+
+        private final Comparator<Row> rightCo;
+
+        private final int printIndentation;
+
+        /**
+         * The rows of the left query.
+         */
+        private final RowIterator leftRows;
+
+        /**
+         * The joined rows of the current batch.
+         */
+        private RowIterator joinedRows = new RowIteratorAdapter(
+                Collections.emptySet());
+
+        private JoinBatchIterator(JoinMerger merger,
+                ConstraintSplitInfo csInfo, boolean isOuterJoin,
+                Comparator<Row> leftCo, int printIndentation)
+                throws RepositoryException {
+            this.merger = merger;
+            this.csInfo = csInfo;
+            this.isOuterJoin = isOuterJoin;
+            this.leftCo = leftCo;
+            this.rightCo = new RowPathComparator(merger.getRightSelectors());
+            this.printIndentation = printIndentation + printIndentStep;
+            this.leftRows = execute(null, csInfo.getSource().getLeft(),
+                    csInfo.getLeftConstraint(), null, 0, -1,
+                    this.printIndentation).getRows();
+        }
+
+        @Override
+        protected Row getNext() {
+            try {
+                while (!joinedRows.hasNext()) {
+                    Set<Row> batch = new TreeSet<Row>(leftCo);
+                    while (batch.size() < JOIN_BATCH_SIZE
+                            && leftRows.hasNext()) {
+                        batch.add(leftRows.nextRow());
+                    }
+                    if (batch.isEmpty()) {
+                        return null;
+                    }
+                    joinedRows = join(batch);
+                }
+                return joinedRows.nextRow();
+            } catch (RepositoryException e) {
+                throw new RuntimeException("Unable to join the rows", e);
+            }
+        }
+
+        /**
+         * Joins the given left rows with the right rows that match their
+         * join values.
+         */
+        private RowIterator join(Set<Row> batch) throws RepositoryException {
+            long time = System.currentTimeMillis();
+            List<Constraint> rightConstraints =
+                    merger.getRightJoinConstraints(batch);
+            Set<Row> rightRows = buildRightRowsJoin(csInfo, rightConstraints,
+                    isOuterJoin, rightCo, printIndentation);
+            Set<Row> excludingOuterJoinRowsSet = null;
+            if (isOuterJoin && csInfo.getRightConstraint() != null) {
+                excludingOuterJoinRowsSet = buildRightRowsJoin(csInfo,
+                        rightConstraints, false, rightCo, printIndentation);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug(genString(printIndentation) + "SQL2 JOIN BATCH of "
+                        + batch.size() + " left rows fetched "
+                        + rightRows.size() + " right rows in "
+                        + (System.currentTimeMillis() - time) + " ms.");
+            }
+            return merger.merge(new RowIteratorAdapter(batch),
+                    new RowIteratorAdapter(rightRows),
+                    excludingOuterJoinRowsSet, rightCo, true).getRows();
+        }
+    }
+
     private static String genString(int len) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < len; i++) {
@@ -458,8 +645,10 @@ public class QueryEngine {
 
         // if true it means that the LuceneQueryFactory should just let the
         // QueryEngine take care of sorting and applying offset and limit
-        // constraints
-        boolean externalSort = !NATIVE_SORT;
+        // constraints. without orderings, offset and limit are applied by
+        // the LuceneQueryFactory, which stops reading hits at the limit
+        boolean externalSort = !NATIVE_SORT
+                && orderings != null && orderings.length > 0;
         RowIterator rows = null;
         try {
             rows = new RowIteratorAdapter(lqf.execute(columnMap, selector,
@@ -476,7 +665,7 @@ public class QueryEngine {
         }
         QueryResult result = new SimpleQueryResult(columnNames, selectorNames,
                 rows);
-        if (NATIVE_SORT) {
+        if (!externalSort) {
             return result;
         }
 
@@ -595,7 +784,10 @@ public class QueryEngine {
      * Sorts the given query results according to the given QOM orderings. If
      * one or more orderings have been specified, this method will iterate
      * through the entire original result set, order the collected rows, and
-     * return a new result set based on the sorted collection of rows.
+     * return a new result set based on the sorted collection of rows. With
+     * a limit, only the first <code>offset + limit</code> rows are kept
+     * while iterating. Without orderings, offset and limit are applied
+     * lazily and the original result is only iterated up to the limit.
      * 
      * @param result
      *            original query results
@@ -612,17 +804,19 @@ public class QueryEngine {
     protected static QueryResult sort(QueryResult result,
             final Ordering[] orderings, OperandEvaluator evaluator,
             long offset, long limit) throws RepositoryException {
-        if ((orderings != null && orderings.length > 0) || offset != 0
-                || limit >= 0) {
-            List<Row> rows = new ArrayList<Row>();
-
+        if (orderings != null && orderings.length > 0) {
+            RowComparator comparator = new RowComparator(orderings, evaluator);
             RowIterator iterator = result.getRows();
-            while (iterator.hasNext()) {
-                rows.add(iterator.nextRow());
-            }
-
-            if (orderings != null && orderings.length > 0) {
-                Collections.sort(rows, new RowComparator(orderings, evaluator));
+            List<Row> rows;
+            if (limit >= 0 && offset >= 0
+                    && offset + limit < Integer.MAX_VALUE) {
+                rows = sortTopRows(iterator, comparator, (int) (offset + limit));
+            } else {
+                rows = new ArrayList<Row>();
+                while (iterator.hasNext()) {
+                    rows.add(iterator.nextRow());
+                }
+                Collections.sort(rows, comparator);
             }
 
             if (offset > 0) {
@@ -636,9 +830,73 @@ public class QueryEngine {
 
             return new SimpleQueryResult(result.getColumnNames(),
                     result.getSelectorNames(), new RowIteratorAdapter(rows));
+        } else if (offset > 0 || limit >= 0) {
+            return new SimpleQueryResult(result.getColumnNames(),
+                    result.getSelectorNames(), new BoundedRowIterator(
+                            result.getRows(), offset, limit));
         } else {
             return result;
         }
     }
 
+    /**
+     * Returns the first <code>n</code> rows in the order of the given
+     * comparator. Only <code>n</code> rows are kept in memory while
+     * iterating over the given rows. Rows that compare equal keep their
+     * original order, like with a full sort.
+     *
+     * @param iterator the rows
+     * @param comparator the sort order
+     * @param n the number of rows to return
+     * @return the first <code>n</code> rows, sorted
+     */
+    private static List<Row> sortTopRows(RowIterator iterator,
+            final Comparator<Row> comparator, int n) {
+        // the head of the queue is the last of the rows kept so far
+        PriorityQueue<RankedRow> queue = new PriorityQueue<RankedRow>(
+                Math.max(1, Math.min(n, 1024)), new Comparator<RankedRow>() {
+                    public int compare(RankedRow r1, RankedRow r2) {
+                        return -r1.compareTo(r2, comparator);
+                    }
+                });
+        long rank = 0;
+        while (iterator.hasNext() && n > 0) {
+            RankedRow row = new RankedRow(iterator.nextRow(), rank++);
+            if (queue.size() < n) {
+                queue.add(row);
+            } else if (row.compareTo(queue.peek(), comparator) < 0) {
+                queue.poll();
+                queue.add(row);
+            }
+        }
+        Row[] rows = new Row[queue.size()];
+        for (int i = rows.length - 1; i >= 0; i--) {
+            rows[i] = queue.poll().row;
+        }
+        return Arrays.asList(rows);
+    }
+
+    /**
+     * A row with its position in the unsorted rows.
+     */
+    private static final class RankedRow {
+
+        private final Row row;
+
+        private final long rank;
+
+        private RankedRow(Row row, long rank) {
+            this.row = row;
+            this.rank = rank;
+        }
+
+        private int compareTo(RankedRow other, Comparator<Row> comparator) {
+            int c = comparator.compare(row, other.row);
+            if (c == 0) {
+                c = rank < other.rank ? -1 : (rank == other.rank ? 0 : 1);
+            }
+            return c;
+        }
+    }
+
 }
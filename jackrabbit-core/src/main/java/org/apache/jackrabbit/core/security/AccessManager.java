@@ -163,6 +163,30 @@ public interface AccessManager {
      */
     boolean isGranted(Path absPath, int permissions) throws RepositoryException;
 
+    /**
+     * Determines whether the specified <code>permissions</code> are granted
+     * on each of the items with the specified absolute paths. This is the
+     * bulk variant of {@link #isGranted(Path, int)}, which allows to evaluate
+     * the permissions of many items at once, for example of the targets of
+     * the events of a save. The default implementation calls
+     * {@link #isGranted(Path, int)} for each path.
+     *
+     * @param absPaths    the absolute paths to test
+     * @param permissions A combination of one or more of the
+     * {@link org.apache.jackrabbit.core.security.authorization.Permission}
+     * constants encoded as a bitmask value.
+     * @return for each path of <code>absPaths</code>, <code>true</code> if
+     * the specified permissions are granted; otherwise <code>false</code>.
+     * @throws RepositoryException if an error occurs.
+     */
+    default boolean[] isGranted(Path[] absPaths, int permissions) throws RepositoryException {
+        boolean[] granted = new boolean[absPaths.length];
+        for (int i = 0; i < absPaths.length; i++) {
+            granted[i] = isGranted(absPaths[i], permissions);
+        }
+        return granted;
+    }
+
     /**
      * Determines whether the specified <code>permissions</code> are granted
      * on an item represented by the combination of the given
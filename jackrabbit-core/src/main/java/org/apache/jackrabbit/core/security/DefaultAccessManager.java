@@ -246,6 +246,19 @@ public class DefaultAccessManager extends AbstractAccessControlManager implement
         return compiledPermissions.grants(absPath, permissions);
     }
 
+    /**
+     * @see AccessManager#isGranted(Path[], int)
+     */
+    public boolean[] isGranted(Path[] absPaths, int permissions) throws RepositoryException {
+        checkInitialized();
+        for (Path absPath : absPaths) {
+            if (!absPath.isAbsolute()) {
+                throw new RepositoryException("Absolute path expected");
+            }
+        }
+        return compiledPermissions.grants(absPaths, permissions);
+    }
+
     /**
      * @see AccessManager#isGranted(Path, Name, int)
      */
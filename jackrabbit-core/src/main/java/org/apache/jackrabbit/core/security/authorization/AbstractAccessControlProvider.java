@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.core.security.authorization;
 
 import java.security.Principal;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
@@ -104,6 +105,11 @@ public abstract class AbstractAccessControlProvider implements AccessControlProv
             public boolean grants(Path absPath, int permissions) {
                 return true;
             }
+            public boolean[] grants(Path[] absPaths, int permissions) {
+                boolean[] granted = new boolean[absPaths.length];
+                Arrays.fill(granted, true);
+                return granted;
+            }
             public int getPrivileges(Path absPath) throws RepositoryException {
                 return PrivilegeRegistry.getBits(new Privilege[] {getAllPrivilege()});
             }
@@ -21,6 +21,7 @@ import org.apache.jackrabbit.spi.Path;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.security.Privilege;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
 
@@ -110,6 +111,24 @@ public abstract class AbstractCompiledPermissions implements CompiledPermissions
         return getResult(absPath).grants(permissions);
     }
 
+    /**
+     * Evaluates the paths one by one with {@link #grants(Path, int)}, unless
+     * READ permission is granted everywhere.
+     *
+     * @see CompiledPermissions#grants(Path[], int)
+     */
+    public boolean[] grants(Path[] absPaths, int permissions) throws RepositoryException {
+        boolean[] granted = new boolean[absPaths.length];
+        if (permissions == Permission.READ && canReadAll()) {
+            Arrays.fill(granted, true);
+        } else {
+            for (int i = 0; i < absPaths.length; i++) {
+                granted[i] = grants(absPaths[i], permissions);
+            }
+        }
+        return granted;
+    }
+
     /**
      * @see CompiledPermissions#getPrivileges(Path)
      */
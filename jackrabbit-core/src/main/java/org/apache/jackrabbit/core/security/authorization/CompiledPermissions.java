@@ -53,6 +53,27 @@ public interface CompiledPermissions {
      */
     boolean grants(Path absPath, int permissions) throws RepositoryException;
 
+    /**
+     * Returns for each of the given paths whether the specified permissions
+     * are granted on the item identified by the path. The default
+     * implementation calls {@link #grants(Path, int)} for each path.
+     *
+     * @param absPaths Absolute paths pointing to items.
+     * @param permissions A combination of one or more of permission constants
+     * defined by {@link Permission} encoded as a bitmask value
+     * @return for each path of <code>absPaths</code>, <code>true</code> if the
+     * specified permissions are granted, <code>false</code> otherwise.
+     * @throws RepositoryException if an error occurs.
+     * @see #grants(Path, int)
+     */
+    default boolean[] grants(Path[] absPaths, int permissions) throws RepositoryException {
+        boolean[] granted = new boolean[absPaths.length];
+        for (int i = 0; i < absPaths.length; i++) {
+            granted[i] = grants(absPaths[i], permissions);
+        }
+        return granted;
+    }
+
     /**
      * Returns the <code>Privilege</code> bits granted by the underlying policy
      * if the given <code>absPath</code>.
@@ -131,6 +152,10 @@ public interface CompiledPermissions {
             // deny everything
             return false;
         }
+        public boolean[] grants(Path[] absPaths, int permissions) {
+            // deny everything
+            return new boolean[absPaths.length];
+        }
         public int getPrivileges(Path absPath) {
             return PrivilegeRegistry.NO_PRIVILEGE;
         }
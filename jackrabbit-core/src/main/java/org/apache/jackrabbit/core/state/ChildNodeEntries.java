@@ -16,126 +16,150 @@
  */
 package org.apache.jackrabbit.core.state;
 
-import org.apache.commons.collections.map.LinkedMap;
 import org.apache.jackrabbit.core.id.NodeId;
-import org.apache.jackrabbit.core.util.EmptyLinkedMap;
 import org.apache.jackrabbit.spi.Name;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
-import java.util.HashMap;
 import java.util.Collections;
 import java.util.ArrayList;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <code>ChildNodeEntries</code> represents an insertion-ordered
  * collection of <code>ChildNodeEntry</code>s that also maintains
  * the index values of same-name siblings on insertion and removal.
+ * <p>
+ * The entries are kept in immutable {@link PersistentTreap}s, so lookups
+ * by id or name and modifications take O(log n) time, and clones share
+ * their structure with the original instance instead of copying it. This
+ * keeps nodes with very large numbers of child nodes cheap to modify.
  */
 class ChildNodeEntries implements Cloneable {
 
+    private static final Comparator<Long> SEQUENCE_ORDER =
+        new Comparator<Long>() {
+            public int compare(Long a, Long b) {
+                return a.compareTo(b);
+            }
+        };
+
+    private static final Comparator<NodeId> ID_ORDER =
+        new Comparator<NodeId>() {
+            public int compare(NodeId a, NodeId b) {
+                return a.compareTo(b);
+            }
+        };
+
+    /**
+     * Orders names by hash code first, which is cheaper than comparing
+     * the name strings.
+     */
+    private static final Comparator<Name> NAME_ORDER =
+        new Comparator<Name>() {
+            @SuppressWarnings("unchecked")
+            public int compare(Name a, Name b) {
+                int ha = a.hashCode();
+                int hb = b.hashCode();
+                if (ha != hb) {
+                    return ha < hb ? -1 : 1;
+                }
+                return a.compareTo(b);
+            }
+        };
+
+    private static final PersistentTreap<Long, ChildNodeEntry> NO_ENTRIES =
+        new PersistentTreap<Long, ChildNodeEntry>(SEQUENCE_ORDER);
+
+    private static final PersistentTreap<NodeId, Item> NO_IDS =
+        new PersistentTreap<NodeId, Item>(ID_ORDER);
+
+    private static final PersistentTreap<Name, Object> NO_NAMES =
+        new PersistentTreap<Name, Object>(NAME_ORDER);
+
     /**
-     * Insertion-ordered map of entries
-     * (key=NodeId, value=entry)
+     * Insertion-ordered entries
+     * (key=sequence number, value=entry)
      */
-    private LinkedMap entries;
+    private PersistentTreap<Long, ChildNodeEntry> entries = NO_ENTRIES;
+
+    /**
+     * Map used for lookup by id
+     * (key=id, value=item)
+     */
+    private PersistentTreap<NodeId, Item> ids = NO_IDS;
 
     /**
      * Map used for lookup by name
-     * (key=name, value=either a single entry or a list of sns entries)
+     * (key=name, value=either a single item or the {@link Siblings}
+     * ordered by sequence number)
      */
-    private Map<Name, Object> nameMap;
+    private PersistentTreap<Name, Object> names = NO_NAMES;
 
     /**
-     * Indicates whether the entries and nameMap are shared with another
-     * ChildNodeEntries instance.
+     * The sequence number of the next added entry.
      */
-    private boolean shared;
+    private long nextSequence = 0;
 
     ChildNodeEntries() {
-        init();
     }
 
     ChildNodeEntry get(NodeId id) {
-        return (ChildNodeEntry) entries.get(id);
+        Item item = ids.get(id);
+        if (item != null) {
+            return item.entry;
+        }
+        return null;
     }
 
-    @SuppressWarnings("unchecked")
     List<ChildNodeEntry> get(Name nodeName) {
-        Object obj = nameMap.get(nodeName);
+        Object obj = names.get(nodeName);
         if (obj == null) {
             return Collections.emptyList();
         }
-        if (obj instanceof List<?>) {
+        if (obj instanceof Siblings) {
             // map entry is a list of siblings
-            return Collections.unmodifiableList((List<ChildNodeEntry>) obj);
+            Siblings siblings = (Siblings) obj;
+            ChildNodeEntry[] list = new ChildNodeEntry[siblings.size()];
+            for (int i = 0; i < list.length; i++) {
+                list[i] = siblings.get(i).entry;
+            }
+            return Collections.unmodifiableList(Arrays.asList(list));
         } else {
             // map entry is a single child node entry
-            return Collections.singletonList((ChildNodeEntry) obj);
+            return Collections.singletonList(((Item) obj).entry);
         }
     }
 
-    @SuppressWarnings("unchecked")
     ChildNodeEntry get(Name nodeName, int index) {
         if (index < 1) {
             throw new IllegalArgumentException("index is 1-based");
         }
 
-        Object obj = nameMap.get(nodeName);
-        if (obj == null) {
-            return null;
-        }
-        if (obj instanceof List<?>) {
-            // map entry is a list of siblings
-            List<ChildNodeEntry> siblings = (List<ChildNodeEntry>) obj;
-            if (index <= siblings.size()) {
-                return siblings.get(index - 1);
-            }
-        } else {
-            // map entry is a single child node entry
-            if (index == 1) {
-                return (ChildNodeEntry) obj;
-            }
+        Siblings siblings = getSiblings(nodeName);
+        if (index <= siblings.size()) {
+            return siblings.get(index - 1).entry;
         }
         return null;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Adds an entry for the given node at the end. If there already is an
+     * entry for the node, it is replaced by the new entry at its position.
+     *
+     * @param nodeName name of the new entry
+     * @param id id of the new entry
+     * @return the new entry
+     */
     ChildNodeEntry add(Name nodeName, NodeId id) {
-        ensureModifiable();
-        List<ChildNodeEntry> siblings = null;
-        int index = 0;
-        Object obj = nameMap.get(nodeName);
-        if (obj != null) {
-            if (obj instanceof List<?>) {
-                // map entry is a list of siblings
-                siblings = (List<ChildNodeEntry>) obj;
-                if (siblings.size() > 0) {
-                    // reuse immutable Name instance from 1st same name sibling
-                    // in order to help gc conserving memory
-                    nodeName = siblings.get(0).getName();
-                }
-            } else {
-                // map entry is a single child node entry,
-                // convert to siblings list
-                siblings = new ArrayList<ChildNodeEntry>();
-                siblings.add((ChildNodeEntry) obj);
-                nameMap.put(nodeName, siblings);
-            }
-            index = siblings.size();
+        Item existing = ids.get(id);
+        if (existing != null) {
+            remove(existing);
+            return insert(nodeName, id, existing.sequence);
         }
-
-        index++;
-
-        ChildNodeEntry entry = new ChildNodeEntry(nodeName, id, index);
-        if (siblings != null) {
-            siblings.add(entry);
-        } else {
-            nameMap.put(nodeName, entry);
-        }
-        entries.put(id, entry);
-
-        return entry;
+        return insert(nodeName, id, nextSequence++);
     }
 
     void addAll(List<ChildNodeEntry> entriesList) {
@@ -145,66 +169,42 @@ class ChildNodeEntries implements Cloneable {
         }
     }
 
+    /**
+     * Replaces the entry refering to the node with the given id with a new
+     * entry at the same position.
+     *
+     * @param oldId id of the node whose entry is to be replaced
+     * @param newName name of the new entry
+     * @param newId id of the new entry
+     * @return the new entry, or <code>null</code> if there is no entry
+     *         refering to <code>oldId</code>
+     */
+    ChildNodeEntry replace(NodeId oldId, Name newName, NodeId newId) {
+        Item old = ids.get(oldId);
+        if (old == null) {
+            return null;
+        }
+        remove(old);
+        Item existing = ids.get(newId);
+        if (existing != null) {
+            remove(existing);
+        }
+        return insert(newName, newId, old.sequence);
+    }
+
     // The index may have changed because of changes by another session. Use remove(NodeId id)
     // instead    
     @Deprecated
-    @SuppressWarnings("unchecked")
     public ChildNodeEntry remove(Name nodeName, int index) {
         if (index < 1) {
             throw new IllegalArgumentException("index is 1-based");
         }
 
-        ensureModifiable();
-        Object obj = nameMap.get(nodeName);
-        if (obj == null) {
-            return null;
-        }
-
-        if (obj instanceof ChildNodeEntry) {
-            // map entry is a single child node entry
-            if (index != 1) {
-                return null;
-            }
-            ChildNodeEntry removedEntry = (ChildNodeEntry) obj;
-            nameMap.remove(nodeName);
-            entries.remove(removedEntry.getId());
-            return removedEntry;
-        }
-
-        // map entry is a list of siblings
-        List<ChildNodeEntry> siblings = (List<ChildNodeEntry>) obj;
+        Siblings siblings = getSiblings(nodeName);
         if (index > siblings.size()) {
             return null;
         }
-
-        // remove from siblings list
-        ChildNodeEntry removedEntry = siblings.remove(index - 1);
-        // remove from ordered entries map
-        entries.remove(removedEntry.getId());
-
-        // update indices of subsequent same-name siblings
-        for (int i = index - 1; i < siblings.size(); i++) {
-            ChildNodeEntry oldEntry = siblings.get(i);
-            ChildNodeEntry newEntry = new ChildNodeEntry(nodeName, oldEntry.getId(), oldEntry.getIndex() - 1);
-            // overwrite old entry with updated entry in siblings list
-            siblings.set(i, newEntry);
-            // overwrite old entry with updated entry in ordered entries map
-            entries.put(newEntry.getId(), newEntry);
-        }
-
-        // clean up name lookup map if necessary
-        if (siblings.size() == 0) {
-            // no more entries with that name left:
-            // remove from name lookup map as well
-            nameMap.remove(nodeName);
-        } else if (siblings.size() == 1) {
-            // just one entry with that name left:
-            // discard siblings list and update name lookup map accordingly
-            nameMap.put(nodeName, siblings.get(0));
-        }
-
-        // we're done
-        return removedEntry;
+        return remove(siblings.get(index - 1));
     }
 
     /**
@@ -214,11 +214,11 @@ class ChildNodeEntries implements Cloneable {
      * @return the removed entry or <code>null</code> if there is no such entry.
      */
     ChildNodeEntry remove(NodeId id) {
-        ChildNodeEntry entry = (ChildNodeEntry) entries.get(id);
-        if (entry != null) {
-            return remove(entry.getName(), entry.getIndex());
+        Item item = ids.get(id);
+        if (item != null) {
+            return remove(item);
         }
-        return entry;
+        return null;
     }
 
     /**
@@ -235,7 +235,9 @@ class ChildNodeEntries implements Cloneable {
      * Removes all child node entries
      */
     public void removeAll() {
-        init();
+        entries = NO_ENTRIES;
+        ids = NO_IDS;
+        names = NO_NAMES;
     }
 
     /**
@@ -260,8 +262,7 @@ class ChildNodeEntries implements Cloneable {
         }
 
         List<ChildNodeEntry> result = new ArrayList<ChildNodeEntry>();
-        for (Object e : entries.values()) {
-            ChildNodeEntry entry = (ChildNodeEntry) e;
+        for (ChildNodeEntry entry : entries) {
             ChildNodeEntry otherEntry = other.get(entry.getId());
             if (entry == otherEntry) {
                 continue;
@@ -294,8 +295,7 @@ class ChildNodeEntries implements Cloneable {
         }
 
         List<ChildNodeEntry> result = new ArrayList<ChildNodeEntry>();
-        for (Object e : entries.values()) {
-            ChildNodeEntry entry = (ChildNodeEntry) e;
+        for (ChildNodeEntry entry : entries) {
             ChildNodeEntry otherEntry = other.get(entry.getId());
             if (entry == otherEntry) {
                 result.add(entry);
@@ -313,15 +313,17 @@ class ChildNodeEntries implements Cloneable {
         return entries.isEmpty();
     }
 
-    @SuppressWarnings("unchecked")
     public List<ChildNodeEntry> list() {
-        return new ArrayList<ChildNodeEntry>(entries.values());
+        List<ChildNodeEntry> list = new ArrayList<ChildNodeEntry>(entries.size());
+        for (ChildNodeEntry entry : entries) {
+            list.add(entry);
+        }
+        return list;
     }
 
     public List<ChildNodeEntry> getRenamedEntries(ChildNodeEntries that) {
         List<ChildNodeEntry> renamed = Collections.emptyList();
-        for (Object e : entries.values()) {
-            ChildNodeEntry entry = (ChildNodeEntry) e;
+        for (ChildNodeEntry entry : entries) {
             ChildNodeEntry other = that.get(entry.getId());
             if (other != null && !entry.getName().equals(other.getName())) {
                 // child node entry with same id but different name exists in
@@ -346,9 +348,20 @@ class ChildNodeEntries implements Cloneable {
         }
         if (obj instanceof ChildNodeEntries) {
             ChildNodeEntries other = (ChildNodeEntries) obj;
-            return (nameMap.equals(other.nameMap)
-                    && entries.equals(other.entries)
-                    && shared == other.shared);
+            if (entries == other.entries) {
+                return true;
+            }
+            if (size() != other.size()) {
+                return false;
+            }
+            Iterator<ChildNodeEntry> a = entries.iterator();
+            Iterator<ChildNodeEntry> b = other.entries.iterator();
+            while (a.hasNext()) {
+                if (!a.next().equals(b.next())) {
+                    return false;
+                }
+            }
+            return true;
         }
         return false;
     }
@@ -368,18 +381,14 @@ class ChildNodeEntries implements Cloneable {
 
     /**
      * Returns a shallow copy of this <code>ChildNodeEntries</code> instance;
-     * the entries themselves are not cloned.
+     * the entries themselves are not cloned. Since the underlying maps are
+     * immutable, this is a constant time operation.
      *
      * @return a shallow copy of this instance.
      */
     protected Object clone() {
         try {
-            ChildNodeEntries clone = (ChildNodeEntries) super.clone();
-            if (nameMap != Collections.EMPTY_MAP) {
-                clone.shared = true;
-                shared = true;
-            }
-            return clone;
+            return super.clone();
         } catch (CloneNotSupportedException e) {
             // never happens, this class is cloneable
             throw new InternalError();
@@ -389,35 +398,191 @@ class ChildNodeEntries implements Cloneable {
     //-------------------------------------------------------------< internal >
 
     /**
-     * Initializes the name and entries map with unmodifiable empty instances.
+     * Returns the items of all same-name siblings with the given name.
+     *
+     * @param nodeName name
+     * @return siblings ordered by sequence number, possibly empty
      */
-    private void init() {
-        nameMap = Collections.emptyMap();
-        entries = EmptyLinkedMap.INSTANCE;
-        shared = false;
+    private Siblings getSiblings(Name nodeName) {
+        Object obj = names.get(nodeName);
+        if (obj == null) {
+            return Siblings.NONE;
+        } else if (obj instanceof Siblings) {
+            return (Siblings) obj;
+        } else {
+            return new Siblings(new Item[] { (Item) obj });
+        }
     }
 
     /**
-     * Ensures that the {@link #nameMap} and {@link #entries} map are
-     * modifiable.
+     * Inserts a new entry with the given sequence number, updating the
+     * indices of same-name siblings with higher sequence numbers.
      */
-    @SuppressWarnings("unchecked")
-    private void ensureModifiable() {
-        if (nameMap == Collections.EMPTY_MAP) {
-            nameMap = new HashMap<Name, Object>();
-            entries = new LinkedMap();
-        } else if (shared) {
-            entries = (LinkedMap) entries.clone();
-            nameMap = new HashMap<Name, Object>(nameMap);
-            for (Map.Entry<Name, Object> entry : nameMap.entrySet()) {
-                Object value = entry.getValue();
-                if (value instanceof List<?>) {
-                    entry.setValue(new ArrayList<ChildNodeEntry>(
-                            (List<ChildNodeEntry>) value));
-                }
+    private ChildNodeEntry insert(Name nodeName, NodeId id, long sequence) {
+        Siblings siblings = getSiblings(nodeName);
+        int size = siblings.size();
+        if (size > 0) {
+            // reuse immutable Name instance from 1st same name sibling
+            // in order to help gc conserving memory
+            nodeName = siblings.get(0).entry.getName();
+        }
+
+        int position = size;
+        while (position > 0 && siblings.get(position - 1).sequence > sequence) {
+            position--;
+        }
+
+        Item item = new Item(
+                sequence, new ChildNodeEntry(nodeName, id, position + 1));
+        put(item);
+        if (size == 0) {
+            names = names.put(nodeName, item);
+        } else if (position == size) {
+            // the common case, no other sibling needs to be re-indexed
+            names = names.put(nodeName, siblings.append(item));
+        } else {
+            Item[] updated = new Item[size + 1];
+            for (int i = 0; i < position; i++) {
+                updated[i] = siblings.get(i);
             }
-            shared = false;
+            updated[position] = item;
+            for (int i = position; i < size; i++) {
+                updated[i + 1] = reindex(siblings.get(i), i + 2);
+            }
+            names = names.put(nodeName, new Siblings(updated));
         }
+        return item.entry;
+    }
+
+    /**
+     * Removes the given entry, updating the indices of subsequent
+     * same-name siblings.
+     */
+    private ChildNodeEntry remove(Item item) {
+        Name nodeName = item.entry.getName();
+        Siblings siblings = getSiblings(nodeName);
+        int size = siblings.size();
+
+        int position = item.entry.getIndex() - 1;
+        if (size == 1) {
+            names = names.remove(nodeName);
+        } else if (size == 2) {
+            Item other = siblings.get(1 - position);
+            if (position == 0) {
+                other = reindex(other, 1);
+            }
+            names = names.put(nodeName, other);
+        } else if (position == size - 1) {
+            names = names.put(nodeName, siblings.removeLast());
+        } else {
+            Item[] updated = new Item[size - 1];
+            for (int i = 0; i < position; i++) {
+                updated[i] = siblings.get(i);
+            }
+            for (int i = position + 1; i < size; i++) {
+                updated[i - 1] = reindex(siblings.get(i), i);
+            }
+            names = names.put(nodeName, new Siblings(updated));
+        }
+        entries = entries.remove(item.sequence);
+        ids = ids.remove(item.entry.getId());
+        return item.entry;
+    }
+
+    /**
+     * Replaces the given same-name sibling with a copy that has the
+     * given index.
+     */
+    private Item reindex(Item item, int index) {
+        ChildNodeEntry entry = item.entry;
+        Item updated = new Item(item.sequence,
+                new ChildNodeEntry(entry.getName(), entry.getId(), index));
+        put(updated);
+        return updated;
+    }
+
+    private void put(Item item) {
+        entries = entries.put(item.sequence, item.entry);
+        ids = ids.put(item.entry.getId(), item);
+    }
+
+    /**
+     * Same-name siblings ordered by sequence number. Instances are
+     * immutable views of the first {@link #size} items of a buffer that
+     * may be shared with other instances, for example after a clone. The
+     * slots of the buffer are claimed in order: an append to the instance
+     * that ends at the last claimed slot writes into the buffer in place,
+     * all other appends copy it. Adding k siblings therefore takes
+     * amortized O(k) time, while every instance keeps its own items.
+     */
+    private static final class Siblings {
+
+        private static final Siblings NONE = new Siblings(new Item[0]);
+
+        private final Item[] buffer;
+
+        /**
+         * The number of claimed slots of the buffer, shared by all
+         * instances using the buffer.
+         */
+        private final AtomicInteger claimed;
+
+        private final int size;
+
+        Siblings(Item[] items) {
+            this(items, new AtomicInteger(items.length), items.length);
+        }
+
+        private Siblings(Item[] buffer, AtomicInteger claimed, int size) {
+            this.buffer = buffer;
+            this.claimed = claimed;
+            this.size = size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        Item get(int index) {
+            return buffer[index];
+        }
+
+        Siblings append(Item item) {
+            if (size < buffer.length
+                    && claimed.compareAndSet(size, size + 1)) {
+                buffer[size] = item;
+                return new Siblings(buffer, claimed, size + 1);
+            }
+            Item[] grown = new Item[Math.max(4, size * 2)];
+            System.arraycopy(buffer, 0, grown, 0, size);
+            grown[size] = item;
+            return new Siblings(grown, new AtomicInteger(size + 1), size + 1);
+        }
+
+        /**
+         * Returns the siblings without the last one. The slot stays
+         * claimed, so the next append copies the buffer.
+         */
+        Siblings removeLast() {
+            return new Siblings(buffer, claimed, size - 1);
+        }
+
+    }
+
+    /**
+     * A child node entry together with its position in insertion order.
+     */
+    private static final class Item {
+
+        private final long sequence;
+
+        private final ChildNodeEntry entry;
+
+        Item(long sequence, ChildNodeEntry entry) {
+            this.sequence = sequence;
+            this.entry = entry;
+        }
+
     }
 
 }
@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import static org.apache.jackrabbit.data.core.TransactionContext.getCurrentThreadId;
+import static org.apache.jackrabbit.data.core.TransactionContext.isSameThreadId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
+
+/**
+ * Item state locking strategy that admits several writers at the same time,
+ * as long as their change logs touch disjoint nodes. Together with the
+ * <code>concurrentStore</code> option of the bundle persistence managers
+ * this allows saves of unrelated parts of a workspace to be written to the
+ * persistence manager at the same time.
+ * <p>
+ * Locks are taken per node: a property is locked through its parent node,
+ * and the references to a node are locked through the node itself.
+ * <ul>
+ * <li>A read lock is only blocked by an active writer that locks the same
+ * node.</li>
+ * <li>A write lock is blocked by read locks and by other write locks on
+ * the nodes of its change log, including write locks that have been
+ * downgraded.</li>
+ * <li>Change logs that delete items, modify node references or modify
+ * <code>REFERENCE</code> or <code>WEAKREFERENCE</code> properties are
+ * written alone. The item state manager only computes and checks the
+ * affected references after the write lock is acquired, so their nodes
+ * are not known in advance.</li>
+ * </ul>
+ * A thread with the same identifier as a writer (i.e. the same thread or
+ * another thread in the same transaction) is never blocked by the locks
+ * of that writer.
+ * <p>
+ * Unlike with the other strategies, the listeners of a save may see
+ * changes of a concurrent save to other nodes.
+ * <p>
+ * To use this strategy, configure it in the workspace configuration:
+ * <pre>
+ * &lt;ISMLocking class="org.apache.jackrabbit.core.state.ConcurrentWriteISMLocking"/&gt;
+ * </pre>
+ */
+public class ConcurrentWriteISMLocking implements ISMLocking {
+
+    /**
+     * The active and downgraded write locks.
+     */
+    private final List<WriteLockImpl> writers = new ArrayList<WriteLockImpl>();
+
+    /**
+     * The number of read locks per node.
+     */
+    private final Map<NodeId, Integer> readers = new HashMap<NodeId, Integer>();
+
+    /**
+     * Returns a read lock for the given item once no writer of another
+     * thread holds a write lock on its node.
+     */
+    public synchronized ReadLock acquireReadLock(ItemId id)
+            throws InterruptedException {
+        final NodeId nodeId = getNodeId(id);
+        Object currentId = getCurrentThreadId();
+        while (isWritten(nodeId, currentId)) {
+            wait();
+        }
+
+        Integer count = readers.get(nodeId);
+        readers.put(nodeId, count == null ? 1 : count + 1);
+        return new ReadLock() {
+            public void release() {
+                releaseReadLock(nodeId);
+            }
+        };
+    }
+
+    /**
+     * Returns a write lock for the given change log once there are no read
+     * locks on its nodes and no write locks of other threads that conflict
+     * with it.
+     */
+    public synchronized WriteLock acquireWriteLock(ChangeLog changeLog)
+            throws InterruptedException {
+        WriteLockImpl writer =
+            new WriteLockImpl(changeLog, getCurrentThreadId());
+        while (!isAdmitted(writer)) {
+            wait();
+        }
+
+        writers.add(writer);
+        return writer;
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    /**
+     * Returns <code>true</code> if a writer of another thread holds a write
+     * lock on the given node.
+     */
+    private boolean isWritten(NodeId id, Object currentId) {
+        for (WriteLockImpl writer : writers) {
+            if (!writer.downgraded && writer.nodes.contains(id)
+                    && !isSameThreadId(writer.threadId, currentId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if the given writer conflicts neither with
+     * the current readers nor with the writers of other threads.
+     */
+    private boolean isAdmitted(WriteLockImpl writer) {
+        for (WriteLockImpl other : writers) {
+            if (!isSameThreadId(other.threadId, writer.threadId)
+                    && (writer.exclusive || other.exclusive
+                            || other.overlaps(writer))) {
+                return false;
+            }
+        }
+        for (NodeId id : writer.nodes) {
+            if (readers.containsKey(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void releaseReadLock(NodeId id) {
+        Integer count = readers.remove(id);
+        if (count > 1) {
+            readers.put(id, count - 1);
+        } else {
+            notifyAll();
+        }
+    }
+
+    private synchronized void releaseWriteLock(WriteLockImpl writer) {
+        writers.remove(writer);
+        notifyAll();
+    }
+
+    private synchronized void downgradeWriteLock(WriteLockImpl writer) {
+        writer.downgraded = true;
+        notifyAll();
+    }
+
+    /**
+     * Returns the node that is locked for the given item.
+     */
+    private static NodeId getNodeId(ItemId id) {
+        if (id.denotesNode()) {
+            return (NodeId) id;
+        } else {
+            return ((PropertyId) id).getParentId();
+        }
+    }
+
+    private final class WriteLockImpl implements WriteLock {
+
+        /**
+         * The identifier of the writer thread.
+         */
+        private final Object threadId;
+
+        /**
+         * The nodes locked by this writer.
+         */
+        private final Set<NodeId> nodes = new HashSet<NodeId>();
+
+        /**
+         * Whether this writer excludes all writers of other threads.
+         */
+        private final boolean exclusive;
+
+        /**
+         * Whether this lock has been downgraded to a read lock. Guarded by
+         * the enclosing instance.
+         */
+        private boolean downgraded;
+
+        private final ReadLock readLock = new ReadLock() {
+            public void release() {
+                releaseWriteLock(WriteLockImpl.this);
+            }
+        };
+
+        WriteLockImpl(ChangeLog changeLog, Object threadId) {
+            this.threadId = threadId;
+            boolean exclusive = false;
+            for (ItemState state : changeLog.addedStates()) {
+                nodes.add(getNodeId(state.getId()));
+                exclusive |= isReference(state);
+            }
+            for (ItemState state : changeLog.modifiedStates()) {
+                nodes.add(getNodeId(state.getId()));
+                exclusive |= isReference(state);
+            }
+            for (ItemState state : changeLog.deletedStates()) {
+                nodes.add(getNodeId(state.getId()));
+                exclusive = true;
+            }
+            for (NodeReferences refs : changeLog.modifiedRefs()) {
+                nodes.add(refs.getTargetId());
+                exclusive = true;
+            }
+            this.exclusive = exclusive;
+        }
+
+        public void release() {
+            releaseWriteLock(this);
+        }
+
+        public ReadLock downgrade() {
+            downgradeWriteLock(this);
+            return readLock;
+        }
+
+        /**
+         * Returns <code>true</code> if this writer and the given writer
+         * lock a common node.
+         */
+        boolean overlaps(WriteLockImpl writer) {
+            for (NodeId id : writer.nodes) {
+                if (nodes.contains(id)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns <code>true</code> if the given state is a reference
+         * property, or was one before it was modified.
+         */
+        private boolean isReference(ItemState state) {
+            if (state.isNode()) {
+                return false;
+            }
+            if (isReferenceType(((PropertyState) state).getType())) {
+                return true;
+            }
+            return state.hasOverlayedState() && isReferenceType(
+                    ((PropertyState) state.getOverlayedState()).getType());
+        }
+
+        private boolean isReferenceType(int type) {
+            return type == PropertyType.REFERENCE
+                    || type == PropertyType.WEAKREFERENCE;
+        }
+    }
+
+}
@@ -16,6 +16,10 @@
  */
 package org.apache.jackrabbit.core.state;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import javax.jcr.InvalidItemStateException;
 import javax.jcr.ReferentialIntegrityException;
 import javax.jcr.RepositoryException;
@@ -205,6 +209,25 @@ public class LocalItemStateManager
         return sharedStateMgr.hasItemState(id);
     }
 
+    /**
+     * Hints the shared item state manager that the identified nodes are
+     * about to be accessed. Nodes that are already cached locally are
+     * skipped.
+     *
+     * @param ids ids of the nodes that will be accessed
+     * @throws ItemStateException if an error occurs while prefetching
+     * @see SharedItemStateManager#prefetch(Collection)
+     */
+    public void prefetch(Collection<NodeId> ids) throws ItemStateException {
+        List<NodeId> uncached = new ArrayList<NodeId>(ids.size());
+        for (NodeId id : ids) {
+            if (!cache.isCached(id)) {
+                uncached.add(id);
+            }
+        }
+        sharedStateMgr.prefetch(uncached);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -396,20 +396,9 @@ public class NodeState extends ItemState {
      */
     public boolean replaceChildNodeEntry(NodeId oldId, Name newName, NodeId newId) {
         synchronized (this) {
-            ChildNodeEntry oldEntry = childNodeEntries.get(oldId);
-            if (oldEntry == null) {
+            if (childNodeEntries.replace(oldId, newName, newId) == null) {
                 return false;
             }
-
-            ChildNodeEntries entries = new ChildNodeEntries();
-            for (ChildNodeEntry entry : childNodeEntries.list()) {
-                if (entry.getId() == oldId) {
-                    entries.add(newName, newId);
-                } else {
-                    entries.add(entry.getName(), entry.getId());
-                }
-            }
-            childNodeEntries = entries;
         }
 
         notifyNodesReplaced();
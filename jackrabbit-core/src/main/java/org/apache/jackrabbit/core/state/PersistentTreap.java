@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Immutable sorted map implemented as a treap. Modifications return a new
+ * map that shares all but the O(log n) nodes on the modified path with the
+ * original map, so that copies are free and updates are cheap even for
+ * very large maps. Nodes get random priorities, which keeps the tree
+ * balanced in expectation regardless of the order of insertions or the
+ * quality of the key hash codes.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+final class PersistentTreap<K, V> implements Iterable<V> {
+
+    private final Comparator<? super K> comparator;
+
+    private final Node<K, V> root;
+
+    /**
+     * Creates an empty map.
+     *
+     * @param comparator key comparator
+     */
+    PersistentTreap(Comparator<? super K> comparator) {
+        this(comparator, null);
+    }
+
+    private PersistentTreap(Comparator<? super K> comparator, Node<K, V> root) {
+        this.comparator = comparator;
+        this.root = root;
+    }
+
+    int size() {
+        return root != null ? root.size : 0;
+    }
+
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Returns the value mapped to the given key.
+     *
+     * @param key key
+     * @return the value, or <code>null</code> if the key is not mapped
+     */
+    V get(K key) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int c = comparator.compare(key, node.key);
+            if (c == 0) {
+                return node.value;
+            }
+            node = c < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * Returns a map in which the given key is mapped to the given value.
+     *
+     * @param key key
+     * @param value value
+     * @return updated map
+     */
+    PersistentTreap<K, V> put(K key, V value) {
+        int priority = ThreadLocalRandom.current().nextInt();
+        return new PersistentTreap<K, V>(
+                comparator, insert(root, key, value, priority));
+    }
+
+    /**
+     * Returns a map without the given key.
+     *
+     * @param key key
+     * @return updated map, or this map if the key is not mapped
+     */
+    PersistentTreap<K, V> remove(K key) {
+        Node<K, V> node = delete(root, key);
+        if (node == root) {
+            return this;
+        }
+        return new PersistentTreap<K, V>(comparator, node);
+    }
+
+    /**
+     * Returns the values of this map in key order.
+     */
+    public Iterator<V> iterator() {
+        return new ValueIterator<K, V>(root);
+    }
+
+    //-------------------------------------------------------------< internal >
+
+    private Node<K, V> insert(Node<K, V> node, K key, V value, int priority) {
+        if (node == null) {
+            return new Node<K, V>(key, value, priority, null, null);
+        }
+        int c = comparator.compare(key, node.key);
+        if (c == 0) {
+            return new Node<K, V>(
+                    key, value, node.priority, node.left, node.right);
+        } else if (c < 0) {
+            Node<K, V> left = insert(node.left, key, value, priority);
+            if (left.priority > node.priority) {
+                // rotate right
+                return new Node<K, V>(
+                        left.key, left.value, left.priority, left.left,
+                        node.withChildren(left.right, node.right));
+            }
+            return node.withChildren(left, node.right);
+        } else {
+            Node<K, V> right = insert(node.right, key, value, priority);
+            if (right.priority > node.priority) {
+                // rotate left
+                return new Node<K, V>(
+                        right.key, right.value, right.priority,
+                        node.withChildren(node.left, right.left), right.right);
+            }
+            return node.withChildren(node.left, right);
+        }
+    }
+
+    private Node<K, V> delete(Node<K, V> node, K key) {
+        if (node == null) {
+            return null;
+        }
+        int c = comparator.compare(key, node.key);
+        if (c == 0) {
+            return merge(node.left, node.right);
+        } else if (c < 0) {
+            Node<K, V> left = delete(node.left, key);
+            return left == node.left ? node : node.withChildren(left, node.right);
+        } else {
+            Node<K, V> right = delete(node.right, key);
+            return right == node.right ? node : node.withChildren(node.left, right);
+        }
+    }
+
+    private static <K, V> Node<K, V> merge(Node<K, V> a, Node<K, V> b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        } else if (a.priority > b.priority) {
+            return a.withChildren(a.left, merge(a.right, b));
+        } else {
+            return b.withChildren(merge(a, b.left), b.right);
+        }
+    }
+
+    private static final class Node<K, V> {
+
+        private final K key;
+
+        private final V value;
+
+        private final int priority;
+
+        private final Node<K, V> left;
+
+        private final Node<K, V> right;
+
+        /** number of nodes in this subtree */
+        private final int size;
+
+        Node(K key, V value, int priority, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = 1
+                + (left != null ? left.size : 0)
+                + (right != null ? right.size : 0);
+        }
+
+        Node<K, V> withChildren(Node<K, V> left, Node<K, V> right) {
+            return new Node<K, V>(key, value, priority, left, right);
+        }
+
+    }
+
+    private static final class ValueIterator<K, V> implements Iterator<V> {
+
+        private final ArrayDeque<Node<K, V>> stack = new ArrayDeque<Node<K, V>>();
+
+        ValueIterator(Node<K, V> root) {
+            pushLeft(root);
+        }
+
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        public V next() {
+            Node<K, V> node = stack.poll();
+            if (node == null) {
+                throw new NoSuchElementException();
+            }
+            pushLeft(node.right);
+            return node.value;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void pushLeft(Node<K, V> node) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+        }
+
+    }
+
+}
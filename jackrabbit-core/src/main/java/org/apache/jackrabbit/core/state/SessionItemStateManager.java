@@ -182,6 +182,24 @@ public class SessionItemStateManager
         return stateMgr.hasItemState(id);
     }
 
+    /**
+     * Hints the underlying item state managers that the identified nodes
+     * are about to be accessed. Nodes with transient state are skipped.
+     *
+     * @param ids ids of the nodes that will be accessed
+     * @throws ItemStateException if an error occurs while prefetching
+     * @see SharedItemStateManager#prefetch(Collection)
+     */
+    public void prefetch(Collection<NodeId> ids) throws ItemStateException {
+        List<NodeId> persistent = new ArrayList<NodeId>(ids.size());
+        for (NodeId id : ids) {
+            if (!transientStore.containsKey(id) && !atticStore.containsKey(id)) {
+                persistent.add(id);
+            }
+        }
+        stateMgr.prefetch(persistent);
+    }
+
     /**
      * {@inheritDoc}
      */
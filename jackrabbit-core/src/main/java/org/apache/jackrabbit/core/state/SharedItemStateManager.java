@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.core.state;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -42,6 +44,7 @@ import org.apache.jackrabbit.core.observation.EventStateCollection;
 import org.apache.jackrabbit.core.observation.EventStateCollectionFactory;
 import org.apache.jackrabbit.core.persistence.CachingPersistenceManager;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
+import org.apache.jackrabbit.core.persistence.PrefetchingPersistenceManager;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.core.virtual.VirtualItemStateProvider;
 import org.apache.jackrabbit.spi.Name;
@@ -331,6 +334,46 @@ public class SharedItemStateManager
         return false;
     }
 
+    /**
+     * Hints this item state manager that the identified nodes are about to
+     * be accessed, typically because the child node list of their parent is
+     * being iterated. If the persistence manager implements
+     * {@link PrefetchingPersistenceManager}, the nodes that are not yet
+     * cached are loaded in one go, which saves a round trip to the
+     * persistence layer per node. Otherwise this method does nothing.
+     * <p>
+     * Only the read lock of the first uncached node is held while the
+     * nodes are loaded. The persistence manager keeps the prefetched
+     * bundles consistent with concurrent stores.
+     *
+     * @param ids ids of the nodes that will be accessed
+     * @throws ItemStateException if an error occurs while prefetching
+     */
+    public void prefetch(Collection<NodeId> ids) throws ItemStateException {
+        if (!(persistMgr instanceof PrefetchingPersistenceManager)) {
+            return;
+        }
+        List<NodeId> uncached = new ArrayList<NodeId>(ids.size());
+        for (NodeId id : ids) {
+            if (!cache.isCached(id)) {
+                uncached.add(id);
+            }
+        }
+        if (uncached.size() < 2) {
+            // nothing to gain over a regular load
+            return;
+        }
+
+        // a single read lock: taking one per node while holding the
+        // others would deadlock with a writer that blocks new readers
+        ISMLocking.ReadLock readLock = acquireReadLock(uncached.get(0));
+        try {
+            ((PrefetchingPersistenceManager) persistMgr).prefetch(uncached);
+        } finally {
+            readLock.release();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
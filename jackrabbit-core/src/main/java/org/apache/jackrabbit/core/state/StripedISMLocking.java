@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import static org.apache.jackrabbit.data.core.TransactionContext.getCurrentThreadId;
+import static org.apache.jackrabbit.data.core.TransactionContext.isSameThreadId;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.jackrabbit.core.id.ItemId;
+
+/**
+ * Item state locking strategy with the same semantics as
+ * {@link DefaultISMLocking} (a single coarse-grained read-write lock over
+ * the entire workspace, optional writer preference, downgradable write
+ * locks that retain the writer thread identifier), but with a read path
+ * that does not synchronize on a shared monitor.
+ * <p>
+ * Readers are counted in a number of striped counters, selected by the
+ * identifier of the reading thread. As long as no writer is active or
+ * (with writer preference) waiting, acquiring and releasing a read lock
+ * only increments and decrements one of these counters. Writers close
+ * this fast path and fall back to the monitor based algorithm of
+ * {@link DefaultISMLocking}, waiting for the striped counters to drain.
+ * <p>
+ * To use this strategy, configure it in the workspace configuration:
+ * <pre>
+ * &lt;ISMLocking class="org.apache.jackrabbit.core.state.StripedISMLocking"/&gt;
+ * </pre>
+ */
+public class StripedISMLocking implements ISMLocking {
+
+    /**
+     * Number of array slots between two striped counters, used to keep
+     * the counters on separate cache lines.
+     */
+    private static final int PADDING = 16;
+
+    /**
+     * Number of striped reader counters, a power of two.
+     */
+    private static final int STRIPES = Integer.highestOneBit(
+            Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+
+    /**
+     * The striped counters of readers that acquired their lock without
+     * synchronizing on this object.
+     */
+    private final AtomicLongArray fastReaders =
+        new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * The read lock instances used by the readers of each stripe to release
+     * the acquired lock.
+     */
+    private final ReadLock[] fastReadLocks = new ReadLock[STRIPES];
+
+    /**
+     * The read lock instance used by readers that acquired the lock while
+     * synchronized on this object.
+     */
+    private final ReadLock readLock = new ReadLock() {
+        public void release() {
+            releaseReadLock();
+        }
+    };
+
+    /**
+     * The write lock instance used by writers to release or downgrade the
+     * acquired lock.
+     */
+    private final WriteLock writeLock = new WriteLock() {
+        public void release() {
+            releaseWriteLock(false);
+        }
+        public ReadLock downgrade() {
+            releaseWriteLock(true);
+            return readLock;
+        }
+    };
+
+    /**
+     * Flag for determining whether this locking strategy should give
+     * preference to writers or not. See
+     * {@link DefaultISMLocking#setWriterPreference(boolean)}.
+     */
+    private volatile boolean writerPreference = true;
+
+    /**
+     * Flag indicating whether unrelated readers may currently acquire a read
+     * lock without synchronizing on this object. Only modified while
+     * synchronized on this object.
+     */
+    private volatile boolean fastReadsAllowed = true;
+
+    /**
+     * Number of writer threads waiting. Read without synchronization by
+     * releasing readers to determine whether a writer needs to be notified.
+     */
+    private volatile int writersWaiting = 0;
+
+    /**
+     * The thread identifier of the current writer, or <code>null</code> if
+     * no write is in progress. See {@link DefaultISMLocking}. Only modified
+     * while synchronized on this object.
+     */
+    private volatile Object writerId = null;
+
+    /**
+     * Number of acquired write locks.
+     */
+    private int writerCount = 0;
+
+    /**
+     * Number of read locks acquired while synchronized on this object.
+     */
+    private int readerCount = 0;
+
+    public StripedISMLocking() {
+        for (int i = 0; i < STRIPES; i++) {
+            final int index = i * PADDING;
+            fastReadLocks[i] = new ReadLock() {
+                public void release() {
+                    releaseFastReadLock(index);
+                }
+            };
+        }
+    }
+
+    /**
+     * Returns the writer preference status of this locking strategy.
+     *
+     * @return writer preference
+     */
+    public boolean isWriterPreference() {
+        return writerPreference;
+    }
+
+    /**
+     * Sets the writer preference status of this locking strategy.
+     *
+     * @param preference writer preference
+     */
+    public synchronized void setWriterPreference(boolean preference) {
+        this.writerPreference = preference;
+        updateFastReadsAllowed();
+        notifyAll();
+    }
+
+    /**
+     * Increments the striped reader counter of the current thread and
+     * returns the acquired read lock if readers are not blocked. Otherwise
+     * falls back to waiting until there are no more writers or the current
+     * writer shares the thread id with this reader.
+     */
+    public ReadLock acquireReadLock(ItemId id) throws InterruptedException {
+        if (fastReadsAllowed) {
+            int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+            fastReaders.incrementAndGet(stripe * PADDING);
+            // re-check after announcing ourselves, a writer may have
+            // closed the fast path and be counting the readers right now
+            if (fastReadsAllowed) {
+                return fastReadLocks[stripe];
+            }
+            releaseFastReadLock(stripe * PADDING);
+        }
+        return acquireSlowReadLock();
+    }
+
+    /**
+     * Increments the reader count and returns the acquired read lock once
+     * there are no more writers or the current writer shares the thread id
+     * with this reader.
+     */
+    private synchronized ReadLock acquireSlowReadLock()
+            throws InterruptedException {
+        Object currentId = getCurrentThreadId();
+        while (writerId != null
+                ? (writerCount > 0 && !isSameThreadId(writerId, currentId))
+                : (writerPreference && writersWaiting > 0)) {
+            wait();
+        }
+
+        readerCount++;
+        return readLock;
+    }
+
+    /**
+     * Decrements the given striped reader counter. If there is a writer
+     * waiting or a writer identifier that may need to be cleared, then
+     * notifies all pending threads if the lock is now available. Used by
+     * the {@link #fastReadLocks} instances.
+     */
+    private void releaseFastReadLock(int index) {
+        fastReaders.decrementAndGet(index);
+        if (writersWaiting > 0 || writerId != null) {
+            synchronized (this) {
+                if (readerCount == 0 && writerCount == 0
+                        && getFastReaderCount() == 0) {
+                    writerId = null;
+                    updateFastReadsAllowed();
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Decrements the reader count and notifies all pending threads if the
+     * lock is now available. Used by the {@link #readLock} instance.
+     */
+    private synchronized void releaseReadLock() {
+        readerCount--;
+        if (readerCount == 0 && writerCount == 0) {
+            if (getFastReaderCount() == 0) {
+                writerId = null;
+            }
+            updateFastReadsAllowed();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Increments the writer count, sets the writer identifier and returns
+     * the acquired write lock once there are no other active readers or
+     * writers or the current writer shares the thread id with this writer.
+     */
+    public synchronized WriteLock acquireWriteLock(ChangeLog changeLog)
+            throws InterruptedException {
+        Object currentId = getCurrentThreadId();
+
+        writersWaiting++;
+        boolean acquired = false;
+        try {
+            updateFastReadsAllowed();
+            while (writerId == null || !isSameThreadId(writerId, currentId)) {
+                if (writerId == null) {
+                    // close the fast path before counting the readers
+                    fastReadsAllowed = false;
+                    if (readerCount == 0 && getFastReaderCount() == 0) {
+                        writerId = currentId;
+                        break;
+                    }
+                    updateFastReadsAllowed();
+                }
+                wait();
+            }
+            writerCount++;
+            acquired = true;
+        } finally {
+            writersWaiting--;
+            updateFastReadsAllowed();
+            if (!acquired) {
+                notifyAll();
+            }
+        }
+        return writeLock;
+    }
+
+    /**
+     * Decrements the writer count (and possibly clears the writer identifier)
+     * and notifies all pending threads if the lock is now available. If the
+     * downgrade argument is true, then the reader count is incremented before
+     * notifying any pending threads. Used by the {@link #writeLock} instance.
+     */
+    private synchronized void releaseWriteLock(boolean downgrade) {
+        writerCount--;
+        if (downgrade) {
+            readerCount++;
+        }
+        if (writerCount == 0) {
+            if (readerCount == 0 && getFastReaderCount() == 0) {
+                writerId = null;
+            }
+            updateFastReadsAllowed();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Opens or closes the fast read path depending on whether unrelated
+     * readers would currently be allowed to proceed. Must be called while
+     * synchronized on this object.
+     */
+    private void updateFastReadsAllowed() {
+        fastReadsAllowed = writerId != null
+            ? writerCount == 0
+            : !(writerPreference && writersWaiting > 0);
+    }
+
+    /**
+     * Returns the number of readers that acquired their lock on the fast
+     * path.
+     */
+    private long getFastReaderCount() {
+        long count = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            count += fastReaders.get(i * PADDING);
+        }
+        return count;
+    }
+
+}
@@ -641,6 +641,19 @@ public class InternalValue extends AbstractQValue {
         return val instanceof BLOBInDataStore;
     }
 
+    /**
+     * Returns the data store identifier of this binary value.
+     *
+     * @return the data identifier, or <code>null</code> if this is not a
+     *         binary value stored in a data store
+     */
+    public DataIdentifier getDataIdentifier() {
+        if (val instanceof BLOBFileValue) {
+            return ((BLOBFileValue) val).getDataIdentifier();
+        }
+        return null;
+    }
+
     //-------------------------------------------------------------< QValue >---
     /**
      * @see org.apache.jackrabbit.spi.QValue#getLength()
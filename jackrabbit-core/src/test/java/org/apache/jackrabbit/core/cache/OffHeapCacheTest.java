@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.util.Arrays;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the {@link OffHeapCache} class.
+ */
+public class OffHeapCacheTest extends TestCase {
+
+    /**
+     * Tests an off-heap cache by adding more data than it can hold and
+     * checking that the cache stays within its size limit, that the most
+     * recently added entries are still present and that all returned
+     * entries are intact.
+     */
+    public void testOffHeapCache() {
+        NodeId[] ids = new NodeId[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+        }
+
+        OffHeapCache<NodeId> cache = new OffHeapCache<NodeId>("test", 64 * 1024);
+        for (int i = 0; i < ids.length; i++) {
+            cache.put(ids[i], data(ids[i], 100 + i % 50));
+        }
+
+        assertTrue(cache.getMemoryUsed() <= cache.getMaxMemorySize());
+        assertTrue(cache.getElementCount() < ids.length);
+
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            byte[] data = cache.get(ids[i]);
+            if (data != null) {
+                assertTrue(Arrays.equals(data(ids[i], 100 + i % 50), data));
+                n++;
+            }
+        }
+        assertEquals(cache.getElementCount(), n);
+        assertNotNull(cache.get(ids[ids.length - 1]));
+
+        cache.remove(ids[ids.length - 1]);
+        assertNull(cache.get(ids[ids.length - 1]));
+
+        cache.clear();
+        assertEquals(0, cache.getMemoryUsed());
+        assertEquals(0, cache.getElementCount());
+    }
+
+    /**
+     * Tests that rewriting an entry replaces the previous data.
+     */
+    public void testReplace() {
+        NodeId id = NodeId.randomId();
+        OffHeapCache<NodeId> cache = new OffHeapCache<NodeId>("test", 64 * 1024);
+        cache.put(id, new byte[] { 1, 2, 3 });
+        cache.put(id, new byte[] { 4, 5 });
+        assertTrue(Arrays.equals(new byte[] { 4, 5 }, cache.get(id)));
+        assertEquals(2, cache.getMemoryUsed());
+        assertEquals(1, cache.getElementCount());
+    }
+
+    /**
+     * Tests that data read before an invalidation is not cached after it.
+     */
+    public void testInvalidatedPut() {
+        NodeId id = NodeId.randomId();
+        OffHeapCache<NodeId> cache = new OffHeapCache<NodeId>("test", 64 * 1024);
+        long count = cache.getInvalidationCount();
+        cache.remove(id);
+        assertFalse(cache.put(id, new byte[] { 1, 2, 3 }, count));
+        assertNull(cache.get(id));
+
+        count = cache.getInvalidationCount();
+        assertTrue(cache.put(id, new byte[] { 1, 2, 3 }, count));
+        assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, cache.get(id)));
+    }
+
+    private static byte[] data(NodeId id, int length) {
+        byte[] data = new byte[length];
+        byte[] raw = id.getRawBytes();
+        for (int i = 0; i < length; i++) {
+            data[i] = raw[i % raw.length];
+        }
+        return data;
+    }
+
+}
@@ -17,10 +17,12 @@
 package org.apache.jackrabbit.core.cluster;
 
 import java.util.ArrayList;
+import java.util.Properties;
 
 import javax.jcr.RepositoryException;
 
 import org.apache.jackrabbit.core.cluster.SimpleEventListener.LockEvent;
+import org.apache.jackrabbit.core.config.BeanConfig;
 import org.apache.jackrabbit.core.config.ClusterConfig;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.journal.Journal;
@@ -45,6 +47,9 @@ public class ClusterSyncTest extends JUnitTest {
     /** Default sync delay: 5 seconds. */
     private static final long SYNC_DELAY = 5000;
 
+    /** Sync delay of notified nodes: 1 minute. */
+    private static final long NOTIFIED_SYNC_DELAY = 60000;
+
     /** Master node. */
     private ClusterNode master;
 
@@ -129,14 +134,66 @@ public class ClusterSyncTest extends JUnitTest {
         assertEquals(master.getRevision(), slave.getRevision());
     }
 
+    /**
+     * Verify that a cluster node synchronizes as soon as another node notifies
+     * it about a new revision, without waiting for the sync delay.
+     *
+     * @throws Exception
+     */
+    public void testNotifiedSync() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("group", getName());
+        BeanConfig notifierConfig = new BeanConfig(
+                LoopbackClusterNotifier.class.getName(), properties);
+
+        ClusterNode writer = createClusterNode(
+                "writer", NOTIFIED_SYNC_DELAY, notifierConfig, false);
+        writer.start();
+        ClusterNode reader = createClusterNode(
+                "reader", NOTIFIED_SYNC_DELAY, notifierConfig, false);
+        reader.start();
+
+        try {
+            LockEventChannel channel = writer.createLockChannel(DEFAULT_WORKSPACE);
+            reader.createLockChannel(DEFAULT_WORKSPACE).setListener(new SimpleEventListener());
+
+            LockEvent event = new LockEvent(NodeId.randomId(), true, "admin");
+            channel.create(event.getNodeId(), event.isDeep(), event.getUserId()).ended(true);
+
+            // well below the sync delay
+            long timeout = System.currentTimeMillis() + 10000;
+            while (reader.getRevision() != writer.getRevision()
+                    && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals(writer.getRevision(), reader.getRevision());
+        } finally {
+            reader.stop();
+            writer.stop();
+        }
+    }
+
     /**
      * Create a cluster node, with a memory journal referencing a list of records.
      *
      * @param id cluster node id
-     * @param records memory journal's list of records
      * @param disableAutoSync if <code>true</code> background synchronization is disabled
      */
     private ClusterNode createClusterNode(String id, boolean disableAutoSync) throws Exception {
+        return createClusterNode(id, SYNC_DELAY, null, disableAutoSync);
+    }
+
+    /**
+     * Create a cluster node, with a memory journal referencing a list of records.
+     *
+     * @param id cluster node id
+     * @param syncDelay sync delay, in milliseconds
+     * @param notifierConfig notifier configuration, or <code>null</code>
+     * @param disableAutoSync if <code>true</code> background synchronization is disabled
+     */
+    private ClusterNode createClusterNode(
+            String id, long syncDelay, BeanConfig notifierConfig,
+            boolean disableAutoSync) throws Exception {
         final MemoryJournal journal = new MemoryJournal() {
             protected boolean syncAgainOnNewRecords() {
                 return true;
@@ -148,7 +205,7 @@ public class ClusterSyncTest extends JUnitTest {
                 return journal;
             }
         };
-        ClusterConfig cc = new ClusterConfig(id, SYNC_DELAY, jf);
+        ClusterConfig cc = new ClusterConfig(id, syncDelay, -1, jf, notifierConfig);
         SimpleClusterContext context = new SimpleClusterContext(cc);
 
         journal.setRepositoryHome(context.getRepositoryHome());
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * <code>PrefetchingRecordIteratorTest</code> checks that the records of a
+ * journal are returned in order when they are read in batches.
+ */
+public class PrefetchingRecordIteratorTest extends TestCase {
+
+    public void testBatches() throws Exception {
+        TestIterator it = new TestIterator(0, 10, 25, -1);
+        try {
+            for (long revision = 1; revision <= 25; revision++) {
+                assertTrue(it.hasNext());
+                assertEquals(revision, it.nextRecord().getRevision());
+            }
+            assertFalse(it.hasNext());
+        } finally {
+            it.close();
+        }
+        assertEquals(3, it.getFetches().size());
+        // the first batch is read by the calling thread
+        assertEquals(Thread.currentThread().getName(), it.getFetches().get(0));
+        assertFalse(Thread.currentThread().getName().equals(it.getFetches().get(1)));
+    }
+
+    public void testSingleBatch() throws Exception {
+        TestIterator it = new TestIterator(20, 10, 25, -1);
+        try {
+            for (long revision = 21; revision <= 25; revision++) {
+                assertEquals(revision, it.nextRecord().getRevision());
+            }
+            assertFalse(it.hasNext());
+        } finally {
+            it.close();
+        }
+        assertEquals(1, it.getFetches().size());
+    }
+
+    public void testError() throws Exception {
+        TestIterator it = new TestIterator(0, 10, 25, 10);
+        try {
+            for (long revision = 1; revision <= 10; revision++) {
+                assertEquals(revision, it.nextRecord().getRevision());
+            }
+            // the records after the failed batch are not returned
+            assertFalse(it.hasNext());
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * An unexpected failure of the background thread ends the iteration,
+     * instead of blocking the thread that waits for the next batch.
+     */
+    public void testUnexpectedError() throws Exception {
+        TestIterator it = new TestIterator(0, 10, 25, 10,
+                new IllegalStateException("failed"));
+        try {
+            for (long revision = 1; revision <= 10; revision++) {
+                assertEquals(revision, it.nextRecord().getRevision());
+            }
+            assertFalse(it.hasNext());
+        } finally {
+            it.close();
+        }
+    }
+
+    public void testClose() throws Exception {
+        TestIterator it = new TestIterator(0, 1, 1000, -1);
+        assertEquals(1, it.nextRecord().getRevision());
+        it.close();
+    }
+
+    /**
+     * Iterator over the revisions up to a maximum revision.
+     */
+    private static final class TestIterator extends PrefetchingRecordIterator {
+
+        private final long maxRevision;
+
+        private final long failAfter;
+
+        private final RuntimeException failure;
+
+        private final List<String> fetches =
+                Collections.synchronizedList(new ArrayList<String>());
+
+        private TestIterator(long startRevision, int batchSize,
+                             long maxRevision, long failAfter) {
+            this(startRevision, batchSize, maxRevision, failAfter, null);
+        }
+
+        private TestIterator(long startRevision, int batchSize,
+                             long maxRevision, long failAfter,
+                             RuntimeException failure) {
+            super(startRevision, batchSize);
+            this.maxRevision = maxRevision;
+            this.failAfter = failAfter;
+            this.failure = failure;
+        }
+
+        protected List<ReadRecord> fetchRecords(long startRevision, int maxRecords)
+                throws JournalException {
+            fetches.add(Thread.currentThread().getName());
+            if (startRevision == failAfter) {
+                if (failure != null) {
+                    throw failure;
+                }
+                throw new JournalException("failed");
+            }
+            List<ReadRecord> records = new ArrayList<ReadRecord>();
+            for (long revision = startRevision + 1;
+                    revision <= maxRevision && records.size() < maxRecords;
+                    revision++) {
+                records.add(new ReadRecord("journal", "producer", revision,
+                        new DataInputStream(new ByteArrayInputStream(new byte[0])),
+                        0, null, null));
+            }
+            return records;
+        }
+
+        private List<String> getFetches() {
+            return fetches;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+/**
+ * <code>EventRouterTest</code> checks that the {@link EventRouter} selects
+ * every consumer whose {@link EventFilter} allows an event, so that each
+ * listener gets exactly the events its filter allows.
+ */
+public class EventRouterTest extends AbstractJCRTest {
+
+    private static final int ALL_TYPES = Event.NODE_ADDED | Event.NODE_REMOVED
+            | Event.PROPERTY_ADDED | Event.PROPERTY_REMOVED
+            | Event.PROPERTY_CHANGED | Event.NODE_MOVED | Event.PERSIST;
+
+    private static final String[] PATHS = {
+            "/", "/a", "/a/b", "/a/b/c", "/a[2]", "/a[2]/b",
+            "/x", "/x/y", "/x/y/z", "/b"};
+
+    /**
+     * The id of the node at <code>/a/b</code>.
+     */
+    private final NodeId id = NodeId.randomId();
+
+    private SessionImpl session;
+
+    private ObservationManagerImpl obsMgr;
+
+    private final List<EventConsumer> consumers = new ArrayList<EventConsumer>();
+
+    /**
+     * The consumers that the router selects exactly for the events it
+     * indexes, that is, unless a same name sibling index is involved.
+     */
+    private final Set<EventConsumer> exact = new HashSet<EventConsumer>();
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        session = (SessionImpl) superuser;
+        obsMgr = (ObservationManagerImpl) session.getWorkspace().getObservationManager();
+    }
+
+    protected void tearDown() throws Exception {
+        consumers.clear();
+        exact.clear();
+        session = null;
+        obsMgr = null;
+        super.tearDown();
+    }
+
+    public void testPathFilters() throws Exception {
+        addConsumer(ALL_TYPES, false, null, null, true, "/a");
+        addConsumer(ALL_TYPES, true, null, null, true, "/a");
+        addConsumer(Event.NODE_ADDED, false, null, null, true, "/a/b");
+        addConsumer(Event.PROPERTY_ADDED, true, null, null, true, "/x/y");
+        addConsumer(ALL_TYPES, false, null, null, true, "/a/b", "/x");
+        addConsumer(ALL_TYPES, true, null, null, true, "/");
+        // same name sibling paths are not indexed
+        addConsumer(ALL_TYPES, false, null, null, false, "/a[2]");
+        assertRouting();
+    }
+
+    public void testIdFilters() throws Exception {
+        addConsumer(ALL_TYPES, true, new String[]{id.toString()}, null, true, "/");
+        addConsumer(Event.NODE_ADDED, false, new String[]{id.toString()}, null, true, "/a/b");
+        // the paths must match as well
+        addConsumer(ALL_TYPES, false, new String[]{id.toString()}, null, false, "/x");
+        addConsumer(ALL_TYPES, true,
+                new String[]{NodeId.randomId().toString()}, null, true, "/");
+        assertRouting();
+    }
+
+    public void testNodeTypeFilters() throws Exception {
+        // node types are checked by the filters only
+        addConsumer(ALL_TYPES, true, null, new String[]{"nt:hierarchyNode"}, false, "/");
+        addConsumer(ALL_TYPES, true, null, new String[]{"mix:referenceable"}, false, "/a");
+        addConsumer(Event.PROPERTY_ADDED, false, null,
+                new String[]{"nt:folder", "nt:unstructured"}, false, "/x/y");
+        assertRouting();
+    }
+
+    public void testEventTypes() throws Exception {
+        addConsumer(0, true, null, null, true, "/");
+        addConsumer(Event.PERSIST, true, null, null, true, "/");
+        addConsumer(Event.PROPERTY_ADDED, true, null, null, true, "/");
+        addConsumer(Event.NODE_REMOVED, true, null, null, true, "/");
+        assertRouting();
+    }
+
+    /**
+     * Registers all filters at once.
+     */
+    public void testMixedFilters() throws Exception {
+        testPathFilters();
+        testIdFilters();
+        testNodeTypeFilters();
+        testEventTypes();
+    }
+
+    //-------------------------------------------------------< internal >
+
+    private void addConsumer(int eventTypes, boolean isDeep, String[] uuids,
+                             String[] nodeTypes, boolean isExact,
+                             String... paths)
+            throws RepositoryException {
+        EventFilter filter = obsMgr.createEventFilter(eventTypes,
+                Arrays.asList(paths), isDeep, uuids, nodeTypes,
+                false, false, false);
+        EventConsumer consumer = new EventConsumer(session, new EventListener() {
+            public void onEvent(EventIterator events) {
+            }
+        }, filter);
+        consumers.add(consumer);
+        if (isExact) {
+            exact.add(consumer);
+        }
+    }
+
+    /**
+     * Routes each event on its own and checks that every consumer gets
+     * exactly the events its filter allows, after the router selected it.
+     * Then routes all events at once.
+     */
+    private void assertRouting() throws RepositoryException {
+        EventRouter router = new EventRouter(consumers);
+        List<EventState> events = createEvents();
+
+        Map<EventConsumer, List<EventState>> expected =
+                new HashMap<EventConsumer, List<EventState>>();
+        Map<EventConsumer, List<EventState>> delivered =
+                new HashMap<EventConsumer, List<EventState>>();
+        for (EventConsumer consumer : consumers) {
+            expected.put(consumer, new ArrayList<EventState>());
+            delivered.put(consumer, new ArrayList<EventState>());
+        }
+        for (EventState state : events) {
+            Set<EventConsumer> routed = router.route(createCollection(
+                    Collections.singletonList(state)));
+            for (EventConsumer consumer : consumers) {
+                boolean allowed = !consumer.getEventFilter().blocks(state);
+                if (allowed) {
+                    expected.get(consumer).add(state);
+                }
+                if (routed.contains(consumer)) {
+                    if (allowed) {
+                        delivered.get(consumer).add(state);
+                    }
+                    if (exact.contains(consumer) && !hasIndex(state)) {
+                        assertTrue("routed, but blocked: " + toString(state),
+                                allowed);
+                    }
+                }
+            }
+        }
+        boolean any = false;
+        for (EventConsumer consumer : consumers) {
+            assertEquals(expected.get(consumer), delivered.get(consumer));
+            any |= !expected.get(consumer).isEmpty();
+        }
+        assertTrue("no events allowed", any);
+
+        Set<EventConsumer> routed = router.route(createCollection(events));
+        for (EventConsumer consumer : consumers) {
+            if (!expected.get(consumer).isEmpty()) {
+                assertTrue(routed.contains(consumer));
+            }
+        }
+    }
+
+    /**
+     * Creates node added and property added events below each of the
+     * {@link #PATHS}, for nodes with different types and mixins, and a
+     * persist event.
+     */
+    private List<EventState> createEvents() throws RepositoryException {
+        Path child = session.getQPath("child");
+        Name[] types = {
+                NameConstants.NT_UNSTRUCTURED,
+                NameConstants.NT_FOLDER,
+                NameConstants.NT_UNSTRUCTURED};
+        List<Set<Name>> mixins = Arrays.asList(
+                Collections.<Name>emptySet(),
+                Collections.<Name>emptySet(),
+                Collections.singleton(NameConstants.MIX_REFERENCEABLE));
+
+        List<EventState> events = new ArrayList<EventState>();
+        for (String p : PATHS) {
+            Path path = session.getQPath(p).getNormalizedPath();
+            NodeId parentId = p.equals("/a/b") ? id : NodeId.randomId();
+            for (int i = 0; i < types.length; i++) {
+                events.add(EventState.childNodeAdded(parentId, path,
+                        NodeId.randomId(), child, types[i], mixins.get(i),
+                        session));
+                events.add(EventState.propertyAdded(parentId, path,
+                        child, types[i], mixins.get(i), session));
+            }
+        }
+        events.add(EventState.persist(session, false));
+        return events;
+    }
+
+    private static EventStateCollection createCollection(List<EventState> events) {
+        EventStateCollection collection = new EventStateCollection(null, null, null);
+        collection.addAll(events);
+        return collection;
+    }
+
+    /**
+     * Returns <code>true</code> if the parent path of the event contains a
+     * same name sibling index.
+     */
+    private static boolean hasIndex(EventState state) {
+        Path path = state.getParentPath();
+        if (path != null) {
+            for (Path.Element element : path.getElements()) {
+                if (element.getNormalizedIndex() > Path.INDEX_DEFAULT) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String toString(EventState state) {
+        return state.getType() + " " + state.getParentPath()
+                + " " + state.getNodeType();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventListener;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import junit.framework.TestCase;
+
+/**
+ * <code>ObservationDispatcherTest</code> checks the delivery of asynchronous
+ * events by a thread pool, where each listener has its own
+ * {@link ListenerQueue}.
+ */
+public class ObservationDispatcherTest extends TestCase {
+
+    private static final Path ROOT = PathFactoryImpl.getInstance().getRootPath();
+
+    private static final NodeId ROOT_ID = NodeId.randomId();
+
+    private static final Path CHILD = PathFactoryImpl.getInstance().create(
+            NameFactoryImpl.getInstance().create("", "child"));
+
+    private static final long TIMEOUT = 10000;
+
+    private ObservationDispatcher dispatcher;
+
+    protected void tearDown() throws Exception {
+        if (dispatcher != null) {
+            dispatcher.dispose();
+            dispatcher = null;
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Each listener receives the events in the order they were dispatched,
+     * and is never notified by two threads at the same time.
+     */
+    public void testListenerOrder() throws Exception {
+        dispatcher = new ObservationDispatcher(4, 1000);
+        Recorder[] recorders = new Recorder[4];
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new Recorder(null, i);
+            addConsumer(recorders[i]);
+        }
+
+        List<EventStateCollection> sent = dispatch(100);
+        for (Recorder recorder : recorders) {
+            assertEquals(sent, recorder.await(sent.size()));
+            assertFalse("notified concurrently", recorder.concurrent);
+        }
+        for (ListenerQueue queue : dispatcher.getListenerQueues()) {
+            assertEquals(100, queue.getDeliveredEvents());
+            assertEquals(0, queue.getDroppedEvents());
+            assertEquals(0, queue.getQueuedEvents());
+        }
+    }
+
+    /**
+     * A blocked listener delays neither other listeners nor the thread that
+     * dispatches the events. Its queue drops the events that exceed the
+     * limit.
+     */
+    public void testSlowListenerIsolation() throws Exception {
+        dispatcher = new ObservationDispatcher(2, 10);
+        CountDownLatch gate = new CountDownLatch(1);
+        Recorder slow = new Recorder(gate, 0);
+        Recorder fast = new Recorder(null, 0);
+        addConsumer(slow);
+        addConsumer(fast);
+
+        List<EventStateCollection> sent;
+        try {
+            sent = dispatch(20);
+            assertEquals(sent, fast.await(sent.size()));
+            assertTrue(slow.await(0).isEmpty());
+        } finally {
+            gate.countDown();
+        }
+
+        long dropped = 0;
+        for (ListenerQueue queue : dispatcher.getListenerQueues()) {
+            dropped += queue.getDroppedEvents();
+        }
+        // at most the limit and the events taken by the blocked thread
+        assertTrue("dropped " + dropped, dropped >= 9);
+
+        // the accepted events are delivered in order
+        List<EventStateCollection> received =
+                slow.await((int) (sent.size() - dropped));
+        assertEquals(sent.size() - dropped, received.size());
+        int index = -1;
+        for (EventStateCollection events : received) {
+            int i = sent.indexOf(events);
+            assertTrue(i > index);
+            index = i;
+        }
+    }
+
+    /**
+     * Disposing the dispatcher delivers the events that are already queued,
+     * even if a queue needs more than one run. Later events are dropped.
+     */
+    public void testDisposeDeliversPendingEvents() throws Exception {
+        dispatcher = new ObservationDispatcher(1, 1000);
+        Recorder recorder = new Recorder(null, 1);
+        addConsumer(recorder);
+
+        List<EventStateCollection> sent = dispatch(50);
+        dispatcher.dispose();
+        assertEquals(sent, recorder.await(0));
+
+        dispatch(1);
+        ObservationDispatcher disposed = dispatcher;
+        dispatcher = null;
+        assertEquals(sent, recorder.await(0));
+        ListenerQueue queue = disposed.getListenerQueues().get(0);
+        assertEquals(50, queue.getDeliveredEvents());
+        assertEquals(0, queue.getQueuedEvents());
+    }
+
+    //-------------------------------------------------------< internal >
+
+    /**
+     * Registers a consumer for all node added events that passes the
+     * events to the given recorder.
+     */
+    private void addConsumer(Recorder recorder) throws Exception {
+        EventConsumer consumer = mock(EventConsumer.class);
+        when(consumer.getEventListener()).thenReturn(mock(EventListener.class));
+        when(consumer.getEventFilter()).thenReturn(new EventFilter(
+                null, Event.NODE_ADDED, Collections.singletonList(ROOT), true,
+                null, null, false, false, false));
+        doAnswer(recorder).when(consumer).consumeEvents(
+                any(EventStateCollection.class));
+        dispatcher.addConsumer(consumer);
+    }
+
+    /**
+     * Dispatches <code>n</code> collections of one node added event each.
+     */
+    private List<EventStateCollection> dispatch(int n) {
+        List<EventStateCollection> sent = new ArrayList<EventStateCollection>();
+        for (int i = 0; i < n; i++) {
+            EventStateCollection events =
+                    new EventStateCollection(dispatcher, null, null);
+            events.addAll(Collections.singletonList(EventState.childNodeAdded(
+                    ROOT_ID, ROOT, NodeId.randomId(), CHILD,
+                    NameConstants.NT_UNSTRUCTURED,
+                    Collections.<Name>emptySet(), null)));
+            dispatcher.dispatchEvents(events);
+            sent.add(events);
+        }
+        return sent;
+    }
+
+    /**
+     * Records the event collections passed to a consumer.
+     */
+    private static final class Recorder implements Answer<Object> {
+
+        private final List<EventStateCollection> received =
+                new ArrayList<EventStateCollection>();
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        /**
+         * Blocks the consumer until it is opened, or <code>null</code>.
+         */
+        private final CountDownLatch gate;
+
+        /**
+         * The time the consumer needs for each collection, in milliseconds.
+         */
+        private final long delay;
+
+        private volatile boolean concurrent;
+
+        private Recorder(CountDownLatch gate, long delay) {
+            this.gate = gate;
+            this.delay = delay;
+        }
+
+        public Object answer(InvocationOnMock invocation) throws Throwable {
+            if (active.incrementAndGet() > 1) {
+                concurrent = true;
+            }
+            try {
+                if (gate != null) {
+                    gate.await();
+                }
+                Thread.sleep(delay);
+                synchronized (this) {
+                    received.add((EventStateCollection) invocation.getArgument(0));
+                    notifyAll();
+                }
+            } finally {
+                active.decrementAndGet();
+            }
+            return null;
+        }
+
+        /**
+         * Waits until at least <code>n</code> collections are received, and
+         * returns the received collections.
+         */
+        private synchronized List<EventStateCollection> await(int n)
+                throws InterruptedException {
+            long end = System.currentTimeMillis() + TIMEOUT;
+            long wait;
+            while (received.size() < n
+                    && (wait = end - System.currentTimeMillis()) > 0) {
+                wait(wait);
+            }
+            return new ArrayList<EventStateCollection>(received);
+        }
+    }
+}
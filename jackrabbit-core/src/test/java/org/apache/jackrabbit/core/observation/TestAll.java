@@ -42,6 +42,8 @@ public class TestAll extends TestCase {
         suite.addTestSuite(MoveInPlaceTest.class);
         suite.addTestSuite(ShareableNodesTest.class);
         suite.addTestSuite(WarningOnSaveWithNotificationThreadTest.class);
+        suite.addTestSuite(ObservationDispatcherTest.class);
+        suite.addTestSuite(EventRouterTest.class);
 
         return suite;
     }
@@ -18,6 +18,7 @@ package org.apache.jackrabbit.core.persistence;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.PropertyType;
 
@@ -39,6 +40,7 @@ import org.apache.jackrabbit.core.state.NoSuchItemStateException;
 import org.apache.jackrabbit.core.state.NodeReferences;
 import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.jackrabbit.core.state.PropertyState;
+import org.apache.jackrabbit.api.stats.RepositoryStatistics;
 import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 import org.apache.jackrabbit.core.util.db.ConnectionFactory;
 import org.apache.jackrabbit.core.value.InternalValue;
@@ -118,8 +120,67 @@ public class PersistenceManagerTest extends TestCase {
         assertPersistenceManager(manager);
     }
 
+    public void testInMemBundlePersistenceManagerWithoutMissingBundleCache()
+            throws Exception {
+        InMemBundlePersistenceManager manager =
+            new InMemBundlePersistenceManager();
+        manager.setMissingBundleCacheSize("0");
+        assertPersistenceManager(manager);
+    }
+
+    public void testInMemBundlePersistenceManagerWithOffHeapBundleCache()
+            throws Exception {
+        InMemBundlePersistenceManager manager =
+            new InMemBundlePersistenceManager();
+        // evict every bundle from the heap into the off-heap cache
+        manager.setBundleCacheSize("0");
+        manager.setOffHeapBundleCacheSize("1");
+        assertPersistenceManager(manager);
+    }
+
+    public void testInMemBundlePersistenceManagerConcurrentStore()
+            throws Exception {
+        InMemBundlePersistenceManager manager =
+            new InMemBundlePersistenceManager();
+        manager.setConcurrentStore("true");
+        assertPersistenceManager(manager);
+        // the in-memory maps are not thread-safe
+        assertEquals("false", manager.getConcurrentStore());
+    }
+
+    public void testH2PoolPersistenceManagerConcurrentStore() throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager();
+        manager.setDriver("org.h2.Driver");
+        manager.setUrl("jdbc:h2:mem:" + database.getPath());
+        manager.setConnectionFactory(new ConnectionFactory());
+        manager.setConcurrentStore("true");
+        assertPersistenceManager(manager);
+    }
+
+    public void testDerbyPoolPersistenceManagerBatchWrites() throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager();
+        manager.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        manager.setUrl("jdbc:derby:" + database.getPath() + ";create=true");
+        manager.setConnectionFactory(new ConnectionFactory());
+        manager.setBatchWrites("true");
+        assertPersistenceManager(manager);
+    }
+
+    public void testH2PoolPersistenceManagerBatchWrites() throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager();
+        manager.setDriver("org.h2.Driver");
+        manager.setUrl("jdbc:h2:mem:" + database.getPath());
+        manager.setConnectionFactory(new ConnectionFactory());
+        manager.setBatchWrites("true");
+        assertPersistenceManager(manager);
+    }
+
     private void assertPersistenceManager(PersistenceManager manager)
             throws Exception {
+        RepositoryStatisticsImpl stats = new RepositoryStatisticsImpl();
         manager.init(new PMContext(
                 directory,
                 new MemoryFileSystem(),
@@ -127,12 +188,12 @@ public class PersistenceManagerTest extends TestCase {
                 new NamespaceRegistryImpl(new MemoryFileSystem()),
                 null,
                 null,
-                new RepositoryStatisticsImpl()));
+                stats));
         try {
             assertCreateNewNode(manager);
             assertCreateNewProperty(manager);
             assertMissingItemStates(manager);
-            assertCreateUpdateDelete(manager);
+            assertCreateUpdateDelete(manager, stats);
         } finally {
             manager.close();
         }
@@ -191,7 +252,8 @@ public class PersistenceManagerTest extends TestCase {
         }
     }
 
-    private void assertCreateUpdateDelete(PersistenceManager manager)
+    private void assertCreateUpdateDelete(
+            PersistenceManager manager, RepositoryStatisticsImpl stats)
             throws Exception {
         NodeState node = new NodeState(
                 NODE_ID, TEST, RepositoryImpl.ROOT_NODE_ID,
@@ -225,6 +287,19 @@ public class PersistenceManagerTest extends TestCase {
         assertTrue(manager.exists(PROPERTY_ID));
         assertTrue(manager.existsReferencesTo(CHILD_ID));
 
+        if (manager instanceof PrefetchingPersistenceManager) {
+            NodeId missing = NodeId.randomId();
+            ((PrefetchingPersistenceManager) manager).prefetch(
+                    Arrays.asList(NODE_ID, CHILD_ID, missing));
+            // the prefetched bundles are read from the cache
+            AtomicLong misses = stats.getCounter(
+                    RepositoryStatistics.Type.BUNDLE_CACHE_MISS_COUNTER);
+            long count = misses.get();
+            assertFalse(manager.exists(missing));
+            assertEquals(child, manager.load(CHILD_ID));
+            assertEquals(count, misses.get());
+        }
+
         assertEquals(node, manager.load(NODE_ID));
         assertEquals(child, manager.load(CHILD_ID));
         assertEquals(property, manager.load(PROPERTY_ID));
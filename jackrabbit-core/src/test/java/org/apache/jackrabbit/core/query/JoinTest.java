@@ -16,11 +16,17 @@
  */
 package org.apache.jackrabbit.core.query;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import javax.jcr.Node;
 import javax.jcr.PropertyType;
 import javax.jcr.nodetype.NodeType;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
 
 /**
  * Test case for JOIN queries with JCR_SQL2
@@ -167,4 +173,100 @@ public class JoinTest extends AbstractQueryTest {
         checkResult(qm.createQuery(join.toString(), Query.JCR_SQL2).execute(),
                 2);
     }
+
+    public void testJoinWithOffsetAndLimit() throws Exception {
+        String join = "SELECT a.*, b.*"
+                + " FROM [nt:unstructured] AS a"
+                + " INNER JOIN [nt:unstructured] AS b ON a.[jcr:uuid] = b.testref";
+        Query q = qm.createQuery(join, Query.JCR_SQL2);
+        q.setLimit(2);
+        checkResult(q.execute(), 2);
+
+        q.setOffset(2);
+        checkResult(q.execute(), 1);
+
+        q.setOffset(3);
+        checkResult(q.execute(), 0);
+    }
+
+    /**
+     * Pages through a join with more left rows than are joined at once.
+     */
+    public void testJoinBatchesWithOffsetAndLimit() throws Exception {
+        Node parent = node.getNode("n1a");
+        Node many = node.addNode("many", "nt:unstructured");
+        for (int i = 0; i < 600; i++) {
+            Node n = many.addNode("n" + i, "nt:unstructured");
+            n.setProperty("testref", parent.getIdentifier(),
+                    PropertyType.REFERENCE);
+            n.setProperty("type", "many");
+        }
+        testRootNode.getSession().save();
+
+        String join = "SELECT * FROM [nt:unstructured] AS a"
+                + " INNER JOIN [nt:unstructured] AS b ON a.testref = b.[jcr:uuid]"
+                + " WHERE a.type = 'many'";
+        Query q = qm.createQuery(join, Query.JCR_SQL2);
+        q.setOffset(550);
+        q.setLimit(100);
+        checkResult(q.execute(), 50);
+
+        Set<String> paths = new HashSet<String>();
+        for (int offset = 0; offset < 600; offset += 100) {
+            q.setOffset(offset);
+            q.setLimit(100);
+            RowIterator rows = q.execute().getRows();
+            int count = 0;
+            while (rows.hasNext()) {
+                Row row = rows.nextRow();
+                assertEquals(parent.getPath(), row.getNode("b").getPath());
+                assertTrue(paths.add(row.getNode("a").getPath()));
+                count++;
+            }
+            assertEquals(100, count);
+        }
+        assertEquals(600, paths.size());
+    }
+
+    public void testJoinSize() throws Exception {
+        String join = "SELECT a.*, b.*"
+                + " FROM [nt:unstructured] AS a"
+                + " INNER JOIN [nt:unstructured] AS b ON a.[jcr:uuid] = b.testref";
+        RowIterator rows = qm.createQuery(join, Query.JCR_SQL2).execute().getRows();
+        assertEquals(3, rows.getSize());
+    }
+
+    public void testJoinOrderByWithLimit() throws Exception {
+        String join = "SELECT a.*, b.*"
+                + " FROM [nt:unstructured] AS a"
+                + " INNER JOIN [nt:unstructured] AS b ON a.[jcr:uuid] = b.testref"
+                + " ORDER BY NAME(b) DESC";
+        Query q = qm.createQuery(join, Query.JCR_SQL2);
+        q.setOffset(1);
+        q.setLimit(1);
+        RowIterator rows = q.execute().getRows();
+        assertTrue(rows.hasNext());
+        assertEquals("node4", rows.nextRow().getNode("b").getName());
+        assertFalse(rows.hasNext());
+    }
+
+    public void testJoinOrderKeepsSelectors() throws Exception {
+        // the constraint on b makes it the smaller side of the join
+        String join = "SELECT * FROM [nt:unstructured] AS a"
+                + " INNER JOIN [nt:unstructured] AS b ON a.testref = b.[jcr:uuid]"
+                + " WHERE b.type = 'parent'";
+        QueryResult result = qm.createQuery(join, Query.JCR_SQL2).execute();
+        assertEquals(Arrays.asList("a", "b"),
+                Arrays.asList(result.getSelectorNames()));
+        assertTrue(result.getColumnNames()[0].startsWith("a."));
+        RowIterator rows = result.getRows();
+        int count = 0;
+        while (rows.hasNext()) {
+            Row row = rows.nextRow();
+            assertEquals("child", row.getNode("a").getProperty("type").getString());
+            assertEquals("parent", row.getNode("b").getProperty("type").getString());
+            count++;
+        }
+        assertEquals(3, count);
+    }
 }
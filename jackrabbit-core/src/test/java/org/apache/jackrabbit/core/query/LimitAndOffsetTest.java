@@ -16,6 +16,9 @@
  */
 package org.apache.jackrabbit.core.query;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
@@ -149,4 +152,34 @@ public class LimitAndOffsetTest extends AbstractQueryTest {
         nodes = result.getNodes();
         assertEquals(1, nodes.getSize());
     }
+
+    public void testPagedOrderBy() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            Node n = testRootNode.addNode("page" + i);
+            n.setProperty("name", "p" + (i % 37));
+        }
+        testRootNode.getSession().save();
+
+        Query q = qm.createQuery("/jcr:root" + testRoot
+                + "/* order by @name descending", Query.XPATH);
+        List<String> all = getPaths(q.execute());
+        assertEquals(103, all.size());
+
+        List<String> paged = new ArrayList<String>();
+        for (int offset = 0; offset < all.size(); offset += 7) {
+            q.setOffset(offset);
+            q.setLimit(7);
+            paged.addAll(getPaths(q.execute()));
+        }
+        assertEquals(all, paged);
+    }
+
+    private static List<String> getPaths(QueryResult result)
+            throws RepositoryException {
+        List<String> paths = new ArrayList<String>();
+        for (NodeIterator it = result.getNodes(); it.hasNext();) {
+            paths.add(it.nextNode().getPath());
+        }
+        return paths;
+    }
 }
@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.lucene.directory.FSDirectoryManager;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>CachingIndexReaderTest</code> checks the persisted parent caches
+ * of the {@link CachingIndexReader}.
+ */
+public class CachingIndexReaderTest extends TestCase {
+
+    private static final String CACHE_FILE = "cache.inSegmentParents";
+
+    private final NodeId root = NodeId.randomId();
+
+    private final NodeId a = NodeId.randomId();
+
+    private final NodeId b = NodeId.randomId();
+
+    private final NodeId c = NodeId.randomId();
+
+    private final NodeId d = NodeId.randomId();
+
+    private final NodeId foreign = NodeId.randomId();
+
+    private File path;
+
+    private Directory directory;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        path = new File("target", getClass().getName());
+        FileUtils.deleteDirectory(path);
+        directory = FSDirectory.open(path);
+    }
+
+    protected void tearDown() throws Exception {
+        directory.close();
+        FileUtils.deleteDirectory(path);
+        super.tearDown();
+    }
+
+    public void testPersistedCache() throws Exception {
+        // d is deleted in testReassignedDocumentNumbers
+        IndexWriter writer = createWriter();
+        writer.addDocument(createDocument(d, root));
+        writer.addDocument(createDocument(root, null));
+        writer.addDocument(createDocument(a, root));
+        writer.addDocument(createDocument(b, a));
+        writer.addDocument(createDocument(c, foreign));
+        writer.close();
+
+        CachingIndexReader reader = new CachingIndexReader(
+                IndexReader.open(directory), null, true);
+        try {
+            assertTrue(directory.fileExists(CACHE_FILE));
+            assertParents(reader, 0);
+        } finally {
+            reader.close();
+        }
+
+        // loaded from the persisted cache
+        reader = new CachingIndexReader(
+                IndexReader.open(directory), null, false);
+        try {
+            assertParents(reader, 0);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testReassignedDocumentNumbers() throws Exception {
+        testPersistedCache();
+        long length = directory.fileLength(CACHE_FILE);
+
+        IndexWriter writer = createWriter();
+        writer.deleteDocuments(TermFactory.createUUIDTerm(d.toString()));
+        writer.forceMerge(1, true);
+        writer.close();
+
+        // persisted cache does not match the merged segment anymore
+        CachingIndexReader reader = new CachingIndexReader(
+                IndexReader.open(directory), null, false);
+        try {
+            assertParents(reader, -1);
+        } finally {
+            reader.close();
+        }
+
+        reader = new CachingIndexReader(
+                IndexReader.open(directory), null, true);
+        try {
+            assertParents(reader, -1);
+            assertTrue(directory.fileLength(CACHE_FILE) < length);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testRewriteMappedCache() throws Exception {
+        testPersistedCache();
+
+        // maps the persisted cache
+        CachingIndexReader mapped = new CachingIndexReader(
+                IndexReader.open(directory), null, false);
+        try {
+            IndexWriter writer = createWriter();
+            writer.deleteDocuments(TermFactory.createUUIDTerm(d.toString()));
+            writer.forceMerge(1, true);
+            writer.close();
+
+            // rewrites the persisted cache while it is mapped
+            CachingIndexReader reader = new CachingIndexReader(
+                    IndexReader.open(directory), null, true);
+            try {
+                assertParents(reader, -1);
+            } finally {
+                reader.close();
+            }
+            assertFalse(directory.fileExists(CACHE_FILE + ".tmp"));
+
+            assertParents(mapped, 0);
+        } finally {
+            mapped.close();
+        }
+
+        CachingIndexReader reader = new CachingIndexReader(
+                IndexReader.open(directory), null, false);
+        try {
+            assertParents(reader, -1);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The directories of the directory manager wrap the file system
+     * directory, which is used to rewrite and map the persisted cache.
+     */
+    public void testDirectoryManager() throws Exception {
+        directory.close();
+        SearchIndex handler = new SearchIndex();
+        handler.setPath(path.getAbsolutePath());
+        FSDirectoryManager manager = new FSDirectoryManager();
+        manager.init(handler);
+        directory = manager.getDirectory("index");
+        assertFalse(directory instanceof FSDirectory);
+
+        FSDirectory fsDirectory = FSDirectoryManager.getFSDirectory(directory);
+        assertNotNull(fsDirectory);
+        assertEquals(new File(path, "index").getAbsoluteFile(),
+                fsDirectory.getDirectory().getAbsoluteFile());
+
+        testRewriteMappedCache();
+    }
+
+    public void testCorruptCache() throws Exception {
+        testPersistedCache();
+        directory.createOutput(CACHE_FILE).close();
+
+        CachingIndexReader reader = new CachingIndexReader(
+                IndexReader.open(directory), null, false);
+        try {
+            assertFalse(directory.fileExists(CACHE_FILE));
+            assertParents(reader, 0);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void assertParents(CachingIndexReader reader, int offset)
+            throws IOException {
+        BitSet deleted = new BitSet();
+        assertSame(DocId.NULL, reader.getParent(offset + 1, deleted));
+        assertSame(DocId.create(offset + 1), reader.getParent(offset + 2, deleted));
+        assertSame(DocId.create(offset + 2), reader.getParent(offset + 3, deleted));
+        assertEquals(DocId.create(foreign).toString(),
+                reader.getParent(offset + 4, deleted).toString());
+    }
+
+    private IndexWriter createWriter() throws IOException {
+        return new IndexWriter(directory, new IndexWriterConfig(
+                Version.LUCENE_36, new JackrabbitAnalyzer()));
+    }
+
+    private static Document createDocument(NodeId id, NodeId parent) {
+        Document doc = new Document();
+        doc.add(new IDField(id));
+        doc.add(new Field(FieldNames.PARENT, false,
+                parent == null ? "" : parent.toString(), Field.Store.YES,
+                Field.Index.NOT_ANALYZED_NO_NORMS, Field.TermVector.NO));
+        return doc;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>DocNumberCacheTest</code> checks the {@link DocNumberCache}.
+ */
+public class DocNumberCacheTest extends TestCase {
+
+    private CachingIndexReader older;
+
+    private CachingIndexReader newer;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        Directory dir = new RAMDirectory();
+        new IndexWriter(dir, new IndexWriterConfig(
+                Version.LUCENE_36, new JackrabbitAnalyzer())).close();
+        older = new CachingIndexReader(IndexReader.open(dir), null, false);
+        newer = new CachingIndexReader(IndexReader.open(dir), null, false);
+    }
+
+    protected void tearDown() throws Exception {
+        older.close();
+        newer.close();
+        super.tearDown();
+    }
+
+    public void testPutGet() {
+        DocNumberCache cache = new DocNumberCache(1000);
+        String uuid = NodeId.randomId().toString();
+        assertNull(cache.get(uuid));
+        cache.put(uuid, older, 5);
+        DocNumberCache.Entry e = cache.get(uuid);
+        assertNotNull(e);
+        assertEquals(5, e.doc);
+        assertEquals(older.getCreationTick(), e.creationTick);
+    }
+
+    public void testNewerReader() {
+        DocNumberCache cache = new DocNumberCache(1000);
+        String uuid = NodeId.randomId().toString();
+        cache.put(uuid, older, 5);
+        cache.put(uuid, newer, 7);
+        assertEquals(7, cache.get(uuid).doc);
+        // entries from older readers are ignored
+        cache.put(uuid, older, 9);
+        assertEquals(7, cache.get(uuid).doc);
+        assertEquals(newer.getCreationTick(), cache.get(uuid).creationTick);
+    }
+
+    public void testNoUUID() {
+        DocNumberCache cache = new DocNumberCache(1000);
+        cache.put("foo", older, 1);
+        assertNull(cache.get("foo"));
+        // terms are case sensitive, only the index format is cached
+        String uuid = NodeId.randomId().toString().toUpperCase();
+        cache.put(uuid, older, 1);
+        assertNull(cache.get(uuid));
+    }
+
+    public void testEviction() {
+        DocNumberCache cache = new DocNumberCache(1000);
+        String[] uuids = new String[100 * 1000];
+        for (int i = 0; i < uuids.length; i++) {
+            uuids[i] = NodeId.randomId().toString();
+            cache.put(uuids[i], older, i);
+            assertEquals(i, cache.get(uuids[i]).doc);
+        }
+        int hits = 0;
+        for (int i = 0; i < uuids.length; i++) {
+            DocNumberCache.Entry e = cache.get(uuids[i]);
+            if (e != null) {
+                assertEquals(i, e.doc);
+                hits++;
+            }
+        }
+        // minimum size is 1024, rounded up to full hash tables
+        assertTrue(hits > 0);
+        assertTrue(hits <= 1024);
+    }
+}
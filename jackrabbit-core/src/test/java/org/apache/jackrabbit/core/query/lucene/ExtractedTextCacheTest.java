@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the {@link ExtractedTextCache} class.
+ */
+public class ExtractedTextCacheTest extends TestCase {
+
+    private static final DataIdentifier ID =
+        new DataIdentifier("3f2a9c0e1b7d4a5f8e6c2b1a0d9f8e7c6b5a4d3e");
+
+    private static final long MAX_SIZE = 1024 * 1024;
+
+    private File directory;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new File("target", "extracted-text-cache");
+        FileUtils.deleteDirectory(directory);
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+        super.tearDown();
+    }
+
+    /**
+     * Tests that cached text survives a new cache instance and is only
+     * returned for the same content type and maximum length.
+     */
+    public void testPutGet() throws Exception {
+        String text = "Hello W\u00f6rld \u2603";
+        ExtractedTextCache cache = new ExtractedTextCache(directory, MAX_SIZE);
+        assertNull(cache.get(ID, "text/plain", 100));
+        cache.put(ID, "text/plain", 100, text);
+
+        cache = new ExtractedTextCache(directory, MAX_SIZE);
+        assertEquals(text, cache.get(ID, "text/plain", 100));
+        assertNull(cache.get(ID, "text/plain", 50));
+        assertNull(cache.get(ID, "text/html", 100));
+        assertNull(cache.get(ID, null, 100));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+
+        cache.put(ID, null, 100, "");
+        assertEquals("", cache.get(ID, null, 100));
+        assertEquals(text, cache.get(ID, "text/plain", 100));
+    }
+
+    /**
+     * Tests that the least recently used entries are removed once the cache
+     * grows beyond its maximum size, also after a restart.
+     */
+    public void testEviction() throws Exception {
+        DataIdentifier[] ids = new DataIdentifier[10];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = new DataIdentifier("00000000" + i + "f2a9c0e1b7d4a5f8e6c");
+        }
+        ExtractedTextCache cache = new ExtractedTextCache(directory, MAX_SIZE);
+        cache.put(ids[0], "text/plain", 100, "text 0");
+        long entrySize = cache.getSize();
+        assertTrue(entrySize > 0);
+
+        cache = new ExtractedTextCache(directory, 3 * entrySize);
+        assertEquals(entrySize, cache.getSize());
+        cache.put(ids[1], "text/plain", 100, "text 1");
+        cache.put(ids[2], "text/plain", 100, "text 2");
+        assertEquals("text 0", cache.get(ids[0], "text/plain", 100));
+        cache.put(ids[3], "text/plain", 100, "text 3");
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+        assertEquals("text 0", cache.get(ids[0], "text/plain", 100));
+        assertNull(cache.get(ids[1], "text/plain", 100));
+        assertEquals("text 3", cache.get(ids[3], "text/plain", 100));
+
+        for (int i = 4; i < ids.length; i++) {
+            cache.put(ids[i], "text/plain", 100, "text " + i);
+        }
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+        cache = new ExtractedTextCache(directory, entrySize);
+        assertTrue(cache.getSize() <= entrySize);
+    }
+
+    /**
+     * Tests that identifiers that cannot be used as file names are not
+     * cached.
+     */
+    public void testUnsafeIdentifier() throws Exception {
+        DataIdentifier id = new DataIdentifier("../../etc/passwd");
+        ExtractedTextCache cache = new ExtractedTextCache(directory, MAX_SIZE);
+        cache.put(id, "text/plain", 100, "text");
+        assertNull(cache.get(id, "text/plain", 100));
+    }
+
+}
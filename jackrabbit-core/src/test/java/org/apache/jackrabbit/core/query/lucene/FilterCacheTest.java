@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>FilterCacheTest</code> checks the {@link FilterCache} shared by the
+ * queries of a search index.
+ */
+public class FilterCacheTest extends TestCase {
+
+    private Directory directory;
+
+    private ReadOnlyIndexReader reader;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(
+                Version.LUCENE_36, new JackrabbitAnalyzer()));
+        for (int i = 0; i < 10; i++) {
+            Document doc = new Document();
+            doc.add(new IDField(NodeId.randomId()));
+            writer.addDocument(doc);
+        }
+        writer.close();
+        SharedIndexReader shared = new SharedIndexReader(
+                new CachingIndexReader(IndexReader.open(directory), null, false));
+        reader = new ReadOnlyIndexReader(shared, new BitSet(), 0);
+    }
+
+    protected void tearDown() throws Exception {
+        reader.close();
+        directory.close();
+        super.tearDown();
+    }
+
+    public void testCachedFilter() throws Exception {
+        FilterCache cache = new FilterCache(1024 * 1024);
+        CountingFilter even = new CountingFilter(2);
+        BitSet bits = cache.getFilter(reader, even);
+        assertEquals(5, bits.cardinality());
+        assertSame(bits, cache.getFilter(reader, even));
+        assertSame(bits, cache.getFilter(reader, new CountingFilter(2)));
+        assertEquals(1, even.calculations);
+        assertEquals(1, cache.getFilterCount());
+
+        cache.getFilter(reader, new CountingFilter(3));
+        assertEquals(2, cache.getFilterCount());
+
+        // the segment is not used anymore
+        cache.evict(reader.getCreationTick());
+        assertEquals(0, cache.getFilterCount());
+        assertEquals(0, cache.getSize());
+        assertNotSame(bits, cache.getFilter(reader, even));
+        assertEquals(2, even.calculations);
+    }
+
+    /**
+     * A filter of a segment that is evicted while the filter is calculated
+     * is not cached.
+     */
+    public void testEvictDuringCalculation() throws Exception {
+        final FilterCache cache = new FilterCache(1024 * 1024);
+        CountingFilter evicting = new CountingFilter(2) {
+            protected BitSet calculate(IndexReader r) throws IOException {
+                cache.evict(reader.getCreationTick());
+                return super.calculate(r);
+            }
+        };
+        assertEquals(5, cache.getFilter(reader, evicting).cardinality());
+        assertEquals(0, cache.getFilterCount());
+        assertEquals(0, cache.getSize());
+
+        // the eviction does not apply to later calculations
+        cache.getFilter(reader, new CountingFilter(3));
+        assertEquals(1, cache.getFilterCount());
+    }
+
+    public void testMaxSize() throws Exception {
+        FilterCache cache = new FilterCache(1);
+        cache.getFilter(reader, new CountingFilter(2));
+        assertEquals(0, cache.getFilterCount());
+
+        BitSet bits = new CountingFilter(1).calculate(reader);
+        cache = new FilterCache(2 * ((bits.size() >> 3) + 128));
+        CountingFilter one = new CountingFilter(1);
+        cache.getFilter(reader, one);
+        cache.getFilter(reader, new CountingFilter(2));
+        // access one, so that two is the least recently used filter
+        cache.getFilter(reader, one);
+        cache.getFilter(reader, new CountingFilter(3));
+        assertEquals(2, cache.getFilterCount());
+        assertEquals(1, one.calculations);
+        assertEquals(2 * ((bits.size() >> 3) + 128), cache.getSize());
+    }
+
+    /**
+     * Matches every n-th document and counts its calculations.
+     */
+    private static class CountingFilter extends FilterCache.Filter {
+
+        private final int n;
+
+        private int calculations;
+
+        private CountingFilter(int n) {
+            this.n = n;
+        }
+
+        protected BitSet calculate(IndexReader reader) throws IOException {
+            calculations++;
+            BitSet bits = new BitSet(reader.maxDoc());
+            for (int i = 0; i < reader.maxDoc(); i += n) {
+                bits.set(i);
+            }
+            return bits;
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof CountingFilter
+                    && n == ((CountingFilter) obj).n;
+        }
+
+        public int hashCode() {
+            return n;
+        }
+    }
+}
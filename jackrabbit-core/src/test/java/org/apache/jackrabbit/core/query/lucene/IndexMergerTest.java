@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
+import org.apache.lucene.index.IndexReader;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the merge scheduling of the {@link IndexMerger} class.
+ */
+public class IndexMergerTest extends TestCase {
+
+    /**
+     * The merge tasks passed to the executor, not yet run.
+     */
+    private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+    /**
+     * The names of the indexes of the merges, in the order they were run.
+     */
+    private final List<List<String>> merged = new ArrayList<List<String>>();
+
+    private final Executor executor = new Executor() {
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    };
+
+    private final RepositoryStatisticsImpl statistics =
+        new RepositoryStatisticsImpl();
+
+    /**
+     * Checks that no more than <code>maxConcurrentMerges</code> merges are
+     * passed to the executor and that pending merges are started smallest
+     * first.
+     */
+    public void testScheduling() throws Exception {
+        IndexMerger merger = createMerger(1);
+        addIndexes(merger, "a", 5);
+        assertEquals(1, tasks.size());
+        assertEquals(0, merger.getMergeBacklog());
+
+        addIndexes(merger, "b", 8);
+        addIndexes(merger, "c", 1);
+        assertEquals(1, tasks.size());
+        assertEquals(2, merger.getMergeBacklog());
+        assertEquals(2, getBacklogCounter());
+
+        run(0);
+        assertEquals(Arrays.asList("a0", "a1", "a2"), merged.get(0));
+        assertEquals(2, tasks.size());
+        assertEquals(1, merger.getMergeBacklog());
+
+        run(1);
+        assertEquals(Arrays.asList("c0", "c1", "c2"), merged.get(1));
+        run(2);
+        assertEquals(Arrays.asList("b0", "b1", "b2"), merged.get(2));
+        assertEquals(3, tasks.size());
+        assertEquals(0, merger.getMergeBacklog());
+        assertEquals(0, getBacklogCounter());
+
+        merger.waitUntilIdle();
+    }
+
+    /**
+     * Checks that merges run concurrently up to the limit.
+     */
+    public void testConcurrentMerges() throws Exception {
+        IndexMerger merger = createMerger(2);
+        addIndexes(merger, "a", 5);
+        addIndexes(merger, "b", 5);
+        addIndexes(merger, "c", 5);
+        assertEquals(2, tasks.size());
+        assertEquals(1, merger.getMergeBacklog());
+
+        run(1);
+        assertEquals(3, tasks.size());
+        assertEquals(0, merger.getMergeBacklog());
+        run(0);
+        run(2);
+        merger.waitUntilIdle();
+    }
+
+    /**
+     * The index mergers of all workspaces add up their backlog in the
+     * shared statistics counter.
+     */
+    public void testSharedBacklogCounter() throws Exception {
+        IndexMerger m1 = createMerger(1);
+        IndexMerger m2 = createMerger(1);
+        addIndexes(m1, "a", 5);
+        addIndexes(m1, "b", 5);
+        addIndexes(m2, "c", 5);
+        addIndexes(m2, "d", 5);
+        addIndexes(m2, "e", 5);
+        assertEquals(1, m1.getMergeBacklog());
+        assertEquals(2, m2.getMergeBacklog());
+        assertEquals(3, getBacklogCounter());
+
+        // runs the first merge of m1, which starts the pending one
+        run(0);
+        assertEquals(0, m1.getMergeBacklog());
+        assertEquals(2, getBacklogCounter());
+    }
+
+    private IndexMerger createMerger(int maxConcurrentMerges)
+            throws Exception {
+        MultiIndex index = mock(MultiIndex.class);
+        when(index.getOrCreateIndex(isNull())).thenReturn(
+                mock(PersistentIndex.class));
+        when(index.getIndexReaders(any(String[].class), any(IndexListener.class)))
+                .thenAnswer(new Answer<IndexReader[]>() {
+            public IndexReader[] answer(InvocationOnMock invocation) {
+                String[] names = invocation.getArgument(0);
+                merged.add(Arrays.asList(names));
+                return new IndexReader[0];
+            }
+        });
+
+        IndexMerger merger = new IndexMerger(index, executor);
+        merger.setMergeFactor(3);
+        merger.setMinMergeDocs(10);
+        merger.setMaxMergeDocs(1000);
+        merger.setMaxConcurrentMerges(maxConcurrentMerges);
+        merger.setStatistics(statistics);
+        merger.start();
+        return merger;
+    }
+
+    /**
+     * Adds three indexes with the given prefix and number of documents,
+     * which results in a merge.
+     */
+    private static void addIndexes(IndexMerger merger, String prefix,
+            int numDocs) {
+        for (int i = 0; i < 3; i++) {
+            merger.indexAdded(prefix + i, numDocs);
+        }
+    }
+
+    private void run(int task) {
+        tasks.get(task).run();
+    }
+
+    private long getBacklogCounter() {
+        return statistics.getCounter(IndexMerger.MERGE_BACKLOG, false).get();
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * <code>IndexUpdateQueueTest</code> checks the durable queue of
+ * asynchronous index updates.
+ */
+public class IndexUpdateQueueTest extends TestCase {
+
+    private final NodeId n1 = NodeId.randomId();
+
+    private final NodeId n2 = NodeId.randomId();
+
+    private final NodeId n3 = NodeId.randomId();
+
+    private Directory directory;
+
+    private RecordingIndexer indexer;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new RAMDirectory();
+        indexer = new RecordingIndexer();
+    }
+
+    protected void tearDown() throws Exception {
+        directory.close();
+        super.tearDown();
+    }
+
+    public void testBatch() throws Exception {
+        IndexUpdateQueue queue = new IndexUpdateQueue(directory, indexer);
+        queue.append(Arrays.asList(n1), Arrays.asList(n1, n2));
+        queue.append(Arrays.asList(n2, n3), Collections.<NodeId>emptyList());
+        queue.append(Collections.<NodeId>emptyList(), Arrays.asList(n3));
+        assertEquals(3, queue.getSize());
+        assertEquals(0, indexer.batches);
+
+        queue.apply();
+        // one batch with the last operation of every node
+        assertEquals(1, indexer.batches);
+        assertEquals(set(n1, n2, n3), indexer.removed);
+        assertEquals(set(n1, n3), indexer.added);
+        assertEquals(0, queue.getSize());
+        assertEquals(0, queue.getAge());
+        assertEquals(0, getLogFiles().size());
+
+        queue.apply();
+        assertEquals(1, indexer.batches);
+        queue.close();
+    }
+
+    public void testRecovery() throws Exception {
+        IndexUpdateQueue queue = new IndexUpdateQueue(directory, indexer);
+        queue.append(Arrays.asList(n1), Arrays.asList(n1));
+        queue.append(Arrays.asList(n2), Collections.<NodeId>emptyList());
+        queue.close();
+
+        queue = new IndexUpdateQueue(directory, indexer);
+        assertEquals(2, queue.getSize());
+        queue.append(Collections.<NodeId>emptyList(), Arrays.asList(n2));
+        queue.close();
+
+        queue = new IndexUpdateQueue(directory, indexer);
+        queue.apply();
+        assertEquals(set(n1, n2), indexer.removed);
+        assertEquals(set(n1, n2), indexer.added);
+        assertEquals(0, getLogFiles().size());
+        queue.close();
+    }
+
+    public void testFailedBatch() throws Exception {
+        IndexUpdateQueue queue = new IndexUpdateQueue(directory, indexer);
+        queue.append(Arrays.asList(n1, n2), Arrays.asList(n1, n2));
+        indexer.fail = true;
+        try {
+            queue.apply();
+            fail("batch must fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(2, queue.getSize());
+
+        // a more recent operation replaces the failed one
+        queue.append(Arrays.asList(n2), Collections.<NodeId>emptyList());
+        indexer.fail = false;
+        assertTrue(queue.tryApply());
+        assertEquals(set(n1, n2), indexer.removed);
+        assertEquals(set(n1), indexer.added);
+        queue.close();
+    }
+
+    /**
+     * The log is synced once per batch and on close, not per append.
+     */
+    public void testGroupSync() throws Exception {
+        final List<String> synced = new ArrayList<String>();
+        directory = new RAMDirectory() {
+            public void sync(Collection<String> names) throws IOException {
+                synced.addAll(names);
+            }
+        };
+        IndexUpdateQueue queue = new IndexUpdateQueue(directory, indexer);
+        queue.append(Arrays.asList(n1), Arrays.asList(n1));
+        queue.append(Arrays.asList(n2), Arrays.asList(n2));
+        queue.append(Arrays.asList(n3), Arrays.asList(n3));
+        assertEquals(0, synced.size());
+
+        queue.apply();
+        assertEquals(1, synced.size());
+
+        queue.append(Arrays.asList(n1), Arrays.asList(n1));
+        queue.close();
+        assertEquals(2, synced.size());
+        assertEquals(getLogFiles(), synced.subList(1, 2));
+
+        // nothing to sync
+        queue.close();
+        assertEquals(2, synced.size());
+    }
+
+    private List<String> getLogFiles() throws IOException {
+        List<String> names = new ArrayList<String>();
+        for (String name : directory.listAll()) {
+            if (name.startsWith(IndexUpdateQueue.QUEUE_PREFIX)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    private static Set<NodeId> set(NodeId... ids) {
+        return new HashSet<NodeId>(Arrays.asList(ids));
+    }
+
+    /**
+     * Records the nodes of the applied batches.
+     */
+    private static final class RecordingIndexer
+            implements IndexUpdateQueue.Indexer {
+
+        private final Set<NodeId> removed = new HashSet<NodeId>();
+
+        private final Set<NodeId> added = new HashSet<NodeId>();
+
+        private int batches;
+
+        private boolean fail;
+
+        public void update(Collection<NodeId> remove, Collection<NodeId> add)
+                throws RepositoryException, IOException {
+            if (fail) {
+                throw new IOException("failed");
+            }
+            batches++;
+            removed.addAll(remove);
+            added.addAll(add);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the {@link MergeRateLimiter} class.
+ */
+public class MergeRateLimiterTest extends TestCase {
+
+    private static final int MB = 1024 * 1024;
+
+    public void testInvalidRate() {
+        try {
+            new MergeRateLimiter(0);
+            fail("rate must be positive");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Writing two megabytes at four megabytes per second takes at least
+     * half a second.
+     */
+    public void testPause() throws Exception {
+        MergeRateLimiter limiter = new MergeRateLimiter(4);
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < 8; i++) {
+            limiter.pause(MB / 4);
+        }
+        time = System.currentTimeMillis() - time;
+        assertTrue("took " + time + "ms", time >= 450);
+        assertTrue("took " + time + "ms", time < 5000);
+    }
+
+    /**
+     * The rate applies to all threads together.
+     */
+    public void testSharedLimit() throws Exception {
+        final MergeRateLimiter limiter = new MergeRateLimiter(4);
+        Thread[] threads = new Thread[2];
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 4; j++) {
+                            limiter.pause(MB / 4);
+                        }
+                    } catch (InterruptedException e) {
+                        // ends the test thread
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        time = System.currentTimeMillis() - time;
+        assertTrue("took " + time + "ms", time >= 450);
+    }
+
+    /**
+     * Idle time is not saved up for later writes.
+     */
+    public void testNoCreditWhileIdle() throws Exception {
+        MergeRateLimiter limiter = new MergeRateLimiter(4);
+        Thread.sleep(500);
+        long time = System.currentTimeMillis();
+        limiter.pause(MB);
+        limiter.pause(MB);
+        time = System.currentTimeMillis() - time;
+        assertTrue("took " + time + "ms", time >= 450);
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+import org.apache.jackrabbit.core.state.ItemStateManager;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.SetBasedFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * Test cases for the {@link ParallelIndexBuilder} class. The index segments
+ * built in parallel are compared with the index of the workspace, which
+ * indexes one node after the other.
+ */
+public class ParallelIndexBuilderTest extends AbstractIndexingTest {
+
+    private static final FieldSelector UUID_ONLY = new SetBasedFieldSelector(
+            Collections.singleton(FieldNames.UUID),
+            Collections.<String>emptySet());
+
+    private final List<String> ids = new ArrayList<String>();
+
+    public void testParallelBuild() throws Exception {
+        ids.add(testRootNode.getIdentifier());
+        createNodes(testRootNode, 6, 3);
+        session.save();
+        flushSearchIndex();
+
+        SearchIndex handler = getSearchIndex();
+        MultiIndex index = handler.getIndex();
+        ItemStateManager stateMgr = handler.getContext().getItemStateManager();
+        NodeState root = (NodeState) stateMgr.getItemState(
+                new NodeId(testRootNode.getIdentifier()));
+        Path rootPath = ((SessionImpl) session).getQPath(testRootNode.getPath());
+
+        ParallelIndexBuilder builder = new ParallelIndexBuilder(index, handler,
+                stateMgr, Collections.<NodeId>emptySet(), 4);
+        List<PersistentIndex> segments = builder.build(root, rootPath);
+        assertEquals(ids.size(), builder.getCount());
+        assertFalse(segments.isEmpty());
+        assertTrue(segments.size() <= 4);
+
+        List<ReadOnlyIndexReader> readers = new ArrayList<ReadOnlyIndexReader>();
+        try {
+            for (PersistentIndex segment : segments) {
+                readers.add(segment.getReadOnlyIndexReader());
+            }
+            IndexReader parallel = new MultiReader(readers.toArray(
+                    new IndexReader[readers.size()]), false);
+            assertEquals(ids.size(), parallel.numDocs());
+
+            // every node is indexed exactly once
+            Set<String> indexed = new HashSet<String>();
+            for (int i = 0; i < parallel.maxDoc(); i++) {
+                if (!parallel.isDeleted(i)) {
+                    assertTrue(indexed.add(
+                            parallel.document(i, UUID_ONLY).get(FieldNames.UUID)));
+                }
+            }
+            assertEquals(new HashSet<String>(ids), indexed);
+
+            String name = index.getNamespaceMappings().translateName(
+                    ((SessionImpl) session).getQName("count"));
+            Query[] queries = new Query[] {
+                    new TermQuery(new Term(FieldNames.FULLTEXT, "fox")),
+                    new TermQuery(new Term(FieldNames.FULLTEXT, "dog")),
+                    new TermQuery(new Term(FieldNames.PROPERTIES_SET, name)),
+                    new TermQuery(new Term(FieldNames.PARENT,
+                            testRootNode.getIdentifier()))
+            };
+            CachingMultiIndexReader sequential = index.getIndexReader();
+            try {
+                for (Query query : queries) {
+                    Set<String> expected = search(sequential, query);
+                    expected.retainAll(indexed);
+                    assertFalse(expected.isEmpty());
+                    assertEquals(query.toString(),
+                            expected, search(parallel, query));
+                }
+            } finally {
+                sequential.release();
+            }
+        } finally {
+            for (ReadOnlyIndexReader reader : readers) {
+                reader.release();
+            }
+            for (PersistentIndex segment : segments) {
+                segment.close();
+                handler.getDirectoryManager().delete(segment.getName());
+            }
+        }
+    }
+
+    private void createNodes(Node parent, int numChildren, int levels)
+            throws RepositoryException {
+        for (int i = 0; i < numChildren; i++) {
+            Node child = parent.addNode("node" + i);
+            child.setProperty("text", i % 2 == 0
+                    ? "the quick brown fox" : "the lazy dog");
+            if (i % 3 == 0) {
+                child.setProperty("count", i);
+            }
+            ids.add(child.getIdentifier());
+            if (levels > 1) {
+                createNodes(child, numChildren, levels - 1);
+            }
+        }
+    }
+
+    private static Set<String> search(IndexReader reader, Query query)
+            throws IOException {
+        Set<String> result = new HashSet<String>();
+        IndexSearcher searcher = new IndexSearcher(reader);
+        try {
+            for (ScoreDoc doc : searcher.search(query, reader.maxDoc() + 1).scoreDocs) {
+                Document document = reader.document(doc.doc, UUID_ONLY);
+                result.add(document.get(FieldNames.UUID));
+            }
+        } finally {
+            searcher.close();
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>ParallelLuceneQueryHitsTest</code> checks that scoring the index
+ * segments in parallel returns the same hits as scoring them sequentially.
+ */
+public class ParallelLuceneQueryHitsTest extends TestCase {
+
+    private static final String FIELD = "text";
+
+    private final List<Directory> directories = new ArrayList<Directory>();
+
+    private IndexReader[] segments;
+
+    private IndexReader reader;
+
+    private ExecutorService executor;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        segments = createSegments(new String[][] {
+                {"quick fox", "lazy dog", "quick quick dog"},
+                {"fox", "dog dog fox"},
+                {"quick brown fox jumps", "slow"}});
+        reader = new MultiReader(segments);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    protected void tearDown() throws Exception {
+        executor.shutdown();
+        reader.close();
+        for (Directory dir : directories) {
+            dir.close();
+        }
+        super.tearDown();
+    }
+
+    public void testDocumentOrder() throws Exception {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        Query query = createQuery();
+        QueryHits expected = new LuceneQueryHits(reader, searcher, query);
+        QueryHits actual = new ParallelLuceneQueryHits(
+                query.createWeight(searcher), segments, executor, null,
+                Integer.MAX_VALUE);
+        assertEquals(6, actual.getSize());
+        assertSameHits(expected, actual);
+        searcher.close();
+    }
+
+    public void testScoreOrder() throws Exception {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        Query query = createQuery();
+        for (boolean ascending : new boolean[]{false, true}) {
+            Sort sort = new Sort(new SortField(null, SortField.SCORE, ascending));
+            QueryHits expected = new SortedLuceneQueryHits(
+                    searcher, query, sort, Integer.MAX_VALUE);
+            QueryHits actual = new ParallelLuceneQueryHits(
+                    searcher.createNormalizedWeight(query), segments,
+                    executor, ascending, Integer.MAX_VALUE);
+            assertSameHits(expected, actual);
+        }
+        searcher.close();
+    }
+
+    /**
+     * Reads more hits than the segments collect on the first fetch.
+     */
+    public void testRefill() throws Exception {
+        String[] texts = new String[40];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = new String[]{"quick fox", "lazy dog", "fox", "slow"}[i % 4];
+        }
+        IndexReader[] large = createSegments(new String[][] {texts, texts, texts});
+        IndexReader multi = new MultiReader(large);
+        IndexSearcher searcher = new IndexSearcher(multi);
+        Query query = createQuery();
+
+        QueryHits expected = new LuceneQueryHits(multi, searcher, query);
+        QueryHits actual = new ParallelLuceneQueryHits(
+                query.createWeight(searcher), large, executor, null, 0);
+        assertEquals(90, actual.getSize());
+        assertSameHits(expected, actual);
+
+        for (boolean ascending : new boolean[]{false, true}) {
+            Sort sort = new Sort(new SortField(null, SortField.SCORE, ascending));
+            expected = new SortedLuceneQueryHits(
+                    searcher, query, sort, Integer.MAX_VALUE);
+            actual = new ParallelLuceneQueryHits(
+                    searcher.createNormalizedWeight(query), large,
+                    executor, ascending, 0);
+            assertEquals(90, actual.getSize());
+            expected.skip(50);
+            actual.skip(50);
+            assertSameHits(expected, actual);
+        }
+        searcher.close();
+        multi.close();
+    }
+
+    public void testSupported() throws Exception {
+        assertTrue(ParallelLuceneQueryHits.isSupported(createQuery()));
+        assertTrue(ParallelLuceneQueryHits.isSupported(
+                new JackrabbitTermQuery(new Term(FIELD, "fox"))));
+        BooleanQuery query = createQuery();
+        query.add(new WildcardQuery(new Term(FIELD, "qu*")),
+                BooleanClause.Occur.SHOULD);
+        assertFalse(ParallelLuceneQueryHits.isSupported(query));
+    }
+
+    private IndexReader[] createSegments(String[][] texts) throws Exception {
+        IndexReader[] readers = new IndexReader[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            Directory dir = new RAMDirectory();
+            directories.add(dir);
+            IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(
+                    Version.LUCENE_36, new WhitespaceAnalyzer(Version.LUCENE_36)));
+            for (String text : texts[i]) {
+                Document doc = new Document();
+                doc.add(new IDField(NodeId.randomId()));
+                doc.add(new Field(FIELD, text, Field.Store.NO, Field.Index.ANALYZED));
+                writer.addDocument(doc);
+            }
+            writer.close();
+            readers[i] = IndexReader.open(dir);
+        }
+        return readers;
+    }
+
+    private BooleanQuery createQuery() {
+        BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(new Term(FIELD, "quick")), BooleanClause.Occur.SHOULD);
+        query.add(new TermQuery(new Term(FIELD, "fox")), BooleanClause.Occur.SHOULD);
+        query.add(new TermQuery(new Term(FIELD, "dog")), BooleanClause.Occur.SHOULD);
+        return query;
+    }
+
+    private void assertSameHits(QueryHits expected, QueryHits actual)
+            throws Exception {
+        ScoreNode e;
+        while ((e = expected.nextScoreNode()) != null) {
+            ScoreNode a = actual.nextScoreNode();
+            assertNotNull(a);
+            assertEquals(e.getNodeId(), a.getNodeId());
+            assertEquals(e.getDoc(reader), a.getDoc(reader));
+            assertEquals(e.getScore(), a.getScore(), 0.0001f);
+        }
+        assertNull(actual.nextScoreNode());
+        expected.close();
+        actual.close();
+    }
+}
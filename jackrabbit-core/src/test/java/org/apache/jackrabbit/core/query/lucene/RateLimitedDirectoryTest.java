@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.InterruptedIOException;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the {@link RateLimitedDirectory} class.
+ */
+public class RateLimitedDirectoryTest extends TestCase {
+
+    private static final int MB = 1024 * 1024;
+
+    /**
+     * Writes two megabytes at four megabytes per second and checks the
+     * duration and the written data.
+     */
+    public void testRateLimitedWrite() throws Exception {
+        RAMDirectory ram = new RAMDirectory();
+        Directory dir = new RateLimitedDirectory(ram, new MergeRateLimiter(4));
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        long time = System.currentTimeMillis();
+        IndexOutput out = dir.createOutput("test");
+        int length = 0;
+        while (length < 2 * MB) {
+            out.writeBytes(data, 0, data.length);
+            out.writeByte((byte) 1);
+            length += data.length + 1;
+        }
+        out.close();
+        time = System.currentTimeMillis() - time;
+        assertTrue("took " + time + "ms", time >= 400);
+
+        assertEquals(length, dir.fileLength("test"));
+        IndexInput in = dir.openInput("test");
+        byte[] read = new byte[data.length];
+        in.readBytes(read, 0, read.length);
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(data[i], read[i]);
+        }
+        assertEquals((byte) 1, in.readByte());
+        in.close();
+
+        // the underlying directory stays open
+        dir.close();
+        assertTrue(ram.fileExists("test"));
+        ram.close();
+    }
+
+    /**
+     * A merge thread that is interrupted while it is paused fails with an
+     * <code>InterruptedIOException</code>.
+     */
+    public void testInterrupted() throws Exception {
+        RAMDirectory ram = new RAMDirectory();
+        Directory dir = new RateLimitedDirectory(ram, new MergeRateLimiter(0.01));
+        IndexOutput out = dir.createOutput("test");
+        Thread.currentThread().interrupt();
+        try {
+            out.writeBytes(new byte[128 * 1024], 0, 128 * 1024);
+            fail("write must be interrupted");
+        } catch (InterruptedIOException e) {
+            // expected
+        } finally {
+            // clears the interrupt flag
+            assertTrue(Thread.interrupted());
+            out.close();
+            ram.close();
+        }
+    }
+
+}
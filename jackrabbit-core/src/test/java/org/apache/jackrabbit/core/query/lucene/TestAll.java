@@ -39,14 +39,24 @@ public class TestAll extends TestCase {
         TestSuite suite = new ConcurrentTestSuite("Search tests");
 
         suite.addTestSuite(IndexingQueueTest.class);
+        suite.addTestSuite(ParallelIndexBuilderTest.class);
         suite.addTestSuite(DecimalConvertTest.class);
         suite.addTestSuite(IndexingAggregateTest.class);
         suite.addTestSuite(IndexMigrationTest.class);
         suite.addTestSuite(ChainedTermEnumTest.class);
+        suite.addTestSuite(CachingIndexReaderTest.class);
+        suite.addTestSuite(DocNumberCacheTest.class);
         suite.addTestSuite(IndexingConfigurationImplTest.class);
         suite.addTestSuite(SQL2IndexingAggregateTest.class);
         suite.addTestSuite(SQL2IndexingAggregateTest2.class);
         suite.addTestSuite(LazyTextExtractorFieldTest.class);
+        suite.addTestSuite(ExtractedTextCacheTest.class);
+        suite.addTestSuite(FilterCacheTest.class);
+        suite.addTestSuite(IndexUpdateQueueTest.class);
+        suite.addTestSuite(IndexMergerTest.class);
+        suite.addTestSuite(MergeRateLimiterTest.class);
+        suite.addTestSuite(RateLimitedDirectoryTest.class);
+        suite.addTestSuite(ParallelLuceneQueryHitsTest.class);
         suite.addTestSuite(IndexInfosTest.class);
         suite.addTestSuite(IndexingRuleTest.class);
         suite.addTestSuite(TextExtractionQueryTest.class);
@@ -23,6 +23,8 @@ import java.io.File;
 
 import org.apache.jackrabbit.core.query.lucene.SearchIndex;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
 
 import junit.framework.TestCase;
 
@@ -33,7 +35,8 @@ import junit.framework.TestCase;
 public class DirectoryManagerTest extends TestCase {
 
     private static final Collection IMPLEMENTATIONS = Arrays.asList(
-            new Class[]{FSDirectoryManager.class, RAMDirectoryManager.class});
+            new Class[]{FSDirectoryManager.class, RAMDirectoryManager.class,
+                    MMapDirectoryManager.class});
 
     private static final SearchIndex INDEX = new SearchIndex();
 
@@ -90,6 +93,44 @@ public class DirectoryManagerTest extends TestCase {
         });
     }
 
+    public void testMMapChunks() throws Exception {
+        SearchIndex index = new SearchIndex();
+        index.setPath(INDEX.getPath());
+        index.setMmapChunkSize(1);
+        index.setMmapPreload(true);
+        DirectoryManager directoryManager = new MMapDirectoryManager();
+        directoryManager.init(index);
+        try {
+            // spans three chunks of one megabyte
+            int length = 5 * 512 * 1024;
+            Directory dir = directoryManager.getDirectory(TEST);
+            IndexOutput out = dir.createOutput("data");
+            for (int i = 0; i < length; i++) {
+                out.writeByte((byte) i);
+            }
+            out.close();
+            dir.close();
+
+            // preloads the file
+            dir = directoryManager.getDirectory(TEST);
+            IndexInput in = dir.openInput("data");
+            assertEquals(length, in.length());
+            in.seek(1024 * 1024 - 2);
+            byte[] bytes = new byte[4];
+            in.readBytes(bytes, 0, bytes.length);
+            for (int i = 0; i < bytes.length; i++) {
+                assertEquals((byte) (1024 * 1024 - 2 + i), bytes[i]);
+            }
+            in.seek(length - 1);
+            assertEquals((byte) (length - 1), in.readByte());
+            in.close();
+            dir.deleteFile("data");
+            dir.close();
+        } finally {
+            directoryManager.dispose();
+        }
+    }
+
     private void execute(Callable callable) throws Exception {
         for (Iterator it = IMPLEMENTATIONS.iterator(); it.hasNext(); ) {
             Class clazz = (Class) it.next();
@@ -283,6 +283,31 @@ public class AccessManagerTest extends AbstractJCRTest {
         }
     }
 
+    public void testIsGrantedPaths() throws NotExecutableException, RepositoryException {
+        Session s = getHelper().getReadOnlySession();
+        try {
+            AccessManager acMgr = getAccessManager(s);
+            Path root = PathFactoryImpl.getInstance().getRootPath();
+            Path[] paths = new Path[] {
+                    root,
+                    PathFactoryImpl.getInstance().create(root, NameConstants.JCR_CREATED, true),
+                    ((NodeImpl) s.getItem(testRoot)).getPrimaryPath()
+            };
+
+            boolean[] granted = acMgr.isGranted(paths, Permission.READ);
+            assertEquals(paths.length, granted.length);
+            for (int i = 0; i < paths.length; i++) {
+                assertEquals(acMgr.isGranted(paths[i], Permission.READ), granted[i]);
+            }
+            granted = acMgr.isGranted(paths, Permission.ALL);
+            for (int i = 0; i < paths.length; i++) {
+                assertFalse(granted[i]);
+            }
+        } finally {
+            s.logout();
+        }
+    }
+
     public void testCanReadPathId() throws Exception {
         Session s = getHelper().getReadOnlySession();
         try {
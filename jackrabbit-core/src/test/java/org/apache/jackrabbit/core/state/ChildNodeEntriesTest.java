@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import java.util.List;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.NameFactory;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+
+import junit.framework.TestCase;
+
+/**
+ * <code>ChildNodeEntriesTest</code> checks the ordering and same-name
+ * sibling index handling of {@link ChildNodeEntries}.
+ */
+public class ChildNodeEntriesTest extends TestCase {
+
+    private static final NameFactory FACTORY = NameFactoryImpl.getInstance();
+
+    private static final Name FOO = FACTORY.create("{}foo");
+
+    private static final Name BAR = FACTORY.create("{}bar");
+
+    public void testSameNameSiblings() {
+        ChildNodeEntries entries = new ChildNodeEntries();
+        NodeId a = NodeId.randomId();
+        NodeId b = NodeId.randomId();
+        NodeId c = NodeId.randomId();
+        NodeId d = NodeId.randomId();
+        entries.add(FOO, a);
+        entries.add(BAR, b);
+        entries.add(FOO, c);
+        entries.add(FOO, d);
+
+        assertEquals(4, entries.size());
+        assertEquals(3, entries.get(FOO).size());
+        assertEquals(c, entries.get(FOO, 2).getId());
+        assertEquals(3, entries.get(d).getIndex());
+
+        assertNotNull(entries.remove(a));
+        assertEquals(1, entries.get(c).getIndex());
+        assertEquals(2, entries.get(d).getIndex());
+        assertEquals(d, entries.get(FOO, 2).getId());
+        assertNull(entries.get(FOO, 3));
+
+        List<ChildNodeEntry> list = entries.list();
+        assertEquals(b, list.get(0).getId());
+        assertEquals(c, list.get(1).getId());
+        assertEquals(d, list.get(2).getId());
+    }
+
+    public void testReplace() {
+        ChildNodeEntries entries = new ChildNodeEntries();
+        NodeId a = NodeId.randomId();
+        NodeId b = NodeId.randomId();
+        NodeId c = NodeId.randomId();
+        entries.add(FOO, a);
+        entries.add(BAR, b);
+        entries.add(FOO, c);
+
+        // the new entry keeps the position of the replaced one
+        NodeId e = NodeId.randomId();
+        ChildNodeEntry entry = entries.replace(b, FOO, e);
+        assertEquals(2, entry.getIndex());
+        assertEquals(3, entries.get(c).getIndex());
+        assertNull(entries.get(b));
+        assertTrue(entries.get(BAR).isEmpty());
+
+        List<ChildNodeEntry> list = entries.list();
+        assertEquals(a, list.get(0).getId());
+        assertEquals(e, list.get(1).getId());
+        assertEquals(c, list.get(2).getId());
+
+        assertNull(entries.replace(b, BAR, NodeId.randomId()));
+    }
+
+    public void testAddExisting() {
+        ChildNodeEntries entries = new ChildNodeEntries();
+        NodeId a = NodeId.randomId();
+        NodeId b = NodeId.randomId();
+        NodeId c = NodeId.randomId();
+        entries.add(FOO, a);
+        entries.add(BAR, b);
+        entries.add(FOO, c);
+
+        // adding an existing node replaces its entry in place
+        ChildNodeEntry entry = entries.add(FOO, b);
+        assertEquals(2, entry.getIndex());
+        assertEquals(3, entries.get(c).getIndex());
+        assertEquals(3, entries.size());
+
+        List<ChildNodeEntry> list = entries.list();
+        assertEquals(a, list.get(0).getId());
+        assertEquals(b, list.get(1).getId());
+        assertEquals(c, list.get(2).getId());
+    }
+
+    public void testSameNameSiblingsOfClones() {
+        ChildNodeEntries entries = new ChildNodeEntries();
+        NodeId[] ids = new NodeId[100];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+            entries.add(FOO, ids[i]);
+        }
+
+        // both instances append to the same shared siblings
+        ChildNodeEntries clone = (ChildNodeEntries) entries.clone();
+        NodeId x = NodeId.randomId();
+        NodeId y = NodeId.randomId();
+        entries.add(FOO, x);
+        clone.add(FOO, y);
+        assertEquals(x, entries.get(FOO, 101).getId());
+        assertEquals(y, clone.get(FOO, 101).getId());
+
+        // removing the last sibling and appending again
+        entries.remove(x);
+        entries.add(FOO, y);
+        assertEquals(y, entries.get(FOO, 101).getId());
+        assertEquals(y, clone.get(FOO, 101).getId());
+        assertNull(entries.get(x));
+
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], entries.get(FOO, i + 1).getId());
+            assertEquals(ids[i], clone.get(FOO, i + 1).getId());
+        }
+    }
+
+    public void testClone() {
+        ChildNodeEntries entries = new ChildNodeEntries();
+        for (int i = 0; i < 1000; i++) {
+            entries.add(FOO, NodeId.randomId());
+        }
+        ChildNodeEntries clone = (ChildNodeEntries) entries.clone();
+        assertEquals(entries, clone);
+
+        NodeId id = NodeId.randomId();
+        clone.add(BAR, id);
+        clone.remove(FOO, 1);
+        assertEquals(1000, entries.size());
+        assertEquals(1000, clone.size());
+        assertNull(entries.get(id));
+        assertEquals(id, clone.get(id).getId());
+        assertFalse(entries.equals(clone));
+        assertEquals(entries.get(FOO, 2).getId(), clone.get(FOO, 1).getId());
+    }
+
+}
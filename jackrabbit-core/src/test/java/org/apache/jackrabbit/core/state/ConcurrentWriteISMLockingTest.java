@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.state.ISMLocking.ReadLock;
+import org.apache.jackrabbit.core.state.ISMLocking.WriteLock;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+
+/**
+ * <code>ConcurrentWriteISMLockingTest</code> executes the test cases
+ * implemented in {@link AbstractISMLockingTest} and checks that writers of
+ * disjoint nodes hold their write locks at the same time.
+ */
+public class ConcurrentWriteISMLockingTest extends AbstractISMLockingTest {
+
+    public ISMLocking createISMLocking() {
+        return new ConcurrentWriteISMLocking();
+    }
+
+    /**
+     * Two writers of disjoint nodes hold their write locks at the same
+     * time, while each blocks the readers of its own node.
+     */
+    public void testDisjointWrites() throws InterruptedException {
+        NodeState other = createNodeState();
+        final ChangeLog log = new ChangeLog();
+        log.modified(other);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    WriteLock wLock = locking.acquireWriteLock(log);
+                    try {
+                        acquired.countDown();
+                        done.await();
+                    } finally {
+                        wLock.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        writer.start();
+        try {
+            assertTrue(acquired.await(1, TimeUnit.SECONDS));
+
+            ChangeLog changeLog = new ChangeLog();
+            changeLog.modified(state);
+            WriteLock wLock = locking.acquireWriteLock(changeLog);
+            verifyBlocked(startReaderThread(locking, other.getId()));
+            verifyBlocked(startReaderThread(locking, state.getId()));
+            verifyBlocked(startWriterThread(locking, log));
+            wLock.release();
+        } finally {
+            done.countDown();
+        }
+        verifyNotBlocked(writer);
+    }
+
+    /**
+     * A property is locked through its parent node.
+     */
+    public void testPropertyLocksParent() throws InterruptedException {
+        PropertyState property = createProperty(PropertyType.STRING);
+        ChangeLog changeLog = new ChangeLog();
+        changeLog.modified(property);
+        WriteLock wLock = locking.acquireWriteLock(changeLog);
+        verifyBlocked(startReaderThread(locking, state.getId()));
+        verifyNotBlocked(startReaderThread(locking, createNodeState().getId()));
+        wLock.release();
+
+        ReadLock rLock = locking.acquireReadLock(property.getId());
+        ChangeLog parent = new ChangeLog();
+        parent.modified(state);
+        verifyBlocked(startWriterThread(locking, parent));
+        rLock.release();
+    }
+
+    /**
+     * Change logs that may change references are written alone.
+     */
+    public void testExclusiveWrites() throws InterruptedException {
+        ChangeLog reference = new ChangeLog();
+        reference.added(createProperty(PropertyType.REFERENCE));
+        ChangeLog delete = new ChangeLog();
+        delete.deleted(state);
+        ChangeLog[] exclusive = {reference, delete, logs.get(3)};
+
+        ChangeLog disjoint = new ChangeLog();
+        disjoint.modified(createNodeState());
+        for (ChangeLog changeLog : exclusive) {
+            WriteLock wLock = locking.acquireWriteLock(changeLog);
+            verifyBlocked(startWriterThread(locking, disjoint));
+            wLock.release();
+
+            wLock = locking.acquireWriteLock(disjoint);
+            verifyBlocked(startWriterThread(locking, changeLog));
+            wLock.release();
+        }
+    }
+
+    /**
+     * A downgraded write lock blocks the writers of its nodes, but not the
+     * writers of other nodes.
+     */
+    public void testDowngradeBlocksIntersectingWrites()
+            throws InterruptedException {
+        ChangeLog changeLog = new ChangeLog();
+        changeLog.modified(state);
+        ReadLock rLock = locking.acquireWriteLock(changeLog).downgrade();
+        verifyBlocked(startWriterThread(locking, changeLog));
+        ChangeLog disjoint = new ChangeLog();
+        disjoint.modified(createNodeState());
+        verifyNotBlocked(startWriterThread(locking, disjoint));
+        rLock.release();
+        verifyNotBlocked(startWriterThread(locking, changeLog));
+    }
+
+    private static NodeState createNodeState() {
+        return new NodeState(NodeId.randomId(), NameConstants.NT_BASE, null,
+                ItemState.STATUS_EXISTING, true);
+    }
+
+    private PropertyState createProperty(int type) {
+        PropertyState property = new PropertyState(
+                new PropertyId(state.getNodeId(), NameConstants.JCR_DATA),
+                ItemState.STATUS_EXISTING, true);
+        property.setType(type);
+        return property;
+    }
+}
@@ -22,8 +22,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.sql.DataSource;
@@ -48,6 +50,7 @@ import org.slf4j.LoggerFactory;
  * <ul>
  * <li>{@link #exec(String, Object...)}</li>
  * <li>{@link #update(String, Object[])}</li>
+ * <li>{@link #updateBatch(String, List)}</li>
  * <li>{@link #exec(String, Object[], boolean, int)}</li>
  * </ul>
  *
@@ -87,6 +90,12 @@ public class ConnectionHelper {
      */
     private int fetchSize = 0;
 
+    /**
+     * Whether the database supports JDBC batch updates, lazily initialized by
+     * {@link #supportsBatchUpdates()}.
+     */
+    private volatile Boolean batchUpdatesSupported;
+
     /**
      * @param dataSrc the {@link DataSource} on which this instance acts
      * @param block whether the helper should transparently block on DB connection loss (otherwise it retries
@@ -353,6 +362,79 @@ public class ConnectionHelper {
         }
     }
 
+    /**
+     * Executes an update or delete statement once for every given parameter array and returns the update
+     * counts. If the database supports it, all executions are sent as a single JDBC batch; otherwise the
+     * statement is executed once per parameter array.
+     *
+     * @param sql an SQL statement string
+     * @param paramsList the parameters for each execution of the SQL statement
+     * @return the update counts, one per parameter array
+     * @throws SQLException on error
+     */
+    public final int[] updateBatch(final String sql, final List<Object[]> paramsList) throws SQLException {
+        List<Object> allParams = new ArrayList<Object>();
+        for (Object[] params : paramsList) {
+            Collections.addAll(allParams, params);
+        }
+        return new RetryManager<int[]>(allParams.toArray()) {
+
+            @Override
+            protected int[] call() throws SQLException {
+                return reallyUpdateBatch(sql, paramsList);
+            }
+
+        }.doTry();
+    }
+
+    int[] reallyUpdateBatch(String sql, List<Object[]> paramsList) throws SQLException {
+        if (!supportsBatchUpdates()) {
+            int[] counts = new int[paramsList.size()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = reallyUpdate(sql, paramsList.get(i));
+            }
+            return counts;
+        }
+        Connection con = null;
+        PreparedStatement stmt = null;
+        boolean inBatchMode = inBatchMode();
+        long start = System.currentTimeMillis();
+        try {
+            con = getConnection(inBatchMode);
+            stmt = con.prepareStatement(sql);
+            for (Object[] params : paramsList) {
+                setParameters(stmt, params);
+                stmt.addBatch();
+            }
+            return stmt.executeBatch();
+        } finally {
+            closeResources(con, stmt, null, inBatchMode);
+            log.debug("SQL-Batch-Execution [{}] with {} statements took [{}] ms.",
+                    new Object[] { sql, paramsList.size(), (System.currentTimeMillis() - start) });
+        }
+    }
+
+    /**
+     * Returns whether {@link #updateBatch(String, List)} may send statements to the database as JDBC
+     * batches. The default implementation asks the database metadata. Subclasses may override it to
+     * disable batching for databases that need special parameter handling in
+     * {@link #execute(PreparedStatement, Object[])}.
+     *
+     * @return whether JDBC batch updates are used
+     * @throws SQLException on error
+     */
+    protected boolean supportsBatchUpdates() throws SQLException {
+        if (batchUpdatesSupported == null) {
+            Connection con = dataSource.getConnection();
+            try {
+                batchUpdatesSupported = con.getMetaData().supportsBatchUpdates();
+            } finally {
+                DbUtility.close(con, null, null);
+            }
+        }
+        return batchUpdatesSupported;
+    }
+
     /**
      * Executes a SQL query and returns the {@link ResultSet}. The
      * returned {@link ResultSet} should be closed by clients.
@@ -512,6 +594,19 @@ public class ConnectionHelper {
      * @throws SQLException on error
      */
     protected PreparedStatement execute(PreparedStatement stmt, Object[] params) throws SQLException {
+        setParameters(stmt, params);
+        stmt.execute();
+        return stmt;
+    }
+
+    /**
+     * Sets all parameters of the given statement and unwraps {@link StreamWrapper} instances.
+     *
+     * @param stmt the {@link PreparedStatement} to set the parameters on
+     * @param params the parameters
+     * @throws SQLException on error
+     */
+    private void setParameters(PreparedStatement stmt, Object[] params) throws SQLException {
         for (int i = 0; params != null && i < params.length; i++) {
             Object p = params[i];
             if (p instanceof StreamWrapper) {
@@ -521,8 +616,6 @@ public class ConnectionHelper {
                 stmt.setObject(i + 1, p);
             }
         }
-        stmt.execute();
-        return stmt;
     }
 
     /**
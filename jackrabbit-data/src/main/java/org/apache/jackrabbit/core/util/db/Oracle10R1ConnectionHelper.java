@@ -81,6 +81,18 @@ public final class Oracle10R1ConnectionHelper extends OracleConnectionHelper {
         }
     }
 
+    /**
+     * Batch updates are not used, since the temporary blobs created by
+     * {@link #execute(PreparedStatement, Object[])} can only be freed once
+     * the statement has been executed.
+     *
+     * @return <code>false</code>
+     */
+    @Override
+    protected boolean supportsBatchUpdates() {
+        return false;
+    }
+
     /**
      * Wraps any input-stream parameters in temporary blobs and frees these again after the statement
      * has been executed.